@@ -1,6 +1,13 @@
 package org.auscope.portal.core.server.controllers;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -17,6 +24,7 @@ import org.auscope.portal.core.services.OpendapService;
 import org.auscope.portal.core.services.PortalServiceException;
 import org.auscope.portal.core.services.methodmakers.OPeNDAPGetDataMethodMaker.OPeNDAPFormat;
 import org.auscope.portal.core.services.responses.opendap.AbstractViewVariable;
+import org.auscope.portal.core.services.responses.opendap.DatasetSubsetWriter;
 import org.auscope.portal.core.services.responses.opendap.ViewVariableFactory;
 import org.auscope.portal.core.util.FileIOUtil;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -63,7 +71,7 @@ public class OPeNDAPController extends BasePortalController {
      */
     @RequestMapping("/opendapGetSupportedFormats.do")
     public ModelAndView getSupportedFormats() {
-        return generateJSONResponseMAV(true, new String[] {"ascii", "dods"}, "");
+        return generateJSONResponseMAV(true, new String[] {"ascii", "dods", "netcdf3", "netcdf4", "csv"}, "");
     }
 
     /**
@@ -100,7 +108,8 @@ public class OPeNDAPController extends BasePortalController {
      * @param opendapUrl
      *            The remote service URL to query
      * @param downloadFormat
-     *            How the response data should be formatted
+     *            How the response data should be formatted. ascii and dods proxy the remote service's response whereas netcdf3, netcdf4 and
+     *            csv subset the data locally
      * @param constraintsJson
      *            [Optional] Must be an object with an element 'constraints' set to a list variable/griddedVariable (See getVariables for more info on JSON
      *            schema)
@@ -121,14 +130,21 @@ public class OPeNDAPController extends BasePortalController {
         log.trace(String.format("constraintsJson='%1$s'", constraintsJson));
         log.trace(String.format("ftpURL='%1$s'", ftpURL));
 
-        OPeNDAPFormat format;
-        String outputFileName;
+        OPeNDAPFormat format = null;
+        DatasetSubsetWriter.Format subsetFormat = null;
+        String outputFileName = null;
         if (downloadFormat.equals("ascii")) {
             format = OPeNDAPFormat.ASCII;
             outputFileName = "data.txt";
         } else if (downloadFormat.equals("dods")) {
             format = OPeNDAPFormat.DODS;
             outputFileName = "data.bin";
+        } else if (downloadFormat.equals("netcdf3")) {
+            subsetFormat = DatasetSubsetWriter.Format.NETCDF3;
+        } else if (downloadFormat.equals("netcdf4")) {
+            subsetFormat = DatasetSubsetWriter.Format.NETCDF4;
+        } else if (downloadFormat.equals("csv")) {
+            subsetFormat = DatasetSubsetWriter.Format.CSV;
         } else {
             throw new IllegalArgumentException("Unsupported format " + downloadFormat);
         }
@@ -140,6 +156,11 @@ public class OPeNDAPController extends BasePortalController {
             constraints = ViewVariableFactory.fromJSONArray(obj.getJSONArray("constraints"));
         }
 
+        if (subsetFormat != null) {
+            writeSubset(opendapUrl, subsetFormat, constraints, response);
+            return;
+        }
+
         // AUS-2287
         // The rest of this method will result in one of three outcomes:
         //  * Outcome 1: The request is successful - we send back a zip containing query.txt and data.[txt|bin].
@@ -216,4 +237,46 @@ public class OPeNDAPController extends BasePortalController {
 
         FileIOUtil.closeQuietly(zout);
     }
+
+    /**
+     * Subsets the dataset at opendapUrl locally and writes the resulting files into a zip (or an error.txt if the subset fails)
+     */
+    private void writeSubset(String opendapUrl, DatasetSubsetWriter.Format format, AbstractViewVariable[] constraints,
+            HttpServletResponse response) throws IOException {
+        File directory = Files.createTempDirectory("opendap-subset").toFile();
+        try {
+            List<File> files = null;
+            PortalServiceException stashedException = null;
+            try {
+                files = opendapService.getSubset(opendapUrl, format, constraints, directory);
+            } catch (PortalServiceException ex) {
+                stashedException = ex;
+            }
+
+            response.setContentType("application/zip");
+            response.setHeader("Content-Disposition", "inline; filename=OPeNDAPDownload.zip;");
+            ZipOutputStream zout = new ZipOutputStream(response.getOutputStream());
+
+            zout.putNextEntry(new ZipEntry("query.txt"));
+            zout.write(String.format("ServiceUrl: %1$s%nDownloadFormat: %2$s%nConstraints: %3$s%n", opendapUrl, format,
+                    Arrays.toString(constraints)).getBytes(StandardCharsets.UTF_8));
+
+            if (files != null) {
+                for (File file : files) {
+                    zout.putNextEntry(new ZipEntry(file.getName()));
+                    try (InputStream is = new FileInputStream(file)) {
+                        FileIOUtil.writeInputToOutputStream(is, zout, BUFFERSIZE, false);
+                    }
+                    zout.closeEntry();
+                }
+            } else {
+                FileIOUtil.writeErrorToZip(zout, String.format("Error subsetting '%1$s'", opendapUrl), stashedException,
+                        "error.txt");
+            }
+
+            FileIOUtil.closeQuietly(zout);
+        } finally {
+            FileIOUtil.deleteFilesRecursive(directory);
+        }
+    }
 }
@@ -1,7 +1,15 @@
 package org.auscope.portal.core.server.controllers;
 
 import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.format.DateTimeParseException;
 import java.time.Instant;
 import java.util.HashMap;
@@ -17,7 +25,9 @@ import org.apache.commons.logging.LogFactory;
 import org.auscope.portal.core.services.PortalServiceException;
 import org.auscope.portal.core.services.WCSService;
 import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+import org.auscope.portal.core.services.responses.wcs.CoverageTile;
 import org.auscope.portal.core.services.responses.wcs.Resolution;
+import org.auscope.portal.core.services.responses.wcs.TiledCoverage;
 import org.auscope.portal.core.services.responses.wcs.TimeConstraint;
 import org.auscope.portal.core.util.FileIOUtil;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -45,12 +55,23 @@ public class WCSController extends BasePortalController {
     }
 
     private String generateOutputFilename(String layerName, String format) throws IllegalArgumentException {
-        if (format.toLowerCase().contains("geotiff"))
-            return String.format("%1$s.tiff", layerName);
-        else if (format.toLowerCase().contains("netcdf"))
-            return String.format("%1$s.nc", layerName);
-        else
-            return String.format("%1$s.%2$s", layerName, format);
+        return String.format("%1$s.%2$s", layerName, WCSService.getFileExtension(format));
+    }
+
+    /**
+     * Creates a bounding box from request parameters (or null if every bound is 0)
+     */
+    private CSWGeographicBoundingBox parseBbox(double northBoundLatitude, double southBoundLatitude, double eastBoundLongitude,
+            double westBoundLongitude) {
+        if (eastBoundLongitude == 0 && westBoundLongitude == 0 && northBoundLatitude == 0 && southBoundLatitude == 0) {
+            return null;
+        }
+        CSWGeographicBoundingBox bbox = new CSWGeographicBoundingBox();
+        bbox.setEastBoundLongitude(eastBoundLongitude);
+        bbox.setSouthBoundLatitude(southBoundLatitude);
+        bbox.setNorthBoundLatitude(northBoundLatitude);
+        bbox.setWestBoundLongitude(westBoundLongitude);
+        return bbox;
     }
 
     /**
@@ -228,16 +249,8 @@ public class WCSController extends BasePortalController {
             outputResolution = new Resolution(outputResX.doubleValue(), outputResY.doubleValue());
         }
 
-        CSWGeographicBoundingBox bbox = null;
-        if (!(eastBoundLongitude == 0 &&
-                westBoundLongitude == 0 &&
-                northBoundLatitude == 0 && southBoundLatitude == 0)) {
-            bbox = new CSWGeographicBoundingBox();
-            bbox.setEastBoundLongitude(eastBoundLongitude);
-            bbox.setSouthBoundLatitude(southBoundLatitude);
-            bbox.setNorthBoundLatitude(northBoundLatitude);
-            bbox.setWestBoundLongitude(westBoundLongitude);
-        }
+        CSWGeographicBoundingBox bbox = parseBbox(northBoundLatitude, southBoundLatitude, eastBoundLongitude,
+                westBoundLongitude);
 
         logger.debug(String.format("serviceUrl='%1$s' bbox='%2$s' timeString='%3$s' layerName='%4$s'", serviceUrl,
                 bbox, timeConstraint, layerName));
@@ -312,4 +325,133 @@ public class WCSController extends BasePortalController {
 
         FileIOUtil.closeQuietly(zout);
     }
+
+    /**
+     * Makes the same request as downloadWCSAsZip.do but splits it into a grid of smaller GetCoverage requests that are downloaded
+     * concurrently. This allows large areas to be downloaded from services that would otherwise time out or reject the request.
+     *
+     * If every tile is downloaded as a GeoTIFF (and mosaic is true) the tiles will be mosaicked into a single file, otherwise the zip will
+     * contain each tile (under tiles/) along with a GDAL VRT index. The zip always contains a report listing the status of each tile so
+     * that partial failures can be identified.
+     *
+     * A BBOX constraint and one set of outputWidth/outputHeight or outputResX/outputResY must be specified
+     *
+     * @param maxTileSize
+     *            [Optional] The maximum width/height of each tile in pixels
+     * @param mosaic
+     *            [Optional] If false, GeoTIFF tiles will be returned individually (with a VRT index) rather than mosaicked
+     * @see #downloadWCSAsZip
+     * @throws Exception
+     */
+    @RequestMapping("/downloadTiledWCSAsZip.do")
+    public void downloadTiledWCSAsZip(
+            @RequestParam("serviceUrl") final String serviceUrl,
+            @RequestParam("layerName") final String layerName,
+            @RequestParam("downloadFormat") final String downloadFormat,
+            @RequestParam("inputCrs") final String inputCrs,
+            @RequestParam(required = false, value = "outputWidth") final Integer outputWidth,
+            @RequestParam(required = false, value = "outputHeight") final Integer outputHeight,
+            @RequestParam(required = false, value = "outputResX") final Double outputResX,
+            @RequestParam(required = false, value = "outputResY") final Double outputResY,
+            @RequestParam(required = false, value = "outputCrs") final String outputCrs,
+            @RequestParam("northBoundLatitude") final double northBoundLatitude,
+            @RequestParam("southBoundLatitude") final double southBoundLatitude,
+            @RequestParam("eastBoundLongitude") final double eastBoundLongitude,
+            @RequestParam("westBoundLongitude") final double westBoundLongitude,
+            @RequestParam(required = false, value = "timePosition") final String[] timePositions,
+            @RequestParam(required = false, value = "timePeriodFrom") final String timePeriodFrom,
+            @RequestParam(required = false, value = "timePeriodTo") final String timePeriodTo,
+            @RequestParam(required = false, value = "timePeriodResolution") final String timePeriodResolution,
+            @RequestParam(required = false, value = "customParamValue") final String[] customParamValues,
+            @RequestParam(required = false, defaultValue = "0", value = "maxTileSize") final int maxTileSize,
+            @RequestParam(required = false, defaultValue = "true", value = "mosaic") final boolean mosaic,
+            HttpServletResponse response) throws Exception {
+        String outFileName = generateOutputFilename(layerName, downloadFormat);
+        String extension = WCSService.getFileExtension(downloadFormat);
+        TimeConstraint timeConstraint = parseTimeConstraint(timePositions, timePeriodFrom, timePeriodTo,
+                timePeriodResolution);
+        Map<String, String> customParams = generateCustomParamMap(customParamValues);
+        Dimension outputSize = null;
+        Resolution outputResolution = null;
+
+        if (outputWidth != null && outputHeight != null) {
+            outputSize = new Dimension(outputWidth.intValue(), outputHeight.intValue());
+        }
+
+        if (outputResX != null && outputResY != null) {
+            outputResolution = new Resolution(outputResX.doubleValue(), outputResY.doubleValue());
+        }
+
+        CSWGeographicBoundingBox bbox = parseBbox(northBoundLatitude, southBoundLatitude, eastBoundLongitude,
+                westBoundLongitude);
+
+        logger.debug(String.format("serviceUrl='%1$s' bbox='%2$s' timeString='%3$s' layerName='%4$s' maxTileSize=%5$d",
+                serviceUrl, bbox, timeConstraint, layerName, maxTileSize));
+
+        File directory = Files.createTempDirectory("wcs-tiles").toFile();
+        TiledCoverage coverage = null;
+        try {
+            ZipOutputStream zout = new ZipOutputStream(response.getOutputStream());
+            response.setContentType("application/zip");
+            response.setHeader("Content-Disposition", "inline; filename=WCSDownload.zip;");
+
+            try {
+                coverage = wcsService.getTiledCoverage(serviceUrl, layerName, downloadFormat, outputSize,
+                        outputResolution, outputCrs, inputCrs, bbox, timeConstraint, customParams, maxTileSize, directory,
+                        (tile, finished, total) -> logger.info(String.format("'%1$s' tile %2$d of %3$d %4$s", layerName,
+                                finished, total, tile.getStatus())));
+            } catch (PortalServiceException ex) {
+                FileIOUtil.writeErrorToZip(zout, "", ex, "error.txt");
+                FileIOUtil.closeQuietly(zout);
+                return;
+            }
+
+            //Mosaic into a temporary file first as it's not known if the tiles can be mosaicked until they've all been read
+            boolean mosaicked = false;
+            if (mosaic && extension.equals("tiff") && coverage.isComplete()) {
+                File mosaicFile = new File(directory, "mosaic.tiff");
+                try (OutputStream os = new FileOutputStream(mosaicFile)) {
+                    mosaicked = coverage.writeGeoTiffMosaic(os);
+                }
+                if (mosaicked) {
+                    zout.putNextEntry(new ZipEntry(outFileName));
+                    try (InputStream is = new FileInputStream(mosaicFile)) {
+                        FileIOUtil.writeInputToOutputStream(is, zout, BUFFERSIZE, false);
+                    }
+                    zout.closeEntry();
+                }
+            }
+
+            if (!mosaicked) {
+                for (CoverageTile tile : coverage.getTiles()) {
+                    if (tile.getStatus() == CoverageTile.Status.COMPLETE) {
+                        zout.putNextEntry(new ZipEntry("tiles/" + tile.getFileName(extension)));
+                        try (InputStream is = new FileInputStream(tile.getFile())) {
+                            FileIOUtil.writeInputToOutputStream(is, zout, BUFFERSIZE, false);
+                        }
+                        zout.closeEntry();
+                    }
+                }
+
+                zout.putNextEntry(new ZipEntry(String.format("%1$s.vrt", layerName)));
+                Writer writer = new OutputStreamWriter(zout, StandardCharsets.UTF_8);
+                coverage.writeVrt(writer, "tiles/", extension);
+                writer.flush();
+                zout.closeEntry();
+            }
+
+            zout.putNextEntry(new ZipEntry(coverage.isComplete() ? "report.txt" : "error.txt"));
+            Writer writer = new OutputStreamWriter(zout, StandardCharsets.UTF_8);
+            coverage.writeSummary(writer);
+            writer.flush();
+            zout.closeEntry();
+
+            FileIOUtil.closeQuietly(zout);
+        } finally {
+            if (coverage != null) {
+                coverage.deleteFiles();
+            }
+            FileIOUtil.deleteFilesRecursive(directory);
+        }
+    }
 }
@@ -85,11 +85,16 @@ public class WFSController extends BasePortalController {
     
     
     /**
-     * Given a service Url and a feature type this will query for all of the features, then convert them into KML, to be displayed, assuming that the response
-     * will be complex feature GeoSciML
+     * Given a service Url and a feature type this will query for all of the features and write them to the response as CSV.
+     *
+     * By default the remote service is asked for CSV directly. If convertFromGml is set, GML will be requested instead and converted into CSV
+     * as it is streamed from the remote service (for services that don't support CSV output). If the conversion fails before anything has
+     * been sent a HTTP error is returned, otherwise the response is aborted rather than completed with a truncated CSV.
      *
      * @param serviceUrl
      * @param featureType
+     * @param convertFromGml
+     *            [Optional] If true, request GML and convert it to CSV locally
      * @param request
      * @return
      * @throws Exception
@@ -100,6 +105,7 @@ public class WFSController extends BasePortalController {
             @RequestParam(required = false, value = "bbox") final String bboxJSONString,
             @RequestParam(required=false, value="filter") String filter,
             @RequestParam(required=false, value="maxFeatures",defaultValue = "100000") Integer maxFeatures,
+            @RequestParam(required=false, value="convertFromGml", defaultValue = "false") boolean convertFromGml,
             HttpServletResponse response)
             throws Exception {
     	// Some WFS URL had type/subtypes with spaces, need to URI encode
@@ -108,19 +114,42 @@ public class WFSController extends BasePortalController {
         response.setContentType("text/csv");
         OutputStream outputStream = response.getOutputStream();
         SimpleBBoxFilter bboxFilter = new SimpleBBoxFilter();
+        boolean polygonFilter = filter != null && filter.indexOf("ogc:Filter")>0;
         String filterString = null;
+        if (polygonFilter) { //Polygon filter
+            filterString = filter.replace("gsmlp:shape","erl:shape");
+        } else if (bbox == null) {
+            filterString = bboxFilter.getFilterStringAllRecords();
+        } else {
+            filterString = bboxFilter.getFilterStringBoundingBox(bbox);
+        }
+
+        if (convertFromGml) {
+            try {
+                wfsService.downloadCSVFromGML(url.toString(), featureType, filterString, maxFeatures, outputStream);
+            } catch (Exception ex) {
+                log.warn(String.format("Exception getting '%2$s' from '%1$s': %3$s", url.toString(), featureType, ex));
+                log.debug("Exception: ", ex);
+                if (!response.isCommitted()) {
+                    // Create a wrapper for the servlet response as the output stream may have already been consumed
+                    new HttpServletResponseWrapper(response).sendError(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+                    return;
+                }
+                // Part of the CSV has already been sent. Rethrowing aborts the response so that it can't be mistaken for a complete file
+                throw ex;
+            }
+            outputStream.close();
+            return;
+        }
+
         InputStream result = null;
         try {
-            if (filter != null && filter.indexOf("ogc:Filter")>0) { //Polygon filter
-                filterString = filter.replace("gsmlp:shape","erl:shape");
+            if (polygonFilter) {
                 result = wfsService.downloadCSVByPolygonFilter(url.toString(), featureType, filterString, maxFeatures);
-            } else{ //BBox or no filter
-                if (bbox == null) {
-                    filterString = bboxFilter.getFilterStringAllRecords();
-                    result = wfsService.downloadCSV(url.toString(), featureType, filterString, maxFeatures);
-                } else {
-                    result = wfsService.downloadCSVByBBox(url.toString(), featureType, bbox.toBBoxString(), maxFeatures);
-                }
+            } else if (bbox == null) {
+                result = wfsService.downloadCSV(url.toString(), featureType, filterString, maxFeatures);
+            } else {
+                result = wfsService.downloadCSVByBBox(url.toString(), featureType, bbox.toBBoxString(), maxFeatures);
             }
         } catch (Exception ex) {
             log.warn(String.format("Exception getting '%2$s' from '%1$s': %3$s", url.toString(), featureType, ex));
@@ -133,6 +162,58 @@ public class WFSController extends BasePortalController {
         outputStream.close();
     }
 
+    /**
+     * Given a service Url and a feature type this will query for features and stream them to the response as a GeoJSON FeatureCollection.
+     * The GML response is converted as it is received, so arbitrarily large feature sets can be returned. If the conversion fails before
+     * anything has been sent a HTTP error is returned, otherwise the response is aborted rather than completed with truncated GeoJSON.
+     *
+     * @param serviceUrl
+     * @param featureType
+     * @param featureId
+     *            [Optional] If specified only this feature will be requested (bbox/maxFeatures are ignored)
+     * @param bboxJSONString
+     *            [Optional] Bounding box to constrain the request
+     * @param maxFeatures
+     *            [Optional] The maximum number of features to request
+     * @param precision
+     *            [Optional] The number of decimal places that coordinates will be rounded to
+     * @param response
+     * @throws Exception
+     */
+    @RequestMapping("/getAllFeaturesInGeoJSON.do")
+    public void getAllFeaturesInGeoJSON(@RequestParam("serviceUrl") final String serviceUrl,
+            @RequestParam("typeName") final String featureType,
+            @RequestParam(required = false, value = "featureId") final String featureId,
+            @RequestParam(required = false, value = "bbox") final String bboxJSONString,
+            @RequestParam(required = false, value = "maxFeatures", defaultValue = "0") int maxFeatures,
+            @RequestParam(required = false, value = "precision") final Integer precision,
+            HttpServletResponse response) throws Exception {
+        response.setContentType("application/geo+json");
+        OutputStream outputStream = response.getOutputStream();
+        try {
+            if (featureId != null) {
+                wfsService.getWfsResponseAsGeoJson(serviceUrl, featureType, featureId, precision, outputStream);
+            } else {
+                FilterBoundingBox bbox = FilterBoundingBox.attemptParseFromJSON(bboxJSONString);
+                SimpleBBoxFilter filter = new SimpleBBoxFilter();
+                String filterString = bbox == null ? filter.getFilterStringAllRecords() : filter.getFilterStringBoundingBox(bbox);
+                wfsService.getWfsResponseAsGeoJson(serviceUrl, featureType, filterString, maxFeatures, null, precision,
+                        outputStream);
+            }
+        } catch (Exception ex) {
+            log.warn(String.format("Exception getting '%2$s' from '%1$s': %3$s", serviceUrl, featureType, ex));
+            log.debug("Exception: ", ex);
+            if (!response.isCommitted()) {
+                // Create a wrapper for the servlet response as the output stream may have already been consumed
+                new HttpServletResponseWrapper(response).sendError(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+                return;
+            }
+            // Part of the GeoJSON has already been sent. Rethrowing aborts the response so that it can't be mistaken for a complete document
+            throw ex;
+        }
+        outputStream.close();
+    }
+
     /**
      * Given a service Url, a feature type and a specific feature ID, this function will fetch the specific feature and then convert it into KML to be
      * displayed, assuming that the response will be complex feature GeoSciML
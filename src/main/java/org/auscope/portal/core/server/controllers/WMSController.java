@@ -10,6 +10,7 @@ import javax.naming.OperationNotSupportedException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
@@ -165,4 +166,74 @@ public class WMSController extends BaseCSWController {
         InputStream responseStream = new ByteArrayInputStream(responseString.getBytes());
         FileIOUtil.writeInputToOutputStream(responseStream, response.getOutputStream(), BUFFERSIZE, true);
     }
+
+    /**
+     * Gets a (cached) legend graphic for a WMS layer. Responses carry a strong ETag so clients can cheaply revalidate them.
+     *
+     * @param request
+     * @param response
+     * @param serviceUrl
+     *            The WMS endpoint
+     * @param layerName
+     *            The WMS layer name
+     * @param style
+     *            [Optional] The style name
+     * @param sldBody
+     *            [Optional] An SLD to render the legend from
+     * @param version
+     *            [Optional] The WMS version to use
+     * @param width
+     *            [Optional] The desired width in pixels
+     * @param height
+     *            [Optional] The desired height in pixels
+     * @throws IOException
+     */
+    @RequestMapping(value = "/getLegendGraphic.do", method = {RequestMethod.GET, RequestMethod.POST})
+    public void getLegendGraphic(HttpServletRequest request,
+            HttpServletResponse response,
+            @RequestParam("serviceUrl") String serviceUrl,
+            @RequestParam("layerName") String layerName,
+            @RequestParam(value = "style", required = false) String style,
+            @RequestParam(value = "SLD_BODY", required = false) String sldBody,
+            @RequestParam(value = "version", required = false) String version,
+            @RequestParam(value = "width", defaultValue = "-1") int width,
+            @RequestParam(value = "height", defaultValue = "-1") int height) throws IOException {
+        byte[] legend;
+        try {
+            legend = wmsService.getLegendGraphic(serviceUrl, layerName, style, sldBody, version, width, height);
+        } catch (PortalServiceException e) {
+            log.warn(String.format("Unable to retrieve legend for '%1$s' from '%2$s': %3$s", layerName, serviceUrl, e.getMessage()));
+            log.debug(e);
+            response.sendError(HttpServletResponse.SC_BAD_GATEWAY);
+            return;
+        }
+
+        String etag = "\"" + DigestUtils.sha256Hex(legend) + "\"";
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "public, no-cache");
+        if (etagMatches(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(legend[0] == 'G' ? "image/gif" : (legend[0] == (byte) 0xFF ? "image/jpeg" : "image/png"));
+        response.setContentLength(legend.length);
+        FileIOUtil.writeInputToOutputStream(new ByteArrayInputStream(legend), response.getOutputStream(), BUFFERSIZE, true);
+    }
+
+    /**
+     * Returns true if an If-None-Match header matches etag
+     */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -1,13 +1,20 @@
 package org.auscope.portal.core.services;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.cache.CanonicalRequestKey;
+import org.auscope.portal.core.services.cache.TieredCache;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker.ResultType;
-import org.auscope.portal.core.services.responses.ows.OWSExceptionParser;
+import org.auscope.portal.core.services.responses.ows.OWSException;
+import org.auscope.portal.core.services.responses.ows.OWSExceptionSniffer;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
 
 /**
@@ -23,6 +30,7 @@ public abstract class BaseWFSService {
 
     protected HttpServiceCaller httpServiceCaller;
     protected WFSGetFeatureMethodMaker wfsMethodMaker;
+    protected TieredCache responseCache;
 
     /**
      * Creates a new instance of this class with the specified dependencies
@@ -38,6 +46,19 @@ public abstract class BaseWFSService {
         this.wfsMethodMaker = wfsMethodMaker;
     }
 
+    public TieredCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the cache used for WFS responses (and transformations of them). If unset, every request will be sent to the remote service.
+     *
+     * @param responseCache
+     */
+    public void setResponseCache(TieredCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
     /**
      * Utility method for choosing the correct WFS method to generate based on specified parameters
      *
@@ -111,6 +132,65 @@ public abstract class BaseWFSService {
         }
     }
 
+    /**
+     * Makes a request and returns the response as a stream, after checking that the response doesn't begin with an OWS exception report.
+     *
+     * Only the head of the response is buffered for the check, the remainder is streamed straight through from the remote service. The
+     * caller is responsible for closing the returned stream.
+     *
+     * @param method
+     *            a WFS request
+     * @return
+     * @throws OWSException
+     *             if the response is an OWS exception report
+     * @throws IOException
+     */
+    protected InputStream getCheckedResponseAsStream(HttpRequestBase method) throws OWSException, IOException {
+        InputStream responseStream = httpServiceCaller.getMethodResponseAsStream(method);
+        try {
+            return OWSExceptionSniffer.sniff(responseStream);
+        } catch (OWSException | IOException ex) {
+            responseStream.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Makes a request and returns the response as a String, after checking that the response isn't an OWS exception report.
+     *
+     * @param method
+     *            a WFS request
+     * @return
+     * @throws OWSException
+     *             if the response is an OWS exception report
+     * @throws IOException
+     */
+    protected String getCheckedResponseAsString(HttpRequestBase method) throws OWSException, IOException {
+        try (InputStream responseStream = getCheckedResponseAsStream(method)) {
+            return IOUtils.toString(responseStream, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Makes a request (or reuses the cached response to an equivalent request) and returns the response as a String, after checking that
+     * the response isn't an OWS exception report. OWS exception reports are never cached.
+     *
+     * @param method
+     *            a WFS request
+     * @return
+     * @throws Exception
+     *             if the response is an OWS exception report or the request fails
+     */
+    protected String getCachedResponseAsString(HttpRequestBase method) throws Exception {
+        if (responseCache == null) {
+            return getCheckedResponseAsString(method);
+        }
+
+        byte[] response = responseCache.get(CanonicalRequestKey.fromRequest(method),
+                () -> getCheckedResponseAsString(method).getBytes(StandardCharsets.UTF_8));
+        return new String(response, StandardCharsets.UTF_8);
+    }
+
     /**
      * Executes a method that returns GML wrapped in a WFS response, converts that response using transformer and returns the lot bundled in a
      * WFSTransformedResponse
@@ -123,9 +203,7 @@ public abstract class BaseWFSService {
     protected WFSResponse getWFSResponse(HttpRequestBase method) throws PortalServiceException {
         try {
             //Make the request and parse the response
-            String responseString = httpServiceCaller.getMethodResponseAsString(method);
-            OWSExceptionParser.checkForExceptionResponse(responseString);
-
+            String responseString = getCachedResponseAsString(method);
             return new WFSResponse(responseString, method);
         } catch (Exception ex) {
             throw new PortalServiceException(method, ex);
@@ -184,6 +262,35 @@ public abstract class BaseWFSService {
             throw new PortalServiceException(method, "Error when attempting to download from:" + serviceUrl, ex);
         }
     }
+    /**
+     * Download features as GML and convert them into CSV as they are streamed from the remote service. This is intended for services that
+     * don't support CSV as an output format.
+     *
+     * @param serviceUrl
+     *            a Web Feature Service URL
+     * @param type
+     * @param filterString
+     * @param maxFeatures
+     *            The maximum number of features to request
+     * @param outputStream
+     *            Will receive the CSV. Will not be closed.
+     * @return The number of features written
+     * @throws PortalServiceException
+     */
+    public int downloadCSVFromGML(String serviceUrl, String type, String filterString, Integer maxFeatures,
+            OutputStream outputStream) throws PortalServiceException {
+
+        HttpRequestBase method = null;
+        try {
+            method = generateWFSRequest(serviceUrl, type, null, filterString, maxFeatures, null, ResultType.Results);
+            try (InputStream gml = getCheckedResponseAsStream(method)) {
+                return new GmlToCsvConverter().convert(gml, outputStream);
+            }
+        } catch (Exception ex) {
+            throw new PortalServiceException(method, "Error when attempting to convert GML to CSV from:" + serviceUrl, ex);
+        }
+    }
+
     /**
      * Download a CSV based on the type and bbox.
      *
@@ -87,6 +87,10 @@ public class CSWCacheService {
     @Autowired
     @Lazy
     private KnownLayerService knownLayerService;
+
+    // [Optional] Used to warm the DescribeCoverage cache whenever the record cache is updated
+    @Autowired(required = false)
+    private WCSService wcsService;
     
     /**
      * Creates a new instance of a CSWKeywordCacheService. This constructor is normally autowired by the spring framework.
@@ -159,6 +163,20 @@ public class CSWCacheService {
     public KnownLayerService getKnownLayerService() {
     	return this.knownLayerService;
     }
+
+    public WCSService getWcsService() {
+        return wcsService;
+    }
+
+    /**
+     * Sets the WCSService whose DescribeCoverage cache will be populated for every WCS resource after each cache update
+     *
+     * @param wcsService
+     *            The service or null to disable prefetching
+     */
+    public void setWcsService(WCSService wcsService) {
+        this.wcsService = wcsService;
+    }
     
     /**
      * Does this cache service force the usage of HTTP Get Methods
@@ -233,6 +251,20 @@ public class CSWCacheService {
         
         // Inform KnownLayerService that there are (potentially) new CSWRecords
         knownLayerService.updateKnownLayersCache(true);
+
+        // Warm the legend graphic cache in the background so the cache lock isn't held for the duration
+        final KnownLayerService layerService = knownLayerService;
+        executor.execute(() -> layerService.prefetchLegendGraphics());
+
+        // Warm the DescribeCoverage cache in the background so the cache lock isn't held for the duration
+        if (wcsService != null && newRecordCache != null) {
+            final List<AbstractCSWOnlineResource> wcsResources = new ArrayList<>();
+            for (CSWRecord record : newRecordCache) {
+                wcsResources.addAll(record.getOnlineResourcesByType(OnlineResourceType.WCS));
+            }
+            final WCSService service = wcsService;
+            executor.execute(() -> service.prefetchDescribeCoverages(wcsResources));
+        }
         
         this.updateRunning = false;
         this.lastCacheUpdate = new Date();
@@ -0,0 +1,188 @@
+package org.auscope.portal.core.services;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.responses.wfs.GmlFeature;
+import org.auscope.portal.core.services.responses.wfs.GmlFeatureReader;
+import org.auscope.portal.core.services.responses.wfs.GmlGeometry;
+
+/**
+ * Converts a WFS GetFeature (GML) response into CSV in a single pass.
+ *
+ * Nested properties are flattened into dotted column headers (eg specification.Mine.status) and geometries are rendered as WKT. The columns
+ * are either specified up front or inferred from the first sampleSize features, after which rows are written as soon as they are parsed. At
+ * most sampleSize features are ever held in memory regardless of the size of the response. Properties first seen after the columns have been
+ * fixed are dropped.
+ */
+public class GmlToCsvConverter {
+
+    /** The default number of features used for inferring columns */
+    public static final int DEFAULT_SAMPLE_SIZE = 100;
+
+    /** The header of the column holding each feature's gml:id */
+    public static final String ID_COLUMN = "gml:id";
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private int sampleSize;
+
+    /**
+     * Creates a new converter that will infer columns from the first DEFAULT_SAMPLE_SIZE features
+     */
+    public GmlToCsvConverter() {
+        this(DEFAULT_SAMPLE_SIZE);
+    }
+
+    /**
+     * Creates a new converter
+     *
+     * @param sampleSize
+     *            The number of features that will be used to infer the CSV columns
+     */
+    public GmlToCsvConverter(int sampleSize) {
+        this.sampleSize = Math.max(1, sampleSize);
+    }
+
+    /**
+     * Converts a feature into a single row of flattened values keyed by column header
+     */
+    private static Map<String, String> toRow(GmlFeature feature) {
+        Map<String, String> row = new LinkedHashMap<>();
+        row.put(ID_COLUMN, feature.getId());
+        row.putAll(feature.getProperties());
+        for (Map.Entry<String, GmlGeometry> geometry : feature.getGeometries().entrySet()) {
+            row.put(geometry.getKey(), geometry.getValue().toWkt());
+        }
+        return row;
+    }
+
+    /**
+     * Escapes a single CSV value as per RFC 4180
+     *
+     * @param value
+     * @return
+     */
+    public static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static void writeLine(Writer writer, List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(escape(values.get(i)));
+        }
+        writer.write("\r\n");
+    }
+
+    private void writeRow(Writer writer, List<String> columns, Map<String, String> row) throws IOException {
+        List<String> values = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            values.add(row.get(column));
+        }
+        writeLine(writer, values);
+
+        if (log.isTraceEnabled() && !columns.containsAll(row.keySet())) {
+            log.trace("Dropping values for columns not in header: " + row.keySet());
+        }
+    }
+
+    /**
+     * Converts gml into CSV, inferring the columns from the first sampleSize features.
+     *
+     * @param gml
+     *            A WFS GetFeature response. Will not be closed.
+     * @param csv
+     *            The stream to receive CSV. Will be flushed but not closed.
+     * @return The number of features (rows) written
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public int convert(InputStream gml, OutputStream csv) throws XMLStreamException, IOException {
+        return convert(gml, csv, null);
+    }
+
+    /**
+     * Converts gml into CSV.
+     *
+     * @param gml
+     *            A WFS GetFeature response. Will not be closed.
+     * @param csv
+     *            The stream to receive CSV. Will be flushed but not closed.
+     * @param columns
+     *            [Optional] The columns to write (eg derived from DescribeFeatureType). If null, columns will be inferred from the first
+     *            sampleSize features.
+     * @return The number of features (rows) written
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public int convert(InputStream gml, OutputStream csv, List<String> columns)
+            throws XMLStreamException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(csv, StandardCharsets.UTF_8));
+        int count = 0;
+        try (GmlFeatureReader reader = new GmlFeatureReader(gml)) {
+            GmlFeature feature;
+            if (columns == null) {
+                //Buffer our sample whilst collecting the union of the columns (in order of first appearance)
+                List<Map<String, String>> sample = new ArrayList<>();
+                Set<String> inferred = new LinkedHashSet<>();
+                while (sample.size() < sampleSize && (feature = reader.next()) != null) {
+                    Map<String, String> row = toRow(feature);
+                    inferred.addAll(row.keySet());
+                    sample.add(row);
+                }
+
+                columns = new ArrayList<>(inferred);
+                if (columns.isEmpty()) {
+                    columns.add(ID_COLUMN);
+                }
+                writeLine(writer, columns);
+                for (Map<String, String> row : sample) {
+                    writeRow(writer, columns, row);
+                    count++;
+                }
+            } else {
+                writeLine(writer, columns);
+            }
+
+            while ((feature = reader.next()) != null) {
+                writeRow(writer, columns, toRow(feature));
+                count++;
+            }
+        } finally {
+            writer.flush();
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,250 @@
+package org.auscope.portal.core.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.auscope.portal.core.services.responses.wfs.GmlFeature;
+import org.auscope.portal.core.services.responses.wfs.GmlFeatureReader;
+import org.auscope.portal.core.services.responses.wfs.GmlGeometry;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Converts a WFS GetFeature (GML 3.1/3.2) response into a GeoJSON FeatureCollection in a single pass.
+ *
+ * Features are written to the output as soon as they are parsed so only a single feature is ever held in memory. The first geometry of each
+ * feature becomes the GeoJSON geometry (always in x/y = longitude/latitude order), any other geometries are written as WKT properties and
+ * nested properties are flattened into dotted property names.
+ */
+public class GmlToGeoJsonConverter {
+
+    /** Matches URN/URL style srsNames that mandate the EPSG axis order eg urn:ogc:def:crs:EPSG::4326 */
+    private static final Pattern EPSG_AUTHORITY_AXIS_ORDER = Pattern
+            .compile("^(?:urn:(?:x-)?ogc:def:crs:EPSG:(?:[^:]*:)?|https?://www\\.opengis\\.net/def/crs/EPSG/[^/]*/)(\\d+)$");
+
+    /** Geographic EPSG codes (commonly seen in portal services) whose authority axis order is latitude first */
+    private static final int[] LATITUDE_FIRST_CODES = {4326, 4283, 7844, 4258, 4269, 4267, 4230, 4202, 4203};
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private Integer precision;
+    private String defaultSrsName;
+
+    /**
+     * Creates a new converter that writes coordinates at full precision and assumes x/y order for geometries without a srsName
+     */
+    public GmlToGeoJsonConverter() {
+        this(null, null);
+    }
+
+    /**
+     * Creates a new converter
+     *
+     * @param precision
+     *            [Optional] If set, the number of decimal places that coordinates will be rounded to
+     * @param defaultSrsName
+     *            [Optional] The srsName to assume for geometries that don't specify one (eg the srsName of the request)
+     */
+    public GmlToGeoJsonConverter(Integer precision, String defaultSrsName) {
+        this.precision = precision;
+        this.defaultSrsName = defaultSrsName;
+    }
+
+    /**
+     * Returns true if coordinates encoded in the specified srsName will be in latitude/longitude order. Only URN/URL style EPSG srsNames
+     * follow the EPSG authority axis order, the legacy EPSG:XXXX and http://www.opengis.net/gml/srs/epsg.xml#XXXX forms are always x/y.
+     *
+     * @param srsName
+     * @return
+     */
+    public static boolean isLatitudeFirst(String srsName) {
+        if (srsName == null) {
+            return false;
+        }
+
+        Matcher m = EPSG_AUTHORITY_AXIS_ORDER.matcher(srsName.trim());
+        if (!m.matches()) {
+            return false;
+        }
+
+        int code = Integer.parseInt(m.group(1));
+        for (int latFirst : LATITUDE_FIRST_CODES) {
+            if (code == latFirst) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeOrdinate(JsonGenerator generator, double ordinate) throws IOException {
+        if (precision == null || Double.isNaN(ordinate) || Double.isInfinite(ordinate)) {
+            generator.writeNumber(ordinate);
+        } else {
+            generator.writeNumber(BigDecimal.valueOf(ordinate).setScale(precision, RoundingMode.HALF_UP).stripTrailingZeros());
+        }
+    }
+
+    private void writePosition(JsonGenerator generator, double[] tuple, boolean swapAxes) throws IOException {
+        generator.writeStartArray();
+        if (swapAxes && tuple.length >= 2) {
+            writeOrdinate(generator, tuple[1]);
+            writeOrdinate(generator, tuple[0]);
+            for (int i = 2; i < tuple.length; i++) {
+                writeOrdinate(generator, tuple[i]);
+            }
+        } else {
+            for (double ordinate : tuple) {
+                writeOrdinate(generator, ordinate);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeRing(JsonGenerator generator, List<double[]> ring, boolean swapAxes) throws IOException {
+        generator.writeStartArray();
+        for (double[] tuple : ring) {
+            writePosition(generator, tuple, swapAxes);
+        }
+        generator.writeEndArray();
+    }
+
+    private void writePart(JsonGenerator generator, List<List<double[]>> part, boolean swapAxes) throws IOException {
+        generator.writeStartArray();
+        for (List<double[]> ring : part) {
+            writeRing(generator, ring, swapAxes);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Writes a GeoJSON geometry object (or null if the geometry is empty)
+     */
+    private void writeGeometry(JsonGenerator generator, GmlGeometry geometry) throws IOException {
+        List<List<List<double[]>>> parts = geometry.getParts();
+        if (parts.isEmpty() || parts.get(0).isEmpty() || parts.get(0).get(0).isEmpty()) {
+            generator.writeNull();
+            return;
+        }
+
+        String srsName = geometry.getSrsName() == null ? defaultSrsName : geometry.getSrsName();
+        boolean swapAxes = isLatitudeFirst(srsName);
+
+        generator.writeStartObject();
+        generator.writeStringField("type", geometry.getType().name());
+        generator.writeFieldName("coordinates");
+        switch (geometry.getType()) {
+        case Point:
+            writePosition(generator, parts.get(0).get(0).get(0), swapAxes);
+            break;
+        case LineString:
+            writeRing(generator, parts.get(0).get(0), swapAxes);
+            break;
+        case Polygon:
+            writePart(generator, parts.get(0), swapAxes);
+            break;
+        case MultiPoint:
+            generator.writeStartArray();
+            for (List<List<double[]>> part : parts) {
+                if (!part.isEmpty() && !part.get(0).isEmpty()) {
+                    writePosition(generator, part.get(0).get(0), swapAxes);
+                }
+            }
+            generator.writeEndArray();
+            break;
+        case MultiLineString:
+            generator.writeStartArray();
+            for (List<List<double[]>> part : parts) {
+                if (!part.isEmpty()) {
+                    writeRing(generator, part.get(0), swapAxes);
+                }
+            }
+            generator.writeEndArray();
+            break;
+        case MultiPolygon:
+            generator.writeStartArray();
+            for (List<List<double[]>> part : parts) {
+                writePart(generator, part, swapAxes);
+            }
+            generator.writeEndArray();
+            break;
+        default:
+            break;
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeFeature(JsonGenerator generator, GmlFeature feature) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "Feature");
+        if (feature.getId() != null) {
+            generator.writeStringField("id", feature.getId());
+        }
+
+        Iterator<Map.Entry<String, GmlGeometry>> geometries = feature.getGeometries().entrySet().iterator();
+        generator.writeFieldName("geometry");
+        if (geometries.hasNext()) {
+            writeGeometry(generator, geometries.next().getValue());
+        } else {
+            generator.writeNull();
+        }
+
+        generator.writeObjectFieldStart("properties");
+        for (Map.Entry<String, String> property : feature.getProperties().entrySet()) {
+            generator.writeStringField(property.getKey(), property.getValue());
+        }
+        while (geometries.hasNext()) {
+            Map.Entry<String, GmlGeometry> geometry = geometries.next();
+            generator.writeStringField(geometry.getKey(), geometry.getValue().toWkt());
+        }
+        generator.writeEndObject();
+
+        generator.writeEndObject();
+    }
+
+    /**
+     * Converts gml into a GeoJSON FeatureCollection.
+     *
+     * @param gml
+     *            A WFS GetFeature response. Will not be closed.
+     * @param json
+     *            The stream to receive GeoJSON (UTF-8). Will be flushed but not closed.
+     * @return The number of features written
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public int convert(InputStream gml, OutputStream json) throws XMLStreamException, IOException {
+        int count = 0;
+        try (GmlFeatureReader reader = new GmlFeatureReader(gml);
+                JsonGenerator generator = jsonFactory.createGenerator(json, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            //A failed conversion must not be closed off into a document that looks complete
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.enable(JsonGenerator.Feature.WRITE_BIGDECIMAL_AS_PLAIN);
+
+            generator.writeStartObject();
+            generator.writeStringField("type", "FeatureCollection");
+            generator.writeArrayFieldStart("features");
+            GmlFeature feature;
+            while ((feature = reader.next()) != null) {
+                writeFeature(generator, feature);
+                count++;
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        return count;
+    }
+}
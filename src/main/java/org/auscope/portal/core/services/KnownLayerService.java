@@ -43,6 +43,13 @@ public class KnownLayerService {
 	
 	@Value("${spring.data.elasticsearch.manualUpdateOnly:false}")
     private boolean manualUpdateOnly;
+
+    /** Whether legend graphics for every known layer are fetched after the known layers are updated */
+    @Value("${portal.legend.prefetch:true}")
+    private boolean prefetchLegendGraphics = true;
+
+    /** The WMS layers matched by the last known layer update (their legends are fetched by prefetchLegendGraphics()) */
+    private volatile List<AbstractCSWOnlineResource> legendResources = new ArrayList<>();
 	
     private final Log logger = LogFactory.getLog(getClass());
     private List<KnownLayer> knownLayers;
@@ -97,6 +104,38 @@ public class KnownLayerService {
     	return this.cswCacheService;
     }
 
+    /**
+     * Whether legend graphics for every known layer are fetched (and cached by WMSService) after the known layers are updated
+     *
+     * @return
+     */
+    public boolean isPrefetchLegendGraphics() {
+        return prefetchLegendGraphics;
+    }
+
+    /**
+     * Sets whether legend graphics for every known layer are fetched (and cached by WMSService) after the known layers are updated
+     *
+     * @param prefetchLegendGraphics
+     */
+    public void setPrefetchLegendGraphics(boolean prefetchLegendGraphics) {
+        this.prefetchLegendGraphics = prefetchLegendGraphics;
+    }
+
+    /**
+     * Fetches (and caches through WMSService) the legend graphic of every WMS layer matched by the last call to updateKnownLayersCache.
+     * This blocks until every request has completed so it should be run in the background. Does nothing if isPrefetchLegendGraphics is
+     * false.
+     *
+     * @return The number of legend graphics that were fetched
+     */
+    public int prefetchLegendGraphics() {
+        if (!prefetchLegendGraphics || wmsService == null) {
+            return 0;
+        }
+        return wmsService.prefetchLegendGraphics(legendResources);
+    }
+
     /**
      * Builds a KnownLayerGrouping by iterating the current CSW Cache Service record set and applying each of those records to one or more Known Layer objects.
      *
@@ -320,6 +359,9 @@ public class KnownLayerService {
         
         // Keep track of CSW records updated with KnownLayer info that will be updated in the cache
         List<CSWRecord> recordsToUpdate = new ArrayList<CSWRecord>();
+
+        // The WMS layers whose legends will be prefetched
+        List<AbstractCSWOnlineResource> newLegendResources = new ArrayList<>();
         
         KnownLayerGrouping knownLayerGrouping = groupKnownLayerRecords();
         List<KnownLayerAndRecords> knownLayers = knownLayerGrouping.getKnownLayers();
@@ -392,6 +434,9 @@ public class KnownLayerService {
                                 onlineResourceEndpoints.add(onlineResource.getLinkage().getHost());
                             }
                             layerNames.add(onlineResource.getName());
+                            if (onlineResource.getType() == AbstractCSWOnlineResource.OnlineResourceType.WMS) {
+                                newLegendResources.add(onlineResource);
+                            }
                         }
                     }
                     viewMappedRecords.add(viewCSWRecordFactory.toView(rec));
@@ -457,6 +502,7 @@ public class KnownLayerService {
             knownLayersCache.clear();
             knownLayersCache.addAll(newKnownLayersCache);
         }
+        legendResources = newLegendResources;
         logger.info("Finished updating service status for KnownLayers. New size: " + knownLayers.size());
     }
   
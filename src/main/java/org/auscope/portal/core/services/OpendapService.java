@@ -1,18 +1,26 @@
 package org.auscope.portal.core.services;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.cache.CanonicalRequestKey;
+import org.auscope.portal.core.services.cache.RefreshAheadCache;
 import org.auscope.portal.core.services.methodmakers.OPeNDAPGetDataMethodMaker;
 import org.auscope.portal.core.services.methodmakers.OPeNDAPGetDataMethodMaker.OPeNDAPFormat;
 import org.auscope.portal.core.services.responses.opendap.AbstractViewVariable;
+import org.auscope.portal.core.services.responses.opendap.DatasetSubsetWriter;
 import org.auscope.portal.core.services.responses.opendap.ViewVariableFactory;
 
+import ucar.nc2.dataset.DatasetUrl;
 import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.util.cache.FileCacheIF;
 
 /**
  * Service class for interacting with an OPeNDAP endpoint
@@ -22,21 +30,103 @@ import ucar.nc2.dataset.NetcdfDataset;
  */
 public class OpendapService {
 
+    /** The default number of open dataset handles that will never be evicted from the shared dataset cache */
+    public static final int DEFAULT_CACHE_MIN_HANDLES = 10;
+    /** The default number of open dataset handles above which idle handles are evicted from the shared dataset cache */
+    public static final int DEFAULT_CACHE_MAX_HANDLES = 50;
+    /** The default period (in seconds) between evictions of idle handles from the shared dataset cache */
+    public static final int DEFAULT_CACHE_EVICTION_PERIOD_SECONDS = 5 * 60;
+    /** The default time to live of parsed variables */
+    public static final long DEFAULT_VARIABLE_TTL_SECONDS = 60 * 60;
+
     /** The log. */
     private final Log log = LogFactory.getLog(getClass());
     /** The service caller. */
     private HttpServiceCaller serviceCaller;
     /** The get data method maker. */
     private OPeNDAPGetDataMethodMaker getDataMethodMaker;
+    /** Parsed variables keyed by URL, last modified time and variable filter. Null disables caching */
+    protected RefreshAheadCache<CanonicalRequestKey, AbstractViewVariable[]> variableCache = createVariableCache();
+
+    private static RefreshAheadCache<CanonicalRequestKey, AbstractViewVariable[]> createVariableCache() {
+        //Entries are keyed by the dataset's last modified time so there's no need to refresh them in the background
+        RefreshAheadCache<CanonicalRequestKey, AbstractViewVariable[]> cache = new RefreshAheadCache<>();
+        cache.setTtlSeconds(DEFAULT_VARIABLE_TTL_SECONDS);
+        cache.setRefreshAheadFraction(1.0);
+        return cache;
+    }
 
+    /**
+     * Creates a new service, initialising the shared dataset cache with the default limits (if it hasn't already been initialised)
+     *
+     * @param serviceCaller
+     * @param getDataMethodMaker
+     */
     public OpendapService(HttpServiceCaller serviceCaller, OPeNDAPGetDataMethodMaker getDataMethodMaker) {
+        this(serviceCaller, getDataMethodMaker, DEFAULT_CACHE_MIN_HANDLES, DEFAULT_CACHE_MAX_HANDLES,
+                DEFAULT_CACHE_EVICTION_PERIOD_SECONDS);
+    }
+
+    /**
+     * Creates a new service, initialising the shared dataset cache (if it hasn't already been initialised)
+     *
+     * @param serviceCaller
+     * @param getDataMethodMaker
+     * @param minHandles
+     *            The number of open dataset handles that will never be evicted
+     * @param maxHandles
+     *            The number of open dataset handles above which idle handles will be evicted. 0 disables the dataset cache
+     * @param evictionPeriodSeconds
+     *            The period between evictions of idle handles
+     */
+    public OpendapService(HttpServiceCaller serviceCaller, OPeNDAPGetDataMethodMaker getDataMethodMaker, int minHandles,
+            int maxHandles, int evictionPeriodSeconds) {
         this.serviceCaller = serviceCaller;
         this.getDataMethodMaker = getDataMethodMaker;
+        if (maxHandles > 0 && NetcdfDatasets.getNetcdfFileCache() == null) {
+            initDatasetCache(minHandles, maxHandles, evictionPeriodSeconds);
+        }
     }
 
     /**
-     * Fetches the object representing the dataset at serviceUrl
-     * 
+     * (Re)initialises the JVM wide cache of open NetcdfDataset handles used by every OpendapService. Any handles held by an existing
+     * cache are closed.
+     *
+     * @param minHandles
+     *            The number of open dataset handles that will never be evicted
+     * @param maxHandles
+     *            The number of open dataset handles above which idle handles will be evicted
+     * @param evictionPeriodSeconds
+     *            The period between evictions of idle handles
+     */
+    public static synchronized void initDatasetCache(int minHandles, int maxHandles, int evictionPeriodSeconds) {
+        FileCacheIF existing = NetcdfDatasets.getNetcdfFileCache();
+        if (existing != null) {
+            existing.clearCache(true);
+        }
+        NetcdfDatasets.initNetcdfFileCache(minHandles, maxHandles, evictionPeriodSeconds);
+    }
+
+    public RefreshAheadCache<CanonicalRequestKey, AbstractViewVariable[]> getVariableCache() {
+        return variableCache;
+    }
+
+    /**
+     * Sets the cache for parsed variables
+     *
+     * @param variableCache
+     *            The cache to use or null to disable caching
+     */
+    public void setVariableCache(RefreshAheadCache<CanonicalRequestKey, AbstractViewVariable[]> variableCache) {
+        this.variableCache = variableCache;
+    }
+
+    /**
+     * Fetches the object representing the dataset at serviceUrl. If the shared dataset cache has been initialised, the dataset will be
+     * an existing open handle where possible.
+     *
+     * The returned dataset must be closed by the caller (which returns it to the dataset cache).
+     *
      * @param serviceUrl
      *            The OPeNDAP endpoint
      * @return
@@ -44,7 +134,7 @@ public class OpendapService {
      */
     protected NetcdfDataset fetchDataset(String serviceUrl) throws PortalServiceException {
         try {
-            return NetcdfDataset.openDataset(serviceUrl);
+            return NetcdfDatasets.acquireDataset(DatasetUrl.findDatasetUrl(serviceUrl), null);
         } catch (IOException ex) {
             log.info(String.format("Error connecting to '%1$s'", serviceUrl));
             log.debug("Exception...", ex);
@@ -63,12 +153,18 @@ public class OpendapService {
      * @throws PortalServiceException
      */
     public AbstractViewVariable[] getVariables(String serviceUrl, String variableFilter) throws PortalServiceException {
-        NetcdfDataset ds = fetchDataset(serviceUrl);
-
         //Attempt to parse our response
-        try {
-            return ViewVariableFactory.fromNetCDFDataset(ds, variableFilter);
-        } catch (IOException ex) {
+        try (NetcdfDataset ds = fetchDataset(serviceUrl)) {
+            if (variableCache == null) {
+                return ViewVariableFactory.fromNetCDFDataset(ds, variableFilter);
+            }
+
+            CanonicalRequestKey key = CanonicalRequestKey.fromParameters(serviceUrl, "variables",
+                    Long.toString(ds.getLastModified()), variableFilter == null ? "" : variableFilter);
+            return variableCache.get(key, () -> ViewVariableFactory.fromNetCDFDataset(ds, variableFilter)).clone();
+        } catch (PortalServiceException ex) {
+            throw ex;
+        } catch (Exception ex) {
             log.error(String.format("Error parsing from '%1$s'", serviceUrl), ex);
             throw new PortalServiceException(String.format("Error parsing to '%1$s'", serviceUrl), ex);
         }
@@ -88,12 +184,13 @@ public class OpendapService {
      */
     public InputStream getData(String serviceUrl, OPeNDAPFormat downloadFormat, AbstractViewVariable[] constraints)
             throws PortalServiceException {
-        NetcdfDataset ds = fetchDataset(serviceUrl);
         HttpRequestBase method = null;
 
-        try {
+        try (NetcdfDataset ds = fetchDataset(serviceUrl)) {
             method = getDataMethodMaker.getMethod(serviceUrl, downloadFormat, ds, constraints);
             return serviceCaller.getMethodResponseAsStream(method);
+        } catch (PortalServiceException ex) {
+            throw ex;
         } catch (Exception ex) {
             log.error(String.format("Error requesting data from '%1$s'", serviceUrl), ex);
             throw new PortalServiceException(method, String.format("Error requesting data from '%1$s'", serviceUrl), ex);
@@ -114,20 +211,57 @@ public class OpendapService {
      */
     public String getQueryDetails(String serviceUrl, OPeNDAPFormat downloadFormat, AbstractViewVariable[] constraints)
             throws PortalServiceException {
-        NetcdfDataset ds = fetchDataset(serviceUrl);
         HttpRequestBase method = null;
 
-        try {
+        try (NetcdfDataset ds = fetchDataset(serviceUrl)) {
             method = getDataMethodMaker.getMethod(serviceUrl, downloadFormat, ds, constraints);
             String details = "ServiceUrl: " + method.getURI().toString();
             details += "\n" + "DownloadFormat: " + downloadFormat;
             details += "\n" + "DataSet: " + ds;
 
             return details;
+        } catch (PortalServiceException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new PortalServiceException(method, String.format(
                     "Error parsing query URI", serviceUrl), ex);
         }
     }
 
+    /**
+     * Extracts a subset of the dataset at an OPeNDAP endpoint into local files rather than proxying the service's own ASCII/DODS
+     * response. Variables are read in parallel, in chunks aligned to their storage layout, so memory use is bounded regardless of the
+     * size of the subset.
+     *
+     * @param serviceUrl
+     *            OPeNDAP endpoint to query
+     * @param format
+     *            The format of the local files
+     * @param constraints
+     *            [Optional] Any constraints to apply to the download
+     * @param directory
+     *            Where the files will be written
+     * @return The written files
+     * @throws PortalServiceException
+     */
+    public List<File> getSubset(String serviceUrl, DatasetSubsetWriter.Format format, AbstractViewVariable[] constraints,
+            File directory) throws PortalServiceException {
+        try (NetcdfDataset ds = fetchDataset(serviceUrl)) {
+            getDataMethodMaker.calculateIndexBounds(ds, constraints);
+            DatasetSubsetWriter writer = new DatasetSubsetWriter(() -> {
+                try {
+                    return fetchDataset(serviceUrl);
+                } catch (PortalServiceException ex) {
+                    throw new IOException(ex.getMessage(), ex.getCause());
+                }
+            });
+            return writer.write(ds, constraints, format, directory);
+        } catch (PortalServiceException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            log.error(String.format("Error subsetting data from '%1$s'", serviceUrl), ex);
+            throw new PortalServiceException(String.format("Error subsetting data from '%1$s'", serviceUrl), ex);
+        }
+    }
+
 }
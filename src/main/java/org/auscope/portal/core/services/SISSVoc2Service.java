@@ -3,6 +3,8 @@ package org.auscope.portal.core.services;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
@@ -13,6 +15,7 @@ import org.auscope.portal.core.services.methodmakers.sissvoc.SISSVoc2MethodMaker
 import org.auscope.portal.core.services.namespaces.VocabNamespaceContext;
 import org.auscope.portal.core.services.responses.vocab.Concept;
 import org.auscope.portal.core.services.responses.vocab.ConceptFactory;
+import org.auscope.portal.core.services.responses.vocab.ConceptRegistry;
 import org.auscope.portal.core.util.DOMUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -29,6 +32,11 @@ public class SISSVoc2Service {
     private ConceptFactory conceptFactory;
     private SISSVoc2MethodMaker sissVocMethodMaker;
 
+    /** If true, concepts are interned in a registry per repository so they are reused across requests */
+    private boolean reuseConcepts;
+    /** The concept registry of each repository keyed by service URL and repository */
+    private Map<String, ConceptRegistry> conceptRegistries = new ConcurrentHashMap<>();
+
     public SISSVoc2Service(HttpServiceCaller httpServiceCaller, ConceptFactory conceptFactory,
             SISSVoc2MethodMaker sissVocMethodMaker) {
         this.httpServiceCaller = httpServiceCaller;
@@ -36,6 +44,32 @@ public class SISSVoc2Service {
         this.sissVocMethodMaker = sissVocMethodMaker;
     }
 
+    public boolean isReuseConcepts() {
+        return reuseConcepts;
+    }
+
+    /**
+     * @param reuseConcepts
+     *            If true, concepts parsed from each repository are kept and reused (and updated) by later requests to that repository.
+     *            Concepts returned by earlier requests may therefore change.
+     */
+    public void setReuseConcepts(boolean reuseConcepts) {
+        this.reuseConcepts = reuseConcepts;
+    }
+
+    /**
+     * Gets the registry of concepts parsed from the specified repository (creating it if required)
+     *
+     * @param serviceUrl
+     *            The SISSVoc endpoint
+     * @param repository
+     *            The SISSVoc repository
+     * @return
+     */
+    public ConceptRegistry getConceptRegistry(String serviceUrl, String repository) {
+        return conceptRegistries.computeIfAbsent(serviceUrl + "|" + repository, key -> new ConceptRegistry());
+    }
+
     /**
      * Gets the Concept objects associated with the specified label
      * 
@@ -60,6 +94,9 @@ public class SISSVoc2Service {
                 Document doc = DOMUtil.buildDomFromStream(responseStream);
                 XPathExpression rdfExpression = DOMUtil.compileXPathExpr("rdf:RDF", new VocabNamespaceContext());
                 Node response = (Node) rdfExpression.evaluate(doc, XPathConstants.NODE);
+                if (reuseConcepts) {
+                    return conceptFactory.parseFromRDF(response, getConceptRegistry(serviceUrl, repository));
+                }
                 return conceptFactory.parseFromRDF(response);
             }
         } catch (Exception ex) {
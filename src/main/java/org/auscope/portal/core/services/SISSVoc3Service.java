@@ -1,23 +1,16 @@
 package org.auscope.portal.core.services;
 
 import java.io.InputStream;
-import java.io.StringReader;
 import java.net.URISyntaxException;
 
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.methodmakers.sissvoc.SISSVoc3MethodMaker;
 import org.auscope.portal.core.services.methodmakers.sissvoc.SISSVoc3MethodMaker.Format;
 import org.auscope.portal.core.services.methodmakers.sissvoc.SISSVoc3MethodMaker.View;
-import org.auscope.portal.core.services.namespaces.VocabNamespaceContext;
-import org.auscope.portal.core.util.DOMUtil;
+import org.auscope.portal.core.services.vocabs.LinkedDataPageReader;
+import org.auscope.portal.core.services.vocabs.VocabularyPageLoader;
 import org.auscope.portal.core.util.FileIOUtil;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
@@ -53,6 +46,11 @@ public class SISSVoc3Service {
      */
     private int pageSize = 1000;
 
+    /**
+     * The maximum number of pages this service will request at once. Defaults to 1 (each page in turn)
+     */
+    private int pageConcurrency = 1;
+
     public SISSVoc3Service(HttpServiceCaller httpServiceCaller,
             SISSVoc3MethodMaker sissVocMethodMaker, String baseUrl, String repository) {
         super();
@@ -80,6 +78,24 @@ public class SISSVoc3Service {
         this.pageSize = pageSize;
     }
 
+    /**
+     * The maximum number of pages this service will request at once. Defaults to 1 (each page in turn)
+     *
+     * @return
+     */
+    public int getPageConcurrency() {
+        return pageConcurrency;
+    }
+
+    /**
+     * The maximum number of pages this service will request at once. Defaults to 1 (each page in turn)
+     *
+     * @param pageConcurrency
+     */
+    public void setPageConcurrency(int pageConcurrency) {
+        this.pageConcurrency = pageConcurrency;
+    }
+
     /**
      * The service URL in the form - http://host.name/path/to/service
      *
@@ -114,35 +130,14 @@ public class SISSVoc3Service {
      *            receives the response Descriptions
      */
     protected boolean requestPageOfConcepts(HttpRequestBase method, Model model) throws PortalServiceException {
-        boolean moreData = false;
-        //Make our request
+        //Stream the page straight into the model (capturing the next page link along the way)
         try (InputStream is = httpServiceCaller.getMethodResponseAsStream(method)) {
-            // Parse the response into an XML document
-            Document doc = null;
-            doc = DOMUtil.buildDomFromStream(is);
-
-            VocabNamespaceContext nc = new VocabNamespaceContext();
-            XPathExpression getDescriptionsExpr = DOMUtil.compileXPathExpr("rdf:RDF/descendant::rdf:Description", nc);
-            XPathExpression nextPageExpr = DOMUtil.compileXPathExpr("rdf:RDF/descendant::api:Page/xhv:next", nc);
-
-            Node nextPageNode = (Node) nextPageExpr.evaluate(doc, XPathConstants.NODE);
-            if (nextPageNode != null) {
-                moreData = true;
-            }
-
-            NodeList allDescriptions = (NodeList) getDescriptionsExpr.evaluate(doc, XPathConstants.NODESET);
-            for (int i = 0; i < allDescriptions.getLength(); i++) {
-                String rdf = DOMUtil.buildStringFromDom(allDescriptions.item(i), true);
-                model.read(new StringReader(rdf), null);
-            }
-
+            return LinkedDataPageReader.readPage(is, model);
         } catch (Exception e) {
             throw new PortalServiceException(method, e);
         } finally {
             method.releaseConnection();
         }
-
-        return moreData;
     }
 
     /**
@@ -155,21 +150,11 @@ public class SISSVoc3Service {
      * @throws URISyntaxException
      */
     public Model getAllConcepts() throws PortalServiceException, URISyntaxException {
-        Model model = ModelFactory.createDefaultModel();
-        int pageNumber = 0;
-        int ps = this.pageSize;
-
-        // Request each page in turn - put the results into Model
-        do {
-            HttpRequestBase method = sissVocMethodMaker.getAllConcepts(baseUrl, repository, Format.Rdf, ps, pageNumber);
-            if (requestPageOfConcepts(method, model)) {
-                pageNumber++;
-            } else {
-                break;
-            }
-        } while (true);
+        final int ps = this.pageSize;
 
-        return model;
+        return VocabularyPageLoader.loadAllPages(
+                pageNumber -> sissVocMethodMaker.getAllConcepts(baseUrl, repository, Format.Rdf, ps, pageNumber),
+                this::requestPageOfConcepts, pageConcurrency);
     }
 
     /**
@@ -183,23 +168,14 @@ public class SISSVoc3Service {
      */
 
     public Model getAllConceptsInScheme(String inScheme, View view) throws URISyntaxException, PortalServiceException {
-        Model model = ModelFactory.createDefaultModel();
-        int pageNumber = 0;
-        int ps = this.pageSize;
-
-        do {
-            HttpRequestBase method = sissVocMethodMaker.getAllConceptsInScheme(baseUrl, repository, inScheme,
-                    Format.Rdf, view, ps, pageNumber);
-            if (requestPageOfConcepts(method, model)) {
-                pageNumber++;
-            } else {
-                break;
-            }
-        } while (true);
-
-        return model;
+        final int ps = this.pageSize;
 
+        return VocabularyPageLoader.loadAllPages(
+                pageNumber -> sissVocMethodMaker.getAllConceptsInScheme(baseUrl, repository, inScheme,
+                        Format.Rdf, view, ps, pageNumber),
+                this::requestPageOfConcepts, pageConcurrency);
     }
+
     /**
      * Makes a request to the configured SISSVoc service for a concept to describe the specified URI
      * 
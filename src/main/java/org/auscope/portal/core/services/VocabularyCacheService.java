@@ -3,169 +3,477 @@ package org.auscope.portal.core.services;
 import org.apache.jena.rdf.model.*;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.vocabs.SkosHierarchyIndex;
+import org.auscope.portal.core.services.vocabs.VocabularyCacheSnapshot;
+import org.auscope.portal.core.services.vocabs.VocabularyHarvestStatus;
+import org.auscope.portal.core.services.vocabs.VocabularyLookupIndex;
 import org.auscope.portal.core.services.vocabs.VocabularyServiceItem;
+import org.auscope.portal.core.services.vocabs.VocabularySnapshot;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.TaskScheduler;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Caches the vocabularies of a number of vocabulary services along with their indexes.
+ *
+ * The cache is held as an immutable VocabularyCacheSnapshot that is replaced wholesale whenever a vocabulary is harvested so readers
+ * never block. A vocabulary that fails to harvest continues to serve its previous contents.
+ */
 public class VocabularyCacheService {
 
+    /** The default time between scheduled refreshes of a vocabulary (ms) */
+    public static final long DEFAULT_REFRESH_INTERVAL = 24 * 60 * 60 * 1000L;
+
     private final Log log = LogFactory.getLog(getClass());
 
     protected List<VocabularyServiceItem> serviceList;
     protected Executor executor;
 
-    protected Map<String, Model> vocabularyCache;
-    protected boolean updateRunning;
+    /** The currently published cache */
+    protected final AtomicReference<VocabularyCacheSnapshot> cache = new AtomicReference<>(VocabularyCacheSnapshot.EMPTY);
+    protected volatile boolean updateRunning;
+
+    /** [Optional] Where the cache is persisted between restarts */
+    protected VocabularySnapshot snapshot;
+
+    /** [Optional] Used for running scheduled refreshes */
+    protected TaskScheduler taskScheduler;
+    /** The time between scheduled refreshes of vocabularies that don't specify their own interval (ms) */
+    protected long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+    /** Each refresh is moved by up to this fraction of its interval so vocabularies don't all refresh at once */
+    protected double refreshJitter = 0.1;
+    /** The next scheduled refresh of each vocabulary keyed by ID */
+    protected final Map<String, ScheduledFuture<?>> scheduledRefreshes = new HashMap<>();
+
+    /** How long a harvest of a vocabulary that doesn't specify its own timeout may take (ms). 0 for no limit */
+    protected long harvestTimeout;
+    /** The harvest of every vocabulary currently underway (null if there is none) */
+    private CompletableFuture<Void> inFlightHarvest;
+    /** The harvest of each vocabulary whose worker hasn't yet exited keyed by ID */
+    private final Map<String, VocabularyHarvest> inFlightRefreshes = new ConcurrentHashMap<>();
+    /** The harvest status of each vocabulary keyed by ID */
+    private final Map<String, VocabularyHarvestStatus> harvestStatus = new ConcurrentHashMap<>();
 
     public VocabularyCacheService(Executor executor,
                                   ArrayList<VocabularyServiceItem> serviceList) {
         this.executor = executor;
         this.serviceList = serviceList;
-
-        this.vocabularyCache = new HashMap<String, Model>();
     }
 
     /**
-     * @return
+     * @param snapshotDirectory
+     *            The cache will be written to this directory after each update (and can be restored from it with loadSnapshot)
      */
-    public boolean updateCache() {
-        if (!okToUpdate()) {
-            return false;
-        }
+    public VocabularyCacheService(Executor executor,
+                                  ArrayList<VocabularyServiceItem> serviceList,
+                                  File snapshotDirectory) {
+        this(executor, serviceList);
+        this.snapshot = new VocabularySnapshot(snapshotDirectory);
+    }
 
-        VocabularyCacheUpdateThread[] updateThreads = new VocabularyCacheUpdateThread[serviceList.size()];
+    public TaskScheduler getTaskScheduler() {
+        return taskScheduler;
+    }
 
-        for (int i = 0; i < updateThreads.length; i++) {
-            updateThreads[i] = new VocabularyCacheUpdateThread(this,
-                    updateThreads,
-                    serviceList.get(i),
-                    this.vocabularyCache);
-        }
+    public void setTaskScheduler(TaskScheduler taskScheduler) {
+        this.taskScheduler = taskScheduler;
+    }
+
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    public long getHarvestTimeout() {
+        return harvestTimeout;
+    }
 
-        for (VocabularyCacheUpdateThread thread : updateThreads) {
-            this.executor.execute(thread);
+    public void setHarvestTimeout(long harvestTimeout) {
+        this.harvestTimeout = harvestTimeout;
+    }
+
+    public double getRefreshJitter() {
+        return refreshJitter;
+    }
+
+    public void setRefreshJitter(double refreshJitter) {
+        this.refreshJitter = refreshJitter;
+    }
+
+    /**
+     * Restores the cache from the snapshot (if configured) before starting a background update from the vocabulary services.
+     *
+     * @return true if the background update was started
+     */
+    public boolean initialise() {
+        loadSnapshot();
+        return updateCache();
+    }
+
+    /**
+     * Synchronously adds any intact vocabularies in the snapshot to the cache
+     *
+     * @return The number of vocabularies restored
+     */
+    public synchronized int loadSnapshot() {
+        if (snapshot == null || this.updateRunning) {
+            return 0;
         }
 
-        return true;
+        Map<String, Long> timestamps = new HashMap<>();
+        Map<String, Model> vocabularies = snapshot.read(timestamps);
+        if (!vocabularies.isEmpty()) {
+            Map<String, VocabularyCacheSnapshot.Entry> entries = new HashMap<>();
+            for (Entry<String, Model> entry : vocabularies.entrySet()) {
+                Long harvested = timestamps.get(entry.getKey());
+                entries.put(entry.getKey(), new VocabularyCacheSnapshot.Entry(entry.getValue(), harvested == null ? 0 : harvested));
+            }
+            this.cache.updateAndGet(current -> current.with(entries));
+            log.info(String.format("Restored '%1$d' vocabularies from snapshot at '%2$s'", vocabularies.size(),
+                    snapshot.getDirectory()));
+        }
+        return vocabularies.size();
     }
 
-    private synchronized boolean okToUpdate() {
-        if (this.updateRunning) {
+    /**
+     * Starts a background update of every vocabulary. Each vocabulary is published as soon as its own harvest completes.
+     *
+     * @return true if a new update was started, false if the update already underway will be used instead
+     */
+    public synchronized boolean updateCache() {
+        if (inFlightHarvest != null) {
             return false;
         }
-
-        this.updateRunning = true;
+        harvest();
         return true;
     }
 
-    private synchronized void updateFinished(Map<String, Model> vocabularyCache) {
-        this.updateRunning = false;
+    /**
+     * Starts a background update of every vocabulary unless one is already underway, in which case the existing update is returned.
+     * Each vocabulary is published as soon as its own harvest completes. Vocabularies that fail or miss their deadline continue to
+     * serve their previous contents.
+     *
+     * @return Completes (normally) once every vocabulary has either been published or has failed
+     */
+    public synchronized CompletableFuture<Void> harvest() {
+        if (inFlightHarvest != null) {
+            return inFlightHarvest;
+        }
 
-        if (vocabularyCache != null) {
-            this.vocabularyCache = vocabularyCache;
+        this.updateRunning = true;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        inFlightHarvest = done;
+
+        CompletableFuture<?>[] refreshes = new CompletableFuture<?>[serviceList.size()];
+        for (int i = 0; i < refreshes.length; i++) {
+            refreshes[i] = refreshVocabularyAsync(serviceList.get(i));
         }
 
-        int numberOfTerms = 0;
-        int numberOfVocabularies = this.vocabularyCache.size();
+        CompletableFuture.allOf(refreshes).whenComplete((result, ex) -> {
+            try {
+                updateFinished();
+            } finally {
+                synchronized (VocabularyCacheService.this) {
+                    if (inFlightHarvest == done) {
+                        inFlightHarvest = null;
+                    }
+                    this.updateRunning = false;
+                }
+                done.complete(null);
+            }
+        });
 
-        for (Entry<String, Model> entry : this.vocabularyCache.entrySet()) {
-            numberOfTerms +=  entry.getValue().size();
+        return done;
+    }
+
+    private void updateFinished() {
+        VocabularyCacheSnapshot current = this.cache.get();
+        int numberOfTerms = 0;
+        for (Model model : current.getModels().values()) {
+            numberOfTerms += model.size();
         }
         log.info(String.format("Vocabulary cache updated! Cache now has '%1$d' unique vocabulary terms, from '%2$d' vocabulary services",
-                numberOfTerms, numberOfVocabularies));
+                numberOfTerms, current.getModels().size()));
 
+        persistSnapshot();
+    }
 
+    /**
+     * Writes the current cache to the snapshot (if configured). The write happens outside of any lock so the cache remains readable
+     */
+    private void persistSnapshot() {
+        if (snapshot == null) {
+            return;
+        }
 
+        //Serialising on the snapshot ensures the most recently published cache is always the last one written
+        synchronized (snapshot) {
+            VocabularyCacheSnapshot current = this.cache.get();
+            if (current.getModels().isEmpty()) {
+                return;
+            }
+            try {
+                snapshot.write(current.getModels(), current.getHarvestTimestamps());
+            } catch (IOException e) {
+                log.warn(String.format("Unable to write vocabulary snapshot to '%1$s': %2$s", snapshot.getDirectory(),
+                        e.getMessage()));
+                log.debug("Exception:", e);
+            }
+        }
     }
 
+    /**
+     * Synchronously harvests a single vocabulary and publishes it (with its indexes) to the cache. If the harvest fails or misses its
+     * deadline the cache is left untouched so the vocabulary continues to serve its previous contents. If the vocabulary is already
+     * being harvested this waits for that harvest instead.
+     *
+     * @param serviceItem
+     *            The vocabulary to refresh
+     * @return true if the vocabulary was refreshed
+     */
+    public boolean refreshVocabulary(VocabularyServiceItem serviceItem) {
+        VocabularyHarvest harvest = new VocabularyHarvest(serviceItem);
+        VocabularyHarvest existing = inFlightRefreshes.putIfAbsent(serviceItem.getId(), harvest);
+        if (existing != null) {
+            return existing.result.join();
+        }
+
+        //Harvest on the calling thread (eg the scheduler's) rather than tying up the executor
+        harvest.worker.run();
+        if (harvest.worker.isCancelled()) {
+            //Clear the interrupt used to abandon the harvest
+            Thread.interrupted();
+        }
+        return harvest.result.join();
+    }
 
-    private class VocabularyCacheUpdateThread extends Thread {
-        private final Log threadLog = LogFactory.getLog(getClass());
+    /**
+     * Harvests a single vocabulary in the background and publishes it (with its indexes) to the cache. If the harvest fails or misses
+     * its deadline the cache is left untouched so the vocabulary continues to serve its previous contents.
+     *
+     * @param serviceItem
+     *            The vocabulary to refresh
+     * @return Completes with true if the vocabulary was refreshed. If the vocabulary is already being harvested the existing harvest
+     *         is returned. This includes a harvest that has missed its deadline but whose worker is yet to exit, so abandoned harvests
+     *         never pile up against a slow service.
+     */
+    public CompletableFuture<Boolean> refreshVocabularyAsync(VocabularyServiceItem serviceItem) {
+        VocabularyHarvest harvest = new VocabularyHarvest(serviceItem);
+        VocabularyHarvest existing = inFlightRefreshes.putIfAbsent(serviceItem.getId(), harvest);
+        if (existing != null) {
+            return existing.result;
+        }
 
-        private VocabularyCacheService parent;
-        private VocabularyCacheUpdateThread[] siblings;
-        private VocabularyServiceItem serviceItem;
+        try {
+            this.executor.execute(harvest.worker);
+        } catch (RejectedExecutionException e) {
+            inFlightRefreshes.remove(serviceItem.getId(), harvest);
+            harvest.fail(VocabularyHarvestStatus.State.Failed, "Harvest rejected by executor");
+        }
+        return harvest.result;
+    }
 
-        private Map<String, Model> vocabularyCache;
-        private boolean finishedExecution;
+    /**
+     * The harvest status of every vocabulary keyed by ID
+     */
+    public Map<String, VocabularyHarvestStatus> getHarvestStatus() {
+        Map<String, VocabularyHarvestStatus> statuses = new HashMap<>();
+        for (VocabularyServiceItem serviceItem : serviceList) {
+            statuses.put(serviceItem.getId(), getHarvestStatus(serviceItem.getId()));
+        }
+        statuses.putAll(harvestStatus);
+        return statuses;
+    }
 
+    /**
+     * The harvest status of a single vocabulary
+     *
+     * @param vocabularyId ID of the vocabulary
+     * @return
+     */
+    public VocabularyHarvestStatus getHarvestStatus(String vocabularyId) {
+        VocabularyHarvestStatus status = harvestStatus.get(vocabularyId);
+        return status == null ? new VocabularyHarvestStatus(vocabularyId) : status;
+    }
 
-        public VocabularyCacheUpdateThread(VocabularyCacheService parent,
-                                           VocabularyCacheUpdateThread[] siblings,
-                                           VocabularyServiceItem serviceItem,
-                                           Map<String, Model> vocabularyCache){
-            this.parent = parent;
-            this.siblings = siblings;
-            this.serviceItem = serviceItem;
-            this.vocabularyCache = vocabularyCache;
+    /**
+     * Schedules a refresh of every vocabulary using the configured TaskScheduler. Each vocabulary refreshes on its own interval (or the
+     * service's refreshInterval) adjusted by a random jitter. Successful refreshes are persisted to the snapshot (if configured).
+     *
+     * @return false if no TaskScheduler has been configured
+     */
+    public synchronized boolean startScheduledRefresh() {
+        if (taskScheduler == null) {
+            log.warn("No TaskScheduler configured, vocabularies will not be refreshed automatically");
+            return false;
         }
 
-        private boolean isFinishedExecution() {
-            synchronized (siblings) {
-                return finishedExecution;
+        for (VocabularyServiceItem serviceItem : serviceList) {
+            if (!scheduledRefreshes.containsKey(serviceItem.getId())) {
+                scheduleRefresh(serviceItem);
             }
         }
+        return true;
+    }
 
-        private void setFinishedExecution(boolean finishedExecution) {
-            synchronized (siblings) {
-                this.finishedExecution = finishedExecution;
-            }
+    /**
+     * Cancels every scheduled refresh. Refreshes already underway will finish but won't be rescheduled.
+     */
+    public synchronized void stopScheduledRefresh() {
+        for (ScheduledFuture<?> future : scheduledRefreshes.values()) {
+            future.cancel(false);
         }
+        scheduledRefreshes.clear();
+    }
 
-        /**
-         *
-         */
-        @Override
-        public void run() {
+    /**
+     * Gets the delay (ms) until the next refresh of serviceItem
+     */
+    protected long getNextRefreshDelay(VocabularyServiceItem serviceItem) {
+        long interval = serviceItem.getRefreshInterval() > 0 ? serviceItem.getRefreshInterval() : refreshInterval;
+        double jitter = refreshJitter * (ThreadLocalRandom.current().nextDouble() * 2.0 - 1.0);
+        return Math.max(0, Math.round(interval * (1.0 + jitter)));
+    }
+
+    private synchronized void scheduleRefresh(final VocabularyServiceItem serviceItem) {
+        final AtomicReference<ScheduledFuture<?>> registered = new AtomicReference<>();
+        Runnable refresh = () -> {
             try {
-                VocabularyService service = serviceItem.getVocabularyService();
-                Model model  = service.getModel();
-                synchronized (this.vocabularyCache){
-                    this.vocabularyCache.put(this.serviceItem.getId(), model);
+                if (refreshVocabulary(serviceItem)) {
+                    persistSnapshot();
+                }
+            } finally {
+                synchronized (VocabularyCacheService.this) {
+                    //Only reschedule if we haven't been stopped (or stopped and restarted) in the meantime
+                    if (scheduledRefreshes.get(serviceItem.getId()) == registered.get()) {
+                        try {
+                            scheduleRefresh(serviceItem);
+                        } catch (TaskRejectedException e) {
+                            log.debug(String.format("Scheduler no longer accepting refreshes of '%1$s'", serviceItem.getId()));
+                            scheduledRefreshes.remove(serviceItem.getId());
+                        }
+                    }
                 }
             }
-            catch (PortalServiceException | URISyntaxException e) {
-                threadLog.error(e.getStackTrace());
+        };
 
-            } finally {
-                attemptCleanup();
+        Instant next = Instant.now().plusMillis(getNextRefreshDelay(serviceItem));
+        registered.set(taskScheduler.schedule(refresh, next));
+        scheduledRefreshes.put(serviceItem.getId(), registered.get());
+    }
+
+    /**
+     * A single attempt at harvesting a vocabulary. Whichever of the harvest finishing and the deadline passing happens first settles
+     * the attempt. The deadline runs from when the worker starts and cancels (interrupts) the worker; a harvest finishing after its
+     * deadline is discarded. The attempt stays in flight until its worker exits.
+     */
+    private class VocabularyHarvest implements Runnable {
+        private final VocabularyServiceItem serviceItem;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private final FutureTask<Void> worker = new FutureTask<>(this, null);
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        public VocabularyHarvest(VocabularyServiceItem serviceItem) {
+            this.serviceItem = serviceItem;
+        }
+
+        private boolean fail(VocabularyHarvestStatus.State state, String error) {
+            if (!settled.compareAndSet(false, true)) {
+                return false;
             }
+            harvestStatus.computeIfPresent(serviceItem.getId(), (key, status) -> status.failed(System.currentTimeMillis(), state, error));
+            result.complete(false);
+            return true;
         }
 
-        private void attemptCleanup() {
-            synchronized(siblings) {
-                this.setFinishedExecution(true);
+        @Override
+        public void run() {
+            final String id = serviceItem.getId();
+            try {
+                harvestStatus.compute(id, (key, status) ->
+                        (status == null ? new VocabularyHarvestStatus(key) : status).started(System.currentTimeMillis()));
+
+                long timeout = serviceItem.getHarvestTimeout() > 0 ? serviceItem.getHarvestTimeout() : harvestTimeout;
+                if (timeout > 0) {
+                    CompletableFuture.delayedExecutor(timeout, TimeUnit.MILLISECONDS).execute(() -> {
+                        if (fail(VocabularyHarvestStatus.State.TimedOut, String.format("Harvest exceeded %1$dms", timeout))) {
+                            log.warn(String.format("Harvest of vocabulary '%1$s' exceeded %2$dms, keeping previous contents", id,
+                                    timeout));
+                            worker.cancel(true);
+                        }
+                    });
+                }
 
-                boolean cleanupRequired = true;
-                for (VocabularyCacheUpdateThread sibling : siblings) {
-                    if (!sibling.isFinishedExecution()) {
-                        cleanupRequired = false;
-                        break;
+                VocabularyCacheSnapshot.Entry entry;
+                try {
+                    VocabularyService service = serviceItem.getVocabularyService();
+                    Model model = serviceItem.getPageConcurrency() > 0 ?
+                            service.getModel(serviceItem.getPageConcurrency()) : service.getModel();
+
+                    //Indexes are built before publishing so readers never see a partially built entry
+                    entry = new VocabularyCacheSnapshot.Entry(model, System.currentTimeMillis());
+                } catch (PortalServiceException | URISyntaxException | RuntimeException e) {
+                    //Leave the in flight harvests before settling so anyone woken by the result can start a fresh attempt
+                    inFlightRefreshes.remove(id, this);
+                    if (fail(VocabularyHarvestStatus.State.Failed, e.getMessage())) {
+                        log.warn(String.format("Unable to refresh vocabulary '%1$s': %2$s", id, e.getMessage()));
+                        log.debug("Exception:", e);
                     }
+                    return;
                 }
 
-                //Last thread to finish tells our parent we've terminated
-                if (cleanupRequired) {
-                    parent.updateFinished(vocabularyCache);
+                if (!settled.compareAndSet(false, true)) {
+                    return;
                 }
+                cache.updateAndGet(current -> current.with(id, entry));
+                harvestStatus.computeIfPresent(id, (key, status) -> status.succeeded(System.currentTimeMillis()));
+                inFlightRefreshes.remove(id, this);
+                result.complete(true);
+            } finally {
+                inFlightRefreshes.remove(id, this);
             }
         }
+    }
 
+    /**
+     * Returns the currently published cache. Use this where several lookups must be consistent with each other as the cache may be
+     * replaced between individual calls to the other getters.
+     *
+     * @return
+     */
+    public VocabularyCacheSnapshot getSnapshot() {
+        return this.cache.get();
     }
 
     /**
      * Returns the full vocabulary cache mapped as cache IDs with their respective models.
      *
-     * @return
+     * @return An unmodifiable view of the cache
      */
-    public synchronized Map<String, Model> getVocabularyCache() {
-        return vocabularyCache;
+    public Map<String, Model> getVocabularyCache() {
+        return this.cache.get().getModels();
     }
 
     /**
@@ -174,8 +482,31 @@ public class VocabularyCacheService {
      * @param vocabularyId ID of the vocabulary you wish to access
      * @return
      */
-    public synchronized Model getVocabularyCacheById(String vocabularyId) {
-        return this.vocabularyCache.get(vocabularyId);
+    public Model getVocabularyCacheById(String vocabularyId) {
+        VocabularyCacheSnapshot.Entry entry = this.cache.get().getEntry(vocabularyId);
+        return entry == null ? null : entry.getModel();
+    }
+
+    /**
+     * Returns the SKOS hierarchy index of a cached vocabulary.
+     *
+     * @param vocabularyId ID of the vocabulary you wish to access
+     * @return The index or null if the vocabulary isn't cached
+     */
+    public SkosHierarchyIndex getHierarchyIndexById(String vocabularyId) {
+        VocabularyCacheSnapshot.Entry entry = this.cache.get().getEntry(vocabularyId);
+        return entry == null ? null : entry.getHierarchyIndex();
+    }
+
+    /**
+     * Returns the label and property lookup index of a cached vocabulary.
+     *
+     * @param vocabularyId ID of the vocabulary you wish to access
+     * @return The index or null if the vocabulary isn't cached
+     */
+    public VocabularyLookupIndex getLookupIndexById(String vocabularyId) {
+        VocabularyCacheSnapshot.Entry entry = this.cache.get().getEntry(vocabularyId);
+        return entry == null ? null : entry.getLookupIndex();
     }
 
 }
@@ -1,9 +1,9 @@
 package org.auscope.portal.core.services;
 
 import org.apache.jena.rdf.model.*;
-import org.auscope.portal.core.services.namespaces.VocabNamespaceContext;
+import org.auscope.portal.core.services.vocabs.SkosHierarchyIndex;
+import org.auscope.portal.core.services.vocabs.VocabularyLookupIndex;
 import org.auscope.portal.core.util.structure.RDFTriple;
-import org.apache.jena.vocabulary.SKOS;
 
 import java.util.*;
 
@@ -30,17 +30,19 @@ public class VocabularyFilterService {
      * @return list of Strings
      */
     public ArrayList<String> getVocabularyById(String vocabularyId, String prefLabelVal, Property property) {
-        Model model = this.vocabularyCacheService.getVocabularyCacheById(vocabularyId);
-        ResIterator iterator = model.listResourcesWithProperty(SKOS.prefLabel);
+        VocabularyLookupIndex index = this.vocabularyCacheService.getLookupIndexById(vocabularyId);
         ArrayList<String> result = new ArrayList<String>();
-        while (iterator.hasNext()) {
-            Resource res = iterator.next();
-            if (!res.getProperty(SKOS.prefLabel).getString().equals(prefLabelVal)) {
+        if (index == null) {
+            return result;
+        }
+
+        for (String uri : index.getUrisByLabel(prefLabelVal)) {
+            if (!index.getPrefLabels(uri).containsValue(prefLabelVal)) {
                 continue;
             }
-            String defn = res.getProperty(property).getString();
+            Statement defn = index.getModel().getResource(uri).getProperty(property);
             if (defn != null) {
-                result.add(defn);
+                result.add(defn.getString());
             }
         }
         return result;
@@ -56,55 +58,39 @@ public class VocabularyFilterService {
      * @return
      */
     public Map<String, String> getVocabularyById(String vocabularyId, RDFTriple... triples) {
-        Model model = this.vocabularyCacheService.getVocabularyCacheById(vocabularyId);
+        VocabularyLookupIndex index = this.vocabularyCacheService.getLookupIndexById(vocabularyId);
+        if (index == null) {
+            return new HashMap<>();
+        }
 
         if (triples == null || triples.length == 0) {
-            return  getLabeledVocabulary(model);
+            return index.getLabeledVocabulary();
         }
 
-        Model filteredModel = ModelFactory.createDefaultModel();
-        for (RDFTriple  triple: triples) {
-            StmtIterator stmtIterator;
+        BitSet subjects = new BitSet();
+        for (RDFTriple triple : triples) {
+            RDFNode object;
             if (triple.language == null) {
-                stmtIterator = filterModel(model, triple.subject, triple.predicate, (RDFNode) triple.object).listStatements();
+                object = (RDFNode) triple.object;
             } else {
-                stmtIterator = filterModel(model, triple.subject, triple.predicate, (String) triple.object, triple.language).listStatements();
-            }
-            while (stmtIterator.hasNext()) {
-                Statement statement = stmtIterator.next();
-                filteredModel.add(model.listStatements(statement.getSubject(), null, (RDFNode) null));
+                object = ResourceFactory.createLangLiteral((String) triple.object, triple.language);
             }
+            subjects.or(index.getSubjectIds(triple.subject, triple.predicate, object));
         }
 
-        return getLabeledVocabulary(filteredModel);
+        return index.getLabeledVocabulary(subjects);
     }
 
     /**
-     * Returns key-value pairs of vocabulary terms for model. Pairs are prefLabel and URI.
+     * Returns the URIs of every concept with a prefLabel matching label (ignoring case) for the specified cache ID
      *
-     * @param model The model to transform into URI and prefLabels.
-     * @return
+     * @param vocabularyId Cache ID of vocabulary model
+     * @param label The label to look for
+     * @return Set of URIs
      */
-    private Map<String, String> getLabeledVocabulary(Model model) {
-        Map<String, String> result = new HashMap<>();
-        if (model != null) {
-            ResIterator iterator = model.listResourcesWithProperty(SKOS.prefLabel);
-            while (iterator.hasNext()) {
-                Resource res = iterator.next();
-                StmtIterator prefLabelIt = res.listProperties(SKOS.prefLabel);
-                while (prefLabelIt.hasNext()) {
-                    Statement prefLabelStatement = prefLabelIt.next();
-                    String prefLabel = prefLabelStatement.getString();
-
-                    String urn = res.getURI();
-                    if (urn != null) {
-                        result.put(urn, prefLabel);
-                    }
-
-                }
-            }
-        }
-        return result;
+    public Set<String> getUrisByPrefLabel(String vocabularyId, String label) {
+        VocabularyLookupIndex index = this.vocabularyCacheService.getLookupIndexById(vocabularyId);
+        return index == null ? new HashSet<String>() : index.getUrisByLabel(label);
     }
 
     /**
@@ -116,43 +102,34 @@ public class VocabularyFilterService {
      * @return
      */
     public Set<String> getAllNarrower(String vocabularyId, String uri) {
-        Model model = this.vocabularyCacheService.getVocabularyCacheById(vocabularyId);
+        SkosHierarchyIndex index = this.vocabularyCacheService.getHierarchyIndexById(vocabularyId);
         Set<String> result = new HashSet<>();
         result.add(uri);
-        Set<String> narrowerTransitive = getNarrowerTransitive(model, uri);
+        if (index == null) {
+            return result;
+        }
+
+        Set<String> narrowerTransitive = index.getNarrowerTransitive(uri);
         if (result.addAll(narrowerTransitive)) {
-            result.addAll(getNarrower(model, uri));
+            result.addAll(index.getNarrower(uri));
         } else {
-            result.addAll(getNarrowRecursive(model, uri));
+            result.addAll(index.getNarrowerClosure(uri));
         }
         return result;
     }
 
-    public Set<String> getNarrowRecursive(String vocabularyId, String uri) {
-        Model model = this.vocabularyCacheService.getVocabularyCacheById(vocabularyId);
-        return getNarrowRecursive(model, uri);
-    }
-
     /**
-     * Recursive narrower query through the model for the given cache ID and URI
+     * Recursive narrower query through the hierarchy of the given cache ID and URI
      *
-     * @param model Cache ID of vocabulary model
+     * @param vocabularyId Cache ID of vocabulary model
      * @param uri Vocabulary URI to find narrower terms
      * @return Set of URIs
      */
-    private Set<String> getNarrowRecursive(Model model, String uri) {
-        Set<String> result = new HashSet<>();
-
-        Set<String> narrower = getNarrower(model, uri);
-
-        result.addAll(narrower);
-        for (String narrowUri : narrower) {
-            result.addAll(getNarrowRecursive(model, narrowUri));
-        }
-        return result;
+    public Set<String> getNarrowRecursive(String vocabularyId, String uri) {
+        SkosHierarchyIndex index = this.vocabularyCacheService.getHierarchyIndexById(vocabularyId);
+        return index == null ? new HashSet<String>() : index.getNarrowerClosure(uri);
     }
 
-
     /**
      * Narrower concepts for the given URI and vocabualry ID.
      *
@@ -161,25 +138,22 @@ public class VocabularyFilterService {
      * @return
      */
     public Set<String> getNarrower(String vocabularyId, String uri) {
-        Model model = this.vocabularyCacheService.getVocabularyCacheById(vocabularyId);
-        return getNarrower(model, uri);
+        SkosHierarchyIndex index = this.vocabularyCacheService.getHierarchyIndexById(vocabularyId);
+        return index == null ? new HashSet<String>() : index.getNarrower(uri);
     }
 
     /**
-     * Narrower concepts for the given URI and model.
+     * Broader concepts for the given URI and vocabulary ID.
      *
-     * @param model The vocabulary model
-     * @param uri Vocabulary URI to find narrower terms
-     * @return Set of URIs
+     * @param vocabularyId The vocabulary ID.
+     * @param uri Vocabulary URI to find broader terms
+     * @return
      */
-    private Set<String> getNarrower(Model model, String uri) {
-        Property property = model.createProperty(VocabNamespaceContext.SKOS_NAMESPACE, "narrower");
-        Resource resource = model.getResource(uri);
-        Model filteredModel = filterModel(model, resource, property, (RDFNode) null);
-        return getSubjectUris(filteredModel);
+    public Set<String> getBroader(String vocabularyId, String uri) {
+        SkosHierarchyIndex index = this.vocabularyCacheService.getHierarchyIndexById(vocabularyId);
+        return index == null ? new HashSet<String>() : index.getBroader(uri);
     }
 
-
     /**
      * Narrower concepts for the given URI and vocabulary ID.
      *
@@ -188,77 +162,7 @@ public class VocabularyFilterService {
      * @return
      */
     public Set<String> getNarrowerTransitive(String vocabularyId, String uri) {
-        Model model = this.vocabularyCacheService.getVocabularyCacheById(vocabularyId);
-        return getNarrowerTransitive(model, uri);
-    }
-
-    /**
-     * Narrower Transitive concepts for the given URI and voabualry model
-     *
-     * @param model The vocabulary model
-     * @param uri Vocabulary URI to find narrower terms
-     * @return Set of URIs
-     */
-    private Set<String> getNarrowerTransitive(Model model, String uri) {
-        Property property = model.createProperty(VocabNamespaceContext.SKOS_NAMESPACE, "narrowerTransitive");
-        Resource resource = model.getResource(uri);
-        Model filteredModel = filterModel(model, resource, property, (RDFNode) null);
-        return getSubjectUris(filteredModel);
-    }
-
-    /** Returns all subject resource URIs for the given model
-     *
-     * @param model
-     * @return Set of URIs
-     */
-    private Set<String> getSubjectUris(Model model) {
-        Set<String> result = new HashSet<>();
-        if (model != null) {
-            StmtIterator stmtIterator = model.listStatements();
-            while (stmtIterator.hasNext()) {
-                Statement statement = stmtIterator.next();
-                String uri = statement.getResource().getURI();
-                result.add(uri);
-            }
-        }
-        return result;
-    }
-
-
-    /**
-     * Filters a model by the given (resource, property, object) triple
-     *
-     * @param model Model to filter
-     * @param resource Resource to filter by
-     * @param property Property to filter by
-     * @param object RDFNode to filter by
-     * @return New filtered model
-     */
-    private Model filterModel(Model model, Resource resource, Property property, RDFNode object) {
-        Model filteredModel = ModelFactory.createDefaultModel();
-        if (model != null) {
-            StmtIterator stmtIterator = model.listStatements(resource, property, object);
-            filteredModel.add(stmtIterator);
-        }
-        return filteredModel;
-    }
-
-    /**
-     * Filters a model by the given (resource, property, object) triple
-     *
-     * @param model Model to filter
-     * @param resource Resource to filter by
-     * @param property Property to filter by
-     * @param object RDFNode to filter by
-     * @param language language
-     * @return New filtered model
-     */
-    private Model filterModel(Model model, Resource resource, Property property, String object, String language) {
-        Model filteredModel = ModelFactory.createDefaultModel();
-        if (model != null) {
-            StmtIterator stmtIterator = model.listStatements(resource, property, object, language);
-            filteredModel.add(stmtIterator);
-        }
-        return filteredModel;
+        SkosHierarchyIndex index = this.vocabularyCacheService.getHierarchyIndexById(vocabularyId);
+        return index == null ? new HashSet<String>() : index.getNarrowerTransitive(uri);
     }
 }
@@ -0,0 +1,259 @@
+package org.auscope.portal.core.services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jena.query.ParameterizedSparqlString;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionDatasetBuilder;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.vocabulary.RDFS;
+import org.apache.jena.vocabulary.SKOS;
+import org.auscope.portal.core.services.vocabs.LabelTextIndex;
+
+/**
+ * Service class for running SPARQL queries against the models cached by the {@link VocabularyCacheService}.
+ *
+ * Queries are registered as named templates which are parsed once. Each execution binds the template's variables by substitution so
+ * nothing is reparsed per request. Every execution is limited to maxResults rows and timeout ms.
+ */
+public class VocabularyQueryService {
+
+    /** Concepts with a prefLabel containing ?text (ignoring case). Yields ?concept and ?label */
+    public static final String LABEL_SEARCH = "labelSearch";
+    /** Every concept below ?root following narrower (or inverse broader) relations. Yields ?concept and ?label */
+    public static final String NARROWER_CLOSURE = "narrowerClosure";
+    /** Every concept above ?root following broader (or inverse narrower) relations. Yields ?concept and ?label */
+    public static final String BROADER_CLOSURE = "broaderClosure";
+    /** Every concept related to ?root in either direction. Yields ?concept and ?label */
+    public static final String RELATED = "related";
+
+    public static final int DEFAULT_MAX_RESULTS = 1000;
+    public static final long DEFAULT_TIMEOUT = 10000;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private VocabularyCacheService vocabularyCacheService;
+    private final Map<String, Query> templates = new ConcurrentHashMap<>();
+    private int maxResults = DEFAULT_MAX_RESULTS;
+    private long timeout = DEFAULT_TIMEOUT;
+
+    private boolean textIndexEnabled;
+    /** The label text index of each vocabulary keyed by ID, along with the model it was built from */
+    private final Map<String, TextIndexHolder> textIndexes = new ConcurrentHashMap<>();
+
+    private static class TextIndexHolder {
+        private final Model model;
+        private final LabelTextIndex index;
+
+        public TextIndexHolder(Model model) {
+            this.model = model;
+            this.index = new LabelTextIndex(model);
+        }
+    }
+
+    public VocabularyQueryService(VocabularyCacheService vocabularyCacheService) {
+        this.vocabularyCacheService = vocabularyCacheService;
+
+        registerTemplate(LABEL_SEARCH, "SELECT ?concept ?label WHERE { ?concept skos:prefLabel ?label . "
+                + "FILTER(CONTAINS(LCASE(STR(?label)), LCASE(STR(?text)))) } ORDER BY ?label ?concept");
+        registerTemplate(NARROWER_CLOSURE, "SELECT DISTINCT ?concept ?label WHERE { ?root (skos:narrower|^skos:broader)+ ?concept . "
+                + "OPTIONAL { ?concept skos:prefLabel ?label } }");
+        registerTemplate(BROADER_CLOSURE, "SELECT DISTINCT ?concept ?label WHERE { ?root (skos:broader|^skos:narrower)+ ?concept . "
+                + "OPTIONAL { ?concept skos:prefLabel ?label } }");
+        registerTemplate(RELATED, "SELECT DISTINCT ?concept ?label WHERE { ?root skos:related|^skos:related ?concept . "
+                + "OPTIONAL { ?concept skos:prefLabel ?label } }");
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * The maximum time (ms) a single query may run for
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public boolean isTextIndexEnabled() {
+        return textIndexEnabled;
+    }
+
+    /**
+     * @param textIndexEnabled
+     *            If true, searchLabels is answered by an in memory word index of each vocabulary's labels (matching words by prefix)
+     *            rather than the LABEL_SEARCH template (matching any substring)
+     */
+    public void setTextIndexEnabled(boolean textIndexEnabled) {
+        this.textIndexEnabled = textIndexEnabled;
+    }
+
+    /**
+     * Parses sparql and registers it as a template. The skos and rdfs prefixes are predefined.
+     *
+     * @param name
+     *            The name of the template (replacing any existing template of that name)
+     * @param sparql
+     *            A SPARQL SELECT query. Variables may be bound on each execution.
+     * @throws org.apache.jena.query.QueryParseException
+     *             If sparql isn't a valid query
+     */
+    public void registerTemplate(String name, String sparql) {
+        ParameterizedSparqlString template = new ParameterizedSparqlString();
+        template.setNsPrefix("skos", SKOS.getURI());
+        template.setNsPrefix("rdfs", RDFS.getURI());
+        template.append(sparql);
+        templates.put(name, template.asQuery());
+    }
+
+    /**
+     * The names of every registered template
+     */
+    public Set<String> getTemplateNames() {
+        return new TreeSet<>(templates.keySet());
+    }
+
+    /**
+     * Runs a registered template against a cached vocabulary
+     *
+     * @param vocabularyId
+     *            Cache ID of vocabulary model
+     * @param templateName
+     *            The template to run
+     * @param bindings
+     *            Values for the template's variables keyed by variable name (without the '?'). Can be null
+     * @return Each result row mapping variable name to the URI or lexical form of its value (unbound variables are omitted). Empty if
+     *         the vocabulary isn't cached.
+     * @throws PortalServiceException
+     *             If the query exceeds the timeout
+     */
+    public List<Map<String, String>> query(String vocabularyId, String templateName, Map<String, RDFNode> bindings)
+            throws PortalServiceException {
+        Query query = templates.get(templateName);
+        if (query == null) {
+            throw new IllegalArgumentException(String.format("No query template named '%1$s'", templateName));
+        }
+
+        List<Map<String, String>> rows = new ArrayList<>();
+        Model model = vocabularyCacheService.getVocabularyCacheById(vocabularyId);
+        if (model == null) {
+            return rows;
+        }
+
+        QueryExecutionDatasetBuilder builder = QueryExecution.model(model).query(query).timeout(timeout, TimeUnit.MILLISECONDS);
+        if (bindings != null) {
+            for (Map.Entry<String, RDFNode> binding : bindings.entrySet()) {
+                builder.substitution(binding.getKey(), binding.getValue());
+            }
+        }
+
+        try (QueryExecution execution = builder.build()) {
+            ResultSet results = execution.execSelect();
+            List<String> vars = results.getResultVars();
+            while (rows.size() < maxResults && results.hasNext()) {
+                QuerySolution solution = results.next();
+                Map<String, String> row = new LinkedHashMap<>();
+                for (String var : vars) {
+                    RDFNode node = solution.get(var);
+                    if (node == null) {
+                        continue;
+                    } else if (node.isLiteral()) {
+                        row.put(var, node.asLiteral().getLexicalForm());
+                    } else if (node.isURIResource()) {
+                        row.put(var, node.asResource().getURI());
+                    } else {
+                        row.put(var, node.toString());
+                    }
+                }
+                rows.add(row);
+            }
+        } catch (QueryCancelledException e) {
+            log.warn(String.format("Query '%1$s' against vocabulary '%2$s' exceeded %3$dms", templateName, vocabularyId, timeout));
+            throw new PortalServiceException(String.format("Query '%1$s' exceeded %2$dms", templateName, timeout), e);
+        }
+        return rows;
+    }
+
+    /**
+     * Runs a registered template binding a single resource to ?root
+     *
+     * @param vocabularyId
+     *            Cache ID of vocabulary model
+     * @param templateName
+     *            The template to run (eg NARROWER_CLOSURE)
+     * @param uri
+     *            The URI to bind to ?root
+     * @return As per query
+     * @throws PortalServiceException
+     */
+    public List<Map<String, String>> queryFromRoot(String vocabularyId, String templateName, String uri)
+            throws PortalServiceException {
+        Map<String, RDFNode> bindings = new HashMap<>();
+        bindings.put("root", ResourceFactory.createResource(uri));
+        return query(vocabularyId, templateName, bindings);
+    }
+
+    /**
+     * Searches the prefLabels of a cached vocabulary (see setTextIndexEnabled), ordered by label
+     *
+     * @param vocabularyId
+     *            Cache ID of vocabulary model
+     * @param text
+     *            The text to search for
+     * @return Each match as a row with "concept" and "label" values
+     * @throws PortalServiceException
+     *             If the query exceeds the timeout
+     */
+    public List<Map<String, String>> searchLabels(String vocabularyId, String text) throws PortalServiceException {
+        if (!textIndexEnabled) {
+            Map<String, RDFNode> bindings = new HashMap<>();
+            bindings.put("text", ResourceFactory.createPlainLiteral(text));
+            return query(vocabularyId, LABEL_SEARCH, bindings);
+        }
+
+        List<Map<String, String>> rows = new ArrayList<>();
+        Model model = vocabularyCacheService.getVocabularyCacheById(vocabularyId);
+        if (model == null) {
+            return rows;
+        }
+
+        //Rebuild the index whenever the cache has replaced the vocabulary
+        TextIndexHolder holder = textIndexes.get(vocabularyId);
+        if (holder == null || holder.model != model) {
+            holder = new TextIndexHolder(model);
+            textIndexes.put(vocabularyId, holder);
+        }
+
+        for (String[] match : holder.index.search(text, maxResults)) {
+            Map<String, String> row = new LinkedHashMap<>();
+            row.put("concept", match[0]);
+            row.put("label", match[1]);
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -9,16 +9,11 @@ import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker.View;
 import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker.Format;
 
 import org.auscope.portal.core.services.namespaces.VocabNamespaceContext;
-import org.auscope.portal.core.util.DOMUtil;
+import org.auscope.portal.core.services.vocabs.LinkedDataPageReader;
+import org.auscope.portal.core.services.vocabs.VocabularyPageLoader;
 import org.auscope.portal.core.util.FileIOUtil;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
 import java.io.InputStream;
-import java.io.StringReader;
 import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
@@ -48,6 +43,11 @@ public class VocabularyService {
      */
     private int pageSize = 1000;
 
+    /**
+     * The maximum number of pages this service will request at once. Defaults to 1 (each page in turn)
+     */
+    private int pageConcurrency = 1;
+
     public VocabularyService(HttpServiceCaller httpServiceCaller,
                              VocabularyMethodMaker vocabularyMethodMaker, String serviceUrl) {
         super();
@@ -74,6 +74,24 @@ public class VocabularyService {
         this.pageSize = pageSize;
     }
 
+    /**
+     * The maximum number of pages this service will request at once. Defaults to 1 (each page in turn)
+     *
+     * @return
+     */
+    public int getPageConcurrency() {
+        return pageConcurrency;
+    }
+
+    /**
+     * The maximum number of pages this service will request at once. Defaults to 1 (each page in turn)
+     *
+     * @param pageConcurrency
+     */
+    public void setPageConcurrency(int pageConcurrency) {
+        this.pageConcurrency = pageConcurrency;
+    }
+
     /**
      * The service URL in the form - http://host.name/path/to/service
      *
@@ -96,35 +114,14 @@ public class VocabularyService {
      *            receives the response Descriptions
      */
     protected boolean requestPageOfConcepts(HttpRequestBase method, Model model) throws PortalServiceException {
-        boolean moreData = false;
-
-        try (InputStream inputStream  = httpServiceCaller.getMethodResponseAsStream(method)) {
-            // Parse the response into an XML document
-            Document document = null;
-            document = DOMUtil.buildDomFromStream(inputStream);
-
-            VocabNamespaceContext namespaceContext = new VocabNamespaceContext();
-            XPathExpression getDescriptionsExpression = DOMUtil.compileXPathExpr("rdf:RDF/descendant::rdf:Description", namespaceContext);
-            XPathExpression nextPageExpression = DOMUtil.compileXPathExpr("rdf:RDF/descendant::api:Page/xhv:next", namespaceContext);
-
-            Node nextPageNode = (Node) nextPageExpression.evaluate(document, XPathConstants.NODE);
-            if (nextPageNode != null) {
-                moreData = true;
-            }
-
-            NodeList allDescriptions = (NodeList) getDescriptionsExpression.evaluate(document, XPathConstants.NODESET);
-            for (int i = 0; i < allDescriptions.getLength(); i++) {
-                String rdf = DOMUtil.buildStringFromDom(allDescriptions.item(i), true);
-                model.read(new StringReader(rdf), null);
-            }
-
+        //Stream the page straight into the model (capturing the next page link along the way)
+        try (InputStream inputStream = httpServiceCaller.getMethodResponseAsStream(method)) {
+            return LinkedDataPageReader.readPage(inputStream, model);
         } catch (Exception e) {
             throw new PortalServiceException(method, e);
         } finally {
             method.releaseConnection();
         }
-
-        return moreData;
     }
 
     /**
@@ -137,21 +134,11 @@ public class VocabularyService {
      * @throws URISyntaxException
      */
     public Model getAllConcepts() throws PortalServiceException, URISyntaxException {
-        Model model = ModelFactory.createDefaultModel();
-        int pageNumber = 0;
-        int ps = this.pageSize;
-
-        // Request each page in turn - put the results into Model
-        do {
-            HttpRequestBase method = vocabularyMethodMaker.getAllConcepts(serviceUrl, Format.Rdf, ps, pageNumber);
-            if (requestPageOfConcepts(method, model)) {
-                pageNumber++;
-            } else {
-                break;
-            }
-        } while (true);
+        final int ps = this.pageSize;
 
-        return model;
+        return VocabularyPageLoader.loadAllPages(
+                pageNumber -> vocabularyMethodMaker.getAllConcepts(serviceUrl, Format.Rdf, ps, pageNumber),
+                this::requestPageOfConcepts, pageConcurrency);
     }
 
     /**
@@ -165,22 +152,11 @@ public class VocabularyService {
      */
 
     public Model getAllConceptsInScheme(String inScheme, View view) throws URISyntaxException, PortalServiceException {
-        Model model = ModelFactory.createDefaultModel();
-        int pageNumber = 0;
-        int ps = this.pageSize;
-
-        do {
-            HttpRequestBase method = vocabularyMethodMaker.getAllConceptsInScheme(serviceUrl, inScheme,
-                    Format.Rdf, view, ps, pageNumber);
-            if (requestPageOfConcepts(method, model)) {
-                pageNumber++;
-            } else {
-                break;
-            }
-        } while (true);
-
-        return model;
+        final int ps = this.pageSize;
 
+        return VocabularyPageLoader.loadAllPages(
+                pageNumber -> vocabularyMethodMaker.getAllConceptsInScheme(serviceUrl, inScheme, Format.Rdf, view, ps, pageNumber),
+                this::requestPageOfConcepts, pageConcurrency);
     }
 
     /**
@@ -219,21 +195,23 @@ public class VocabularyService {
      * @throws PortalServiceException
      */
     public Model getModel() throws URISyntaxException, PortalServiceException {
+        return getModel(pageConcurrency);
+    }
 
-        Model model = ModelFactory.createDefaultModel();
-        int pageNumber = 0;
-        int pageSize = this.getPageSize();
-
-        do {
-            HttpRequestBase method = vocabularyMethodMaker.getAllConcepts(getServiceUrl(), Format.Rdf, View.description, pageSize, pageNumber);
-            if (requestPageOfConcepts(method, model)) {
-                pageNumber++;
-            } else {
-                break;
-            }
-        } while (true);
+    /**
+     * @param pageConcurrency
+     *            The maximum number of pages to request at once
+     * @return Returns full Jena model of the vocabulary
+     *
+     * @throws URISyntaxException
+     * @throws PortalServiceException
+     */
+    public Model getModel(int pageConcurrency) throws URISyntaxException, PortalServiceException {
+        final int pageSize = this.getPageSize();
 
-        return model;
+        return VocabularyPageLoader.loadAllPages(
+                pageNumber -> vocabularyMethodMaker.getAllConcepts(getServiceUrl(), Format.Rdf, View.description, pageSize, pageNumber),
+                this::requestPageOfConcepts, pageConcurrency);
     }
 
 
@@ -1,18 +1,47 @@
 package org.auscope.portal.core.services;
 
 import java.awt.Dimension;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.cache.CanonicalRequestKey;
+import org.auscope.portal.core.services.cache.RefreshAheadCache;
+import org.auscope.portal.core.services.cache.ResourcePrefetcher;
 import org.auscope.portal.core.services.methodmakers.WCSMethodMaker;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
 import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+import org.auscope.portal.core.services.responses.ows.OWSException;
+import org.auscope.portal.core.services.responses.ows.OWSExceptionSniffer;
+import org.auscope.portal.core.services.responses.wcs.CoverageTile;
+import org.auscope.portal.core.services.responses.wcs.DescribeCoverageRecord;
+import org.auscope.portal.core.services.responses.wcs.RectifiedGrid;
 import org.auscope.portal.core.services.responses.wcs.Resolution;
+import org.auscope.portal.core.services.responses.wcs.SimpleEnvelope;
+import org.auscope.portal.core.services.responses.wcs.TiledCoverage;
 import org.auscope.portal.core.services.responses.wcs.TimeConstraint;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Service class for interacting with a Web Coverage Service
@@ -20,17 +49,82 @@ import org.auscope.portal.core.services.responses.wcs.TimeConstraint;
  * @author Josh Vote
  */
 public class WCSService {
-    @SuppressWarnings("unused")
     private final Log logger = LogFactory.getLog(getClass());
 
+    /** How long parsed DescribeCoverage responses are cached for */
+    public static final long DEFAULT_DESCRIBE_COVERAGE_TTL_SECONDS = 60 * 60 * 24;
+    /** The maximum number of concurrent DescribeCoverage requests made by prefetchDescribeCoverages */
+    public static final int DESCRIBE_COVERAGE_PREFETCH_THREADS = 4;
+    /** The default maximum width and height (in output pixels) of each tile requested by getTiledCoverage */
+    public static final int DEFAULT_MAX_TILE_SIZE = 2048;
+    /** The maximum width and height (in native coverage pixels) that a single tile is allowed to span */
+    public static final int MAX_NATIVE_TILE_SIZE = 8192;
+    /** The smallest width and height (in output pixels) that tiles will be shrunk to by getTiledCoverage */
+    public static final int MIN_TILE_SIZE = 64;
+    /** The maximum number of tiles a single call to getTiledCoverage will request */
+    public static final int MAX_TILES = 4096;
+    /** The maximum number of tiles downloaded at once by getTiledCoverage */
+    public static final int TILE_DOWNLOAD_THREADS = 4;
+    /** The maximum number of concurrent tile requests made to a single host (across all tiled downloads) */
+    public static final int MAX_TILE_REQUESTS_PER_HOST = 2;
+    /** How many times each tile is requested before it is considered failed */
+    public static final int TILE_ATTEMPTS = 2;
+
+    /** The number of bytes needed to identify a coverage response */
+    private static final int COVERAGE_SIGNATURE_LENGTH = 8;
+
+    /** Limits concurrent tile requests, keyed by host */
+    private static final ConcurrentHashMap<String, Semaphore> tileHostSemaphores = new ConcurrentHashMap<>();
+
     private HttpServiceCaller serviceCaller;
     private WCSMethodMaker methodMaker;
 
+    /** The largest raster (in bytes) that a TiledCoverage returned by getTiledCoverage will mosaic in memory */
+    @Value("${portal.wcs.maxMosaicBytes:67108864}")
+    private long maxMosaicBytes = TiledCoverage.DEFAULT_MAX_MOSAIC_BYTES;
+
+    /** Parsed DescribeCoverage responses keyed by service URL and coverage name. Null disables caching */
+    protected RefreshAheadCache<CanonicalRequestKey, DescribeCoverageRecord[]> describeCoverageCache = createDescribeCoverageCache();
+
+    private static RefreshAheadCache<CanonicalRequestKey, DescribeCoverageRecord[]> createDescribeCoverageCache() {
+        RefreshAheadCache<CanonicalRequestKey, DescribeCoverageRecord[]> cache = new RefreshAheadCache<>();
+        cache.setTtlSeconds(DEFAULT_DESCRIBE_COVERAGE_TTL_SECONDS);
+        return cache;
+    }
+
     public WCSService(HttpServiceCaller serviceCaller, WCSMethodMaker methodMaker) {
         this.serviceCaller = serviceCaller;
         this.methodMaker = methodMaker;
     }
 
+    public RefreshAheadCache<CanonicalRequestKey, DescribeCoverageRecord[]> getDescribeCoverageCache() {
+        return describeCoverageCache;
+    }
+
+    /**
+     * Sets the cache for parsed DescribeCoverage responses
+     *
+     * @param describeCoverageCache
+     *            The cache to use or null to disable caching
+     */
+    public void setDescribeCoverageCache(RefreshAheadCache<CanonicalRequestKey, DescribeCoverageRecord[]> describeCoverageCache) {
+        this.describeCoverageCache = describeCoverageCache;
+    }
+
+    public long getMaxMosaicBytes() {
+        return maxMosaicBytes;
+    }
+
+    /**
+     * Sets the largest raster (in bytes) that a TiledCoverage returned by getTiledCoverage will mosaic in memory. Every concurrent tiled
+     * download may hold a mosaic of this size.
+     *
+     * @param maxMosaicBytes
+     */
+    public void setMaxMosaicBytes(long maxMosaicBytes) {
+        this.maxMosaicBytes = maxMosaicBytes;
+    }
+
     /**
      * Makes a GetCoverage request, returns the response as a stream of data
      * 
@@ -113,4 +207,421 @@ public class WCSService {
 		}
 	}
 
+
+    /**
+     * Makes a DescribeCoverage request for a single coverage and parses the response. Responses are cached per service URL and coverage
+     * name (and refreshed in the background before they expire).
+     *
+     * @param serviceUrl
+     *            The WCS endpoint to query
+     * @param coverageName
+     *            The coverage layername to describe
+     * @return
+     * @throws PortalServiceException
+     */
+    public DescribeCoverageRecord[] describeCoverage(String serviceUrl, String coverageName) throws PortalServiceException {
+        if (describeCoverageCache == null) {
+            return requestDescribeCoverage(serviceUrl, coverageName);
+        }
+
+        try {
+            return describeCoverageCache.get(CanonicalRequestKey.fromParameters(serviceUrl, "DescribeCoverage", coverageName),
+                    () -> requestDescribeCoverage(serviceUrl, coverageName));
+        } catch (PortalServiceException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PortalServiceException("Error while making DescribeCoverage request", ex);
+        }
+    }
+
+    private DescribeCoverageRecord[] requestDescribeCoverage(String serviceUrl, String coverageName) throws PortalServiceException {
+        HttpRequestBase method = null;
+        try {
+            method = methodMaker.describeCoverageMethod(serviceUrl, coverageName);
+            try (InputStream response = serviceCaller.getMethodResponseAsStream(method)) {
+                return DescribeCoverageRecord.parseRecords(response);
+            }
+        } catch (Exception ex) {
+            throw new PortalServiceException(method, "Error while making DescribeCoverage request", ex);
+        } finally {
+            if (method != null) {
+                method.releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * Populates the DescribeCoverage cache for every distinct coverage in a set of WCS online resources. Requests are made
+     * DESCRIBE_COVERAGE_PREFETCH_THREADS at a time and this method blocks until they are all complete. Failures are logged and otherwise
+     * ignored.
+     *
+     * @param wcsResources
+     *            WCS online resources (other types are ignored)
+     * @return The number of coverages that are now cached
+     */
+    public int prefetchDescribeCoverages(Collection<AbstractCSWOnlineResource> wcsResources) {
+        if (describeCoverageCache == null) {
+            return 0;
+        }
+        return ResourcePrefetcher.prefetch(wcsResources, AbstractCSWOnlineResource.OnlineResourceType.WCS,
+                DESCRIBE_COVERAGE_PREFETCH_THREADS, "coverage descriptions", this::describeCoverage);
+    }
+
+    /**
+     * Gets the file extension to use for coverages in the specified format
+     *
+     * @param format
+     *            A WCS format eg GeoTIFF
+     * @return
+     */
+    public static String getFileExtension(String format) {
+        if (format.toLowerCase().contains("geotiff"))
+            return "tiff";
+        else if (format.toLowerCase().contains("netcdf"))
+            return "nc";
+        else
+            return format;
+    }
+
+    /**
+     * Splits a coverage of width x height pixels covering bbox into a grid of pixel aligned tiles no larger than maxTileWidth x
+     * maxTileHeight. Tiles are returned in row major order starting from the north west corner.
+     *
+     * @param bbox
+     * @param width
+     * @param height
+     * @param maxTileWidth
+     * @param maxTileHeight
+     * @return
+     * @throws IllegalArgumentException
+     *             If the tile size isn't positive or more than MAX_TILES tiles would be required
+     */
+    public static List<CoverageTile> planTiles(CSWGeographicBoundingBox bbox, int width, int height, int maxTileWidth, int maxTileHeight) {
+        long tileCount = countTiles(width, height, maxTileWidth, maxTileHeight);
+        if (tileCount > MAX_TILES) {
+            throw new IllegalArgumentException(String.format("%1$dx%2$d pixels would require %3$d tiles (the limit is %4$d)", width,
+                    height, tileCount, MAX_TILES));
+        }
+        int columns = (width + maxTileWidth - 1) / maxTileWidth;
+        int rows = (height + maxTileHeight - 1) / maxTileHeight;
+        double pixelWidth = (bbox.getEastBoundLongitude() - bbox.getWestBoundLongitude()) / width;
+        double pixelHeight = (bbox.getNorthBoundLatitude() - bbox.getSouthBoundLatitude()) / height;
+
+        List<CoverageTile> tiles = new ArrayList<>(rows * columns);
+        for (int row = 0; row < rows; row++) {
+            int y0 = (int) ((long) height * row / rows);
+            int y1 = (int) ((long) height * (row + 1) / rows);
+            for (int column = 0; column < columns; column++) {
+                int x0 = (int) ((long) width * column / columns);
+                int x1 = (int) ((long) width * (column + 1) / columns);
+                CSWGeographicBoundingBox tileBbox = new CSWGeographicBoundingBox(
+                        bbox.getWestBoundLongitude() + x0 * pixelWidth,
+                        x1 == width ? bbox.getEastBoundLongitude() : bbox.getWestBoundLongitude() + x1 * pixelWidth,
+                        y1 == height ? bbox.getSouthBoundLatitude() : bbox.getNorthBoundLatitude() - y1 * pixelHeight,
+                        bbox.getNorthBoundLatitude() - y0 * pixelHeight);
+                tiles.add(new CoverageTile(row, column, x0, y0, x1 - x0, y1 - y0, tileBbox));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Counts the tiles that planTiles would return
+     */
+    private static long countTiles(int width, int height, int maxTileWidth, int maxTileHeight) {
+        if (maxTileWidth <= 0 || maxTileHeight <= 0) {
+            throw new IllegalArgumentException("Tile dimensions must be positive");
+        }
+        return ((width + (long) maxTileWidth - 1) / maxTileWidth) * ((height + (long) maxTileHeight - 1) / maxTileHeight);
+    }
+
+    /**
+     * Makes a GetCoverage request as a grid of smaller GetCoverage requests (tiles) that are downloaded concurrently into directory. This
+     * allows large areas to be downloaded from services that would otherwise time out or reject the request for exceeding their output
+     * limits.
+     *
+     * Tiles are sized so that they don't exceed maxTileSize output pixels or MAX_NATIVE_TILE_SIZE native pixels (if the coverage's
+     * RectifiedGrid is described in inputCrs) but are never shrunk below MIN_TILE_SIZE pixels. Requests that would need more than
+     * MAX_TILES tiles are rejected. Tiles are planned in inputCrs so outputCrs (if set) must be the same CRS. Tiles that lie entirely
+     * outside the coverage's spatial domain aren't requested. Each tile is requested up to TILE_ATTEMPTS times; tiles that still fail are
+     * reported by the returned TiledCoverage rather than failing the whole download.
+     *
+     * @param serviceUrl
+     *            The WCS endpoint to query
+     * @param coverageName
+     *            The coverage layername to request
+     * @param downloadFormat
+     *            File format to request
+     * @param outputSize
+     *            The size of the full coverage (cannot be used with outputResolution)
+     * @param outputResolution
+     *            The resolution of the full coverage in inputCrs units (Not compatible with outputSize)
+     * @param outputCrs
+     *            [Optional] The Coordinate reference system of the output data (must be the same as inputCrs)
+     * @param inputCrs
+     *            the coordinate reference system of bbox
+     * @param bbox
+     *            Spatial bounds of the full coverage
+     * @param timeConstraint
+     *            [Optional] Temporal bounds to limit request
+     * @param customParameters
+     *            [Optional] a list of additional request parameters
+     * @param maxTileSize
+     *            The maximum width/height of each tile in pixels (or non positive for DEFAULT_MAX_TILE_SIZE)
+     * @param directory
+     *            Where the tiles will be written
+     * @param listener
+     *            [Optional] Notified as each tile finishes (from the download threads)
+     * @return
+     * @throws PortalServiceException
+     *             If the download couldn't be started (eg it would need too many tiles or outputCrs differs from inputCrs)
+     */
+    public TiledCoverage getTiledCoverage(String serviceUrl, String coverageName, String downloadFormat, Dimension outputSize,
+            Resolution outputResolution, String outputCrs, String inputCrs, CSWGeographicBoundingBox bbox,
+            TimeConstraint timeConstraint, Map<String, String> customParameters, int maxTileSize, File directory,
+            TiledCoverage.ProgressListener listener) throws PortalServiceException {
+        if (bbox == null) {
+            throw new IllegalArgumentException("A tiled coverage requires a bbox");
+        }
+        if ((outputSize == null) == (outputResolution == null)) {
+            throw new IllegalArgumentException("One of outputResolution or outputSize must be used");
+        }
+        if (outputCrs != null && !outputCrs.isEmpty() && !isSameCrs(outputCrs, inputCrs)) {
+            //Reprojected tiles wouldn't line up with a grid planned in inputCrs
+            throw new PortalServiceException(String.format(
+                    "A tiled coverage can't be reprojected from '%1$s' to '%2$s'", inputCrs, outputCrs),
+                    "Request the coverage in its input CRS or download it without tiling");
+        }
+
+        double bboxWidth = bbox.getEastBoundLongitude() - bbox.getWestBoundLongitude();
+        double bboxHeight = bbox.getNorthBoundLatitude() - bbox.getSouthBoundLatitude();
+        int width = outputSize != null ? outputSize.width : (int) Math.max(1, Math.round(bboxWidth / outputResolution.getX()));
+        int height = outputSize != null ? outputSize.height : (int) Math.max(1, Math.round(bboxHeight / outputResolution.getY()));
+        if (width <= 0 || height <= 0 || bboxWidth <= 0 || bboxHeight <= 0) {
+            throw new IllegalArgumentException("The requested coverage is empty");
+        }
+
+        int maxTileWidth = maxTileSize > 0 ? Math.max(MIN_TILE_SIZE, maxTileSize) : DEFAULT_MAX_TILE_SIZE;
+        int maxTileHeight = maxTileWidth;
+
+        //Use the coverage's metadata (if available) to keep tiles within the server's native limits and extent
+        SimpleEnvelope extent = null;
+        DescribeCoverageRecord record = getCoverageRecord(serviceUrl, coverageName);
+        if (record != null && record.getSpatialDomain() != null) {
+            RectifiedGrid grid = record.getSpatialDomain().getRectifiedGrid();
+            if (grid != null && isSameCrs(grid.getSrsName(), inputCrs) && grid.getOffsetVectors() != null
+                    && grid.getOffsetVectors().length >= 2) {
+                double nativeResX = Math.abs(grid.getOffsetVectors()[0][0]);
+                double nativeResY = Math.abs(grid.getOffsetVectors()[1][grid.getOffsetVectors()[1].length > 1 ? 1 : 0]);
+                if (nativeResX > 0 && nativeResY > 0) {
+                    maxTileWidth = (int) Math.max(MIN_TILE_SIZE,
+                            Math.min(maxTileWidth, MAX_NATIVE_TILE_SIZE * nativeResX / (bboxWidth / width)));
+                    maxTileHeight = (int) Math.max(MIN_TILE_SIZE,
+                            Math.min(maxTileHeight, MAX_NATIVE_TILE_SIZE * nativeResY / (bboxHeight / height)));
+                }
+            }
+
+            if (record.getSpatialDomain().getEnvelopes() != null) {
+                for (SimpleEnvelope envelope : record.getSpatialDomain().getEnvelopes()) {
+                    if (envelope.getSrsName() == null || envelope.getSrsName().isEmpty() || isSameCrs(envelope.getSrsName(), inputCrs)) {
+                        extent = envelope;
+                        break;
+                    }
+                }
+            }
+        }
+
+        long tileCount = countTiles(width, height, maxTileWidth, maxTileHeight);
+        if (tileCount > MAX_TILES) {
+            throw new PortalServiceException(String.format(
+                    "The requested coverage of %1$dx%2$d pixels would need %3$d tiles of %4$dx%5$d pixels (the limit is %6$d tiles)",
+                    width, height, tileCount, maxTileWidth, maxTileHeight, MAX_TILES),
+                    "Request a smaller area or a coarser resolution");
+        }
+        List<CoverageTile> tiles = planTiles(bbox, width, height, maxTileWidth, maxTileHeight);
+        TiledCoverage coverage = new TiledCoverage(bbox, width, height, inputCrs, tiles);
+        coverage.setMaxMosaicBytes(maxMosaicBytes);
+
+        List<CoverageTile> toDownload = new ArrayList<>();
+        for (CoverageTile tile : tiles) {
+            if (extent != null && !intersects(tile.getBbox(), extent)) {
+                tile.skip();
+            } else {
+                toDownload.add(tile);
+            }
+        }
+        logger.info(String.format("Requesting '%1$s' from '%2$s' as %3$d tiles (%4$d outside the coverage)", coverageName, serviceUrl,
+                toDownload.size(), tiles.size() - toDownload.size()));
+        if (toDownload.isEmpty()) {
+            return coverage;
+        }
+
+        Semaphore hostSemaphore = tileHostSemaphores.computeIfAbsent(getHost(serviceUrl),
+                host -> new Semaphore(MAX_TILE_REQUESTS_PER_HOST, true));
+        String extension = getFileExtension(downloadFormat);
+        AtomicInteger finished = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final CoverageTile tile : toDownload) {
+            tasks.add(() -> {
+                downloadTile(tile, new File(directory, tile.getFileName(extension)), hostSemaphore, serviceUrl, coverageName,
+                        downloadFormat, outputCrs, inputCrs, timeConstraint, customParameters);
+                int count = finished.incrementAndGet();
+                logger.debug(String.format("Tile %1$d of %2$d finished: %3$s", count, toDownload.size(), tile));
+                if (listener != null) {
+                    listener.tileFinished(tile, count, toDownload.size());
+                }
+                return null;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(TILE_DOWNLOAD_THREADS, tasks.size()));
+        try {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PortalServiceException("Tiled coverage download was interrupted", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return coverage;
+    }
+
+    private void downloadTile(CoverageTile tile, File file, Semaphore hostSemaphore, String serviceUrl, String coverageName,
+            String downloadFormat, String outputCrs, String inputCrs, TimeConstraint timeConstraint,
+            Map<String, String> customParameters) throws InterruptedException {
+        Exception lastError = null;
+        for (int attempt = 0; attempt < TILE_ATTEMPTS; attempt++) {
+            hostSemaphore.acquire();
+            try (InputStream is = checkCoverageResponse(getCoverage(serviceUrl, coverageName, downloadFormat,
+                    new Dimension(tile.getWidth(), tile.getHeight()), null, outputCrs, inputCrs, tile.getBbox(), timeConstraint,
+                    customParameters), downloadFormat);
+                    OutputStream os = new FileOutputStream(file)) {
+                IOUtils.copy(is, os);
+                tile.complete(file);
+                return;
+            } catch (Exception ex) {
+                lastError = ex;
+                logger.debug(String.format("Attempt %1$d at %2$s failed: %3$s", attempt + 1, tile, ex.getMessage()));
+            } finally {
+                hostSemaphore.release();
+            }
+        }
+
+        if (file.exists() && !file.delete()) {
+            logger.debug("Unable to delete " + file);
+        }
+        Throwable cause = lastError.getCause() != null ? lastError.getCause() : lastError;
+        tile.fail(cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage());
+    }
+
+    /**
+     * Checks the head of a GetCoverage response, throwing an OWSException if it's an exception report (which some services return with
+     * HTTP 200) or, for GeoTIFF and NetCDF, if it doesn't start with the format's signature. The response is closed if it's rejected.
+     *
+     * @return A stream that replays the entire response
+     */
+    private static InputStream checkCoverageResponse(InputStream response, String downloadFormat) throws OWSException, IOException {
+        try {
+            BufferedInputStream buffered = new BufferedInputStream(response, OWSExceptionSniffer.DEFAULT_PEEK_SIZE);
+            buffered.mark(COVERAGE_SIGNATURE_LENGTH);
+            byte[] head = new byte[COVERAGE_SIGNATURE_LENGTH];
+            int length = IOUtils.read(buffered, head);
+            buffered.reset();
+
+            InputStream checked = isXml(head, length) ? OWSExceptionSniffer.sniff(buffered) : buffered;
+            String extension = getFileExtension(downloadFormat);
+            if (("tiff".equals(extension) && !isTiff(head, length)) || ("nc".equals(extension) && !isNetCdf(head, length))) {
+                throw new OWSException("GetCoverage response is not " + downloadFormat);
+            }
+            return checked;
+        } catch (OWSException | IOException ex) {
+            response.close();
+            throw ex;
+        }
+    }
+
+    private static boolean isXml(byte[] head, int length) {
+        for (int i = 0; i < length; i++) {
+            if (head[i] == '<') {
+                return true;
+            } else if (!Character.isWhitespace(head[i]) && (head[i] & 0xFF) != 0xEF && (head[i] & 0xFF) != 0xBB
+                    && (head[i] & 0xFF) != 0xBF) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if head starts with a TIFF or BigTIFF signature
+     */
+    private static boolean isTiff(byte[] head, int length) {
+        if (length < 4) {
+            return false;
+        }
+        return (head[0] == 'I' && head[1] == 'I' && (head[2] == 42 || head[2] == 43) && head[3] == 0)
+                || (head[0] == 'M' && head[1] == 'M' && head[2] == 0 && (head[3] == 42 || head[3] == 43));
+    }
+
+    /**
+     * Returns true if head starts with a NetCDF classic or NetCDF-4 (HDF5) signature
+     */
+    private static boolean isNetCdf(byte[] head, int length) {
+        if (length < 4) {
+            return false;
+        }
+        return (head[0] == 'C' && head[1] == 'D' && head[2] == 'F' && (head[3] == 1 || head[3] == 2 || head[3] == 5))
+                || (head[0] == (byte) 0x89 && head[1] == 'H' && head[2] == 'D' && head[3] == 'F');
+    }
+
+    /**
+     * Gets the DescribeCoverage record for coverageName or null if it can't be retrieved
+     */
+    private DescribeCoverageRecord getCoverageRecord(String serviceUrl, String coverageName) {
+        try {
+            DescribeCoverageRecord[] records = describeCoverage(serviceUrl, coverageName);
+            for (DescribeCoverageRecord record : records) {
+                if (coverageName.equals(record.getName())) {
+                    return record;
+                }
+            }
+            return records.length > 0 ? records[0] : null;
+        } catch (Exception ex) {
+            logger.debug(String.format("Unable to describe '%1$s' at '%2$s': %3$s", coverageName, serviceUrl, ex.getMessage()));
+            return null;
+        }
+    }
+
+    private static boolean intersects(CSWGeographicBoundingBox bbox, SimpleEnvelope envelope) {
+        return bbox.getWestBoundLongitude() < envelope.getEastBoundLongitude()
+                && bbox.getEastBoundLongitude() > envelope.getWestBoundLongitude()
+                && bbox.getSouthBoundLatitude() < envelope.getNorthBoundLatitude()
+                && bbox.getNorthBoundLatitude() > envelope.getSouthBoundLatitude();
+    }
+
+    /**
+     * Returns true if two CRS identifiers refer to the same CRS (treating the various WGS84 lon/lat identifiers as equivalent)
+     */
+    private static boolean isSameCrs(String a, String b) {
+        if (a == null || b == null) {
+            return false;
+        }
+        return normaliseCrs(a).equals(normaliseCrs(b));
+    }
+
+    private static String normaliseCrs(String crs) {
+        String code = crs.trim().toUpperCase(Locale.ENGLISH);
+        code = code.substring(code.lastIndexOf(':') + 1);
+        return "CRS84".equals(code) || "84".equals(code) ? "4326" : code;
+    }
+
+    private static String getHost(String serviceUrl) {
+        try {
+            String host = new URI(serviceUrl).getHost();
+            return host == null ? serviceUrl : host.toLowerCase(Locale.ENGLISH);
+        } catch (URISyntaxException ex) {
+            return serviceUrl;
+        }
+    }
 }
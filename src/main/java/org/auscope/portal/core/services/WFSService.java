@@ -1,14 +1,17 @@
 package org.auscope.portal.core.services;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.cache.CanonicalRequestKey;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker.ResultType;
 import org.auscope.portal.core.services.namespaces.ErmlNamespaceContext;
-import org.auscope.portal.core.services.responses.ows.OWSExceptionParser;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
 import org.auscope.portal.core.services.responses.wfs.WFSTransformedResponse;
 import org.auscope.portal.core.xslt.GmlToHtml;
@@ -58,9 +61,7 @@ public class WFSService extends BaseWFSService {
     protected WFSResponse doRequest(HttpRequestBase method)
             throws PortalServiceException {
         try {
-            String wfs = httpServiceCaller.getMethodResponseAsString(method);
-            OWSExceptionParser.checkForExceptionResponse(wfs);
-
+            String wfs = getCachedResponseAsString(method);
             return new WFSResponse(wfs, method);
         } catch (Exception ex) {
             throw new PortalServiceException(method, ex);
@@ -81,9 +82,38 @@ public class WFSService extends BaseWFSService {
     protected WFSTransformedResponse doRequestAndHtmlTransform(HttpRequestBase method, String baseUrl)
             throws PortalServiceException {
         try {
-            String wfs = httpServiceCaller.getMethodResponseAsString(method);
-            OWSExceptionParser.checkForExceptionResponse(wfs);
-            return transformToHtml(wfs, method, baseUrl);
+            String wfs = getCachedResponseAsString(method);
+            if (responseCache == null) {
+                return transformToHtml(wfs, method, baseUrl);
+            }
+
+            CanonicalRequestKey key = CanonicalRequestKey.fromRequest(method).derive("html", baseUrl);
+            byte[] html = responseCache.get(key,
+                    () -> convertToHtml(wfs, baseUrl).getBytes(StandardCharsets.UTF_8));
+            return new WFSTransformedResponse(wfs, new String(html, StandardCharsets.UTF_8), method);
+        } catch (Exception ex) {
+            throw new PortalServiceException(method, ex);
+        }
+    }
+
+    /**
+     * Sends out WFS request and streams its response to outputStream as GeoJSON
+     *
+     * @param method
+     *          HttpRequestBase used to make the WFS request
+     * @param srs
+     *          [Optional] The srsName used in the request (used for geometries that don't specify their own)
+     * @param precision
+     *          [Optional] The number of decimal places to round coordinates to
+     * @param outputStream
+     *          Will receive the GeoJSON FeatureCollection. Will not be closed.
+     * @return The number of features written
+     * @throws PortalServiceException
+     */
+    protected int doRequestAndGeoJsonTransform(HttpRequestBase method, String srs, Integer precision,
+            OutputStream outputStream) throws PortalServiceException {
+        try (InputStream wfs = getCheckedResponseAsStream(method)) {
+            return new GmlToGeoJsonConverter(precision, srs).convert(wfs, outputStream);
         } catch (Exception ex) {
             throw new PortalServiceException(method, ex);
         }
@@ -101,6 +131,26 @@ public class WFSService extends BaseWFSService {
 	 * @return HTML converted response
 	 */
     public WFSTransformedResponse transformToHtml(String wfs, HttpRequestBase method, String baseUrl) {
+        if (method == null && responseCache != null) {
+            //Popups from WMS GetFeatureInfo are keyed by their content
+            try {
+                byte[] html = responseCache.get(CanonicalRequestKey.fromContent("html", wfs, baseUrl),
+                        () -> convertToHtml(wfs, baseUrl).getBytes(StandardCharsets.UTF_8));
+                return new WFSTransformedResponse(wfs, new String(html, StandardCharsets.UTF_8), method);
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        return new WFSTransformedResponse(wfs, convertToHtml(wfs, baseUrl), method);
+    }
+
+    /**
+     * Transforms a WFS document into HTML (without caching)
+     */
+    private String convertToHtml(String wfs, String baseUrl) {
     	ErmlNamespaceContext erml;
         if (wfs.contains("http://xmlns.earthresourceml.org/EarthResource/2.0")) {
         	// Tell the XSLT which ERML version to use
@@ -108,8 +158,7 @@ public class WFSService extends BaseWFSService {
         } else {
         	erml = new ErmlNamespaceContext();
         }
-    	String html = this.gmlToHtml.convert(wfs, erml, baseUrl);
-    	return new WFSTransformedResponse(wfs, html, method);
+    	return this.gmlToHtml.convert(wfs, erml, baseUrl);
     }
 
     /**
@@ -200,4 +249,57 @@ public class WFSService extends BaseWFSService {
         HttpRequestBase method = new HttpGet(wfsUrl);
         return doRequestAndHtmlTransform(method, baseUrl);
     }
+
+    /**
+     * Makes a WFS GetFeature request for a single feature and streams the response to outputStream as a GeoJSON FeatureCollection.
+     *
+     * @param wfsUrl
+     *            the web feature service URL
+     * @param featureType
+     *            the type name
+     * @param featureId
+     *            A unique ID of a single feature type to query
+     * @param precision
+     *            [Optional] The number of decimal places to round coordinates to
+     * @param outputStream
+     *            Will receive the GeoJSON. Will not be closed.
+     * @return The number of features written
+     * @throws PortalServiceException
+     * @throws URISyntaxException
+     */
+    public int getWfsResponseAsGeoJson(String wfsUrl, String featureType, String featureId, Integer precision,
+            OutputStream outputStream) throws PortalServiceException, URISyntaxException {
+        HttpRequestBase method = generateWFSRequest(wfsUrl, featureType, featureId, null, null, null, null);
+        return doRequestAndGeoJsonTransform(method, DEFAULT_SRS, precision, outputStream);
+    }
+
+    /**
+     * Makes a WFS GetFeature request constrained by the specified parameters and streams the response to outputStream as a GeoJSON
+     * FeatureCollection.
+     *
+     * @param wfsUrl
+     *            the web feature service url
+     * @param featureType
+     *            the type name
+     * @param filterString
+     *            A OGC filter string to constrain the request
+     * @param maxFeatures
+     *            A maximum number of features to request
+     * @param srs
+     *            [Optional] The spatial reference system the response should be encoded to - will use BaseWFSService.DEFAULT_SRS if unspecified
+     * @param precision
+     *            [Optional] The number of decimal places to round coordinates to
+     * @param outputStream
+     *            Will receive the GeoJSON. Will not be closed.
+     * @return The number of features written
+     * @throws PortalServiceException
+     * @throws URISyntaxException
+     */
+    public int getWfsResponseAsGeoJson(String wfsUrl, String featureType, String filterString, Integer maxFeatures,
+            String srs, Integer precision, OutputStream outputStream) throws PortalServiceException, URISyntaxException {
+        HttpRequestBase method = generateWFSRequest(wfsUrl, featureType, null, filterString, maxFeatures, srs,
+                ResultType.Results);
+        return doRequestAndGeoJsonTransform(method, (srs == null || srs.isEmpty()) ? DEFAULT_SRS : srs, precision,
+                outputStream);
+    }
 }
@@ -1,13 +1,22 @@
 package org.auscope.portal.core.services;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import javax.naming.OperationNotSupportedException;
@@ -25,9 +34,15 @@ import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.message.BasicNameValuePair;
 import org.auscope.portal.core.server.http.HttpClientInputStream;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.cache.CanonicalRequestKey;
+import org.auscope.portal.core.services.cache.ResourcePrefetcher;
+import org.auscope.portal.core.services.cache.TieredCache;
 import org.auscope.portal.core.services.methodmakers.WMSMethodMakerInterface;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
 import org.auscope.portal.core.services.responses.ows.OWSExceptionParser;
+import org.auscope.portal.core.services.responses.ows.OWSExceptionSniffer;
 import org.auscope.portal.core.services.responses.wms.GetCapabilitiesRecord;
+import org.auscope.portal.core.services.responses.wms.GetCapabilitiesStreamParser;
 import org.springframework.beans.factory.annotation.Value;
 
 /**
@@ -46,6 +61,42 @@ public class WMSService {
 
     protected List<WMSMethodMakerInterface> listOfSupportedWMSMethodMaker;
 
+    protected WMSTileCache tileCache;
+
+    protected TieredCache featureInfoCache;
+
+    protected TieredCache styleCache = new TieredCache();
+
+    /** How long legend graphics are cached for by default (they rarely change) */
+    public static final long DEFAULT_LEGEND_TTL_SECONDS = 60 * 60 * 24;
+
+    /** The maximum number of concurrent requests made by prefetchLegendGraphics */
+    public static final int LEGEND_PREFETCH_THREADS = 4;
+
+    protected TieredCache legendCache = createLegendCache();
+
+    /** If set, GetCapabilities responses are parsed with this instead of the method maker's DOM based records */
+    protected GetCapabilitiesStreamParser capabilitiesParser;
+
+    /** The maximum number of endpoints whose negotiated version is remembered (the least recently used are forgotten first) */
+    public static final int MAX_NEGOTIATED_VERSIONS = 1000;
+
+    /** The WMS version that was last successfully used against an endpoint, keyed by endpoint URL */
+    private final Map<String, String> negotiatedVersions = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_NEGOTIATED_VERSIONS;
+                }
+            });
+
+    private static TieredCache createLegendCache() {
+        TieredCache cache = new TieredCache();
+        cache.setDefaultTtlSeconds(DEFAULT_LEGEND_TTL_SECONDS);
+        return cache;
+    }
 
     // ----------------------------------------------------------- Constructors
     public WMSService(HttpServiceCaller serviceCaller, List<WMSMethodMakerInterface> methodMaker) {
@@ -55,6 +106,124 @@ public class WMSService {
 
     // ------------------------------------------- Property Setters and Getters
 
+    /**
+     * Gets the cache used for GetFeatureInfo responses (or null if responses aren't cached)
+     *
+     * @return
+     */
+    public TieredCache getFeatureInfoCache() {
+        return featureInfoCache;
+    }
+
+    /**
+     * Sets the cache used for GetFeatureInfo responses. The underlying data can change so the cache should have a short TTL (eg a
+     * minute), it exists to absorb repeated clicks on the same pixel. Set to null to disable caching.
+     *
+     * @param featureInfoCache
+     */
+    public void setFeatureInfoCache(TieredCache featureInfoCache) {
+        this.featureInfoCache = featureInfoCache;
+    }
+
+    /**
+     * Gets the cache used for remote SLDs fetched by getStyle (or null if they aren't cached)
+     *
+     * @return
+     */
+    public TieredCache getStyleCache() {
+        return styleCache;
+    }
+
+    /**
+     * Sets the cache used for remote SLDs fetched by getStyle. By default SLDs are cached on the heap for
+     * TieredCache.DEFAULT_TTL_SECONDS. Set to null to disable caching.
+     *
+     * @param styleCache
+     */
+    public void setStyleCache(TieredCache styleCache) {
+        this.styleCache = styleCache;
+    }
+
+    /**
+     * Gets the cache used for legend graphics (or null if they aren't cached)
+     *
+     * @return
+     */
+    public TieredCache getLegendCache() {
+        return legendCache;
+    }
+
+    /**
+     * Sets the cache used for legend graphics. By default legends are cached on the heap for DEFAULT_LEGEND_TTL_SECONDS. Set to null to
+     * disable caching (which also disables prefetchLegendGraphics).
+     *
+     * @param legendCache
+     */
+    public void setLegendCache(TieredCache legendCache) {
+        this.legendCache = legendCache;
+    }
+
+    /**
+     * Gets the streaming parser used for GetCapabilities responses (or null if the DOM based records are used)
+     *
+     * @return
+     */
+    public GetCapabilitiesStreamParser getCapabilitiesParser() {
+        return capabilitiesParser;
+    }
+
+    /**
+     * Sets the streaming parser used for GetCapabilities responses. This is considerably faster and lighter than the DOM based records
+     * for large capabilities documents. Set to null to use the DOM based records of the method makers.
+     *
+     * @param capabilitiesParser
+     */
+    public void setCapabilitiesParser(GetCapabilitiesStreamParser capabilitiesParser) {
+        this.capabilitiesParser = capabilitiesParser;
+    }
+
+    /**
+     * Gets the WMS version that will be tried first for GetFeatureInfo requests to wmsUrl. This is learned from successful requests and
+     * GetCapabilities responses.
+     *
+     * @param wmsUrl
+     * @return The version or null if it hasn't been learned yet
+     */
+    public String getNegotiatedVersion(String wmsUrl) {
+        return wmsUrl == null ? null : negotiatedVersions.get(wmsUrl.trim());
+    }
+
+    /**
+     * Sets the WMS version that will be tried first for GetFeatureInfo requests to wmsUrl (eg from a previously cached GetCapabilities
+     * response).
+     *
+     * @param wmsUrl
+     * @param version
+     */
+    public void setNegotiatedVersion(String wmsUrl, String version) {
+        if (wmsUrl != null && version != null) {
+            negotiatedVersions.put(wmsUrl.trim(), version);
+        }
+    }
+
+    /**
+     * Gets the cache used for GetMap tiles (or null if tiles aren't cached)
+     *
+     * @return
+     */
+    public WMSTileCache getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * Sets the cache used for GetMap tiles. Set to null to disable tile caching
+     *
+     * @param tileCache
+     */
+    public void setTileCache(WMSTileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
     protected WMSMethodMakerInterface getSupportedMethodMaker(String wmsUrl, String version)
             throws OperationNotSupportedException {
         log.trace("WMSService::getsupportedMethodMaker() START");
@@ -84,7 +253,18 @@ public class WMSService {
             WMSMethodMakerInterface methodMaker = getSupportedMethodMaker(serviceUrl, version);
             // Do the request
             method = methodMaker.getCapabilitiesMethod(serviceUrl);
-            return methodMaker.getGetCapabilitiesRecord(method);
+            GetCapabilitiesRecord record;
+            if (capabilitiesParser != null) {
+                try (HttpClientInputStream response = serviceCaller.getMethodResponseAsStream(method)) {
+                    record = capabilitiesParser.parse(OWSExceptionSniffer.sniff(response));
+                }
+            } else {
+                record = methodMaker.getGetCapabilitiesRecord(method);
+            }
+            if (record != null) {
+                setNegotiatedVersion(serviceUrl, record.getVersion());
+            }
+            return record;
 
         } catch (NullPointerException npe) {
             npe.printStackTrace();
@@ -219,83 +399,317 @@ public class WMSService {
                                  double pointLng, double pointLat, int pointX, int pointY, String styles, String sldBody,
                                  boolean postMethod,
                                  String version, String feature_count, boolean attemptOtherVersion, List<NameValuePair> vendorParams) throws PortalServiceException {
+        if (featureInfoCache == null) {
+            return requestFeatureInfo(wmsUrl, format, layer, srs, westBoundLongitude, southBoundLatitude, eastBoundLongitude,
+                    northBoundLatitude, width, height, pointLng, pointLat, pointX, pointY, styles, sldBody, postMethod, version,
+                    feature_count, attemptOtherVersion, vendorParams);
+        }
 
-        // Do the request
-        HttpRequestBase method = null;
-        WMSMethodMakerInterface methodMaker;
+        CanonicalRequestKey key = getFeatureInfoKey(wmsUrl, format, layer, srs, westBoundLongitude, southBoundLatitude,
+                eastBoundLongitude, northBoundLatitude, width, height, pointX, pointY, styles, sldBody, feature_count,
+                vendorParams);
         try {
-            methodMaker = getSupportedMethodMaker(wmsUrl, version);
+            byte[] response = featureInfoCache.get(key, () -> requestFeatureInfo(wmsUrl, format, layer, srs,
+                    westBoundLongitude, southBoundLatitude, eastBoundLongitude, northBoundLatitude, width, height, pointLng,
+                    pointLat, pointX, pointY, styles, sldBody, postMethod, version, feature_count, attemptOtherVersion,
+                    vendorParams).getBytes(StandardCharsets.UTF_8));
+            return new String(response, StandardCharsets.UTF_8);
+        } catch (PortalServiceException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PortalServiceException("Failure requesting feature info", ex);
+        }
+    }
 
-            if (postMethod) {
-                method = methodMaker.getFeatureInfoPost(wmsUrl, format, layer, srs, westBoundLongitude,
-                        southBoundLatitude, eastBoundLongitude, northBoundLatitude, width, height, pointLng, pointLat,
-                        pointX, pointY, styles, sldBody, feature_count, vendorParams);
-            } else {
-                method = methodMaker.getFeatureInfo(wmsUrl, format, layer, srs, westBoundLongitude, southBoundLatitude,
-                        eastBoundLongitude, northBoundLatitude, width, height, pointLng, pointLat, pointX, pointY,
-                        styles, sldBody, feature_count, vendorParams);
-            }
-            String response = serviceCaller.getMethodResponseAsString(method);
-            //VT: a html response may not be xml valid therefore cannot go through the same validation process.
-            //Rely on the service to return meaningful response to the user.
-            if (format.toLowerCase().equals("text/html") ||
-                    format.toLowerCase().equals("application/json") ||
-                    format.toLowerCase().equals("text/plain") ||
-                    format.toLowerCase().equals("application/vnd.ogc.gml") ||
-                    format.toLowerCase().equals("application/vnd.ogc.gml/3.1.1")) {
-                return response;
-            } else {
-                OWSExceptionParser.checkForExceptionResponse(response);
-                return response;
+    /**
+     * Snaps a bounding box edge to the pixel grid of the image it was requested for. Clicks on the same pixel of the same map view will
+     * produce the same value regardless of any floating point noise in the bounding box.
+     */
+    private static String snapToPixels(double min, double max, int pixels) {
+        double resolution = (max - min) / pixels;
+        if (pixels <= 0 || !(resolution > 0)) {
+            return min + ":" + max;
+        }
+        return String.format(Locale.ENGLISH, "%1$d:%2$d@%3$.6g", Math.round(min / resolution),
+                Math.round(max / resolution), resolution);
+    }
+
+    /**
+     * Generates the cache key for a GetFeatureInfo request. The WMS version and HTTP method aren't included as every version should
+     * return the same features.
+     */
+    static CanonicalRequestKey getFeatureInfoKey(String wmsUrl, String format, String layer, String srs,
+            double westBoundLongitude, double southBoundLatitude, double eastBoundLongitude, double northBoundLatitude,
+            int width, int height, int pointX, int pointY, String styles, String sldBody, String feature_count,
+            List<NameValuePair> vendorParams) {
+        StringBuilder vendor = new StringBuilder();
+        if (vendorParams != null) {
+            for (NameValuePair param : vendorParams) {
+                vendor.append(param.getName()).append('=').append(param.getValue()).append('&');
             }
+        }
 
-        } catch (NullPointerException npe) {
-            npe.printStackTrace();
-            throw new NullPointerException("Call configWMSVersion to setup the right wms method maker to use");
+        return CanonicalRequestKey.fromParameters(wmsUrl, "GetFeatureInfo",
+                layer,
+                srs,
+                snapToPixels(westBoundLongitude, eastBoundLongitude, width),
+                snapToPixels(southBoundLatitude, northBoundLatitude, height),
+                width + "x" + height,
+                pointX + "," + pointY,
+                format == null ? "" : format.toLowerCase(Locale.ENGLISH),
+                styles == null ? "" : styles,
+                sldBody == null || sldBody.trim().isEmpty() ? "" : CanonicalRequestKey.sha256(sldBody),
+                feature_count == null ? "" : feature_count,
+                vendor.toString());
+    }
 
-        } catch (Exception ex) {
+    /**
+     * Gets the order in which WMS versions will be tried for a GetFeatureInfo request. A null version will be auto detected.
+     */
+    private List<String> getFeatureInfoVersions(String wmsUrl, String version, boolean attemptOtherVersion) {
+        String negotiatedVersion = getNegotiatedVersion(wmsUrl);
+        Set<String> versions = new LinkedHashSet<>();
+        if (!attemptOtherVersion) {
+            versions.add(version == null ? negotiatedVersion : version);
+            return new ArrayList<>(versions);
+        }
+
+        if (negotiatedVersion != null) {
+            versions.add(negotiatedVersion);
+        }
+        if (version != null) {
+            versions.add(version);
+        }
+        for (WMSMethodMakerInterface maker : listOfSupportedWMSMethodMaker) {
+            versions.add(maker.getSupportedVersion());
+        }
+        return new ArrayList<>(versions);
+    }
+
+    /**
+     * Makes a GetFeatureInfo request, trying each version returned by getFeatureInfoVersions in turn until one succeeds. The version that
+     * succeeds is remembered for subsequent requests to wmsUrl.
+     */
+    private String requestFeatureInfo(String wmsUrl, String format, String layer, String srs, double westBoundLongitude,
+                                      double southBoundLatitude, double eastBoundLongitude, double northBoundLatitude, int width, int height,
+                                      double pointLng, double pointLat, int pointX, int pointY, String styles, String sldBody,
+                                      boolean postMethod,
+                                      String version, String feature_count, boolean attemptOtherVersion, List<NameValuePair> vendorParams) throws PortalServiceException {
+        HttpRequestBase firstMethod = null;
+        Exception firstError = null;
+        for (String candidateVersion : getFeatureInfoVersions(wmsUrl, version, attemptOtherVersion)) {
+            HttpRequestBase method = null;
+            try {
+                WMSMethodMakerInterface methodMaker = getSupportedMethodMaker(wmsUrl, candidateVersion);
 
-            //VT:Making this more robust, maybe the wrong version is used;
-            if (attemptOtherVersion) {
-                for (WMSMethodMakerInterface maker : listOfSupportedWMSMethodMaker) {
-                    if (!maker.getSupportedVersion().equals(version)) {
-                        try {
-                            return this.getFeatureInfo(wmsUrl, format, layer, srs, westBoundLongitude,
-                                    southBoundLatitude, eastBoundLongitude, northBoundLatitude, width,
-                                    height, pointLng, pointLat, pointX, pointY, styles, sldBody, postMethod,
-                                    maker.getSupportedVersion(), feature_count, false);
-                        } catch (Exception e) {
-                            throw new PortalServiceException(method, "Failure requesting feature info", ex);
-                        }
-                    }
+                if (postMethod) {
+                    method = methodMaker.getFeatureInfoPost(wmsUrl, format, layer, srs, westBoundLongitude,
+                            southBoundLatitude, eastBoundLongitude, northBoundLatitude, width, height, pointLng, pointLat,
+                            pointX, pointY, styles, sldBody, feature_count, vendorParams);
+                } else {
+                    method = methodMaker.getFeatureInfo(wmsUrl, format, layer, srs, westBoundLongitude, southBoundLatitude,
+                            eastBoundLongitude, northBoundLatitude, width, height, pointLng, pointLat, pointX, pointY,
+                            styles, sldBody, feature_count, vendorParams);
+                }
+                String response = serviceCaller.getMethodResponseAsString(method);
+                //VT: a html response may not be xml valid therefore cannot go through the same validation process.
+                //Rely on the service to return meaningful response to the user.
+                if (!(format.toLowerCase().equals("text/html") ||
+                        format.toLowerCase().equals("application/json") ||
+                        format.toLowerCase().equals("text/plain") ||
+                        format.toLowerCase().equals("application/vnd.ogc.gml") ||
+                        format.toLowerCase().equals("application/vnd.ogc.gml/3.1.1"))) {
+                    OWSExceptionParser.checkForExceptionResponse(response);
                 }
-            } else {
-                throw new PortalServiceException(method, "Failure requesting feature info", ex);
 
+                setNegotiatedVersion(wmsUrl, candidateVersion == null ? methodMaker.getSupportedVersion() : candidateVersion);
+                return response;
+            } catch (NullPointerException npe) {
+                npe.printStackTrace();
+                throw new NullPointerException("Call configWMSVersion to setup the right wms method maker to use");
+            } catch (Exception ex) {
+                //VT:Making this more robust, maybe the wrong version is used;
+                log.debug(String.format("GetFeatureInfo to '%1$s' failed using version %2$s: %3$s", wmsUrl,
+                        candidateVersion, ex.getMessage()));
+                if (candidateVersion != null) {
+                    negotiatedVersions.remove(wmsUrl.trim(), candidateVersion);
+                }
+                if (firstError == null) {
+                    firstError = ex;
+                    firstMethod = method;
+                }
             }
-
         }
-        return "";
 
+        throw new PortalServiceException(firstMethod, "Failure requesting feature info", firstError);
     }
 
     public HttpClientInputStream getMap(String url,String layer,String bbox,String sldBody, String version, String crs) throws OperationNotSupportedException, URISyntaxException, IOException{
         return this.getMap(url,layer,bbox, sldBody, version, crs, false, null);
     }
 
+    /**
+     * Makes a WMS GetMap request for a 256x256 PNG. If a tile cache has been set and bbox is a tile in one of its grids the tile will be
+     * served from (or stored in) the cache.
+     *
+     * @param url The WMS endpoint
+     * @param layer The layer name
+     * @param bbox The bounding box (in the axis order of version)
+     * @param sldBody [Optional] The SLD used to style the layer
+     * @param version The WMS version
+     * @param crs The CRS of bbox
+     * @param requestCachedTile If true, the remote service will be asked for a tile from its own cache
+     * @param time [Optional] The time dimension value
+     * @return
+     */
     public HttpClientInputStream getMap(String url, String layer, String bbox, String sldBody, String version, String crs, boolean requestCachedTile, String time) throws OperationNotSupportedException, URISyntaxException, IOException {
 
         WMSMethodMakerInterface methodMaker;
         methodMaker = getSupportedMethodMaker(url, version);
+
+        if (tileCache != null) {
+            try {
+                byte[] tile = tileCache.getTile(url, layer, null, sldBody, time, crs, version, bbox,
+                        (metatileBbox, width, height) -> serviceCaller.getMethodResponseAsStream(methodMaker.getMap(url,
+                                layer, metatileBbox, sldBody, crs, requestCachedTile, time, width, height, true)));
+                if (tile != null) {
+                    return new HttpClientInputStream(new ByteArrayInputStream(tile), null);
+                }
+            } catch (IOException ex) {
+                log.debug("Tile cache unable to serve GetMap for " + layer + " " + bbox + ", requesting directly: " + ex.getMessage());
+            }
+        }
+
         HttpRequestBase method = methodMaker.getMap(url, layer, bbox, sldBody, crs, requestCachedTile, time);
         HttpClientInputStream response = serviceCaller.getMethodResponseAsStream(method);
         return response;
     }
 
+    /**
+     * Fetches a remote SLD. Responses are cached in the style cache (if set).
+     *
+     * @param url The WMS endpoint the style is for
+     * @param sldUrl The SLD to fetch
+     * @param version The WMS version
+     * @return
+     */
     public String getStyle(String url, String sldUrl, String version) throws OperationNotSupportedException, URISyntaxException, IOException {
         WMSMethodMakerInterface methodMaker;
         methodMaker = getSupportedMethodMaker(url, version);
-        String sldBody = methodMaker.getStyle(sldUrl);
-        return sldBody;
+        if (styleCache == null) {
+            return methodMaker.getStyle(sldUrl);
+        }
+
+        try {
+            byte[] sldBody = styleCache.get(CanonicalRequestKey.fromParameters(sldUrl, "GetStyle"),
+                    () -> methodMaker.getStyle(sldUrl).getBytes(StandardCharsets.UTF_8));
+            return new String(sldBody, StandardCharsets.UTF_8);
+        } catch (URISyntaxException | IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Gets a PNG legend graphic for a layer. Legends are cached per endpoint, layer, style, SLD and size.
+     *
+     * @param wmsUrl
+     *            The WMS endpoint
+     * @param layerName
+     *            The WMS layer name
+     * @param style
+     *            [Optional] The style name
+     * @param sldBody
+     *            [Optional] An SLD to render the legend from
+     * @param version
+     *            [Optional] The WMS version to use, if null it will be auto detected
+     * @param width
+     *            The desired width in pixels (or non positive for the server default)
+     * @param height
+     *            The desired height in pixels (or non positive for the server default)
+     * @return The image bytes
+     * @throws PortalServiceException
+     *             If the legend couldn't be retrieved or the response wasn't an image
+     */
+    public byte[] getLegendGraphic(String wmsUrl, String layerName, String style, String sldBody, String version, int width,
+            int height) throws PortalServiceException {
+        if (legendCache == null) {
+            return requestLegendGraphic(wmsUrl, layerName, style, sldBody, version, width, height);
+        }
+
+        try {
+            return legendCache.get(getLegendGraphicKey(wmsUrl, layerName, style, sldBody, width, height),
+                    () -> requestLegendGraphic(wmsUrl, layerName, style, sldBody, version, width, height));
+        } catch (PortalServiceException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PortalServiceException("Failure requesting legend graphic", ex);
+        }
+    }
+
+    /**
+     * Generates the cache key for a legend graphic. The WMS version isn't included as every version should return the same image.
+     */
+    static CanonicalRequestKey getLegendGraphicKey(String wmsUrl, String layerName, String style, String sldBody, int width,
+            int height) {
+        return CanonicalRequestKey.fromParameters(wmsUrl, "GetLegendGraphic",
+                layerName,
+                style == null ? "" : style.trim(),
+                sldBody == null || sldBody.trim().isEmpty() ? "" : CanonicalRequestKey.sha256(sldBody),
+                Math.max(width, 0) + "x" + Math.max(height, 0));
+    }
+
+    private byte[] requestLegendGraphic(String wmsUrl, String layerName, String style, String sldBody, String version,
+            int width, int height) throws PortalServiceException {
+        HttpRequestBase method = null;
+        try {
+            WMSMethodMakerInterface methodMaker = getSupportedMethodMaker(wmsUrl,
+                    version == null ? getNegotiatedVersion(wmsUrl) : version);
+            method = methodMaker.getLegendGraphic(wmsUrl, layerName, width, height, style, sldBody);
+            byte[] response = serviceCaller.getMethodResponseAsBytes(method);
+            if (!isImage(response)) {
+                OWSExceptionParser.checkForExceptionResponse(new String(response, StandardCharsets.UTF_8));
+                throw new PortalServiceException(method, "GetLegendGraphic response is not an image");
+            }
+            setNegotiatedVersion(wmsUrl, methodMaker.getSupportedVersion());
+            return response;
+        } catch (PortalServiceException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PortalServiceException(method, ex.getMessage(), ex);
+        } finally {
+            if (method != null) {
+                method.releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * Returns true if data starts with a PNG, GIF or JPEG signature
+     */
+    private static boolean isImage(byte[] data) {
+        if (data == null || data.length < 4) {
+            return false;
+        }
+        return (data[0] == (byte) 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G')
+                || (data[0] == 'G' && data[1] == 'I' && data[2] == 'F' && data[3] == '8')
+                || (data[0] == (byte) 0xFF && data[1] == (byte) 0xD8);
+    }
+
+    /**
+     * Populates the legend cache with the default legend of every distinct layer in a set of WMS online resources. Requests are made
+     * LEGEND_PREFETCH_THREADS at a time and this method blocks until they are all complete. Failures are logged and otherwise ignored.
+     *
+     * @param wmsResources
+     *            WMS online resources (other types are ignored)
+     * @return The number of legends that are now cached
+     */
+    public int prefetchLegendGraphics(Collection<AbstractCSWOnlineResource> wmsResources) {
+        if (legendCache == null) {
+            return 0;
+        }
+        return ResourcePrefetcher.prefetch(wmsResources, AbstractCSWOnlineResource.OnlineResourceType.WMS, LEGEND_PREFETCH_THREADS,
+                "legend graphics", (url, layer) -> getLegendGraphic(url, layer, null, null, null, -1, -1));
     }
 }
@@ -0,0 +1,805 @@
+package org.auscope.portal.core.services;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.cache.CanonicalRequestKey;
+import org.auscope.portal.core.services.responses.ows.OWSException;
+import org.auscope.portal.core.services.responses.ows.OWSExceptionSniffer;
+
+/**
+ * A disk backed cache of WMS GetMap tiles.
+ *
+ * Only requests whose bounding box lines up exactly with a tile in a well known grid (EPSG:3857 or EPSG:4326/CRS:84) are cached, anything
+ * else should be passed straight through to the remote service. On a miss the surrounding metatile (eg 4x4 tiles) is requested in a
+ * single GetMap and sliced into individual tiles, so that neighbouring tiles (which are nearly always requested next) don't require
+ * another round trip to the (often slow) remote service.
+ *
+ * Tiles are stored in a content addressed layout: each distinct PNG is written once (named by the SHA-256 of its bytes) and referenced by
+ * any number of tile entries. This means the many identical empty tiles a sparse layer produces cost a single file. The total size of
+ * the stored images is bounded, with the least recently used tiles discarded first.
+ *
+ * The in memory index is guarded by this object's monitor but files are only read or written outside of it. Writes and deletes of any
+ * one file are serialised by a striped lock (keyed by the file's hash) so that a file can't be deleted whilst it is being re-added.
+ */
+public class WMSTileCache {
+
+    /** Requests a (meta)tile image from the remote service */
+    @FunctionalInterface
+    public interface MetatileLoader {
+        /**
+         * Makes a GetMap request for a PNG of the specified bounding box. Errors should be reported as an exception report (not an
+         * image) so that they aren't stored.
+         *
+         * @param bbox
+         *            The bounding box in the request CRS (using the axis order of the request WMS version)
+         * @param width
+         *            The image width in pixels
+         * @param height
+         *            The image height in pixels
+         * @return
+         * @throws IOException
+         * @throws URISyntaxException
+         */
+        InputStream getMap(String bbox, int width, int height) throws IOException, URISyntaxException;
+    }
+
+    /** The width/height of every tile (in pixels) */
+    public static final int TILE_SIZE = 256;
+    /** The default maximum size of the stored images (in bytes) */
+    public static final long DEFAULT_MAX_DISK_BYTES = 1024L * 1024 * 1024;
+    /** The default number of tiles along each side of a metatile */
+    public static final int DEFAULT_METATILE_SIZE = 4;
+    /** The default time a tile will be served before it is requested again */
+    public static final long DEFAULT_MAX_AGE_SECONDS = 60 * 60 * 24;
+
+    private static final int MAX_ZOOM = 30;
+    /** Tolerance (as a fraction of the tile span) when matching a bbox to the grid */
+    private static final double GRID_TOLERANCE = 1e-6;
+
+    private static final String BLOB_DIRECTORY = "blobs";
+    private static final String TILE_DIRECTORY = "tiles";
+    private static final String BLOB_SUFFIX = ".png";
+    private static final String TILE_SUFFIX = ".tile";
+    /** The number of striped locks guarding file writes and deletes */
+    private static final int FILE_LOCK_STRIPES = 64;
+
+    /** A tile grid with square tiles that halve in size at each zoom level */
+    enum TileGrid {
+        /** Google/OSM style web mercator grid, a single tile at zoom 0 */
+        WEB_MERCATOR(-20037508.342789244, 20037508.342789244, 2 * 20037508.342789244, 1, 1),
+        /** WMTS/TMS style geographic grid, two tiles at zoom 0 */
+        WGS84(-180.0, 90.0, 180.0, 2, 1);
+
+        private final double originX;
+        private final double originY;
+        private final double span;
+        private final int columns;
+        private final int rows;
+
+        private TileGrid(double originX, double originY, double span, int columns, int rows) {
+            this.originX = originX;
+            this.originY = originY;
+            this.span = span;
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        double getSpan(int z) {
+            return span / (1L << z);
+        }
+
+        long getColumns(int z) {
+            return columns * (1L << z);
+        }
+
+        long getRows(int z) {
+            return rows * (1L << z);
+        }
+
+        double getMinX(int z, long x) {
+            return originX + x * getSpan(z);
+        }
+
+        double getMaxY(int z, long y) {
+            return originY - y * getSpan(z);
+        }
+    }
+
+    /** A single tile in a TileGrid */
+    static class TileCoordinate {
+        final TileGrid grid;
+        /** True if the bbox for this tile is in y/x order */
+        final boolean swapAxes;
+        final int z;
+        final long x;
+        final long y;
+
+        TileCoordinate(TileGrid grid, boolean swapAxes, int z, long x, long y) {
+            this.grid = grid;
+            this.swapAxes = swapAxes;
+            this.z = z;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public String toString() {
+            return z + "/" + x + "/" + y;
+        }
+    }
+
+    /** Index entry for a stored tile */
+    private static class TileEntry {
+        private final String blob;
+        private final long created;
+
+        public TileEntry(String blob, long created) {
+            this.blob = blob;
+            this.created = created;
+        }
+    }
+
+    /** Index entry for a stored image */
+    private static class BlobEntry {
+        private final long size;
+        private int references;
+
+        public BlobEntry(long size) {
+            this.size = size;
+        }
+    }
+
+    /** Files that were dropped from the index (whilst holding the monitor) and should be deleted once it's released */
+    private static class Garbage {
+        private final List<String> blobs = new ArrayList<>();
+        private final List<String> tiles = new ArrayList<>();
+    }
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final File blobDirectory;
+    private final File tileDirectory;
+    private final long maxDiskBytes;
+    private final int metatileSize;
+    private long maxAgeSeconds = DEFAULT_MAX_AGE_SECONDS;
+
+    /** Tile key hash -> entry in LRU (access) order. Guarded by this */
+    private final LinkedHashMap<String, TileEntry> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    /** Blob hash -> size and the number of tiles that reference it (or are about to). Guarded by this */
+    private final Map<String, BlobEntry> blobs = new HashMap<>();
+    /** Total size of all referenced blobs. Guarded by this */
+    private long diskBytes = 0;
+    /** Serialises writes and deletes of each blob/tile file, indexed by the file's hash */
+    private final Object[] fileLocks = new Object[FILE_LOCK_STRIPES];
+
+    /** Metatile requests currently in progress, keyed by the metatile key */
+    private final ConcurrentHashMap<String, CompletableFuture<Map<String, byte[]>>> inflight = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new cache using DEFAULT_MAX_DISK_BYTES and DEFAULT_METATILE_SIZE
+     *
+     * @param directory
+     *            Where tiles will be stored. Any tiles already stored here will be reused.
+     */
+    public WMSTileCache(File directory) {
+        this(directory, DEFAULT_MAX_DISK_BYTES, DEFAULT_METATILE_SIZE);
+    }
+
+    /**
+     * Creates a new cache
+     *
+     * @param directory
+     *            Where tiles will be stored. Any tiles already stored here will be reused.
+     * @param maxDiskBytes
+     *            The maximum total size of stored images
+     * @param metatileSize
+     *            The number of tiles along each side of the metatile requested on a miss. 1 will request single tiles.
+     */
+    public WMSTileCache(File directory, long maxDiskBytes, int metatileSize) {
+        if (metatileSize < 1) {
+            throw new IllegalArgumentException("metatileSize must be at least 1");
+        }
+        this.blobDirectory = new File(directory, BLOB_DIRECTORY);
+        this.tileDirectory = new File(directory, TILE_DIRECTORY);
+        this.maxDiskBytes = maxDiskBytes;
+        this.metatileSize = metatileSize;
+        for (int i = 0; i < fileLocks.length; i++) {
+            fileLocks[i] = new Object();
+        }
+
+        blobDirectory.mkdirs();
+        tileDirectory.mkdirs();
+        loadIndex();
+    }
+
+    /**
+     * The time (in seconds) a stored tile will be served before it is requested again. 0 or less will never expire tiles.
+     *
+     * @return
+     */
+    public long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    /**
+     * The time (in seconds) a stored tile will be served before it is requested again. 0 or less will never expire tiles.
+     *
+     * @param maxAgeSeconds
+     */
+    public void setMaxAgeSeconds(long maxAgeSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * Gets the total size of the stored images (in bytes)
+     *
+     * @return
+     */
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * Gets the number of stored tiles
+     *
+     * @return
+     */
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * Returns true if the bbox for the specified CRS/WMS version is written in y/x order
+     */
+    private static boolean isLatitudeFirst(TileGrid grid, String crs, String version) {
+        return grid == TileGrid.WGS84 && "1.3.0".equals(version) && !crs.toUpperCase(Locale.ENGLISH).startsWith("CRS:");
+    }
+
+    static TileGrid getGrid(String crs) {
+        if (crs == null) {
+            return null;
+        }
+        switch (crs.trim().toUpperCase(Locale.ENGLISH)) {
+        case "EPSG:3857":
+        case "EPSG:900913":
+        case "EPSG:102100":
+            return TileGrid.WEB_MERCATOR;
+        case "EPSG:4326":
+        case "CRS:84":
+            return TileGrid.WGS84;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Finds the tile that bbox covers exactly
+     *
+     * @param bbox
+     *            A GetMap bbox string
+     * @param crs
+     *            The CRS of bbox
+     * @param version
+     *            The WMS version (which determines the axis order of bbox)
+     * @return The tile or null if bbox doesn't line up with any tile
+     */
+    static TileCoordinate snap(String bbox, String crs, String version) {
+        TileGrid grid = getGrid(crs);
+        if (grid == null || bbox == null) {
+            return null;
+        }
+
+        String[] parts = bbox.split(",");
+        if (parts.length != 4) {
+            return null;
+        }
+        double[] values = new double[4];
+        try {
+            for (int i = 0; i < 4; i++) {
+                values[i] = Double.parseDouble(parts[i].trim());
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+
+        boolean swapAxes = isLatitudeFirst(grid, crs, version);
+        double minX = swapAxes ? values[1] : values[0];
+        double minY = swapAxes ? values[0] : values[1];
+        double maxX = swapAxes ? values[3] : values[2];
+        double maxY = swapAxes ? values[2] : values[3];
+
+        double width = maxX - minX;
+        if (!(width > 0) || Math.abs((maxY - minY) - width) > width * GRID_TOLERANCE) {
+            return null;
+        }
+
+        int z = (int) Math.round(Math.log(grid.span / width) / Math.log(2));
+        if (z < 0 || z > MAX_ZOOM) {
+            return null;
+        }
+        double span = grid.getSpan(z);
+        if (Math.abs(span - width) > span * GRID_TOLERANCE) {
+            return null;
+        }
+
+        long x = Math.round((minX - grid.originX) / span);
+        long y = Math.round((grid.originY - maxY) / span);
+        if (x < 0 || y < 0 || x >= grid.getColumns(z) || y >= grid.getRows(z)
+                || Math.abs(grid.getMinX(z, x) - minX) > span * GRID_TOLERANCE
+                || Math.abs(grid.getMaxY(z, y) - maxY) > span * GRID_TOLERANCE) {
+            return null;
+        }
+
+        return new TileCoordinate(grid, swapAxes, z, x, y);
+    }
+
+    private static String formatBbox(boolean swapAxes, double minX, double minY, double maxX, double maxY) {
+        if (swapAxes) {
+            return minY + "," + minX + "," + maxY + "," + maxX;
+        }
+        return minX + "," + minY + "," + maxX + "," + maxY;
+    }
+
+    /**
+     * Generates the key for a single tile. Everything that affects the rendered image must be included.
+     */
+    private static String tileKey(String layerKey, TileCoordinate tile, long x, long y) {
+        return layerKey + "\n" + tile.grid + "/" + tile.z + "/" + x + "/" + y;
+    }
+
+    /**
+     * Gets the tile that a GetMap request for bbox would return, requesting (and storing) the surrounding metatile if it's not already
+     * stored.
+     *
+     * @param url
+     *            The WMS endpoint
+     * @param layer
+     *            The layer name
+     * @param style
+     *            [Optional] The named style
+     * @param sldBody
+     *            [Optional] The SLD used to style the layer
+     * @param time
+     *            [Optional] The time dimension value
+     * @param crs
+     *            The CRS of bbox
+     * @param version
+     *            The WMS version (which determines the axis order of bbox)
+     * @param bbox
+     *            The GetMap bbox
+     * @param loader
+     *            Used to request images from the remote service on a miss
+     * @return The PNG tile or null if bbox isn't a tile in a supported grid (and the request should be made directly)
+     * @throws IOException
+     *             If the remote service can't be contacted or doesn't return a PNG of the expected size
+     */
+    public byte[] getTile(String url, String layer, String style, String sldBody, String time, String crs,
+            String version, String bbox, MetatileLoader loader) throws IOException {
+        TileCoordinate tile = snap(bbox, crs, version);
+        if (tile == null) {
+            return null;
+        }
+
+        String layerKey = url + "\n" + layer + "\n" + (style == null ? "" : style) + "\n"
+                + (sldBody == null || sldBody.trim().isEmpty() ? "" : CanonicalRequestKey.sha256(sldBody)) + "\n"
+                + (time == null ? "" : time);
+        String key = tileKey(layerKey, tile, tile.x, tile.y);
+
+        byte[] image = getIfPresent(key);
+        if (image != null) {
+            return image;
+        }
+
+        long metaX = (tile.x / metatileSize) * metatileSize;
+        long metaY = (tile.y / metatileSize) * metatileSize;
+        String metatileKey = tileKey(layerKey, tile, metaX, metaY) + "\n" + metatileSize;
+
+        CompletableFuture<Map<String, byte[]>> future = new CompletableFuture<>();
+        CompletableFuture<Map<String, byte[]>> existing = inflight.putIfAbsent(metatileKey, future);
+        if (existing != null) {
+            try {
+                image = existing.get().get(key);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            }
+            if (image == null) {
+                throw new IOException("Tile " + tile + " missing from metatile");
+            }
+            return image;
+        }
+
+        try {
+            //Another caller may have finished loading between our lookup and registering our future
+            image = getIfPresent(key);
+            Map<String, byte[]> images;
+            if (image == null) {
+                images = loadMetatile(layerKey, tile, metaX, metaY, bbox, loader);
+                image = images.get(key);
+            } else {
+                images = new HashMap<>();
+                images.put(key, image);
+            }
+            future.complete(images);
+            return image;
+        } catch (IOException | RuntimeException | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inflight.remove(metatileKey, future);
+        }
+    }
+
+    /**
+     * Requests the metatile whose top left tile is metaX,metaY and stores every tile in it
+     *
+     * @return The stored tiles keyed by tile key
+     */
+    private Map<String, byte[]> loadMetatile(String layerKey, TileCoordinate tile, long metaX, long metaY,
+            String originalBbox, MetatileLoader loader) throws IOException {
+        TileGrid grid = tile.grid;
+        int columns = (int) Math.min(metatileSize, grid.getColumns(tile.z) - metaX);
+        int rows = (int) Math.min(metatileSize, grid.getRows(tile.z) - metaY);
+
+        //Single tile requests use the original bbox so they are identical to an uncached request
+        String bbox = originalBbox;
+        if (columns > 1 || rows > 1) {
+            bbox = formatBbox(tile.swapAxes, grid.getMinX(tile.z, metaX), grid.getMaxY(tile.z, metaY + rows),
+                    grid.getMinX(tile.z, metaX + columns), grid.getMaxY(tile.z, metaY));
+        }
+
+        int width = columns * TILE_SIZE;
+        int height = rows * TILE_SIZE;
+        byte[] response;
+        try (InputStream is = loader.getMap(bbox, width, height)) {
+            response = IOUtils.toByteArray(is);
+        } catch (URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+        BufferedImage metatile = ImageIO.read(new ByteArrayInputStream(response));
+        if (metatile == null) {
+            try {
+                OWSExceptionSniffer.sniff(new ByteArrayInputStream(response));
+            } catch (OWSException ex) {
+                throw new IOException("GetMap for " + bbox + " failed: " + ex.getMessage(), ex);
+            }
+            throw new IOException("Response to GetMap for " + bbox + " is not an image");
+        }
+        if (metatile.getWidth() != width || metatile.getHeight() != height) {
+            throw new IOException(String.format("Expected a %1$dx%2$d image but got %3$dx%4$d", width, height,
+                    metatile.getWidth(), metatile.getHeight()));
+        }
+
+        //Failing to store a tile doesn't stop it being served, there's no need to request it again
+        Map<String, byte[]> images = new HashMap<>();
+        IOException storeError = null;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                BufferedImage slice = metatile.getSubimage(column * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                ImageIO.write(slice, "png", bos);
+                String key = tileKey(layerKey, tile, metaX + column, metaY + row);
+                images.put(key, bos.toByteArray());
+                try {
+                    put(key, bos.toByteArray());
+                } catch (IOException ex) {
+                    storeError = ex;
+                }
+            }
+        }
+        if (storeError != null) {
+            log.warn("Unable to store tiles for " + bbox + ": " + storeError.getMessage());
+        }
+        return images;
+    }
+
+    private File getBlobFile(String blob) {
+        return new File(new File(blobDirectory, blob.substring(0, 2)), blob + BLOB_SUFFIX);
+    }
+
+    private File getTileFile(String keyHash) {
+        return new File(tileDirectory, keyHash + TILE_SUFFIX);
+    }
+
+    private Object getFileLock(String hash) {
+        return fileLocks[Math.floorMod(hash.hashCode(), fileLocks.length)];
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Rebuilds the in memory index from any tiles already on disk, oldest first. Unreferenced images are deleted. Only called by the
+     * constructor.
+     */
+    private void loadIndex() {
+        Garbage garbage = new Garbage();
+        File[] tileFiles = tileDirectory.listFiles((dir, name) -> name.endsWith(TILE_SUFFIX));
+        if (tileFiles != null) {
+            Arrays.sort(tileFiles, Comparator.comparingLong(File::lastModified));
+            for (File tileFile : tileFiles) {
+                try {
+                    List<String> lines = Files.readAllLines(tileFile.toPath(), StandardCharsets.UTF_8);
+                    String blob = lines.get(0);
+                    File blobFile = getBlobFile(blob);
+                    if (!blobFile.exists()) {
+                        Files.deleteIfExists(tileFile.toPath());
+                        continue;
+                    }
+                    String keyHash = tileFile.getName().substring(0,
+                            tileFile.getName().length() - TILE_SUFFIX.length());
+                    TileEntry entry = new TileEntry(blob, Long.parseLong(lines.get(1)));
+                    synchronized (this) {
+                        retainBlob(blob, blobFile.length());
+                        tiles.put(keyHash, entry);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    log.debug("Discarding unreadable tile " + tileFile + ": " + ex.getMessage());
+                    tileFile.delete();
+                }
+            }
+        }
+
+        File[] blobDirectories = blobDirectory.listFiles(File::isDirectory);
+        if (blobDirectories != null) {
+            for (File directory : blobDirectories) {
+                File[] blobFiles = directory.listFiles();
+                if (blobFiles == null) {
+                    continue;
+                }
+                for (File blobFile : blobFiles) {
+                    String name = blobFile.getName();
+                    if (!name.endsWith(BLOB_SUFFIX) || !isReferenced(name.substring(0, name.length() - BLOB_SUFFIX.length()))) {
+                        blobFile.delete();
+                    }
+                }
+            }
+        }
+
+        synchronized (this) {
+            evict(garbage);
+        }
+        deleteGarbage(garbage);
+    }
+
+    /**
+     * Adds a reference to an image, returning true if it wasn't already referenced (and so may need writing). Must hold this.
+     */
+    private boolean retainBlob(String blob, long size) {
+        BlobEntry entry = blobs.get(blob);
+        if (entry == null) {
+            entry = new BlobEntry(size);
+            blobs.put(blob, entry);
+            diskBytes += size;
+        }
+        return entry.references++ == 0;
+    }
+
+    /**
+     * Removes a reference to an image, marking it as garbage if nothing else references it. Must hold this.
+     */
+    private void releaseBlob(String blob, Garbage garbage) {
+        BlobEntry entry = blobs.get(blob);
+        if (--entry.references > 0) {
+            return;
+        }
+        blobs.remove(blob);
+        diskBytes -= entry.size;
+        garbage.blobs.add(blob);
+    }
+
+    /**
+     * Removes an entry from the index, marking its files as garbage. Must hold this.
+     */
+    private void removeEntry(String keyHash, TileEntry entry, Garbage garbage) {
+        releaseBlob(entry.blob, garbage);
+        garbage.tiles.add(keyHash);
+    }
+
+    /**
+     * Discards least recently used tiles until the stored images fit within maxDiskBytes. Must hold this.
+     */
+    private void evict(Garbage garbage) {
+        Iterator<Map.Entry<String, TileEntry>> it = tiles.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && it.hasNext()) {
+            Map.Entry<String, TileEntry> eldest = it.next();
+            it.remove();
+            removeEntry(eldest.getKey(), eldest.getValue(), garbage);
+        }
+    }
+
+    private synchronized boolean isReferenced(String blob) {
+        return blobs.containsKey(blob);
+    }
+
+    private synchronized boolean isIndexed(String keyHash, TileEntry entry) {
+        TileEntry indexed = tiles.get(keyHash);
+        return entry == null ? indexed != null : indexed == entry;
+    }
+
+    /**
+     * Deletes the files in garbage unless they have been re-added to the index in the meantime. Must NOT hold this.
+     */
+    private void deleteGarbage(Garbage garbage) {
+        for (String blob : garbage.blobs) {
+            synchronized (getFileLock(blob)) {
+                if (!isReferenced(blob)) {
+                    getBlobFile(blob).delete();
+                }
+            }
+        }
+        for (String keyHash : garbage.tiles) {
+            synchronized (getFileLock(keyHash)) {
+                if (!isIndexed(keyHash, null)) {
+                    getTileFile(keyHash).delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops entry from the index (if it's still there)
+     */
+    private void discard(String keyHash, TileEntry entry) {
+        Garbage garbage = new Garbage();
+        synchronized (this) {
+            if (tiles.get(keyHash) == entry) {
+                tiles.remove(keyHash);
+                removeEntry(keyHash, entry, garbage);
+            }
+        }
+        deleteGarbage(garbage);
+    }
+
+    /**
+     * Gets a stored tile
+     *
+     * @param key
+     *            The tile key
+     * @return The PNG or null if the tile isn't stored (or has expired)
+     */
+    private byte[] getIfPresent(String key) {
+        String keyHash = CanonicalRequestKey.sha256(key);
+        long now = currentTimeMillis();
+        TileEntry entry;
+        synchronized (this) {
+            entry = tiles.get(keyHash);
+            if (entry == null) {
+                return null;
+            }
+        }
+
+        if (maxAgeSeconds > 0 && now - entry.created > maxAgeSeconds * 1000) {
+            discard(keyHash, entry);
+            return null;
+        }
+
+        File blobFile = getBlobFile(entry.blob);
+        try {
+            byte[] image = Files.readAllBytes(blobFile.toPath());
+            getTileFile(keyHash).setLastModified(now);
+            return image;
+        } catch (IOException ex) {
+            log.debug("Unable to read tile " + blobFile + ": " + ex.getMessage());
+            discard(keyHash, entry);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a tile, replacing any existing tile with the same key
+     */
+    private void put(String key, byte[] image) throws IOException {
+        String keyHash = CanonicalRequestKey.sha256(key);
+        if (image.length > maxDiskBytes) {
+            TileEntry existing;
+            synchronized (this) {
+                existing = tiles.get(keyHash);
+            }
+            if (existing != null) {
+                discard(keyHash, existing);
+            }
+            return;
+        }
+
+        //The image is referenced before it's written so that it can't be deleted by a concurrent eviction in the meantime
+        String blob = DigestUtils.sha256Hex(image);
+        Garbage garbage = new Garbage();
+        boolean created;
+        synchronized (this) {
+            created = retainBlob(blob, image.length);
+        }
+        if (created) {
+            try {
+                synchronized (getFileLock(blob)) {
+                    File blobFile = getBlobFile(blob);
+                    if (!blobFile.exists()) {
+                        blobFile.getParentFile().mkdirs();
+                        writeAtomically(blobFile, image);
+                    }
+                }
+            } catch (IOException ex) {
+                synchronized (this) {
+                    releaseBlob(blob, garbage);
+                }
+                deleteGarbage(garbage);
+                throw ex;
+            }
+        }
+
+        TileEntry entry = new TileEntry(blob, currentTimeMillis());
+        synchronized (this) {
+            TileEntry existing = tiles.remove(keyHash);
+            if (existing != null) {
+                removeEntry(keyHash, existing, garbage);
+            }
+            tiles.put(keyHash, entry);
+            evict(garbage);
+        }
+
+        try {
+            synchronized (getFileLock(keyHash)) {
+                if (isIndexed(keyHash, entry)) {
+                    writeAtomically(getTileFile(keyHash), (blob + "\n" + entry.created + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        } finally {
+            deleteGarbage(garbage);
+        }
+    }
+
+    private static void writeAtomically(File file, byte[] data) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(tmp.toPath(), data);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes every stored tile
+     */
+    public void clear() {
+        Garbage garbage = new Garbage();
+        synchronized (this) {
+            Iterator<Map.Entry<String, TileEntry>> it = tiles.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, TileEntry> entry = it.next();
+                it.remove();
+                removeEntry(entry.getKey(), entry.getValue(), garbage);
+            }
+        }
+        deleteGarbage(garbage);
+    }
+}
@@ -0,0 +1,377 @@
+package org.auscope.portal.core.services.cache;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * A cache key derived from a HTTP request such that requests that are semantically identical (for the purposes of an OGC service) map to
+ * the same key.
+ *
+ * The canonical form is built according to the following rules:
+ * <ul>
+ * <li>The scheme and host are lower cased and default ports are dropped</li>
+ * <li>Query parameters are sorted and their names lower cased (OGC KVP parameter names are case insensitive)</li>
+ * <li>Numbers in bbox parameters and GML coordinate elements (eg gml:lowerCorner) are rounded to a fixed number of decimal places</li>
+ * <li>XML request bodies are normalized: namespace prefixes, attribute order, comments and whitespace between elements are ignored</li>
+ * </ul>
+ */
+public class CanonicalRequestKey {
+
+    /** The default number of decimal places that bounding box coordinates are rounded to */
+    public static final int DEFAULT_BBOX_PRECISION = 6;
+
+    /** Local names of XML elements whose content is a list of coordinates */
+    private static final Set<String> COORDINATE_ELEMENTS = new HashSet<>(
+            Arrays.asList("lowerCorner", "upperCorner", "pos", "posList", "coordinates", "X", "Y"));
+
+    /** Names (lower case) of KVP parameters whose values are a list of coordinates */
+    private static final Set<String> COORDINATE_PARAMETERS = new HashSet<>(Arrays.asList("bbox"));
+
+    private static final Pattern NUMBER_TOKEN = Pattern.compile("[^\\s,]+");
+
+    private String host;
+    private String key;
+
+    private CanonicalRequestKey(String host, String key) {
+        this.host = host;
+        this.key = key;
+    }
+
+    /**
+     * Creates a key from the specified request using DEFAULT_BBOX_PRECISION
+     *
+     * @param method
+     * @return
+     * @throws IOException
+     *             If the request body can't be read
+     */
+    public static CanonicalRequestKey fromRequest(HttpRequestBase method) throws IOException {
+        return fromRequest(method, DEFAULT_BBOX_PRECISION);
+    }
+
+    /**
+     * Creates a key from the specified request
+     *
+     * @param method
+     * @param bboxPrecision
+     *            The number of decimal places that bounding box coordinates will be rounded to
+     * @return
+     * @throws IOException
+     *             If the request body can't be read
+     */
+    public static CanonicalRequestKey fromRequest(HttpRequestBase method, int bboxPrecision) throws IOException {
+        URI uri = method.getURI();
+        String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ENGLISH);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(method.getMethod()).append(' ');
+        sb.append(uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ENGLISH)).append("://");
+        sb.append(host);
+        if (uri.getPort() >= 0 && !isDefaultPort(uri.getScheme(), uri.getPort())) {
+            sb.append(':').append(uri.getPort());
+        }
+        sb.append(uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+        sb.append('?').append(canonicalQuery(uri.getRawQuery(), bboxPrecision));
+
+        if (method instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) method).getEntity();
+            if (entity != null) {
+                if (!entity.isRepeatable()) {
+                    throw new IOException("Request body can't be read without consuming it");
+                }
+                sb.append('\n').append(canonicalBody(IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8),
+                        bboxPrecision));
+            }
+        }
+
+        return new CanonicalRequestKey(host, sb.toString());
+    }
+
+    private static boolean isDefaultPort(String scheme, int port) {
+        return ("http".equalsIgnoreCase(scheme) && port == 80) || ("https".equalsIgnoreCase(scheme) && port == 443);
+    }
+
+    /**
+     * Rounds every number in a whitespace/comma separated list of values (eg a bbox). Any non numeric values (eg a trailing CRS) are kept
+     * as is.
+     */
+    static String roundCoordinates(String value, int precision) {
+        StringBuilder sb = new StringBuilder();
+        Matcher m = NUMBER_TOKEN.matcher(value);
+        int lastEnd = -1;
+        while (m.find()) {
+            if (lastEnd >= 0) {
+                sb.append(value.substring(lastEnd, m.start()).indexOf(',') >= 0 ? ',' : ' ');
+            }
+            lastEnd = m.end();
+
+            try {
+                BigDecimal number = new BigDecimal(m.group()).setScale(precision, RoundingMode.HALF_UP)
+                        .stripTrailingZeros();
+                sb.append(number.signum() == 0 ? "0" : number.toPlainString());
+            } catch (NumberFormatException ex) {
+                sb.append(m.group());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Sorts the parameters of a raw query string, lower casing parameter names and rounding bbox values
+     */
+    static String canonicalQuery(String rawQuery, int bboxPrecision) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+
+        List<String[]> params = new ArrayList<>();
+        for (NameValuePair pair : URLEncodedUtils.parse(rawQuery, StandardCharsets.UTF_8)) {
+            String name = pair.getName().toLowerCase(Locale.ENGLISH);
+            String value = pair.getValue() == null ? "" : pair.getValue();
+            if (COORDINATE_PARAMETERS.contains(name)) {
+                value = roundCoordinates(value, bboxPrecision);
+            }
+            params.add(new String[] {name, value});
+        }
+
+        Collections.sort(params, Comparator.<String[], String> comparing(p -> p[0]).thenComparing(p -> p[1]));
+        StringBuilder sb = new StringBuilder();
+        for (String[] param : params) {
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(param[0]).append('=').append(param[1]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Normalizes a request body. XML bodies are written in a canonical form, anything else is just trimmed
+     */
+    static String canonicalBody(String body, int bboxPrecision) {
+        String trimmed = body.trim();
+        if (!trimmed.startsWith("<")) {
+            return trimmed;
+        }
+
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            Element root = builder.parse(new InputSource(new StringReader(trimmed))).getDocumentElement();
+
+            StringBuilder sb = new StringBuilder();
+            appendCanonicalElement(sb, root, bboxPrecision);
+            return sb.toString();
+        } catch (ParserConfigurationException | SAXException | IOException ex) {
+            return trimmed;
+        }
+    }
+
+    private static String qualifiedName(Node node) {
+        String ns = node.getNamespaceURI();
+        String localName = node.getLocalName() == null ? node.getNodeName() : node.getLocalName();
+        return ns == null || ns.isEmpty() ? localName : "{" + ns + "}" + localName;
+    }
+
+    private static void appendCanonicalElement(StringBuilder sb, Element element, int bboxPrecision) {
+        String name = qualifiedName(element);
+        sb.append('<').append(name);
+
+        List<String> attributes = new ArrayList<>();
+        NamedNodeMap attrs = element.getAttributes();
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr attr = (Attr) attrs.item(i);
+            if ("http://www.w3.org/2000/xmlns/".equals(attr.getNamespaceURI())) {
+                continue; //Prefixes are irrelevant
+            }
+            attributes.add(qualifiedName(attr) + "=\"" + attr.getValue().trim() + "\"");
+        }
+        Collections.sort(attributes);
+        for (String attribute : attributes) {
+            sb.append(' ').append(attribute);
+        }
+        sb.append('>');
+
+        boolean isCoordinates = COORDINATE_ELEMENTS.contains(element.getLocalName());
+        StringBuilder text = new StringBuilder();
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            switch (child.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                appendCanonicalText(sb, text, isCoordinates, bboxPrecision);
+                appendCanonicalElement(sb, (Element) child, bboxPrecision);
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                text.append(child.getNodeValue());
+                break;
+            default:
+                break;
+            }
+        }
+        appendCanonicalText(sb, text, isCoordinates, bboxPrecision);
+
+        sb.append("</").append(name).append('>');
+    }
+
+    private static void appendCanonicalText(StringBuilder sb, StringBuilder text, boolean isCoordinates,
+            int bboxPrecision) {
+        String value = text.toString().trim();
+        text.setLength(0);
+        if (value.isEmpty()) {
+            return;
+        }
+        if (isCoordinates) {
+            value = roundCoordinates(value, bboxPrecision);
+        }
+        sb.append(value.replace("&", "&amp;").replace("<", "&lt;"));
+    }
+
+    /**
+     * Creates a new key for a value derived from the response to this key's request (eg a HTML transformation of it). The derived key will
+     * share the same host.
+     *
+     * @param variant
+     *            Identifies the type of derived value
+     * @param params
+     *            Any parameters that affect the derived value
+     * @return
+     */
+    public CanonicalRequestKey derive(String variant, String... params) {
+        StringBuilder sb = new StringBuilder(key);
+        sb.append("\n#").append(variant);
+        for (String param : params) {
+            sb.append('\n').append(param);
+        }
+        return new CanonicalRequestKey(host, sb.toString());
+    }
+
+    /**
+     * Creates a key for a value derived from arbitrary content (eg a client supplied document) rather than a request to a remote service
+     *
+     * @param variant
+     *            Identifies the type of derived value
+     * @param content
+     *            The content the value is derived from
+     * @param params
+     *            Any parameters that affect the derived value
+     * @return
+     */
+    public static CanonicalRequestKey fromContent(String variant, String content, String... params) {
+        return new CanonicalRequestKey("", "content:" + sha256(content)).derive(variant, params);
+    }
+
+    /**
+     * Creates a key for an operation against a remote service that is identified by a set of parameters (which the caller has already
+     * normalized) rather than by the HTTP request that will be made. This is useful when the same logical request can be sent in several
+     * different ways (eg as a GET or POST or to different service versions).
+     *
+     * @param serviceUrl
+     *            The service endpoint
+     * @param operation
+     *            Identifies the operation
+     * @param params
+     *            Every parameter that affects the response
+     * @return
+     */
+    public static CanonicalRequestKey fromParameters(String serviceUrl, String operation, String... params) {
+        String host = "";
+        try {
+            URI uri = new URI(serviceUrl.trim());
+            host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ENGLISH);
+        } catch (URISyntaxException ex) {
+            //The key will still be valid, it just won't pick up a host specific TTL
+        }
+        return new CanonicalRequestKey(host, "service:" + serviceUrl.trim()).derive(operation, params);
+    }
+
+    /**
+     * Gets the hex encoded SHA-256 hash of a String
+     *
+     * @param s
+     * @return
+     */
+    public static String sha256(String s) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * The (lower case) host that the request is directed at
+     *
+     * @return
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * The canonical form of the request
+     *
+     * @return
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CanonicalRequestKey && key.equals(((CanonicalRequestKey) obj).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
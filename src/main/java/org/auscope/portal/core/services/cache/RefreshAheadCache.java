@@ -0,0 +1,332 @@
+package org.auscope.portal.core.services.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An in memory cache of parsed objects (as opposed to TieredCache which holds raw responses).
+ *
+ * Entries that are requested after a configurable fraction of their TTL has elapsed are reloaded in the background while the existing value
+ * continues to be served, so frequently used entries never expire in front of a caller. Concurrent loads of the same key are coalesced into
+ * a single call to the loader. Errors are never cached, a failed background refresh leaves the existing value in place until it expires.
+ *
+ * The number of entries is bounded (least recently used entries are discarded first) and expired entries are swept out periodically.
+ *
+ * @param <K>
+ *            The key type
+ * @param <V>
+ *            The value type. Values are shared between callers so should be treated as immutable.
+ */
+public class RefreshAheadCache<K, V> {
+
+    /** Loads a value for a key */
+    @FunctionalInterface
+    public interface Loader<V> {
+        /**
+         * Loads the value for a key that is missing or due for a refresh
+         *
+         * @return
+         * @throws Exception
+         */
+        V load() throws Exception;
+    }
+
+    /** The default time to live of each entry */
+    public static final long DEFAULT_TTL_SECONDS = 60 * 60;
+    /** The default fraction of the TTL after which a request will trigger a background refresh */
+    public static final double DEFAULT_REFRESH_AHEAD_FRACTION = 0.75;
+    /** The default maximum number of entries */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    /** The number of threads refreshing entries for every cache created without an executor */
+    public static final int DEFAULT_REFRESH_THREADS = 2;
+    /** The maximum number of refreshes queued for DEFAULT_REFRESH_THREADS, further refreshes are skipped until there is room */
+    public static final int DEFAULT_REFRESH_QUEUE_SIZE = 100;
+
+    /** Shared by every cache created without an executor. Loaders are expected to block on I/O so the common pool isn't used */
+    private static final ThreadPoolExecutor defaultRefreshExecutor = createDefaultRefreshExecutor();
+
+    private static ThreadPoolExecutor createDefaultRefreshExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_REFRESH_THREADS, DEFAULT_REFRESH_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(DEFAULT_REFRESH_QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "RefreshAheadCache-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long refreshAt;
+        private final long expires;
+
+        public Entry(V value, long refreshAt, long expires) {
+            this.value = value;
+            this.refreshAt = refreshAt;
+            this.expires = expires;
+        }
+    }
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final Executor refreshExecutor;
+    private final int maxEntries;
+    private long ttlSeconds = DEFAULT_TTL_SECONDS;
+    private double refreshAheadFraction = DEFAULT_REFRESH_AHEAD_FRACTION;
+
+    /** Entries in LRU (access) order. Guarded by itself */
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** When expired entries will next be swept out. Guarded by entries */
+    private long nextSweep = 0;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inflight = new ConcurrentHashMap<>();
+    /** Keys with a background refresh queued or running */
+    private final Set<K> refreshing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a cache of up to DEFAULT_MAX_ENTRIES entries that refreshes entries using a small shared pool of DEFAULT_REFRESH_THREADS
+     * threads
+     */
+    public RefreshAheadCache() {
+        this(DEFAULT_MAX_ENTRIES, defaultRefreshExecutor);
+    }
+
+    /**
+     * Creates a cache of up to DEFAULT_MAX_ENTRIES entries
+     *
+     * @param refreshExecutor
+     *            Runs background refreshes
+     */
+    public RefreshAheadCache(Executor refreshExecutor) {
+        this(DEFAULT_MAX_ENTRIES, refreshExecutor);
+    }
+
+    /**
+     * Creates a cache
+     *
+     * @param maxEntries
+     *            The maximum number of entries, the least recently used entries are discarded first
+     * @param refreshExecutor
+     *            Runs background refreshes
+     */
+    public RefreshAheadCache(int maxEntries, Executor refreshExecutor) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * Sets how long entries are served for after being loaded. A TTL of 0 disables caching.
+     *
+     * @param ttlSeconds
+     */
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public double getRefreshAheadFraction() {
+        return refreshAheadFraction;
+    }
+
+    /**
+     * Sets the fraction (0 to 1) of the TTL after which requesting an entry will trigger a background refresh. A value of 1 disables
+     * refresh ahead.
+     *
+     * @param refreshAheadFraction
+     */
+    public void setRefreshAheadFraction(double refreshAheadFraction) {
+        this.refreshAheadFraction = refreshAheadFraction;
+    }
+
+    /**
+     * The current time in milliseconds (overridable for testing)
+     *
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the value for key, loading it with loader if it's missing or expired. If the value is due for a refresh, the current value is
+     * returned and loader is called again in the background.
+     *
+     * @param key
+     * @param loader
+     * @return
+     * @throws Exception
+     *             Any exception thrown by the loader
+     */
+    public V get(K key, Loader<V> loader) throws Exception {
+        if (ttlSeconds <= 0) {
+            return loader.load();
+        }
+
+        long now = currentTimeMillis();
+        Entry<V> entry = getEntry(key, now);
+        if (entry != null) {
+            if (entry.refreshAt <= now) {
+                refreshAsync(key, loader);
+            }
+            return entry.value;
+        }
+
+        return load(key, loader);
+    }
+
+    /**
+     * Gets the unexpired entry for key (removing it if it has expired)
+     */
+    private Entry<V> getEntry(K key, long now) {
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expires <= now) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Gets the cached value for key without loading or refreshing it
+     *
+     * @param key
+     * @return The value or null if it's not cached (or has expired)
+     */
+    public V getIfPresent(K key) {
+        Entry<V> entry = getEntry(key, currentTimeMillis());
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Caches value for key
+     *
+     * @param key
+     * @param value
+     */
+    public void put(K key, V value) {
+        if (ttlSeconds <= 0 || value == null) {
+            return;
+        }
+        long now = currentTimeMillis();
+        long ttlMillis = ttlSeconds * 1000L;
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, now + (long) (ttlMillis * refreshAheadFraction), now + ttlMillis));
+            if (now >= nextSweep) {
+                entries.values().removeIf(entry -> entry.expires <= now);
+                nextSweep = now + ttlMillis;
+            }
+
+            Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes key from the cache
+     *
+     * @param key
+     */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Removes every entry
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * The number of cached entries (including any that have expired but not yet been swept out)
+     *
+     * @return
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private V load(K key, Loader<V> loader) throws Exception {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inflight.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof Exception) {
+                    throw (Exception) ex.getCause();
+                }
+                throw ex;
+            }
+        }
+
+        try {
+            V value = loader.load();
+            put(key, value);
+            future.complete(value);
+            return value;
+        } catch (Exception | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inflight.remove(key, future);
+        }
+    }
+
+    private void refreshAsync(final K key, final Loader<V> loader) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    load(key, loader);
+                } catch (Exception ex) {
+                    log.debug(String.format("Unable to refresh '%1$s': %2$s", key, ex.getMessage()));
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            refreshing.remove(key);
+            log.debug(String.format("Unable to schedule refresh of '%1$s': %2$s", key, ex.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.auscope.portal.core.services.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource.OnlineResourceType;
+
+/**
+ * Warms a cache by making one request for every distinct service URL/name pair in a set of online resources, a bounded number at a time.
+ */
+public class ResourcePrefetcher {
+
+    /** Makes (and caches) the request for a single online resource */
+    @FunctionalInterface
+    public interface Fetcher {
+        /**
+         * @param url
+         *            The resource's linkage
+         * @param name
+         *            The resource's name (eg the layer or coverage name)
+         * @throws Exception
+         */
+        void fetch(String url, String name) throws Exception;
+    }
+
+    private static final Log log = LogFactory.getLog(ResourcePrefetcher.class);
+
+    private ResourcePrefetcher() {
+    }
+
+    /**
+     * Calls fetcher once for every distinct URL/name pair of the specified type. Requests are made at most threads at a time and this
+     * method blocks until they are all complete. Failures are logged and otherwise ignored.
+     *
+     * @param resources
+     *            Online resources (those of other types or without a URL or name are ignored)
+     * @param type
+     *            The type of resource to fetch
+     * @param threads
+     *            The maximum number of concurrent requests
+     * @param description
+     *            What is being fetched (for logging) eg "legend graphics"
+     * @param fetcher
+     *            Makes each request
+     * @return The number of requests that succeeded
+     */
+    public static int prefetch(Collection<AbstractCSWOnlineResource> resources, OnlineResourceType type, int threads,
+            String description, Fetcher fetcher) {
+        if (resources == null) {
+            return 0;
+        }
+
+        Map<String, String[]> distinct = new LinkedHashMap<>();
+        for (AbstractCSWOnlineResource resource : resources) {
+            if (resource == null || resource.getType() != type || resource.getLinkage() == null || resource.getName() == null
+                    || resource.getName().trim().isEmpty()) {
+                continue;
+            }
+            String url = resource.getLinkage().toString();
+            distinct.putIfAbsent(url + "\n" + resource.getName(), new String[] {url, resource.getName()});
+        }
+        if (distinct.isEmpty()) {
+            return 0;
+        }
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (final String[] pair : distinct.values()) {
+            tasks.add(() -> {
+                try {
+                    fetcher.fetch(pair[0], pair[1]);
+                    return true;
+                } catch (Exception ex) {
+                    log.debug(String.format("Unable to prefetch %1$s for '%2$s' from '%3$s': %4$s", description, pair[1], pair[0],
+                            ex.getMessage()));
+                    return false;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+        int fetched = 0;
+        try {
+            for (Future<Boolean> result : executor.invokeAll(tasks)) {
+                if (result.get()) {
+                    fetched++;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.warn(String.format("Error prefetching %1$s: %2$s", description, ex.getMessage()));
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info(String.format("Prefetched %1$d of %2$d %3$s", fetched, tasks.size(), description));
+        return fetched;
+    }
+}
@@ -0,0 +1,399 @@
+package org.auscope.portal.core.services.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A two tier (heap + disk) cache of remote service responses keyed by CanonicalRequestKey.
+ *
+ * The heap tier is a LRU map bounded by the total size of its values. Values evicted from the heap tier are spilled to the (optional) disk
+ * tier which is also bounded by size, discarding its oldest files first. Entries expire after a TTL that can be configured per host.
+ *
+ * Concurrent requests for the same missing key are coalesced so that only a single request is made to the remote service, with every
+ * caller receiving the same response (or error). Errors are never cached.
+ */
+public class TieredCache {
+
+    /** Loads a value for a cache miss */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * Loads the value for a key that isn't in the cache
+         *
+         * @return
+         * @throws Exception
+         */
+        byte[] load() throws Exception;
+    }
+
+    /** The default maximum size of the heap tier (in bytes) */
+    public static final long DEFAULT_MAX_HEAP_BYTES = 32L * 1024 * 1024;
+    /** The default maximum size of the disk tier (in bytes) */
+    public static final long DEFAULT_MAX_DISK_BYTES = 512L * 1024 * 1024;
+    /** The default time to live for hosts without a specific TTL */
+    public static final long DEFAULT_TTL_SECONDS = 60 * 5;
+
+    private static final String FILE_SUFFIX = ".cache";
+
+    private static class Entry {
+        private final byte[] value;
+        private final long expires;
+
+        public Entry(byte[] value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final long maxHeapBytes;
+    private final File diskDirectory;
+    private final long maxDiskBytes;
+    private long defaultTtlSeconds = DEFAULT_TTL_SECONDS;
+    private Map<String, Long> hostTtlSeconds = new HashMap<>();
+
+    /** LRU (access ordered) heap tier. Guarded by itself */
+    private final LinkedHashMap<CanonicalRequestKey, Entry> heap = new LinkedHashMap<>(16, 0.75f, true);
+    private long heapBytes = 0;
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final ConcurrentHashMap<CanonicalRequestKey, CompletableFuture<byte[]>> inflight = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a heap only cache with DEFAULT_MAX_HEAP_BYTES
+     */
+    public TieredCache() {
+        this(DEFAULT_MAX_HEAP_BYTES, null, 0);
+    }
+
+    /**
+     * Creates a new cache
+     *
+     * @param maxHeapBytes
+     *            The maximum size of all values held in the heap tier
+     * @param diskDirectory
+     *            [Optional] The directory for the disk tier. If null, values evicted from the heap are discarded
+     * @param maxDiskBytes
+     *            The maximum size of the disk tier
+     */
+    public TieredCache(long maxHeapBytes, File diskDirectory, long maxDiskBytes) {
+        this.maxHeapBytes = maxHeapBytes;
+        this.diskDirectory = diskDirectory;
+        this.maxDiskBytes = maxDiskBytes;
+
+        if (diskDirectory != null) {
+            if (!diskDirectory.isDirectory() && !diskDirectory.mkdirs()) {
+                throw new IllegalArgumentException("Unable to create cache directory " + diskDirectory);
+            }
+            for (File file : listCacheFiles()) {
+                diskBytes.addAndGet(file.length());
+            }
+        }
+    }
+
+    public long getDefaultTtlSeconds() {
+        return defaultTtlSeconds;
+    }
+
+    /**
+     * Sets the TTL for any host without a specific TTL. A TTL of 0 disables caching.
+     *
+     * @param defaultTtlSeconds
+     */
+    public void setDefaultTtlSeconds(long defaultTtlSeconds) {
+        this.defaultTtlSeconds = defaultTtlSeconds;
+    }
+
+    public Map<String, Long> getHostTtlSeconds() {
+        return hostTtlSeconds;
+    }
+
+    /**
+     * Sets the TTL for specific hosts (eg a service known to update frequently). A TTL of 0 disables caching for that host.
+     *
+     * @param hostTtlSeconds
+     *            TTL in seconds keyed by host name
+     */
+    public void setHostTtlSeconds(Map<String, Long> hostTtlSeconds) {
+        Map<String, Long> lowerCased = new HashMap<>();
+        for (Map.Entry<String, Long> entry : hostTtlSeconds.entrySet()) {
+            lowerCased.put(entry.getKey().toLowerCase(Locale.ENGLISH), entry.getValue());
+        }
+        this.hostTtlSeconds = lowerCased;
+    }
+
+    /**
+     * Gets the TTL (in seconds) that applies to the specified host
+     *
+     * @param host
+     * @return
+     */
+    public long getTtlSeconds(String host) {
+        Long ttl = host == null ? null : hostTtlSeconds.get(host.toLowerCase(Locale.ENGLISH));
+        return ttl == null ? defaultTtlSeconds : ttl;
+    }
+
+    /**
+     * The current time in milliseconds (overridable for testing)
+     *
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the value for key, loading it (and caching it) with loader if it's not cached. Concurrent calls for the same missing key will
+     * only call a single loader.
+     *
+     * @param key
+     * @param loader
+     * @return
+     * @throws Exception
+     *             Any exception thrown by the loader
+     */
+    public byte[] get(CanonicalRequestKey key, Loader loader) throws Exception {
+        long ttlSeconds = getTtlSeconds(key.getHost());
+        if (ttlSeconds <= 0) {
+            return loader.load();
+        }
+
+        byte[] value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inflight.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof Exception) {
+                    throw (Exception) ex.getCause();
+                }
+                throw ex;
+            }
+        }
+
+        try {
+            //Another caller may have finished loading between our lookup and registering our future
+            value = getIfPresent(key);
+            if (value == null) {
+                value = loader.load();
+                put(key, value, ttlSeconds);
+            }
+            future.complete(value);
+            return value;
+        } catch (Exception | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inflight.remove(key, future);
+        }
+    }
+
+    /**
+     * Gets the cached value for key
+     *
+     * @param key
+     * @return The value or null if it's not cached (or has expired)
+     */
+    public byte[] getIfPresent(CanonicalRequestKey key) {
+        long now = currentTimeMillis();
+        synchronized (heap) {
+            Entry entry = heap.get(key);
+            if (entry != null) {
+                if (entry.expires > now) {
+                    return entry.value;
+                }
+                removeFromHeap(key);
+            }
+        }
+
+        Entry entry = readFromDisk(key, now);
+        if (entry == null) {
+            return null;
+        }
+        putInHeap(key, entry);
+        return entry.value;
+    }
+
+    /**
+     * Caches value for key using the TTL of the key's host
+     *
+     * @param key
+     * @param value
+     */
+    public void put(CanonicalRequestKey key, byte[] value) {
+        put(key, value, getTtlSeconds(key.getHost()));
+    }
+
+    private void put(CanonicalRequestKey key, byte[] value, long ttlSeconds) {
+        if (ttlSeconds <= 0 || value == null) {
+            return;
+        }
+        putInHeap(key, new Entry(value, currentTimeMillis() + ttlSeconds * 1000L));
+    }
+
+    /**
+     * Removes every entry from both tiers
+     */
+    public void clear() {
+        synchronized (heap) {
+            heap.clear();
+            heapBytes = 0;
+        }
+        for (File file : listCacheFiles()) {
+            deleteFile(file);
+        }
+    }
+
+    private void removeFromHeap(CanonicalRequestKey key) {
+        Entry removed = heap.remove(key);
+        if (removed != null) {
+            heapBytes -= removed.value.length;
+        }
+    }
+
+    private void putInHeap(CanonicalRequestKey key, Entry entry) {
+        if (entry.value.length > maxHeapBytes) {
+            writeToDisk(key, entry);
+            return;
+        }
+
+        Map<CanonicalRequestKey, Entry> evicted = new LinkedHashMap<>();
+        synchronized (heap) {
+            removeFromHeap(key);
+            heap.put(key, entry);
+            heapBytes += entry.value.length;
+
+            Iterator<Map.Entry<CanonicalRequestKey, Entry>> it = heap.entrySet().iterator();
+            while (heapBytes > maxHeapBytes && it.hasNext()) {
+                Map.Entry<CanonicalRequestKey, Entry> eldest = it.next();
+                it.remove();
+                heapBytes -= eldest.getValue().value.length;
+                evicted.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+
+        long now = currentTimeMillis();
+        for (Map.Entry<CanonicalRequestKey, Entry> spill : evicted.entrySet()) {
+            if (spill.getValue().expires > now) {
+                writeToDisk(spill.getKey(), spill.getValue());
+            }
+        }
+    }
+
+    private File[] listCacheFiles() {
+        if (diskDirectory == null) {
+            return new File[0];
+        }
+        File[] files = diskDirectory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        return files == null ? new File[0] : files;
+    }
+
+    private File fileFor(CanonicalRequestKey key) {
+        return new File(diskDirectory, CanonicalRequestKey.sha256(key.getKey()) + FILE_SUFFIX);
+    }
+
+    private void deleteFile(File file) {
+        long length = file.length();
+        if (file.delete()) {
+            diskBytes.addAndGet(-length);
+        }
+    }
+
+    /**
+     * Writes entry to the disk tier (if enabled), then discards the oldest files until the tier is within maxDiskBytes.
+     */
+    private void writeToDisk(CanonicalRequestKey key, Entry entry) {
+        if (diskDirectory == null || entry.value.length > maxDiskBytes) {
+            return;
+        }
+
+        File file = fileFor(key);
+        try {
+            File tmp = File.createTempFile("entry", ".tmp", diskDirectory);
+            byte[] keyBytes = key.getKey().getBytes(StandardCharsets.UTF_8);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeLong(entry.expires);
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+                out.writeInt(entry.value.length);
+                out.write(entry.value);
+            }
+            long oldLength = file.length();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            diskBytes.addAndGet(file.length() - oldLength);
+        } catch (IOException ex) {
+            log.warn("Unable to write cache entry to " + file + ": " + ex.getMessage());
+            log.debug("Exception:", ex);
+            return;
+        }
+
+        if (diskBytes.get() > maxDiskBytes) {
+            File[] files = listCacheFiles();
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (int i = 0; i < files.length && diskBytes.get() > maxDiskBytes; i++) {
+                deleteFile(files[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads (and removes) an entry from the disk tier. Returns null if there is no unexpired entry.
+     */
+    private Entry readFromDisk(CanonicalRequestKey key, long now) {
+        if (diskDirectory == null) {
+            return null;
+        }
+
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Entry entry = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long expires = in.readLong();
+            byte[] keyBytes = new byte[in.readInt()];
+            in.readFully(keyBytes);
+            if (expires > now && key.getKey().equals(new String(keyBytes, StandardCharsets.UTF_8))) {
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                entry = new Entry(value, expires);
+            }
+        } catch (IOException ex) {
+            log.debug("Unable to read cache entry " + file + ": " + ex.getMessage());
+        }
+
+        //The entry is either expired/corrupt or about to be promoted back into the heap
+        deleteFile(file);
+        return entry;
+    }
+}
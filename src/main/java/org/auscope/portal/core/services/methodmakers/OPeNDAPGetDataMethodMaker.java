@@ -104,6 +104,23 @@ public class OPeNDAPGetDataMethodMaker extends AbstractMethodMaker {
         }
     }
 
+    /**
+     * Populates the index bounds of every constraint that only has value bounds specified
+     *
+     * @param ds
+     *            The dataset being constrained
+     * @param constraints
+     *            [Optional] The constraints to update
+     * @throws IOException
+     */
+    public void calculateIndexBounds(NetcdfDataset ds, AbstractViewVariable[] constraints) throws IOException {
+        if (constraints != null) {
+            for (AbstractViewVariable constraint : constraints) {
+                calculateIndexBounds(ds, constraint);
+            }
+        }
+    }
+
     private static String simpleBoundsToQuery(SimpleBounds bounds) {
         return String.format("[%1$d:%2$d]", (int) bounds.getFrom(), (int) bounds.getTo());
     }
@@ -171,9 +188,7 @@ public class OPeNDAPGetDataMethodMaker extends AbstractMethodMaker {
         //We may only have a value constraint (when we need to know the actual index constraints)
         //We can convert from value to index by taking the minimum bounding box.
         if (constraints != null) {
-            for (AbstractViewVariable constraint : constraints) {
-                calculateIndexBounds(ds, constraint);
-            }
+            calculateIndexBounds(ds, constraints);
 
             URIBuilder builder = new URIBuilder(method.getURI());
             builder.setParameters(parseQuery(URLEncoder.encode((generateQueryForConstraints(constraints)), "UTF-8"), Consts.UTF_8));
@@ -160,4 +160,35 @@ public class WCSMethodMaker extends AbstractMethodMaker {
 
         return httpMethod;
     }
+
+    /**
+     * Method for creating a DescribeCoverage request for a single coverage
+     *
+     * @param serviceUrl
+     *            The WCS endpoint to query
+     * @param coverageName
+     *            The coverage layername to describe
+     * @return
+     * @throws URISyntaxException
+     */
+    public HttpRequestBase describeCoverageMethod(String serviceUrl, String coverageName) throws URISyntaxException {
+        if (serviceUrl == null || serviceUrl.isEmpty())
+            throw new IllegalArgumentException("You must specify a serviceUrl");
+        if (coverageName == null || coverageName.isEmpty())
+            throw new IllegalArgumentException("You must specify a coverageName");
+
+        HttpGet httpMethod = new HttpGet();
+        URIBuilder builder = new URIBuilder(serviceUrl);
+
+        builder.setParameter("service", "WCS");
+        builder.setParameter("version", "1.0.0");
+        builder.setParameter("request", "DescribeCoverage");
+        builder.setParameter("coverage", coverageName);
+
+        httpMethod.setURI(builder.build());
+
+        logger.debug(String.format("url='%1$s' query='%2$s'", serviceUrl, httpMethod.getURI().getQuery()));
+
+        return httpMethod;
+    }
 }
@@ -124,6 +124,24 @@ public class WMSMethodMaker extends AbstractMethodMaker implements WMSMethodMake
     @Override
     public HttpRequestBase getLegendGraphic(String wmsUrl, String layerName, int width, int height, String styles)
             throws URISyntaxException {
+        return getLegendGraphic(wmsUrl, layerName, width, height, styles, null);
+    }
+
+    /**
+     * Returns a method for requesting a legend/key image for a particular layer rendered with a client supplied SLD
+     *
+     * @param wmsUrl    The WMS endpoint (will have any existing query parameters preserved)
+     * @param layerName The WMS layer name
+     * @param width     Desired output width in pixels
+     * @param height    Desired output height in pixels
+     * @param styles    What style name should be applied
+     * @param sldBody   [Optional] An SLD document to render the legend from (a GeoServer specific parameter)
+     * @return
+     * @throws URISyntaxException
+     */
+    @Override
+    public HttpRequestBase getLegendGraphic(String wmsUrl, String layerName, int width, int height, String styles,
+            String sldBody) throws URISyntaxException {
 
         List<NameValuePair> existingParam = this.extractQueryParams(wmsUrl); //preserve any existing query params
 
@@ -142,6 +160,10 @@ public class WMSMethodMaker extends AbstractMethodMaker implements WMSMethodMake
         if (height > 0) {
             existingParam.add(new BasicNameValuePair("height", Integer.toString(height)));
         }
+        //This is a geoserver specific URL param
+        if (sldBody != null && sldBody.trim().length() > 0) {
+            existingParam.add(new BasicNameValuePair("sld_body", sldBody));
+        }
 
         HttpGet method = new HttpGet(wmsUrl);
         method.setURI(HttpUtil.parseURI(wmsUrl, existingParam));
@@ -365,6 +387,16 @@ public class WMSMethodMaker extends AbstractMethodMaker implements WMSMethodMake
 	
 	@Override
     public HttpRequestBase getMap(String url,String layer,String bbox, String sldBody, String crs, boolean requestCachedTile, String time) throws URISyntaxException, IOException {
+        return this.getMap(url, layer, bbox, sldBody, crs, requestCachedTile, time, 256, 256);
+    }
+
+    @Override
+    public HttpRequestBase getMap(String url,String layer,String bbox, String sldBody, String crs, boolean requestCachedTile, String time, int width, int height) throws URISyntaxException, IOException {
+        return this.getMap(url, layer, bbox, sldBody, crs, requestCachedTile, time, width, height, false);
+    }
+
+    @Override
+    public HttpRequestBase getMap(String url,String layer,String bbox, String sldBody, String crs, boolean requestCachedTile, String time, int width, int height, boolean xmlExceptions) throws URISyntaxException, IOException {
 
         List<NameValuePair> existingParam = this.extractQueryParams(url); //preserve any existing query params
 
@@ -375,15 +407,15 @@ public class WMSMethodMaker extends AbstractMethodMaker implements WMSMethodMake
             existingParam.add(new BasicNameValuePair("SLD_BODY", sldBody));
         }
         existingParam.add(new BasicNameValuePair("DISPLAYOUTSIDEMAXEXTENT", "TRUE"));
-        existingParam.add(new BasicNameValuePair("EXCEPTIONS", "BLANK"));
+        existingParam.add(new BasicNameValuePair("EXCEPTIONS", xmlExceptions ? "application/vnd.ogc.se_xml" : "BLANK"));
         existingParam.add(new BasicNameValuePair("LAYERS", layer));
         existingParam.add(new BasicNameValuePair("FORMAT", "image/png"));
         existingParam.add(new BasicNameValuePair("TRANSPARENT", "TRUE"));
         if (requestCachedTile) existingParam.add(new BasicNameValuePair("tiled", "true"));
         existingParam.add(new BasicNameValuePair("SRS", crs));
         existingParam.add(new BasicNameValuePair("BBOX", bbox));
-        existingParam.add(new BasicNameValuePair("WIDTH", "256"));
-        existingParam.add(new BasicNameValuePair("HEIGHT", "256"));
+        existingParam.add(new BasicNameValuePair("WIDTH", Integer.toString(width)));
+        existingParam.add(new BasicNameValuePair("HEIGHT", Integer.toString(height)));
         existingParam.add(new BasicNameValuePair("STYLES", ""));
         if (StringUtils.isNotBlank(time)) existingParam.add(new BasicNameValuePair("time", time));
 
@@ -107,6 +107,27 @@ public interface WMSMethodMakerInterface {
     public HttpRequestBase getLegendGraphic(String wmsUrl, String layerName, int width, int height, String styles)
             throws URISyntaxException;
 
+    /**
+     * Returns a method for requesting a legend/key image for a particular layer rendered with a client supplied SLD
+     *
+     * @param wmsUrl
+     *            The WMS endpoint (will have any existing query parameters preserved)
+     * @param layerName
+     *            The WMS layer name
+     * @param width
+     *            Desired output width in pixels
+     * @param height
+     *            Desired output height in pixels
+     * @param styles
+     *            What style name should be applied
+     * @param sldBody
+     *            [Optional] An SLD document to render the legend from (a GeoServer specific parameter)
+     * @return
+     * @throws URISyntaxException
+     */
+    public HttpRequestBase getLegendGraphic(String wmsUrl, String layerName, int width, int height, String styles,
+            String sldBody) throws URISyntaxException;
+
     /**
      * Generates a WMS request for downloading information about a user click on a particular GetMap request.
      *
@@ -218,6 +239,21 @@ public interface WMSMethodMakerInterface {
      * @throws IOException
      */
     public HttpRequestBase getMap(String url,String layer,String bbox, String sldBody, String crs, boolean requstCachedTile, String time) throws URISyntaxException, IOException;
+
+    /**
+     * WMS get map for an image of the specified size (eg a metatile spanning several tiles)
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    public HttpRequestBase getMap(String url,String layer,String bbox, String sldBody, String crs, boolean requstCachedTile, String time, int width, int height) throws URISyntaxException, IOException;
+
+    /**
+     * WMS get map for an image of the specified size. If xmlExceptions is set errors will be reported as an XML exception report rather
+     * than an image (so they can be told apart from a valid response)
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    public HttpRequestBase getMap(String url,String layer,String bbox, String sldBody, String crs, boolean requstCachedTile, String time, int width, int height, boolean xmlExceptions) throws URISyntaxException, IOException;
     
     /**
      * get style
@@ -126,6 +126,24 @@ public class WMS_1_3_0_MethodMaker extends AbstractMethodMaker implements WMSMet
     @Override
     public HttpRequestBase getLegendGraphic(String wmsUrl, String layerName, int width, int height, String styles)
             throws URISyntaxException {
+        return getLegendGraphic(wmsUrl, layerName, width, height, styles, null);
+    }
+
+    /**
+     * Returns a method for requesting a legend/key image for a particular layer rendered with a client supplied SLD
+     *
+     * @param wmsUrl    The WMS endpoint (will have any existing query parameters preserved)
+     * @param layerName The WMS layer name
+     * @param width     Desired output width in pixels
+     * @param height    Desired output height in pixels
+     * @param styles    What style name should be applied
+     * @param sldBody   [Optional] An SLD document to render the legend from (a GeoServer specific parameter)
+     * @return
+     * @throws URISyntaxException
+     */
+    @Override
+    public HttpRequestBase getLegendGraphic(String wmsUrl, String layerName, int width, int height, String styles,
+            String sldBody) throws URISyntaxException {
 
         List<NameValuePair> existingParam = this.extractQueryParams(wmsUrl); //preserve any existing query params
 
@@ -144,6 +162,10 @@ public class WMS_1_3_0_MethodMaker extends AbstractMethodMaker implements WMSMet
         if (height > 0) {
             existingParam.add(new BasicNameValuePair("height", Integer.toString(height)));
         }
+        //This is a geoserver specific URL param
+        if (sldBody != null && sldBody.trim().length() > 0) {
+            existingParam.add(new BasicNameValuePair("sld_body", sldBody));
+        }
 
         HttpGet method = new HttpGet(wmsUrl);
         method.setURI(HttpUtil.parseURI(wmsUrl, existingParam));
@@ -386,6 +408,16 @@ public class WMS_1_3_0_MethodMaker extends AbstractMethodMaker implements WMSMet
 	
     @Override
     public HttpRequestBase getMap(String url,String layer,String bbox, String sldBody, String crs, boolean requestCachedTile, String time) throws URISyntaxException, IOException {
+        return this.getMap(url, layer, bbox, sldBody, crs, requestCachedTile, time, 256, 256);
+    }
+
+    @Override
+    public HttpRequestBase getMap(String url,String layer,String bbox, String sldBody, String crs, boolean requestCachedTile, String time, int width, int height) throws URISyntaxException, IOException {
+        return this.getMap(url, layer, bbox, sldBody, crs, requestCachedTile, time, width, height, false);
+    }
+
+    @Override
+    public HttpRequestBase getMap(String url,String layer,String bbox, String sldBody, String crs, boolean requestCachedTile, String time, int width, int height, boolean xmlExceptions) throws URISyntaxException, IOException {
 
         List<NameValuePair> existingParam = this.extractQueryParams(url); //preserve any existing query params
 
@@ -396,14 +428,15 @@ public class WMS_1_3_0_MethodMaker extends AbstractMethodMaker implements WMSMet
             existingParam.add(new BasicNameValuePair("SLD_BODY", sldBody));
         }
         existingParam.add(new BasicNameValuePair("DISPLAYOUTSIDEMAXEXTENT", "TRUE"));
+        if (xmlExceptions) existingParam.add(new BasicNameValuePair("EXCEPTIONS", "XML"));
         existingParam.add(new BasicNameValuePair("LAYERS", layer));
         existingParam.add(new BasicNameValuePair("FORMAT", "image/png"));
         existingParam.add(new BasicNameValuePair("TRANSPARENT", "TRUE"));
         if (requestCachedTile) existingParam.add(new BasicNameValuePair("tiled","true"));
         existingParam.add(new BasicNameValuePair("CRS", crs));
         existingParam.add(new BasicNameValuePair("BBOX", bbox));
-        existingParam.add(new BasicNameValuePair("WIDTH", "256"));
-        existingParam.add(new BasicNameValuePair("HEIGHT", "256"));
+        existingParam.add(new BasicNameValuePair("WIDTH", Integer.toString(width)));
+        existingParam.add(new BasicNameValuePair("HEIGHT", Integer.toString(height)));
         existingParam.add(new BasicNameValuePair("STYLES", ""));
         if (StringUtils.isNotBlank(time)) existingParam.add(new BasicNameValuePair("time", time));
 
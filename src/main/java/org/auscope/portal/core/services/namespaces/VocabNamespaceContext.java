@@ -14,6 +14,8 @@ public class VocabNamespaceContext extends IterableNamespace {
     public static final String DC_NAMESPACE = "http://purl.org/dc/elements/1.1/";
     public static final String DCTERMS_NAMESPACE = "http://purl.org/dc/terms/";
     public static final String GTS_NAMESPACE = "http://resource.geosciml.org/ontology/timescale/gts#";
+    public static final String API_NAMESPACE = "http://purl.org/linked-data/api/vocab#";
+    public static final String XHV_NAMESPACE = "http://www.w3.org/1999/xhtml/vocab#";
 
     public VocabNamespaceContext() {
         map.put("dc", DC_NAMESPACE);
@@ -23,8 +25,8 @@ public class VocabNamespaceContext extends IterableNamespace {
         map.put("rdf", RDF_NAMESPACE);
         map.put("skos", SKOS_NAMESPACE);
         map.put("sparql", "http://www.w3.org/2005/sparql-results#");
-        map.put("api", "http://purl.org/linked-data/api/vocab#");
-        map.put("xhv", "http://www.w3.org/1999/xhtml/vocab#");
+        map.put("api", API_NAMESPACE);
+        map.put("xhv", XHV_NAMESPACE);
         map.put("os", "http://a9.com/-/spec/opensearch/1.1/");
         map.put("dcterms", DCTERMS_NAMESPACE);
         map.put("gts", GTS_NAMESPACE);
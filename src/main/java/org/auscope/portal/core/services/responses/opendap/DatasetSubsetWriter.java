@@ -0,0 +1,547 @@
+package org.auscope.portal.core.services.responses.opendap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ucar.ma2.Array;
+import ucar.ma2.IndexIterator;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Structure;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.write.NetcdfFileFormat;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Extracts the subset of a NetcdfDataset described by a list of constraints into local NetCDF or CSV files.
+ *
+ * Each variable is read in chunks that are aligned to its storage layout (the _ChunkSizes of chunked NetCDF-4/HDF5 variables, otherwise
+ * contiguous runs of the innermost dimensions) and no larger than maxChunkBytes. Variables are read in parallel, each through its own
+ * dataset handle, so memory use is bounded by threads * maxChunkBytes regardless of the size of the subset.
+ *
+ * Each constraint must have its dimension (index) bounds set, see OPeNDAPGetDataMethodMaker.calculateIndexBounds
+ */
+public class DatasetSubsetWriter {
+
+    /** The output formats that can be written */
+    public enum Format {
+        NETCDF3,
+        NETCDF4,
+        CSV
+    }
+
+    /** Opens a new handle to the dataset being subset */
+    @FunctionalInterface
+    public interface DatasetSource {
+        /**
+         * Opens the dataset. The returned dataset will be closed by the caller.
+         *
+         * @return
+         * @throws IOException
+         */
+        NetcdfDataset open() throws IOException;
+    }
+
+    /** The default maximum size of a single chunk read from the dataset */
+    public static final long DEFAULT_MAX_CHUNK_BYTES = 4 * 1024 * 1024;
+    /** The default number of variables read at once */
+    public static final int DEFAULT_THREADS = 4;
+
+    /** Attributes that no longer apply once values have been read through an enhanced dataset */
+    private static final String[] DROPPED_ATTRIBUTES = {"scale_factor", "add_offset", "_Unsigned", "_ChunkSizes"};
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final DatasetSource source;
+    private long maxChunkBytes = DEFAULT_MAX_CHUNK_BYTES;
+    private int threads = DEFAULT_THREADS;
+    private final AtomicLong largestChunkBytes = new AtomicLong();
+
+    /** The hyperslab of a single variable that will be written */
+    private static class VariableSubset {
+        private final String fullName;
+        private final String shortName;
+        private final int[] origin;
+        private final int[] shape;
+
+        public VariableSubset(Variable var, int[] origin, int[] shape) {
+            this.fullName = var.getFullNameEscaped();
+            this.shortName = var.getShortName();
+            this.origin = origin;
+            this.shape = shape;
+        }
+    }
+
+    /**
+     * @param source
+     *            Opens a handle to the dataset for each variable that is read
+     */
+    public DatasetSubsetWriter(DatasetSource source) {
+        this.source = source;
+    }
+
+    public long getMaxChunkBytes() {
+        return maxChunkBytes;
+    }
+
+    /**
+     * Sets the maximum size of a single read (storage chunks larger than this are read in pieces)
+     *
+     * @param maxChunkBytes
+     */
+    public void setMaxChunkBytes(long maxChunkBytes) {
+        this.maxChunkBytes = maxChunkBytes;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the maximum number of variables that will be read at once
+     *
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * The size in bytes of the largest chunk read by this writer
+     *
+     * @return
+     */
+    public long getLargestChunkBytes() {
+        return largestChunkBytes.get();
+    }
+
+    /**
+     * Writes the subset of ds described by constraints into directory
+     *
+     * @param ds
+     *            Used to plan the subset (variables are read through handles opened by this writer's DatasetSource)
+     * @param constraints
+     *            The variables to write. If null or empty, every variable will be written in full
+     * @param format
+     *            The output format
+     * @param directory
+     *            Where the output files will be written
+     * @return The written files, a single data.nc for NetCDF formats or a [variable].csv for each variable
+     * @throws IOException
+     */
+    public List<File> write(NetcdfDataset ds, AbstractViewVariable[] constraints, Format format, File directory)
+            throws IOException {
+        List<VariableSubset> subsets = planSubsets(ds, constraints);
+        if (format == Format.CSV) {
+            return writeCsv(ds, subsets, directory);
+        }
+        return writeNetcdf(ds, subsets, format, directory);
+    }
+
+    private List<VariableSubset> planSubsets(NetcdfDataset ds, AbstractViewVariable[] constraints) {
+        Map<String, VariableSubset> subsets = new LinkedHashMap<>();
+        if (constraints == null || constraints.length == 0) {
+            for (Variable var : ds.getVariables()) {
+                if (!(var instanceof Structure)) {
+                    addSubset(subsets, var, new int[var.getRank()], var.getShape());
+                }
+            }
+            return new ArrayList<>(subsets.values());
+        }
+
+        for (AbstractViewVariable constraint : constraints) {
+            Variable var = findVariable(ds, constraint);
+            if (constraint instanceof SimpleAxis) {
+                SimpleBounds bounds = ((SimpleAxis) constraint).getDimensionBounds();
+                int[] range = toRange(bounds, var.getShape()[0]);
+                addSubset(subsets, var, new int[] {range[0]}, new int[] {range[1]});
+            } else if (constraint instanceof SimpleGrid) {
+                AbstractViewVariable[] axes = ((SimpleGrid) constraint).getAxes();
+                if (axes.length != var.getRank()) {
+                    throw new IllegalArgumentException(String.format("'%1$s' has %2$d dimensions but %3$d axes were constrained",
+                            var.getShortName(), var.getRank(), axes.length));
+                }
+                int[] origin = new int[axes.length];
+                int[] shape = new int[axes.length];
+                for (int i = 0; i < axes.length; i++) {
+                    if (!(axes[i] instanceof SimpleAxis)) {
+                        throw new IllegalArgumentException("Unsupported child of SimpleGrid " + axes[i].getClass());
+                    }
+                    int[] range = toRange(((SimpleAxis) axes[i]).getDimensionBounds(), var.getShape()[i]);
+                    origin[i] = range[0];
+                    shape[i] = range[1];
+
+                    //Include the coordinate variable for each axis so the subset is self describing
+                    Variable axisVar = ds.findVariable(var.getDimension(i).getShortName());
+                    if (axisVar != null && axisVar.getRank() == 1 && !subsets.containsKey(axisVar.getFullNameEscaped())) {
+                        addSubset(subsets, axisVar, new int[] {range[0]}, new int[] {range[1]});
+                    }
+                }
+                addSubset(subsets, var, origin, shape);
+            } else {
+                throw new IllegalArgumentException(String.format("Unable to subset class '%1$s'", constraint.getClass()));
+            }
+        }
+        return new ArrayList<>(subsets.values());
+    }
+
+    private static void addSubset(Map<String, VariableSubset> subsets, Variable var, int[] origin, int[] shape) {
+        subsets.put(var.getFullNameEscaped(), new VariableSubset(var, origin, shape));
+    }
+
+    private static Variable findVariable(NetcdfDataset ds, AbstractViewVariable constraint) {
+        String parentGroupName = constraint.getParentGroupName() == null ? "" : constraint.getParentGroupName();
+        Variable var = parentGroupName.isEmpty() ? ds.findVariable("/" + constraint.getName())
+                : ds.findVariable("/" + parentGroupName + "/" + constraint.getName());
+        if (var == null || var instanceof Structure) {
+            throw new IllegalArgumentException(String.format("'%1$s' isn't a variable that can be subset", constraint.getName()));
+        }
+        return var;
+    }
+
+    /**
+     * Converts inclusive index bounds into an {origin, length} pair clamped to a dimension of the specified length
+     */
+    private static int[] toRange(SimpleBounds bounds, int length) {
+        if (bounds == null) {
+            return new int[] {0, length};
+        }
+        int from = Math.max(0, (int) bounds.getFrom());
+        int to = Math.min(length - 1, (int) bounds.getTo());
+        if (to < from) {
+            throw new IllegalArgumentException(String.format("Empty index bounds %1$s", bounds));
+        }
+        return new int[] {from, to - from + 1};
+    }
+
+    /**
+     * Calculates the shape of the chunks used to read a subset of var. Chunks are built up from the variable's storage chunks (or single
+     * elements for contiguous variables), growing the innermost dimensions first until maxChunkBytes is reached. Storage chunks that are
+     * already larger than maxChunkBytes are split along their outermost dimensions first into even divisions of the storage chunk.
+     */
+    int[] getChunkShape(Variable var, int[] shape) {
+        int rank = shape.length;
+        int[] unit = new int[rank];
+        for (int i = 0; i < rank; i++) {
+            unit[i] = 1;
+        }
+        Attribute storageChunks = var.attributes().findAttribute("_ChunkSizes");
+        if (storageChunks != null && storageChunks.getLength() == rank) {
+            for (int i = 0; i < rank; i++) {
+                unit[i] = Math.max(1, storageChunks.getNumericValue(i).intValue());
+            }
+        }
+
+        int[] chunk = new int[rank];
+        for (int i = 0; i < rank; i++) {
+            chunk[i] = Math.min(unit[i], shape[i]);
+        }
+
+        long elementSize = Math.max(1, var.getDataType().getSize());
+        for (int i = 0; i < rank; i++) {
+            long otherBytes = elementSize;
+            for (int j = 0; j < rank; j++) {
+                if (j != i) {
+                    otherBytes *= chunk[j];
+                }
+            }
+            if (otherBytes * chunk[i] <= maxChunkBytes) {
+                break;
+            }
+
+            //Split this dimension of the storage chunk evenly so reads never straddle two storage chunks
+            long fits = Math.max(1, maxChunkBytes / otherBytes);
+            int split = (int) Math.min(chunk[i], fits);
+            while (unit[i] % split != 0) {
+                split--;
+            }
+            chunk[i] = split;
+        }
+
+        for (int i = rank - 1; i >= 0; i--) {
+            long otherBytes = elementSize;
+            for (int j = 0; j < rank; j++) {
+                if (j != i) {
+                    otherBytes *= chunk[j];
+                }
+            }
+            long fits = maxChunkBytes / otherBytes;
+            if (fits >= shape[i]) {
+                chunk[i] = shape[i];
+                continue;
+            }
+
+            //Grow this dimension by whole storage chunks and leave the outer dimensions as they are
+            chunk[i] = (int) Math.max(chunk[i], Math.min(shape[i], (fits / unit[i]) * unit[i]));
+            break;
+        }
+        return chunk;
+    }
+
+    /**
+     * Iterates the origins and shapes of every chunk of a subset. Chunk boundaries are aligned to multiples of the chunk shape (in the
+     * variable's index space) so that reads line up with storage chunks. Chunks are generated as they're iterated.
+     */
+    private static Iterable<int[][]> listChunks(int[] origin, int[] shape, int[] chunk) {
+        return () -> new ChunkIterator(origin, shape, chunk);
+    }
+
+    /** Steps through the chunks of a subset like an odometer, innermost dimension first */
+    private static class ChunkIterator implements Iterator<int[][]> {
+        private final int[] origin;
+        private final int[] shape;
+        private final int[] chunk;
+        private final int[] start;
+        private boolean finished;
+
+        public ChunkIterator(int[] origin, int[] shape, int[] chunk) {
+            this.origin = origin;
+            this.shape = shape;
+            this.chunk = chunk;
+            this.start = origin.clone();
+            for (int length : shape) {
+                if (length == 0) {
+                    finished = true;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !finished;
+        }
+
+        @Override
+        public int[][] next() {
+            if (finished) {
+                throw new NoSuchElementException();
+            }
+
+            int rank = shape.length;
+            int[] chunkShape = new int[rank];
+            for (int i = 0; i < rank; i++) {
+                int end = origin[i] + shape[i];
+                chunkShape[i] = Math.min(end, (start[i] / chunk[i] + 1) * chunk[i]) - start[i];
+            }
+            int[][] next = new int[][] {start.clone(), chunkShape};
+
+            int i = rank - 1;
+            for (; i >= 0; i--) {
+                start[i] += chunkShape[i];
+                if (start[i] < origin[i] + shape[i]) {
+                    break;
+                }
+                start[i] = origin[i];
+            }
+            finished = i < 0;
+            return next;
+        }
+    }
+
+    private Array readChunk(Variable var, int[] chunkOrigin, int[] chunkShape) throws IOException, InvalidRangeException {
+        Array data = var.read(chunkOrigin, chunkShape);
+        largestChunkBytes.accumulateAndGet(data.getSize() * Math.max(1, var.getDataType().getSize()), Math::max);
+        return data;
+    }
+
+    /**
+     * Runs a task for each subset (in parallel) passing each task its own dataset handle
+     */
+    private void forEachSubset(List<VariableSubset> subsets, SubsetTask task) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, subsets.size())));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (final VariableSubset subset : subsets) {
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    try (NetcdfDataset ds = source.open()) {
+                        Variable var = ds.findVariable(subset.fullName);
+                        if (var == null) {
+                            throw new IOException(String.format("'%1$s' is no longer in the dataset", subset.fullName));
+                        }
+                        task.run(var, subset);
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Subset was interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause().getMessage(), ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    private interface SubsetTask {
+        void run(Variable var, VariableSubset subset) throws IOException, InvalidRangeException;
+    }
+
+    private List<File> writeNetcdf(NetcdfDataset ds, List<VariableSubset> subsets, Format format, File directory)
+            throws IOException {
+        File file = new File(directory, "data.nc");
+        NetcdfFormatWriter.Builder<?> builder = NetcdfFormatWriter.builder()
+                .setFormat(format == Format.NETCDF4 ? NetcdfFileFormat.NETCDF4 : NetcdfFileFormat.NETCDF3)
+                .setLocation(file.getAbsolutePath());
+
+        for (Attribute att : ds.getRootGroup().attributes()) {
+            builder.addAttribute(att);
+        }
+
+        //Every variable sharing a dimension must agree on its subset length
+        Map<String, Integer> dimensions = new LinkedHashMap<>();
+        List<String> dimStrings = new ArrayList<>();
+        for (VariableSubset subset : subsets) {
+            Variable var = ds.findVariable(subset.fullName);
+            StringBuilder dimString = new StringBuilder();
+            for (int i = 0; i < subset.shape.length; i++) {
+                Dimension dim = var.getDimension(i);
+                String dimName = dim == null || dim.getShortName() == null ? subset.shortName + "_" + i : dim.getShortName();
+                Integer existing = dimensions.putIfAbsent(dimName, subset.shape[i]);
+                if (existing != null && existing != subset.shape[i]) {
+                    throw new IllegalArgumentException(String.format(
+                            "Dimension '%1$s' has been constrained to different lengths (%2$d and %3$d)", dimName, existing,
+                            subset.shape[i]));
+                }
+                if (dimString.length() > 0) {
+                    dimString.append(' ');
+                }
+                dimString.append(dimName);
+            }
+            dimStrings.add(dimString.toString());
+        }
+        for (Map.Entry<String, Integer> dim : dimensions.entrySet()) {
+            builder.addDimension(dim.getKey(), dim.getValue());
+        }
+
+        for (int i = 0; i < subsets.size(); i++) {
+            VariableSubset subset = subsets.get(i);
+            Variable var = ds.findVariable(subset.fullName);
+            Variable.Builder<?> vb = builder.addVariable(subset.shortName, var.getDataType(), dimStrings.get(i));
+            for (Attribute att : var.attributes()) {
+                if (!isDropped(att.getShortName())) {
+                    vb.addAttribute(att);
+                }
+            }
+        }
+
+        try (final NetcdfFormatWriter writer = builder.build()) {
+            forEachSubset(subsets, (var, subset) -> {
+                for (int[][] chunk : listChunks(subset.origin, subset.shape, getChunkShape(var, subset.shape))) {
+                    Array data = readChunk(var, chunk[0], chunk[1]);
+                    int[] outputOrigin = new int[chunk[0].length];
+                    for (int i = 0; i < outputOrigin.length; i++) {
+                        outputOrigin[i] = chunk[0][i] - subset.origin[i];
+                    }
+                    synchronized (writer) {
+                        writer.write(subset.shortName, outputOrigin, data);
+                    }
+                }
+            });
+        }
+
+        List<File> files = new ArrayList<>();
+        files.add(file);
+        return files;
+    }
+
+    private static boolean isDropped(String attributeName) {
+        for (String dropped : DROPPED_ATTRIBUTES) {
+            if (dropped.equals(attributeName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a CSV file per variable with a column for each dimension (holding coordinate values where a coordinate variable exists,
+     * otherwise indexes) followed by a column of values
+     */
+    private List<File> writeCsv(NetcdfDataset ds, List<VariableSubset> subsets, File directory) throws IOException {
+        final List<File> files = new ArrayList<>();
+        for (VariableSubset subset : subsets) {
+            files.add(new File(directory, subset.shortName + ".csv"));
+        }
+
+        forEachSubset(subsets, (var, subset) -> {
+            File file = files.get(subsets.indexOf(subset));
+            int rank = subset.shape.length;
+
+            //Coordinate axes are read once in full (they're 1D so are small compared to the data)
+            Array[] coordinates = new Array[rank];
+            String[] columns = new String[rank];
+            for (int i = 0; i < rank; i++) {
+                Dimension dim = var.getDimension(i);
+                columns[i] = dim == null || dim.getShortName() == null ? "dim" + i : dim.getShortName();
+                Variable axisVar = dim == null ? null : var.getParentGroup().findVariableOrInParent(columns[i]);
+                if (axisVar != null && axisVar.getRank() == 1 && axisVar != var && axisVar.getShape()[0] == var.getShape()[i]) {
+                    coordinates[i] = axisVar.read(new int[] {subset.origin[i]}, new int[] {subset.shape[i]});
+                }
+            }
+
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                for (String column : columns) {
+                    writer.write(column);
+                    writer.write(',');
+                }
+                writer.write(subset.shortName);
+                writer.write('\n');
+
+                for (int[][] chunk : listChunks(subset.origin, subset.shape, getChunkShape(var, subset.shape))) {
+                    Array data = readChunk(var, chunk[0], chunk[1]);
+                    IndexIterator it = data.getIndexIterator();
+                    while (it.hasNext()) {
+                        Object value = it.getObjectNext();
+                        int[] counter = it.getCurrentCounter();
+                        for (int i = 0; i < rank; i++) {
+                            int index = chunk[0][i] + counter[i];
+                            if (coordinates[i] != null) {
+                                writer.write(String.valueOf(coordinates[i].getObject(index - subset.origin[i])));
+                            } else {
+                                writer.write(Integer.toString(index));
+                            }
+                            writer.write(',');
+                        }
+                        writer.write(String.valueOf(value));
+                        writer.write('\n');
+                    }
+                }
+            }
+            log.debug(String.format(Locale.ENGLISH, "Wrote %1$s", file));
+        });
+
+        return files;
+    }
+}
@@ -0,0 +1,243 @@
+package org.auscope.portal.core.services.responses.ows;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A utility class for detecting an OWS exception response at the head of an arbitrary (and potentially very large) OWS response stream.
+ *
+ * Unlike OWSExceptionParser this class never materialises the response. Only the first few KB are buffered so that the root element can be
+ * inspected with StAX, after which the buffered bytes are replayed to the consumer followed by the remainder of the underlying stream.
+ */
+public class OWSExceptionSniffer {
+
+    /** The default number of bytes that will be buffered whilst looking for the root element */
+    public static final int DEFAULT_PEEK_SIZE = 8 * 1024;
+
+    /** Used for message extraction if an exception report is truncated or unparseable */
+    private static final String UNKNOWN_MESSAGE = "[Cannot extract error message]";
+
+    private static final Log log = LogFactory.getLog(OWSExceptionSniffer.class);
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Limits the number of bytes that can be read from an underlying stream and keeps track of whether that limit was reached. Closing this
+     * stream will NOT close the underlying stream.
+     */
+    private static class PeekWindowInputStream extends FilterInputStream {
+        private int remaining;
+
+        public PeekWindowInputStream(InputStream in, int limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        public boolean isExhausted() {
+            return remaining <= 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("skip is not supported");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            //The underlying stream will be replayed - don't close it
+        }
+    }
+
+    /**
+     * Returns true if the specified root element represents either an ows:ExceptionReport (any OWS version) or an OGC ServiceExceptionReport
+     *
+     * @param reader
+     *            a reader positioned at the root START_ELEMENT
+     * @return
+     */
+    private static boolean isExceptionReport(XMLStreamReader reader) {
+        String localName = reader.getLocalName();
+        String namespace = reader.getNamespaceURI();
+        if ("ExceptionReport".equals(localName)) {
+            return namespace != null && namespace.startsWith("http://www.opengis.net/ows");
+        }
+
+        return "ServiceExceptionReport".equals(localName);
+    }
+
+    /**
+     * Reads an exception report (ows:ExceptionReport or ServiceExceptionReport) and generates an OWSException from the first exception it
+     * contains.
+     *
+     * @param stream
+     *            A stream positioned at the start of the exception report
+     * @return
+     */
+    private static OWSException parseExceptionReport(InputStream stream) {
+        String exceptionCode = "";
+        String exceptionText = null;
+
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactory.createXMLStreamReader(stream);
+            boolean inException = false;
+            while (reader.hasNext() && exceptionText == null) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                String localName = reader.getLocalName();
+                if ("Exception".equals(localName)) {
+                    //OWS style - <ows:Exception exceptionCode="..."><ows:ExceptionText>...
+                    inException = true;
+                    exceptionCode = nullToEmpty(reader.getAttributeValue(null, "exceptionCode"));
+                } else if (inException && "ExceptionText".equals(localName)) {
+                    exceptionText = reader.getElementText().trim();
+                } else if ("ServiceException".equals(localName)) {
+                    //OGC style - <ServiceException code="...">...</ServiceException>
+                    exceptionCode = nullToEmpty(reader.getAttributeValue(null, "code"));
+                    exceptionText = reader.getElementText().trim();
+                }
+            }
+        } catch (XMLStreamException ex) {
+            log.debug("Unable to completely parse exception report", ex);
+        } finally {
+            closeQuietly(reader);
+        }
+
+        return new OWSException(String.format("Code='%1$s' Message='%2$s'", exceptionCode,
+                exceptionText == null ? UNKNOWN_MESSAGE : exceptionText));
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static void closeQuietly(XMLStreamReader reader) {
+        if (reader == null) {
+            return;
+        }
+
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            log.debug("Error closing reader", ex);
+        }
+    }
+
+    /**
+     * Equivalent to sniff(stream, DEFAULT_PEEK_SIZE)
+     *
+     * @param stream
+     *            An OWS response stream
+     * @return
+     * @throws OWSException
+     * @throws IOException
+     */
+    public static InputStream sniff(InputStream stream) throws OWSException, IOException {
+        return sniff(stream, DEFAULT_PEEK_SIZE);
+    }
+
+    /**
+     * Peeks at the root element of stream. If it's an exception report, an OWSException describing the first reported exception is thrown,
+     * otherwise a stream that replays the entire (unmodified) response is returned.
+     *
+     * If the root element cannot be located within peekSize bytes the stream will be treated as a non exception response. If the stream ends
+     * before a root element is found (eg an empty or truncated response) an OWSException will be thrown.
+     *
+     * The returned stream wraps stream, closing it will close stream. stream will NOT be closed by this method if an exception is thrown.
+     *
+     * @param stream
+     *            An OWS response stream
+     * @param peekSize
+     *            The maximum number of bytes to buffer whilst looking for the root element
+     * @return
+     * @throws OWSException
+     *             If stream contains an exception report or cannot be parsed as XML
+     * @throws IOException
+     */
+    public static InputStream sniff(InputStream stream, int peekSize) throws OWSException, IOException {
+        BufferedInputStream buffered = new BufferedInputStream(stream, peekSize);
+        buffered.mark(peekSize);
+
+        PeekWindowInputStream window = new PeekWindowInputStream(buffered, peekSize);
+        XMLStreamReader reader = null;
+        boolean exceptionReport = false;
+        try {
+            reader = inputFactory.createXMLStreamReader(window);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    exceptionReport = isExceptionReport(reader);
+                    break;
+                }
+            }
+
+            if (!reader.isStartElement()) {
+                throw new OWSException("Unable to parse response - no root element");
+            }
+        } catch (XMLStreamException ex) {
+            if (!window.isExhausted()) {
+                throw new OWSException("Unable to parse response", ex);
+            }
+
+            //We just ran out of peek window before finding the root - let the consumer decide
+            log.debug(String.format("No root element found in the first %1$d bytes", peekSize));
+        } finally {
+            closeQuietly(reader);
+        }
+
+        buffered.reset();
+        if (exceptionReport) {
+            throw parseExceptionReport(buffered);
+        }
+
+        return buffered;
+    }
+}
@@ -27,6 +27,24 @@ public class ConceptFactory {
     private final Log log = LogFactory.getLog(getClass());
     private static final VocabNamespaceContext nc = new VocabNamespaceContext();
 
+    private final DescriptionFactory descriptionFactory = new DescriptionFactory();
+
+    /** XPath expressions (which aren't thread safe) compiled for the current thread, keyed by XPath */
+    private final ThreadLocal<Map<String, XPathExpression>> compiledExpressions = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Gets the compiled form of xPath, compiling it only on first use by the current thread
+     */
+    private XPathExpression compile(String xPath) throws XPathException {
+        Map<String, XPathExpression> expressions = compiledExpressions.get();
+        XPathExpression expression = expressions.get(xPath);
+        if (expression == null) {
+            expression = DOMUtil.compileXPathExpr(xPath, nc);
+            expressions.put(xPath, expression);
+        }
+        return expression;
+    }
+
     /**
      * Parses a owl:NamedIndividual element (ignoring any relations)
      *
@@ -37,17 +55,17 @@ public class ConceptFactory {
      * @throws XPathException
      */
     protected NamedIndividual attemptParseNamedIndividual(Node node) throws XPathException {
-        String urn = (String) DOMUtil.compileXPathExpr("@rdf:about", nc).evaluate(node, XPathConstants.STRING);
+        String urn = (String) compile("@rdf:about").evaluate(node, XPathConstants.STRING);
         if (urn == null || urn.isEmpty()) {
             return null;
         }
 
         NamedIndividual namedIndividual = new NamedIndividual(urn);
-        namedIndividual.setLabel((String) DOMUtil.compileXPathExpr("rdfs:label", nc).evaluate(node,
+        namedIndividual.setLabel((String) compile("rdfs:label").evaluate(node,
                 XPathConstants.STRING));
-        namedIndividual.setPreferredLabel((String) DOMUtil.compileXPathExpr("skos:prefLabel", nc).evaluate(node,
+        namedIndividual.setPreferredLabel((String) compile("skos:prefLabel").evaluate(node,
                 XPathConstants.STRING));
-        namedIndividual.setDefinition((String) DOMUtil.compileXPathExpr("skos:definition", nc).evaluate(node,
+        namedIndividual.setDefinition((String) compile("skos:definition").evaluate(node,
                 XPathConstants.STRING));
 
         return namedIndividual;
@@ -64,110 +82,119 @@ public class ConceptFactory {
      * @throws XPathException
      */
     protected Concept attemptParseConcept(Node node) throws XPathException {
-        String urn = (String) DOMUtil.compileXPathExpr("@rdf:about", nc).evaluate(node, XPathConstants.STRING);
+        String urn = (String) compile("@rdf:about").evaluate(node, XPathConstants.STRING);
         if (urn == null || urn.isEmpty()) {
             return null;
         }
 
         //Build our concept/named individual
         Concept concept = new Concept(urn);
-        concept.setLabel((String) DOMUtil.compileXPathExpr("rdfs:label", nc).evaluate(node, XPathConstants.STRING));
-        concept.setPreferredLabel((String) DOMUtil.compileXPathExpr("skos:prefLabel", nc).evaluate(node,
+        concept.setLabel((String) compile("rdfs:label").evaluate(node, XPathConstants.STRING));
+        concept.setPreferredLabel((String) compile("skos:prefLabel").evaluate(node,
                 XPathConstants.STRING));
-        concept.setDefinition((String) DOMUtil.compileXPathExpr("skos:definition", nc).evaluate(node,
+        concept.setDefinition((String) compile("skos:definition").evaluate(node,
                 XPathConstants.STRING));
 
         return concept;
     }
 
-    private Concept[] relateConceptByDescription(Description[] descs, Map<String, Concept> parsedConceptMap,
-            List<String> traversedUrns) {
-        List<Concept> concepts = new ArrayList<>();
+    /**
+     * Resolves urn to the concept parsed from the current document, then to any concept in registry and finally to an 'href' placeholder
+     * (shared by every reference to urn in the current document)
+     */
+    private static Concept resolve(String urn, Map<String, Concept> documentConcepts, ConceptRegistry registry,
+            Map<String, Concept> placeholders) {
+        Concept concept = documentConcepts.get(urn);
+        if (concept == null) {
+            concept = registry.get(urn);
+        }
+        if (concept == null) {
+            concept = placeholders.computeIfAbsent(urn, u -> new Concept(u, true));
+        }
+        return concept;
+    }
 
+    private static Concept[] resolveAll(Description[] descs, Map<String, Concept> documentConcepts, ConceptRegistry registry,
+            Map<String, Concept> placeholders) {
+        Concept[] concepts = new Concept[descs.length];
         for (int i = 0; i < descs.length; i++) {
-            String urn = descs[i].getUrn();
-            Concept concept = parsedConceptMap.get(urn);
-            if (concept == null) {
-                concept = new Concept(urn, true);
-            }
-
-            if (!descs[i].isHref()) {
-                relateConceptByDescription(concept, descs[i], parsedConceptMap, traversedUrns);
-            }
-            concepts.add(concept);
+            concepts[i] = resolve(descs[i].getUrn(), documentConcepts, registry, placeholders);
         }
-
-        return concepts.toArray(new Concept[concepts.size()]);
+        return concepts;
     }
 
     /**
-     * Given a concept described by desc; populate all relations in concept as defined by desc sourcing concepts from parsedConceptMap
+     * Parses a list of owl:NamedIndividual and skos:Concept objects from an RDF Document and then arranges them according to the heirarchy defined by
+     * rdf:Description elements
      *
-     * @param concept
-     * @param desc
-     * @param parsedConceptMap
+     * @param rdf
+     *            Must be an rdf:RDF node
+     * @return
      */
-    protected void relateConceptByDescription(Concept concept, Description desc, Map<String, Concept> parsedConceptMap,
-            List<String> traversedUrns) {
-
-        //To deal with cycles in the hierarchy
-        if (traversedUrns.contains(desc.getUrn())) {
-            return;
-        } else {
-            traversedUrns.add(desc.getUrn());
-        }
-
-        concept.setBroader(relateConceptByDescription(desc.getBroader(), parsedConceptMap, traversedUrns));
-        concept.setNarrower(relateConceptByDescription(desc.getNarrower(), parsedConceptMap, traversedUrns));
-        concept.setRelated(relateConceptByDescription(desc.getRelated(), parsedConceptMap, traversedUrns));
+    public Concept[] parseFromRDF(Node rdf) {
+        return parseFromRDF(rdf, new ConceptRegistry());
     }
 
     /**
      * Parses a list of owl:NamedIndividual and skos:Concept objects from an RDF Document and then arranges them according to the heirarchy defined by
-     * rdf:Description elements
+     * rdf:Description elements.
+     *
+     * Every concept is interned in registry, so concepts already in the registry (from earlier documents) are updated and reused and
+     * relations to concepts that this document only references resolve to the registered concept where possible.
      *
      * @param rdf
      *            Must be an rdf:RDF node
+     * @param registry
+     *            The registry to intern concepts in (locked for the duration of the parse)
      * @return
      */
-    public Concept[] parseFromRDF(Node rdf) {
-        //A map of concepts keyed by their URN's
-        Map<String, Concept> parsedConceptMap = new HashMap<>();
-
-        //Parse all of our concepts and named individuals (but ignore all relations)
-        try {
-            //Parse the contents of all our Concepts and NamedIndividuals
-            XPathExpression getConceptsExpr = DOMUtil.compileXPathExpr("./descendant::skos:Concept", nc);
-            XPathExpression getNamedIndividualsExpr = DOMUtil.compileXPathExpr("./descendant::owl:NamedIndividual", nc);
-            NodeList namedIndividualNodes = (NodeList) getNamedIndividualsExpr.evaluate(rdf, XPathConstants.NODESET);
-            NodeList conceptNodes = (NodeList) getConceptsExpr.evaluate(rdf, XPathConstants.NODESET);
-
-            for (int i = 0; i < conceptNodes.getLength(); i++) {
-                Concept concept = attemptParseConcept(conceptNodes.item(i));
-                parsedConceptMap.put(concept.getUrn(), concept);
+    public Concept[] parseFromRDF(Node rdf, ConceptRegistry registry) {
+        synchronized (registry) {
+            //The concepts defined by this document keyed by their URN's
+            Map<String, Concept> documentConcepts = new HashMap<>();
+
+            //Parse all of our concepts and named individuals (but ignore all relations)
+            try {
+                //Parse the contents of all our Concepts and NamedIndividuals
+                XPathExpression getConceptsExpr = compile("./descendant::skos:Concept");
+                XPathExpression getNamedIndividualsExpr = compile("./descendant::owl:NamedIndividual");
+                NodeList namedIndividualNodes = (NodeList) getNamedIndividualsExpr.evaluate(rdf, XPathConstants.NODESET);
+                NodeList conceptNodes = (NodeList) getConceptsExpr.evaluate(rdf, XPathConstants.NODESET);
+
+                for (int i = 0; i < conceptNodes.getLength(); i++) {
+                    Concept concept = attemptParseConcept(conceptNodes.item(i));
+                    documentConcepts.put(concept.getUrn(), registry.intern(concept));
+                }
+
+                for (int i = 0; i < namedIndividualNodes.getLength(); i++) {
+                    NamedIndividual ni = attemptParseNamedIndividual(namedIndividualNodes.item(i));
+                    documentConcepts.put(ni.getUrn(), registry.intern(ni));
+                }
+            } catch (XPathException e) {
+                log.error("Unable to evaluate inbuilt XPath - requesting concepts/individuals", e);
+                throw new RuntimeException();
             }
 
-            for (int i = 0; i < namedIndividualNodes.getLength(); i++) {
-                NamedIndividual ni = attemptParseNamedIndividual(namedIndividualNodes.item(i));
-                parsedConceptMap.put(ni.getUrn(), ni);
+            //After getting a map of all parsed concepts we populate the relations of every described concept
+            //in a single pass. Relations are resolved through the maps so cycles need no special treatment
+            Map<String, Description> descriptions = descriptionFactory.parseDescriptionMapFromRDF(rdf);
+            Map<String, Concept> placeholders = new HashMap<>();
+            for (Description description : descriptions.values()) {
+                Concept concept = resolve(description.getUrn(), documentConcepts, registry, placeholders);
+                concept.setBroader(resolveAll(description.getBroader(), documentConcepts, registry, placeholders));
+                concept.setNarrower(resolveAll(description.getNarrower(), documentConcepts, registry, placeholders));
+                concept.setRelated(resolveAll(description.getRelated(), documentConcepts, registry, placeholders));
             }
-        } catch (XPathException e) {
-            log.error("Unable to evaluate inbuilt XPath - requesting concepts/individuals", e);
-            throw new RuntimeException();
-        }
 
-        //After getting a map of all parsed concepts we populate the relations
-        //We can do this by reading the rdf:Description elements
-        List<Concept> topLevelConcepts = new ArrayList<>();
-        DescriptionFactory df = new DescriptionFactory();
-        for (Description description : df.parseFromRDF(rdf)) {
-            Concept concept = parsedConceptMap.get(description.getUrn());
-            if (concept != null) {
-                relateConceptByDescription(concept, description, parsedConceptMap, new ArrayList<String>());
-                topLevelConcepts.add(concept);
+            List<Concept> topLevelConcepts = new ArrayList<>();
+            for (Description description : descriptionFactory.getTopDescriptions(descriptions)) {
+                Concept concept = documentConcepts.get(description.getUrn());
+                if (concept != null) {
+                    topLevelConcepts.add(concept);
+                }
             }
-        }
 
-        return topLevelConcepts.toArray(new Concept[topLevelConcepts.size()]);
+            return topLevelConcepts.toArray(new Concept[topLevelConcepts.size()]);
+        }
     }
 }
@@ -0,0 +1,67 @@
+package org.auscope.portal.core.services.responses.vocab;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns Concept (and NamedIndividual) instances by URN so that every reference to a concept resolves to a single object.
+ *
+ * ConceptFactory uses a new registry for each document by default. A registry can also be kept for a vocabulary and passed to each
+ * parse so that links resolve to concepts learned from earlier documents and the same objects are reused across requests.
+ *
+ * Instances are not thread safe on their own - ConceptFactory holds the registry's lock for the duration of a parse.
+ */
+public class ConceptRegistry {
+    private final Map<String, Concept> concepts = new HashMap<>();
+
+    /**
+     * Adds parsed to the registry. If a concept of the same type is already registered against parsed's URN it is updated with the
+     * contents of parsed and returned instead.
+     *
+     * @param parsed
+     *            A newly parsed concept
+     * @return The registered concept for parsed's URN
+     */
+    public Concept intern(Concept parsed) {
+        Concept existing = concepts.get(parsed.getUrn());
+        if (existing == null || existing.getClass() != parsed.getClass()) {
+            concepts.put(parsed.getUrn(), parsed);
+            return parsed;
+        }
+
+        existing.setLabel(parsed.getLabel());
+        existing.setPreferredLabel(parsed.getPreferredLabel());
+        existing.setDefinition(parsed.getDefinition());
+        return existing;
+    }
+
+    /**
+     * Gets the concept registered against urn or null if there is none
+     */
+    public Concept get(String urn) {
+        return concepts.get(urn);
+    }
+
+    /**
+     * The number of registered concepts
+     */
+    public int size() {
+        return concepts.size();
+    }
+
+    /**
+     * A copy of every registered concept
+     */
+    public List<Concept> getConcepts() {
+        return new ArrayList<>(concepts.values());
+    }
+
+    /**
+     * Removes every registered concept
+     */
+    public void clear() {
+        concepts.clear();
+    }
+}
@@ -28,6 +28,22 @@ public class DescriptionFactory {
     private final Log log = LogFactory.getLog(getClass());
     private static final VocabNamespaceContext nc = new VocabNamespaceContext();
 
+    /** XPath expressions (which aren't thread safe) compiled for the current thread, keyed by XPath */
+    private final ThreadLocal<Map<String, XPathExpression>> compiledExpressions = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Gets the compiled form of xPath, compiling it only on first use by the current thread
+     */
+    private XPathExpression compile(String xPath) throws XPathException {
+        Map<String, XPathExpression> expressions = compiledExpressions.get();
+        XPathExpression expression = expressions.get(xPath);
+        if (expression == null) {
+            expression = DOMUtil.compileXPathExpr(xPath, nc);
+            expressions.put(xPath, expression);
+        }
+        return expression;
+    }
+
     /**
      * Attempts to parse any related Descriptions from a descriptionNode.
      *
@@ -42,15 +58,15 @@ public class DescriptionFactory {
      */
     protected Description[] attemptParseRelations(Node descriptionNode, String relationXPath)
             throws XPathException {
-        XPathExpression getRelationsExpr = DOMUtil.compileXPathExpr(relationXPath, nc);
-        XPathExpression getInlineDescExpr = DOMUtil.compileXPathExpr("rdf:Description", nc);
+        XPathExpression getRelationsExpr = compile(relationXPath);
+        XPathExpression getInlineDescExpr = compile("rdf:Description");
 
         NodeList relationNodes = (NodeList) getRelationsExpr.evaluate(descriptionNode, XPathConstants.NODESET);
         List<Description> descriptions = new ArrayList<>();
 
         //Parsing our relations is complicated by the fact that a Concept/NamedIndividual can be defined inline
         //or 'linked' via a string in the rdf:about
-        XPathExpression getUrnExpr = DOMUtil.compileXPathExpr("@rdf:resource", nc);
+        XPathExpression getUrnExpr = compile("@rdf:resource");
         for (int i = 0; i < relationNodes.getLength(); i++) {
             String urn = (String) getUrnExpr.evaluate(relationNodes.item(i), XPathConstants.STRING);
 
@@ -81,7 +97,7 @@ public class DescriptionFactory {
      * @throws XPathException
      */
     protected Description attemptParseDescription(Node node) throws XPathException {
-        String urn = (String) DOMUtil.compileXPathExpr("@rdf:about", nc).evaluate(node, XPathConstants.STRING);
+        String urn = (String) compile("@rdf:about").evaluate(node, XPathConstants.STRING);
         if (urn == null || urn.isEmpty()) {
             return null;
         }
@@ -217,21 +233,18 @@ public class DescriptionFactory {
     }
 
     /**
-     * Parses every rdf:Description element that is a child of the specified node
-     *
-     * If skos:hasTopConcept relations are defined only the top level descriptions will be returned (the remaining will be linked via the top level concepts)
-     *
-     * If no skos:hasTopConcept every description element will be returned
+     * Parses every rdf:Description element that is a child of the specified node into a map keyed by URN. Descriptions of the same URN
+     * are merged and every 'href' relation is replaced with the parsed description it refers to (if it exists).
      *
      * @param rdfNode
      *            The node to search for rdf:Description elements from
      * @return
      */
-    public Description[] parseFromRDF(Node rdfNode) {
+    public Map<String, Description> parseDescriptionMapFromRDF(Node rdfNode) {
         //Firstly parse all of our descriptions into a map keyed by their urn
         Map<String, Description> parsedDescriptions = new HashMap<>();
         try {
-            XPathExpression getDescriptionExpr = DOMUtil.compileXPathExpr("rdf:Description", nc);
+            XPathExpression getDescriptionExpr = compile("rdf:Description");
             NodeList descriptionNodes = (NodeList) getDescriptionExpr.evaluate(rdfNode, XPathConstants.NODESET);
 
             for (int i = 0; i < descriptionNodes.getLength(); i++) {
@@ -245,11 +258,21 @@ public class DescriptionFactory {
 
         //Next we take our parsed descriptions and attempt to link them together by replacing
         //'href' descriptions with links to the actual objects (if they exist)
-        for (String urn : parsedDescriptions.keySet()) {
-            attemptResolveHrefs(parsedDescriptions.get(urn), parsedDescriptions);
+        for (Description desc : parsedDescriptions.values()) {
+            attemptResolveHrefs(desc, parsedDescriptions);
         }
 
-        //Finally we return an array of our "top concepts"
+        return parsedDescriptions;
+    }
+
+    /**
+     * Gets the "top concepts" of a map of parsed descriptions (see parseFromRDF)
+     *
+     * @param parsedDescriptions
+     *            As returned by parseDescriptionMapFromRDF
+     * @return
+     */
+    protected Description[] getTopDescriptions(Map<String, Description> parsedDescriptions) {
         List<Description> topConcepts = new ArrayList<>();
         for (String urn : parsedDescriptions.keySet()) {
             for (Description topConcept : parsedDescriptions.get(urn).getTopConcepts()) {
@@ -267,4 +290,19 @@ public class DescriptionFactory {
 
         return topConcepts.toArray(new Description[topConcepts.size()]);
     }
+
+    /**
+     * Parses every rdf:Description element that is a child of the specified node
+     *
+     * If skos:hasTopConcept relations are defined only the top level descriptions will be returned (the remaining will be linked via the top level concepts)
+     *
+     * If no skos:hasTopConcept every description element will be returned
+     *
+     * @param rdfNode
+     *            The node to search for rdf:Description elements from
+     * @return
+     */
+    public Description[] parseFromRDF(Node rdfNode) {
+        return getTopDescriptions(parseDescriptionMapFromRDF(rdfNode));
+    }
 }
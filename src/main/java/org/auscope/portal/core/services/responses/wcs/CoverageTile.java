@@ -0,0 +1,156 @@
+package org.auscope.portal.core.services.responses.wcs;
+
+import java.io.File;
+
+import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+
+/**
+ * A single sub coverage request that makes up part of a TiledCoverage.
+ *
+ * Tiles are aligned to the pixel grid of the full coverage so that they can be mosaicked without resampling.
+ */
+public class CoverageTile {
+
+    /** The state of a tile download */
+    public enum Status {
+        /** The tile hasn't been requested yet */
+        PENDING,
+        /** The tile has been downloaded to getFile() */
+        COMPLETE,
+        /** The tile lies outside the coverage's extent and wasn't requested */
+        SKIPPED,
+        /** The tile couldn't be downloaded, see getError() */
+        FAILED
+    }
+
+    private final int row;
+    private final int column;
+    private final int pixelX;
+    private final int pixelY;
+    private final int width;
+    private final int height;
+    private final CSWGeographicBoundingBox bbox;
+    private volatile Status status = Status.PENDING;
+    private volatile File file;
+    private volatile String error;
+
+    /**
+     * @param row
+     *            The row of this tile in the tile grid (0 is the northern most row)
+     * @param column
+     *            The column of this tile in the tile grid (0 is the western most column)
+     * @param pixelX
+     *            The x offset (in pixels) of this tile in the full coverage
+     * @param pixelY
+     *            The y offset (in pixels) of this tile in the full coverage
+     * @param width
+     *            The width of this tile in pixels
+     * @param height
+     *            The height of this tile in pixels
+     * @param bbox
+     *            The bounds of this tile
+     */
+    public CoverageTile(int row, int column, int pixelX, int pixelY, int width, int height, CSWGeographicBoundingBox bbox) {
+        this.row = row;
+        this.column = column;
+        this.pixelX = pixelX;
+        this.pixelY = pixelY;
+        this.width = width;
+        this.height = height;
+        this.bbox = bbox;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public int getPixelX() {
+        return pixelX;
+    }
+
+    public int getPixelY() {
+        return pixelY;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public CSWGeographicBoundingBox getBbox() {
+        return bbox;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * The downloaded tile (only set when the status is COMPLETE)
+     *
+     * @return
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The reason this tile failed (only set when the status is FAILED)
+     *
+     * @return
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Marks this tile as downloaded
+     *
+     * @param file
+     */
+    public void complete(File file) {
+        this.file = file;
+        this.status = Status.COMPLETE;
+    }
+
+    /**
+     * Marks this tile as failed
+     *
+     * @param error
+     */
+    public void fail(String error) {
+        this.error = error;
+        this.status = Status.FAILED;
+    }
+
+    /**
+     * Marks this tile as lying outside the coverage
+     */
+    public void skip() {
+        this.status = Status.SKIPPED;
+    }
+
+    /**
+     * Gets a file name for this tile
+     *
+     * @param extension
+     *            eg "tiff"
+     * @return
+     */
+    public String getFileName(String extension) {
+        return String.format("tile_%1$d_%2$d.%3$s", row, column, extension);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CoverageTile [row=%1$d, column=%2$d, pixelX=%3$d, pixelY=%4$d, width=%5$d, height=%6$d, status=%7$s]",
+                row, column, pixelX, pixelY, width, height, status);
+    }
+}
@@ -0,0 +1,212 @@
+package org.auscope.portal.core.services.responses.wcs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.text.ParseException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathException;
+
+import org.auscope.portal.core.services.namespaces.WCSNamespaceContext;
+import org.auscope.portal.core.services.responses.ows.OWSException;
+import org.auscope.portal.core.services.responses.ows.OWSExceptionParser;
+import org.auscope.portal.core.util.DOMUtil;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Represents a single wcs:CoverageOffering element from a WCS 1.0.0 DescribeCoverage response
+ *
+ * @author Josh Vote
+ *
+ */
+public class DescribeCoverageRecord implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String description;
+    private String name;
+    private String label;
+    private String[] supportedRequestCRSs;
+    private String[] supportedResponseCRSs;
+    private String[] supportedFormats;
+    private String[] supportedInterpolations;
+    private String[] nativeCRSs;
+    private SpatialDomain spatialDomain;
+    private TemporalDomain[] temporalDomain;
+    private RangeSet rangeSet;
+
+    /**
+     * Creates a record from a wcs:CoverageOffering DOM node
+     *
+     * @param node
+     * @param nc
+     * @throws XPathException
+     * @throws ParseException
+     * @throws DOMException
+     */
+    public DescribeCoverageRecord(Node node, WCSNamespaceContext nc) throws XPathException, DOMException, ParseException {
+        Node tempNode = (Node) DOMUtil.compileXPathExpr("wcs:description", nc).evaluate(node, XPathConstants.NODE);
+        if (tempNode != null) {
+            description = tempNode.getTextContent();
+        }
+
+        tempNode = (Node) DOMUtil.compileXPathExpr("wcs:name", nc).evaluate(node, XPathConstants.NODE);
+        name = tempNode == null ? "" : tempNode.getTextContent();
+
+        tempNode = (Node) DOMUtil.compileXPathExpr("wcs:label", nc).evaluate(node, XPathConstants.NODE);
+        label = tempNode == null ? "" : tempNode.getTextContent();
+
+        //requestResponseCRSs apply to both requests and responses
+        NodeList requestResponseCRSs = (NodeList) DOMUtil.compileXPathExpr("wcs:supportedCRSs/wcs:requestResponseCRSs", nc)
+                .evaluate(node, XPathConstants.NODESET);
+        NodeList requestCRSs = (NodeList) DOMUtil.compileXPathExpr("wcs:supportedCRSs/wcs:requestCRSs", nc).evaluate(node,
+                XPathConstants.NODESET);
+        NodeList responseCRSs = (NodeList) DOMUtil.compileXPathExpr("wcs:supportedCRSs/wcs:responseCRSs", nc).evaluate(node,
+                XPathConstants.NODESET);
+        supportedRequestCRSs = concat(getTextContent(requestResponseCRSs), getTextContent(requestCRSs));
+        supportedResponseCRSs = concat(getTextContent(requestResponseCRSs), getTextContent(responseCRSs));
+
+        nativeCRSs = getTextContent((NodeList) DOMUtil.compileXPathExpr("wcs:supportedCRSs/wcs:nativeCRSs", nc).evaluate(node,
+                XPathConstants.NODESET));
+        supportedFormats = getTextContent((NodeList) DOMUtil.compileXPathExpr("wcs:supportedFormats/wcs:formats", nc)
+                .evaluate(node, XPathConstants.NODESET));
+        supportedInterpolations = getTextContent((NodeList) DOMUtil.compileXPathExpr(
+                "wcs:supportedInterpolations/wcs:interpolationMethod", nc).evaluate(node, XPathConstants.NODESET));
+
+        tempNode = (Node) DOMUtil.compileXPathExpr("wcs:domainSet/wcs:spatialDomain", nc).evaluate(node, XPathConstants.NODE);
+        if (tempNode != null) {
+            spatialDomain = new SpatialDomain(tempNode, nc);
+        }
+
+        NodeList tempNodeList = (NodeList) DOMUtil.compileXPathExpr("wcs:domainSet/wcs:temporalDomain/*", nc).evaluate(node,
+                XPathConstants.NODESET);
+        temporalDomain = new TemporalDomain[tempNodeList.getLength()];
+        for (int i = 0; i < tempNodeList.getLength(); i++) {
+            temporalDomain[i] = TemporalDomainFactory.parseFromNode(tempNodeList.item(i));
+        }
+
+        tempNode = (Node) DOMUtil.compileXPathExpr("wcs:rangeSet/wcs:RangeSet", nc).evaluate(node, XPathConstants.NODE);
+        if (tempNode != null) {
+            rangeSet = new RangeSetImpl(tempNode, nc);
+        }
+    }
+
+    private static String[] getTextContent(NodeList nodes) {
+        String[] values = new String[nodes.getLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = nodes.item(i).getTextContent().trim();
+        }
+        return values;
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        String[] result = new String[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * Parses every wcs:CoverageOffering in a DescribeCoverage response
+     *
+     * @param inXml
+     *            The DescribeCoverage response
+     * @return
+     * @throws OWSException
+     *             If the response is an OWS exception report
+     * @throws IOException
+     * @throws SAXException
+     * @throws ParserConfigurationException
+     * @throws XPathException
+     * @throws ParseException
+     */
+    public static DescribeCoverageRecord[] parseRecords(InputStream inXml) throws OWSException, ParserConfigurationException,
+            SAXException, IOException, XPathException, ParseException {
+        Document doc = DOMUtil.buildDomFromStream(inXml);
+        OWSExceptionParser.checkForExceptionResponse(doc);
+
+        WCSNamespaceContext nc = new WCSNamespaceContext();
+        NodeList nodes = (NodeList) DOMUtil.compileXPathExpr("/wcs:CoverageDescription/wcs:CoverageOffering", nc).evaluate(doc,
+                XPathConstants.NODESET);
+        DescribeCoverageRecord[] records = new DescribeCoverageRecord[nodes.getLength()];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new DescribeCoverageRecord(nodes.item(i), nc);
+        }
+        return records;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * The CRSs that can be used to specify a GetCoverage request
+     *
+     * @return
+     */
+    public String[] getSupportedRequestCRSs() {
+        return supportedRequestCRSs;
+    }
+
+    /**
+     * The CRSs that a GetCoverage response can be returned in
+     *
+     * @return
+     */
+    public String[] getSupportedResponseCRSs() {
+        return supportedResponseCRSs;
+    }
+
+    public String[] getSupportedFormats() {
+        return supportedFormats;
+    }
+
+    public String[] getSupportedInterpolations() {
+        return supportedInterpolations;
+    }
+
+    public String[] getNativeCRSs() {
+        return nativeCRSs;
+    }
+
+    /**
+     * The spatial domain of this coverage (can be null)
+     *
+     * @return
+     */
+    public SpatialDomain getSpatialDomain() {
+        return spatialDomain;
+    }
+
+    /**
+     * The time positions/periods of this coverage (can be empty)
+     *
+     * @return
+     */
+    public TemporalDomain[] getTemporalDomain() {
+        return temporalDomain;
+    }
+
+    /**
+     * The range set of this coverage (can be null)
+     *
+     * @return
+     */
+    public RangeSet getRangeSet() {
+        return rangeSet;
+    }
+}
@@ -0,0 +1,452 @@
+package org.auscope.portal.core.services.responses.wcs;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.tiff.BaselineTIFFTagSet;
+import javax.imageio.plugins.tiff.GeoTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.plugins.tiff.TIFFTag;
+import javax.imageio.plugins.tiff.TIFFTagSet;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+
+/**
+ * A coverage that has been downloaded as a grid of pixel aligned CoverageTiles.
+ *
+ * The tiles can be mosaicked back into a single GeoTIFF (if they are TIFFs readable by ImageIO) or described by a GDAL VRT index so
+ * that they can be used as a single dataset without mosaicking.
+ */
+public class TiledCoverage {
+
+    /** Receives progress updates as tiles are downloaded */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * Called whenever a tile finishes downloading (successfully or not)
+         *
+         * @param tile
+         *            The finished tile
+         * @param finished
+         *            The number of tiles that have finished so far
+         * @param total
+         *            The total number of tiles
+         */
+        void tileFinished(CoverageTile tile, int finished, int total);
+    }
+
+    /** The default limit on the size (in bytes) of the raster held in memory by writeGeoTiffMosaic */
+    public static final long DEFAULT_MAX_MOSAIC_BYTES = 64L * 1024 * 1024;
+
+    /** GDAL's private TIFF tag for recording the no data value */
+    private static final int TAG_GDAL_NODATA = 42113;
+    /** GeoTIFF tags that are copied from the first tile into a mosaic */
+    private static final int[] COPIED_GEOTIFF_TAGS = new int[] {GeoTIFFTagSet.TAG_GEO_KEY_DIRECTORY,
+            GeoTIFFTagSet.TAG_GEO_DOUBLE_PARAMS, GeoTIFFTagSet.TAG_GEO_ASCII_PARAMS, TAG_GDAL_NODATA};
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final CSWGeographicBoundingBox bbox;
+    private final int width;
+    private final int height;
+    private final String crs;
+    private final List<CoverageTile> tiles;
+    private long maxMosaicBytes = DEFAULT_MAX_MOSAIC_BYTES;
+
+    /**
+     * @param bbox
+     *            The bounds of the full coverage
+     * @param width
+     *            The width of the full coverage in pixels
+     * @param height
+     *            The height of the full coverage in pixels
+     * @param crs
+     *            [Optional] The CRS of the tiles
+     * @param tiles
+     *            The tiles that make up the full coverage (in row major order)
+     */
+    public TiledCoverage(CSWGeographicBoundingBox bbox, int width, int height, String crs, List<CoverageTile> tiles) {
+        this.bbox = bbox;
+        this.width = width;
+        this.height = height;
+        this.crs = crs;
+        this.tiles = Collections.unmodifiableList(new ArrayList<>(tiles));
+    }
+
+    public CSWGeographicBoundingBox getBbox() {
+        return bbox;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getCrs() {
+        return crs;
+    }
+
+    public List<CoverageTile> getTiles() {
+        return tiles;
+    }
+
+    public long getMaxMosaicBytes() {
+        return maxMosaicBytes;
+    }
+
+    /**
+     * Sets the largest raster (in bytes) that writeGeoTiffMosaic will assemble in memory. Larger coverages won't be mosaicked.
+     *
+     * @param maxMosaicBytes
+     */
+    public void setMaxMosaicBytes(long maxMosaicBytes) {
+        this.maxMosaicBytes = maxMosaicBytes;
+    }
+
+    /**
+     * Gets every tile that failed to download
+     *
+     * @return
+     */
+    public List<CoverageTile> getFailedTiles() {
+        List<CoverageTile> failed = new ArrayList<>();
+        for (CoverageTile tile : tiles) {
+            if (tile.getStatus() == CoverageTile.Status.FAILED) {
+                failed.add(tile);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Returns true if every tile has either been downloaded or skipped
+     *
+     * @return
+     */
+    public boolean isComplete() {
+        for (CoverageTile tile : tiles) {
+            if (tile.getStatus() == CoverageTile.Status.FAILED || tile.getStatus() == CoverageTile.Status.PENDING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the downloaded tile files
+     */
+    public void deleteFiles() {
+        for (CoverageTile tile : tiles) {
+            File file = tile.getFile();
+            if (file != null && file.exists() && !file.delete()) {
+                log.debug("Unable to delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Writes a plain text report listing the status of every tile
+     *
+     * @param writer
+     */
+    public void writeSummary(Writer writer) {
+        PrintWriter pw = new PrintWriter(writer);
+        pw.printf(Locale.ENGLISH, "Coverage of %1$dx%2$d pixels requested as %3$d tiles. %4$d failed.%n", width, height, tiles.size(),
+                getFailedTiles().size());
+        for (CoverageTile tile : tiles) {
+            CSWGeographicBoundingBox tileBbox = tile.getBbox();
+            pw.printf(Locale.ENGLISH, "%1$s bbox=%2$f,%3$f,%4$f,%5$f pixels=%6$d,%7$d,%8$d,%9$d status=%10$s%11$s%n",
+                    tile.getFileName("*"), tileBbox.getWestBoundLongitude(), tileBbox.getSouthBoundLatitude(),
+                    tileBbox.getEastBoundLongitude(), tileBbox.getNorthBoundLatitude(), tile.getPixelX(), tile.getPixelY(),
+                    tile.getWidth(), tile.getHeight(), tile.getStatus(), tile.getError() == null ? "" : " error=" + tile.getError());
+        }
+        pw.flush();
+    }
+
+    /**
+     * Writes a GDAL VRT document that mosaics the downloaded tiles (which are expected to sit alongside the VRT in tileDirectory)
+     *
+     * @param writer
+     * @param tileDirectory
+     *            The path of the tiles relative to the VRT (eg "tiles/") or empty
+     * @param extension
+     *            The extension used for each tile's file name
+     * @throws IOException
+     */
+    public void writeVrt(Writer writer, String tileDirectory, String extension) throws IOException {
+        String dataType = "Float32";
+        int bands = 1;
+        Raster sample = readFirstRaster();
+        if (sample != null) {
+            dataType = getVrtDataType(sample.getDataBuffer().getDataType());
+            bands = sample.getNumBands();
+        }
+
+        PrintWriter pw = new PrintWriter(writer);
+        pw.printf(Locale.ENGLISH, "<VRTDataset rasterXSize=\"%1$d\" rasterYSize=\"%2$d\">%n", width, height);
+        if (crs != null && !crs.isEmpty()) {
+            pw.printf("  <SRS>%1$s</SRS>%n", escapeXml(crs));
+        }
+        pw.printf(Locale.ENGLISH, "  <GeoTransform>%1$s, %2$s, 0.0, %3$s, 0.0, %4$s</GeoTransform>%n",
+                Double.toString(bbox.getWestBoundLongitude()), Double.toString(getPixelWidth()),
+                Double.toString(bbox.getNorthBoundLatitude()), Double.toString(-getPixelHeight()));
+        for (int band = 1; band <= bands; band++) {
+            pw.printf("  <VRTRasterBand dataType=\"%1$s\" band=\"%2$d\">%n", dataType, band);
+            for (CoverageTile tile : tiles) {
+                if (tile.getStatus() != CoverageTile.Status.COMPLETE) {
+                    continue;
+                }
+                pw.printf("    <SimpleSource>%n");
+                pw.printf("      <SourceFilename relativeToVRT=\"1\">%1$s</SourceFilename>%n",
+                        escapeXml(tileDirectory + tile.getFileName(extension)));
+                pw.printf("      <SourceBand>%1$d</SourceBand>%n", band);
+                pw.printf("      <SrcRect xOff=\"0\" yOff=\"0\" xSize=\"%1$d\" ySize=\"%2$d\"/>%n", tile.getWidth(), tile.getHeight());
+                pw.printf("      <DstRect xOff=\"%1$d\" yOff=\"%2$d\" xSize=\"%3$d\" ySize=\"%4$d\"/>%n", tile.getPixelX(),
+                        tile.getPixelY(), tile.getWidth(), tile.getHeight());
+                pw.printf("    </SimpleSource>%n");
+            }
+            pw.printf("  </VRTRasterBand>%n");
+        }
+        pw.printf("</VRTDataset>%n");
+        pw.flush();
+    }
+
+    /**
+     * Mosaics every downloaded tile into a single GeoTIFF. The GeoTIFF keys of the first tile are preserved with the tie point and pixel
+     * scale updated to cover the full coverage. Skipped tiles are filled with 0.
+     *
+     * The mosaic is assembled in memory so coverages whose raster would exceed maxMosaicBytes aren't mosaicked (the VRT should be used
+     * instead).
+     *
+     * @param os
+     *            Receives the mosaic (not closed)
+     * @return false if the tiles couldn't be mosaicked (eg they aren't all TIFFs with the same layout or the mosaic would be too large)
+     *         in which case nothing will have been written to os
+     * @throws IOException
+     */
+    public boolean writeGeoTiffMosaic(OutputStream os) throws IOException {
+        if (!isComplete() || (long) width * height > maxMosaicBytes) {
+            return false;
+        }
+
+        WritableRaster mosaic = null;
+        BufferedImage first = null;
+        IIOMetadata firstMetadata = null;
+        for (CoverageTile tile : tiles) {
+            if (tile.getStatus() != CoverageTile.Status.COMPLETE) {
+                continue;
+            }
+
+            ImageReader reader = getTiffReader(tile.getFile());
+            if (reader == null) {
+                return false;
+            }
+            BufferedImage image;
+            try {
+                image = reader.read(0);
+                if (first == null) {
+                    firstMetadata = reader.getImageMetadata(0);
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.debug(String.format("Unable to read %1$s: %2$s", tile, ex.getMessage()));
+                return false;
+            } finally {
+                ((ImageInputStream) reader.getInput()).close();
+                reader.dispose();
+            }
+
+            Raster raster = image.getRaster();
+            if (raster.getWidth() != tile.getWidth() || raster.getHeight() != tile.getHeight()) {
+                log.debug(String.format("%1$s returned %2$dx%3$d pixels", tile, raster.getWidth(), raster.getHeight()));
+                return false;
+            }
+            if (first == null) {
+                long mosaicBytes = (long) width * height * raster.getNumBands()
+                        * DataBuffer.getDataTypeSize(raster.getDataBuffer().getDataType()) / 8;
+                if (mosaicBytes > maxMosaicBytes) {
+                    log.debug(String.format("A %1$dx%2$d mosaic needs %3$d bytes (the limit is %4$d)", width, height, mosaicBytes,
+                            maxMosaicBytes));
+                    return false;
+                }
+                first = image;
+                SampleModel sm = raster.getSampleModel().createCompatibleSampleModel(width, height);
+                mosaic = Raster.createWritableRaster(sm, null);
+            } else if (raster.getNumBands() != mosaic.getNumBands()
+                    || raster.getDataBuffer().getDataType() != mosaic.getDataBuffer().getDataType()) {
+                log.debug(String.format("%1$s has a different layout to the other tiles", tile));
+                return false;
+            }
+            mosaic.setRect(tile.getPixelX(), tile.getPixelY(), raster);
+        }
+
+        if (first == null) {
+            return false;
+        }
+
+        BufferedImage image = new BufferedImage(first.getColorModel(), mosaic, first.isAlphaPremultiplied(), null);
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+        if (!writers.hasNext()) {
+            return false;
+        }
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(new NonClosingOutputStream(os))) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, getMosaicMetadata(firstMetadata)), null);
+        } finally {
+            writer.dispose();
+        }
+        return true;
+    }
+
+    /**
+     * Builds the GeoTIFF metadata for the mosaic from the metadata of the first tile
+     */
+    private IIOMetadata getMosaicMetadata(IIOMetadata tileMetadata) {
+        TIFFDirectory dir = new TIFFDirectory(new TIFFTagSet[] {BaselineTIFFTagSet.getInstance(), GeoTIFFTagSet.getInstance()},
+                null);
+        if (tileMetadata != null) {
+            try {
+                TIFFDirectory tileDir = TIFFDirectory.createFromMetadata(tileMetadata);
+                for (int tag : COPIED_GEOTIFF_TAGS) {
+                    TIFFField field = tileDir.getTIFFField(tag);
+                    if (field != null) {
+                        dir.addTIFFField(field);
+                    }
+                }
+            } catch (IIOInvalidTreeException | IllegalArgumentException ex) {
+                log.debug("Unable to copy GeoTIFF keys: " + ex.getMessage());
+            }
+        }
+
+        TIFFTagSet geoTags = GeoTIFFTagSet.getInstance();
+        dir.addTIFFField(new TIFFField(geoTags.getTag(GeoTIFFTagSet.TAG_MODEL_PIXEL_SCALE), TIFFTag.TIFF_DOUBLE, 3,
+                new double[] {getPixelWidth(), getPixelHeight(), 0.0}));
+        dir.addTIFFField(new TIFFField(geoTags.getTag(GeoTIFFTagSet.TAG_MODEL_TIE_POINT), TIFFTag.TIFF_DOUBLE, 6,
+                new double[] {0.0, 0.0, 0.0, bbox.getWestBoundLongitude(), bbox.getNorthBoundLatitude(), 0.0}));
+        return dir.getAsMetadata();
+    }
+
+    private double getPixelWidth() {
+        return (bbox.getEastBoundLongitude() - bbox.getWestBoundLongitude()) / width;
+    }
+
+    private double getPixelHeight() {
+        return (bbox.getNorthBoundLatitude() - bbox.getSouthBoundLatitude()) / height;
+    }
+
+    /**
+     * Reads the raster of the first downloaded tile (or null if it can't be read by ImageIO)
+     */
+    private Raster readFirstRaster() {
+        for (CoverageTile tile : tiles) {
+            if (tile.getStatus() != CoverageTile.Status.COMPLETE) {
+                continue;
+            }
+            try {
+                ImageReader reader = getTiffReader(tile.getFile());
+                if (reader == null) {
+                    return null;
+                }
+                try {
+                    return reader.read(0).getRaster();
+                } finally {
+                    ((ImageInputStream) reader.getInput()).close();
+                    reader.dispose();
+                }
+            } catch (IOException | RuntimeException ex) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets a TIFF reader for file (with its input set) or null if file isn't a TIFF
+     */
+    private static ImageReader getTiffReader(File file) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if (iis == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("tiff");
+        if (!readers.hasNext()) {
+            iis.close();
+            return null;
+        }
+        ImageReader reader = readers.next();
+        if (!reader.getOriginatingProvider().canDecodeInput(iis)) {
+            iis.close();
+            return null;
+        }
+        reader.setInput(iis);
+        return reader;
+    }
+
+    private static String getVrtDataType(int dataBufferType) {
+        switch (dataBufferType) {
+        case DataBuffer.TYPE_BYTE:
+            return "Byte";
+        case DataBuffer.TYPE_USHORT:
+            return "UInt16";
+        case DataBuffer.TYPE_SHORT:
+            return "Int16";
+        case DataBuffer.TYPE_INT:
+            return "Int32";
+        case DataBuffer.TYPE_DOUBLE:
+            return "Float64";
+        default:
+            return "Float32";
+        }
+    }
+
+    private static String escapeXml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Stops ImageIO from closing the stream we are writing into
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        public NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.auscope.portal.core.services.responses.wfs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single feature read from a WFS GML response with its (possibly deeply nested) properties flattened into dotted paths.
+ *
+ * Property paths are made up of element local names relative to the feature element, eg "specification.Mine.status". Geometries are kept
+ * separately, keyed by the path of the property that contains them.
+ */
+public class GmlFeature {
+    /** The gml:id of the feature (or null if not specified) */
+    private String id;
+    /** The local name of the feature element */
+    private String typeName;
+    /** Flattened properties in document order */
+    private Map<String, String> properties;
+    /** Geometries in document order, keyed by the property path that contains them */
+    private Map<String, GmlGeometry> geometries;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param id
+     *            The gml:id of the feature (or null if not specified)
+     * @param typeName
+     *            The local name of the feature element
+     */
+    public GmlFeature(String id, String typeName) {
+        this.id = id;
+        this.typeName = typeName;
+        this.properties = new LinkedHashMap<>();
+        this.geometries = new LinkedHashMap<>();
+    }
+
+    /**
+     * The gml:id of the feature (or null if not specified)
+     *
+     * @return
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The local name of the feature element
+     *
+     * @return
+     */
+    public String getTypeName() {
+        return typeName;
+    }
+
+    /**
+     * Flattened properties in document order. Repeated properties are joined with '|'
+     *
+     * @return
+     */
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Geometries in document order, keyed by the property path that contains them
+     *
+     * @return
+     */
+    public Map<String, GmlGeometry> getGeometries() {
+        return geometries;
+    }
+
+    /**
+     * Adds a property value. If the path already has a value, the new value is appended using '|' as a separator
+     *
+     * @param path
+     * @param value
+     */
+    public void addProperty(String path, String value) {
+        properties.merge(path, value, (a, b) -> a + "|" + b);
+    }
+
+    /**
+     * Adds a geometry. If the path already has a geometry, the new geometry will be added using an indexed path eg "location[2]"
+     *
+     * @param path
+     * @param geometry
+     */
+    public void addGeometry(String path, GmlGeometry geometry) {
+        String key = path;
+        for (int i = 2; geometries.containsKey(key); i++) {
+            key = path + "[" + i + "]";
+        }
+        geometries.put(key, geometry);
+    }
+}
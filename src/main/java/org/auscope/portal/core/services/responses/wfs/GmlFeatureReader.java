@@ -0,0 +1,199 @@
+package org.auscope.portal.core.services.responses.wfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads features one at a time from a WFS GetFeature response (GML 2, 3.1 or 3.2) using StAX.
+ *
+ * Only a single feature is ever held in memory, making this suitable for arbitrarily large responses. Features are recognised as the children
+ * of gml:featureMember, gml:featureMembers or wfs:member elements.
+ */
+public class GmlFeatureReader implements Closeable {
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /** Tracks an open (non geometry) element within a feature */
+    private static class Frame {
+        private String name;
+        private StringBuilder text = new StringBuilder();
+        private boolean hasChildren = false;
+        private String href;
+
+        public Frame(String name, String href) {
+            this.name = name;
+            this.href = href;
+        }
+    }
+
+    private XMLStreamReader reader;
+    /** Depth of the current gml:featureMember(s)/wfs:member element or -1 if we aren't inside one */
+    private int memberDepth = -1;
+    private int depth = 0;
+
+    /**
+     * Creates a new reader over the specified GML stream. The stream will NOT be closed by this reader.
+     *
+     * @param gml
+     *            A WFS GetFeature response
+     * @throws XMLStreamException
+     */
+    public GmlFeatureReader(InputStream gml) throws XMLStreamException {
+        this.reader = inputFactory.createXMLStreamReader(gml);
+    }
+
+    private static boolean isMemberElement(String localName) {
+        return "featureMember".equals(localName) || "featureMembers".equals(localName) || "member".equals(localName);
+    }
+
+    private static String getGmlId(XMLStreamReader reader) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String localName = reader.getAttributeLocalName(i);
+            if (("id".equals(localName) && GmlGeometry.isGmlNamespace(reader.getAttributeNamespace(i)))
+                    || "fid".equals(localName)) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static String pathOf(Deque<Frame> frames) {
+        StringBuilder sb = new StringBuilder();
+        Iterator<Frame> it = frames.descendingIterator();
+        while (it.hasNext()) {
+            if (sb.length() > 0) {
+                sb.append('.');
+            }
+            sb.append(it.next().name);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads the feature whose START_ELEMENT the reader is currently positioned at. Leaves the reader at the feature END_ELEMENT
+     */
+    private GmlFeature readFeature() throws XMLStreamException {
+        GmlFeature feature = new GmlFeature(getGmlId(reader), reader.getLocalName());
+        Deque<Frame> frames = new ArrayDeque<>();
+
+        int featureDepth = 1;
+        while (featureDepth > 0) {
+            int event = reader.next();
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                if (!frames.isEmpty()) {
+                    frames.peek().hasChildren = true;
+                }
+
+                if (GmlGeometry.isGeometryElement(reader)) {
+                    feature.addGeometry(pathOf(frames), GmlGeometry.parse(reader));
+                } else if (frames.isEmpty() && "boundedBy".equals(reader.getLocalName())
+                        && GmlGeometry.isGmlNamespace(reader.getNamespaceURI())) {
+                    skipElement();
+                } else {
+                    frames.push(new Frame(reader.getLocalName(),
+                            reader.getAttributeValue("http://www.w3.org/1999/xlink", "href")));
+                    featureDepth++;
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+                if (!frames.isEmpty()) {
+                    frames.peek().text.append(reader.getText());
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                featureDepth--;
+                if (featureDepth > 0) {
+                    Frame frame = frames.peek();
+                    if (!frame.hasChildren) {
+                        String value = frame.text.toString().trim();
+                        if (value.isEmpty() && frame.href != null) {
+                            value = frame.href;
+                        }
+                        if (!value.isEmpty()) {
+                            feature.addProperty(pathOf(frames), value);
+                        }
+                    }
+                    frames.pop();
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        return feature;
+    }
+
+    /**
+     * Skips over the element whose START_ELEMENT the reader is positioned at. Leaves the reader at the matching END_ELEMENT
+     */
+    private void skipElement() throws XMLStreamException {
+        int skipDepth = 1;
+        while (skipDepth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                skipDepth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                skipDepth--;
+            }
+        }
+    }
+
+    /**
+     * Reads the next feature from the underlying stream
+     *
+     * @return The next feature or null if there are no more features
+     * @throws XMLStreamException
+     */
+    public GmlFeature next() throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                if (memberDepth >= 0 && depth == memberDepth + 1) {
+                    GmlFeature feature = readFeature();
+                    depth--;
+                    return feature;
+                } else if (memberDepth < 0 && isMemberElement(reader.getLocalName())) {
+                    memberDepth = depth;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == memberDepth) {
+                    memberDepth = -1;
+                }
+                depth--;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package org.auscope.portal.core.services.responses.wfs;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A lightweight representation of a simple GML (2, 3.1 or 3.2) geometry parsed from an XMLStreamReader.
+ *
+ * Coordinates are held as parts, each part being a list of rings and each ring a list of coordinate tuples. A Point/LineString has a single
+ * part with a single ring, a Polygon has a single part with an exterior ring followed by any interior rings and Multi geometries have one part
+ * per member. Coordinates are stored in the axis order that they were encoded in.
+ */
+public class GmlGeometry {
+
+    /** GML 2/3.1 namespace */
+    public static final String GML_NAMESPACE = "http://www.opengis.net/gml";
+    /** GML 3.2 namespace */
+    public static final String GML32_NAMESPACE = "http://www.opengis.net/gml/3.2";
+
+    /**
+     * The simple geometry types that can be represented
+     */
+    public enum Type {
+        Point, LineString, Polygon, MultiPoint, MultiLineString, MultiPolygon
+    }
+
+    private Type type;
+    private String srsName;
+    private List<List<List<double[]>>> parts;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param type
+     *            The geometry type
+     * @param srsName
+     *            [Optional] The srsName attribute of the geometry
+     * @param parts
+     *            The coordinates organised into parts, rings and tuples
+     */
+    public GmlGeometry(Type type, String srsName, List<List<List<double[]>>> parts) {
+        this.type = type;
+        this.srsName = srsName;
+        this.parts = parts;
+    }
+
+    /**
+     * The geometry type
+     *
+     * @return
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * The srsName attribute of the geometry (or null if not specified)
+     *
+     * @return
+     */
+    public String getSrsName() {
+        return srsName;
+    }
+
+    /**
+     * The coordinates organised into parts, rings and tuples
+     *
+     * @return
+     */
+    public List<List<List<double[]>>> getParts() {
+        return parts;
+    }
+
+    /**
+     * Returns true if the specified namespace is a GML namespace
+     *
+     * @param namespaceUri
+     * @return
+     */
+    public static boolean isGmlNamespace(String namespaceUri) {
+        return GML_NAMESPACE.equals(namespaceUri) || GML32_NAMESPACE.equals(namespaceUri);
+    }
+
+    /**
+     * Gets the geometry type that a GML element of the specified local name will be parsed into or null if it's not a supported geometry.
+     *
+     * @param localName
+     * @return
+     */
+    private static Type typeForElement(String localName) {
+        switch (localName) {
+        case "Point":
+            return Type.Point;
+        case "LineString":
+        case "Curve":
+            return Type.LineString;
+        case "Polygon":
+        case "Surface":
+            return Type.Polygon;
+        case "MultiPoint":
+            return Type.MultiPoint;
+        case "MultiLineString":
+        case "MultiCurve":
+            return Type.MultiLineString;
+        case "MultiPolygon":
+        case "MultiSurface":
+            return Type.MultiPolygon;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the reader is positioned at the START_ELEMENT of a supported GML geometry
+     *
+     * @param reader
+     * @return
+     */
+    public static boolean isGeometryElement(XMLStreamReader reader) {
+        return reader.isStartElement() && isGmlNamespace(reader.getNamespaceURI())
+                && typeForElement(reader.getLocalName()) != null;
+    }
+
+    /**
+     * Returns true if the local name represents a new member of a multi geometry of the specified type
+     */
+    private static boolean isMemberPrimitive(Type type, String localName) {
+        switch (type) {
+        case MultiPoint:
+            return "Point".equals(localName);
+        case MultiLineString:
+            return "LineString".equals(localName) || "Curve".equals(localName);
+        case MultiPolygon:
+            return "Polygon".equals(localName) || "Surface".equals(localName);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Parses a whitespace/comma separated list of ordinates into tuples of the specified dimension
+     */
+    private static void parseTuples(String text, String tupleSeparator, String ordinateSeparator, int dimension,
+            List<double[]> ring) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            return;
+        }
+
+        if (tupleSeparator == null) {
+            String[] ordinates = trimmed.split("\\s+");
+            for (int i = 0; i + dimension <= ordinates.length; i += dimension) {
+                double[] tuple = new double[dimension];
+                for (int j = 0; j < dimension; j++) {
+                    tuple[j] = Double.parseDouble(ordinates[i + j]);
+                }
+                ring.add(tuple);
+            }
+        } else {
+            for (String tupleString : trimmed.split(Pattern.quote(tupleSeparator) + "+|\\s+")) {
+                if (tupleString.isEmpty()) {
+                    continue;
+                }
+                String[] ordinates = tupleString.split(Pattern.quote(ordinateSeparator));
+                double[] tuple = new double[ordinates.length];
+                for (int j = 0; j < ordinates.length; j++) {
+                    tuple[j] = Double.parseDouble(ordinates[j]);
+                }
+                ring.add(tuple);
+            }
+        }
+    }
+
+    private static int parseDimension(String srsDimension, int defaultValue) {
+        if (srsDimension == null || srsDimension.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(srsDimension.trim());
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parses a geometry from a reader positioned at the START_ELEMENT of a GML geometry (see isGeometryElement). The reader will be left
+     * positioned at the corresponding END_ELEMENT.
+     *
+     * @param reader
+     *            A reader positioned at a supported GML geometry START_ELEMENT
+     * @return
+     * @throws XMLStreamException
+     */
+    public static GmlGeometry parse(XMLStreamReader reader) throws XMLStreamException {
+        Type type = reader.isStartElement() ? typeForElement(reader.getLocalName()) : null;
+        if (type == null) {
+            throw new XMLStreamException("Reader is not positioned at a supported GML geometry", reader.getLocation());
+        }
+
+        String srsName = reader.getAttributeValue(null, "srsName");
+        int dimension = parseDimension(reader.getAttributeValue(null, "srsDimension"), 2);
+        boolean multi = type == Type.MultiPoint || type == Type.MultiLineString || type == Type.MultiPolygon;
+
+        List<List<List<double[]>>> parts = new ArrayList<>();
+        List<List<double[]>> currentPart = null;
+        List<double[]> currentRing = null;
+        if (!multi) {
+            currentPart = new ArrayList<>();
+            parts.add(currentPart);
+        }
+
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                continue;
+            } else if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            depth++;
+
+            String localName = reader.getLocalName();
+            dimension = parseDimension(reader.getAttributeValue(null, "srsDimension"), dimension);
+            if (multi && isMemberPrimitive(type, localName)) {
+                currentPart = new ArrayList<>();
+                currentRing = null;
+                parts.add(currentPart);
+            } else if ("LinearRing".equals(localName) || "Ring".equals(localName)) {
+                currentRing = null;
+            } else if ("pos".equals(localName) || "posList".equals(localName) || "coordinates".equals(localName)
+                    || "coord".equals(localName)) {
+                if (currentPart == null) {
+                    currentPart = new ArrayList<>();
+                    parts.add(currentPart);
+                }
+                if (currentRing == null) {
+                    currentRing = new ArrayList<>();
+                    currentPart.add(currentRing);
+                }
+
+                if ("coordinates".equals(localName)) {
+                    String cs = reader.getAttributeValue(null, "cs");
+                    String ts = reader.getAttributeValue(null, "ts");
+                    parseTuples(reader.getElementText(), ts == null ? " " : ts, cs == null ? "," : cs, dimension,
+                            currentRing);
+                } else if ("coord".equals(localName)) {
+                    currentRing.add(parseCoord(reader));
+                } else if ("pos".equals(localName)) {
+                    String text = reader.getElementText().trim();
+                    int posDimension = text.isEmpty() ? dimension : text.split("\\s+").length;
+                    parseTuples(text, null, null, posDimension, currentRing);
+                } else {
+                    parseTuples(reader.getElementText(), null, null, dimension, currentRing);
+                }
+                depth--; //getElementText leaves us at the END_ELEMENT
+            }
+        }
+
+        return new GmlGeometry(type, srsName, parts);
+    }
+
+    /**
+     * Parses a GML2 gml:coord element (X, Y and optionally Z children). Leaves the reader at the END_ELEMENT of coord
+     */
+    private static double[] parseCoord(XMLStreamReader reader) throws XMLStreamException {
+        double[] tuple = new double[3];
+        int count = 0;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String text = reader.getElementText();
+            switch (reader.getLocalName()) {
+            case "X":
+                tuple[0] = Double.parseDouble(text.trim());
+                break;
+            case "Y":
+                tuple[1] = Double.parseDouble(text.trim());
+                break;
+            case "Z":
+                tuple[2] = Double.parseDouble(text.trim());
+                break;
+            default:
+                continue;
+            }
+            count++;
+        }
+
+        return count > 2 ? tuple : new double[] {tuple[0], tuple[1]};
+    }
+
+    /**
+     * Formats a single ordinate without any exponent or superfluous trailing zeroes
+     *
+     * @param ordinate
+     * @return
+     */
+    public static String formatOrdinate(double ordinate) {
+        if (ordinate == Math.rint(ordinate) && Math.abs(ordinate) < 1e15) {
+            return Long.toString((long) ordinate);
+        }
+        return BigDecimal.valueOf(ordinate).toPlainString();
+    }
+
+    private static void appendRing(StringBuilder sb, List<double[]> ring) {
+        sb.append('(');
+        for (int i = 0; i < ring.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            double[] tuple = ring.get(i);
+            for (int j = 0; j < tuple.length; j++) {
+                if (j > 0) {
+                    sb.append(' ');
+                }
+                sb.append(formatOrdinate(tuple[j]));
+            }
+        }
+        sb.append(')');
+    }
+
+    private static void appendPart(StringBuilder sb, List<List<double[]>> part) {
+        sb.append('(');
+        for (int i = 0; i < part.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            appendRing(sb, part.get(i));
+        }
+        sb.append(')');
+    }
+
+    /**
+     * Encodes this geometry as Well Known Text. Coordinates are written in the order they were encoded in the source GML.
+     *
+     * @return
+     */
+    public String toWkt() {
+        StringBuilder sb = new StringBuilder(type.name().toUpperCase());
+        if (parts.isEmpty() || parts.get(0).isEmpty()) {
+            return sb.append(" EMPTY").toString();
+        }
+
+        sb.append(' ');
+        switch (type) {
+        case Point:
+        case LineString:
+            appendRing(sb, parts.get(0).get(0));
+            break;
+        case Polygon:
+            appendPart(sb, parts.get(0));
+            break;
+        case MultiPoint:
+        case MultiLineString:
+            sb.append('(');
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                appendRing(sb, parts.get(i).isEmpty() ? new ArrayList<double[]>() : parts.get(i).get(0));
+            }
+            sb.append(')');
+            break;
+        case MultiPolygon:
+            sb.append('(');
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                appendPart(sb, parts.get(i));
+            }
+            sb.append(')');
+            break;
+        default:
+            break;
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,172 @@
+package org.auscope.portal.core.services.responses.wms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.xpath.XPathException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Immutable lookup tables over the (flattened) layers of a GetCapabilitiesRecord.
+ *
+ * The index is built once per record so that finding a layer by name, title or CRS doesn't require a scan over every layer. CRS lookups
+ * consider CRS inherited from ancestor layers (as per the WMS specification) regardless of whether the record resolved inheritance.
+ */
+public class GetCapabilitiesLayerIndex {
+
+    private final Map<String, GetCapabilitiesWMSLayerRecord> byName;
+    private final Map<String, List<GetCapabilitiesWMSLayerRecord>> byTitle;
+    private final Map<String, List<GetCapabilitiesWMSLayerRecord>> byCrs;
+    /** Each layer's ancestors, nearest first */
+    private final Map<GetCapabilitiesWMSLayerRecord, List<GetCapabilitiesWMSLayerRecord>> parentChains;
+
+    /**
+     * Builds an index
+     *
+     * @param layers
+     *            Every layer in document order
+     * @param parents
+     *            parents[i] is the index (in layers) of the parent of layers[i] or -1 if layers[i] is a top level layer. Parents must
+     *            precede their children.
+     * @throws XPathException
+     */
+    public GetCapabilitiesLayerIndex(List<GetCapabilitiesWMSLayerRecord> layers, int[] parents) throws XPathException {
+        Map<String, GetCapabilitiesWMSLayerRecord> names = new LinkedHashMap<>();
+        Map<String, List<GetCapabilitiesWMSLayerRecord>> titles = new HashMap<>();
+        Map<String, List<GetCapabilitiesWMSLayerRecord>> crsLayers = new HashMap<>();
+        Map<GetCapabilitiesWMSLayerRecord, List<GetCapabilitiesWMSLayerRecord>> chains = new IdentityHashMap<>();
+        List<Set<String>> effectiveCrs = new ArrayList<>(layers.size());
+
+        for (int i = 0; i < layers.size(); i++) {
+            GetCapabilitiesWMSLayerRecord layer = layers.get(i);
+            int parent = i < parents.length ? parents[i] : -1;
+
+            List<GetCapabilitiesWMSLayerRecord> chain = new ArrayList<>();
+            Set<String> crsSet = new LinkedHashSet<>();
+            if (parent >= 0) {
+                GetCapabilitiesWMSLayerRecord parentLayer = layers.get(parent);
+                chain.add(parentLayer);
+                chain.addAll(chains.get(parentLayer));
+                crsSet.addAll(effectiveCrs.get(parent));
+            }
+            chains.put(layer, Collections.unmodifiableList(chain));
+
+            String[] ownCrs = layer.getChildLayerSRS();
+            if (ownCrs != null) {
+                for (String crs : ownCrs) {
+                    if (StringUtils.isNotBlank(crs)) {
+                        crsSet.add(normaliseCrs(crs));
+                    }
+                }
+            }
+            effectiveCrs.add(crsSet);
+            for (String crs : crsSet) {
+                crsLayers.computeIfAbsent(crs, k -> new ArrayList<>()).add(layer);
+            }
+
+            String name = layer.getName();
+            if (StringUtils.isNotBlank(name)) {
+                names.putIfAbsent(name, layer);
+            }
+            String title = layer.getTitle();
+            if (StringUtils.isNotBlank(title)) {
+                titles.computeIfAbsent(title, k -> new ArrayList<>()).add(layer);
+            }
+        }
+
+        this.byName = Collections.unmodifiableMap(names);
+        this.byTitle = freeze(titles);
+        this.byCrs = freeze(crsLayers);
+        this.parentChains = Collections.unmodifiableMap(chains);
+    }
+
+    /**
+     * Works out the parents array for a set of Layer DOM nodes (in document order)
+     *
+     * @param layerNodes
+     * @return
+     */
+    static int[] getParents(NodeList layerNodes) {
+        Map<Node, Integer> indexes = new IdentityHashMap<>();
+        int[] parents = new int[layerNodes.getLength()];
+        for (int i = 0; i < parents.length; i++) {
+            Node node = layerNodes.item(i);
+            parents[i] = -1;
+            for (Node ancestor = node.getParentNode(); ancestor != null; ancestor = ancestor.getParentNode()) {
+                Integer index = indexes.get(ancestor);
+                if (index != null) {
+                    parents[i] = index;
+                    break;
+                }
+            }
+            indexes.put(node, i);
+        }
+        return parents;
+    }
+
+    private static Map<String, List<GetCapabilitiesWMSLayerRecord>> freeze(Map<String, List<GetCapabilitiesWMSLayerRecord>> map) {
+        for (Map.Entry<String, List<GetCapabilitiesWMSLayerRecord>> entry : map.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static String normaliseCrs(String crs) {
+        return crs.trim().toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Gets the first layer (in document order) with the specified name
+     *
+     * @param name
+     * @return The layer or null if there is no such layer
+     */
+    public GetCapabilitiesWMSLayerRecord getLayerByName(String name) {
+        return name == null ? null : byName.get(name);
+    }
+
+    /**
+     * Gets every layer with the specified title (in document order)
+     *
+     * @param title
+     * @return
+     */
+    public List<GetCapabilitiesWMSLayerRecord> getLayersByTitle(String title) {
+        List<GetCapabilitiesWMSLayerRecord> layers = title == null ? null : byTitle.get(title);
+        return layers == null ? Collections.<GetCapabilitiesWMSLayerRecord>emptyList() : layers;
+    }
+
+    /**
+     * Gets every layer that declares or inherits the specified CRS (case insensitive, in document order)
+     *
+     * @param crs
+     *            eg EPSG:4326
+     * @return
+     */
+    public List<GetCapabilitiesWMSLayerRecord> getLayersByCrs(String crs) {
+        List<GetCapabilitiesWMSLayerRecord> layers = crs == null ? null : byCrs.get(normaliseCrs(crs));
+        return layers == null ? Collections.<GetCapabilitiesWMSLayerRecord>emptyList() : layers;
+    }
+
+    /**
+     * Gets the ancestors of a layer, nearest first.
+     *
+     * @param layer
+     *            A layer from the indexed record
+     * @return The ancestors (empty for a top level layer) or null if layer isn't part of the indexed record
+     */
+    public List<GetCapabilitiesWMSLayerRecord> getParentLayers(GetCapabilitiesWMSLayerRecord layer) {
+        return parentChains.get(layer);
+    }
+}
@@ -1,6 +1,9 @@
 package org.auscope.portal.core.services.responses.wms;
 
 import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.xpath.XPathException;
 
 /**
  * This class represents response to GetCapabilites query.
@@ -60,6 +63,42 @@ public interface GetCapabilitiesRecord {
      */
     public ArrayList<GetCapabilitiesWMSLayerRecord> getLayers();
 
+    /**
+     * Gets the first layer (in document order) with the specified name
+     *
+     * @param name
+     * @return The layer or null if there is no such layer
+     * @throws XPathException
+     */
+    public GetCapabilitiesWMSLayerRecord getLayerByName(String name) throws XPathException;
+
+    /**
+     * Gets every layer with the specified title (in document order)
+     *
+     * @param title
+     * @return
+     * @throws XPathException
+     */
+    public List<GetCapabilitiesWMSLayerRecord> getLayersByTitle(String title) throws XPathException;
+
+    /**
+     * Gets every layer that declares or inherits the specified CRS (case insensitive, in document order)
+     *
+     * @param crs
+     * @return
+     * @throws XPathException
+     */
+    public List<GetCapabilitiesWMSLayerRecord> getLayersByCrs(String crs) throws XPathException;
+
+    /**
+     * Gets the ancestors of one of this record's layers, nearest first. Useful for resolving inherited properties.
+     *
+     * @param layer
+     * @return The ancestors (empty for a top level layer) or null if layer doesn't belong to this record
+     * @throws XPathException
+     */
+    public List<GetCapabilitiesWMSLayerRecord> getParentLayers(GetCapabilitiesWMSLayerRecord layer) throws XPathException;
+
     /**
      * Gets the layer srs.
      *
@@ -3,6 +3,7 @@ package org.auscope.portal.core.services.responses.wms;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathConstants;
@@ -50,6 +51,12 @@ public class GetCapabilitiesRecord_1_3_0 implements GetCapabilitiesRecord {
     /** The layers. */
     private ArrayList<GetCapabilitiesWMSLayerRecord> layers;
 
+    /** The index (within layers) of each layer's parent or -1 for top level layers. */
+    private int[] layerParents = new int[0];
+
+    /** Lookup tables over layers, built on first use. */
+    private GetCapabilitiesLayerIndex layerIndex;
+
     /** The layer srs. */
     private String[] layerSRS = null;
     
@@ -197,6 +204,41 @@ public class GetCapabilitiesRecord_1_3_0 implements GetCapabilitiesRecord {
         return this.layers;
     }
 
+    @Override
+    public GetCapabilitiesWMSLayerRecord getLayerByName(String name) throws XPathException {
+        return getLayerIndex().getLayerByName(name);
+    }
+
+    @Override
+    public List<GetCapabilitiesWMSLayerRecord> getLayersByTitle(String title) throws XPathException {
+        return getLayerIndex().getLayersByTitle(title);
+    }
+
+    @Override
+    public List<GetCapabilitiesWMSLayerRecord> getLayersByCrs(String crs) throws XPathException {
+        return getLayerIndex().getLayersByCrs(crs);
+    }
+
+    @Override
+    public List<GetCapabilitiesWMSLayerRecord> getParentLayers(GetCapabilitiesWMSLayerRecord layer) throws XPathException {
+        return getLayerIndex().getParentLayers(layer);
+    }
+
+    /**
+     * Gets the lookup tables over layers, building them if required. Layer properties are read via XPath so this is deferred until the
+     * first lookup.
+     *
+     * @return
+     * @throws XPathException
+     */
+    private synchronized GetCapabilitiesLayerIndex getLayerIndex() throws XPathException {
+        if (layerIndex == null) {
+            List<GetCapabilitiesWMSLayerRecord> indexed = layers == null ? new ArrayList<GetCapabilitiesWMSLayerRecord>() : layers;
+            layerIndex = new GetCapabilitiesLayerIndex(indexed, layerParents);
+        }
+        return layerIndex;
+    }
+
     /**
      * Gets the layer srs.
      *
@@ -349,6 +391,7 @@ public class GetCapabilitiesRecord_1_3_0 implements GetCapabilitiesRecord {
                 mylayerList.add(new GetCapabilitiesWMSLayer_1_3_0(nodes.item(i)));
                 log.debug("WMS layer " + (i + 1) + " : " + mylayerList.get(i).toString());
             }
+            layerParents = GetCapabilitiesLayerIndex.getParents(nodes);
 
         } catch (XPathException e) {
             log.error("GetCapabilities - getWMSLayers xml parsing error: " + e.getMessage());
@@ -0,0 +1,647 @@
+package org.auscope.portal.core.services.responses.wms;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+
+/**
+ * Parses a WMS 1.1.1 or 1.3.0 GetCapabilities response in a single StAX pass.
+ *
+ * The result is the same model as GetCapabilitiesRecord_1_1_1/GetCapabilitiesRecord_1_3_0 (the version is detected from the root
+ * element) but without building a DOM or evaluating any XPath, making it far cheaper for large capabilities documents.
+ *
+ * Optionally nested layers can inherit CRS/SRS (additive), the geographic bounding box, the time dimension and the legend (all replaced
+ * if the child declares its own) from their parent layers as per section 7.2.4.8 of the WMS 1.3.0 specification. The DOM records don't
+ * do this, so inheritance is disabled by default to produce an identical model.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public class GetCapabilitiesStreamParser {
+
+    private static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final boolean inheritLayerProperties;
+
+    /**
+     * Creates a new parser that doesn't apply layer inheritance (producing the same model as the DOM based records)
+     */
+    public GetCapabilitiesStreamParser() {
+        this(false);
+    }
+
+    /**
+     * Creates a new parser
+     *
+     * @param inheritLayerProperties
+     *            If true, nested layers will inherit CRS, bounding box, time dimension and legend from their ancestors
+     */
+    public GetCapabilitiesStreamParser(boolean inheritLayerProperties) {
+        this.inheritLayerProperties = inheritLayerProperties;
+    }
+
+    /**
+     * Whether nested layers inherit properties from their ancestors
+     *
+     * @return
+     */
+    public boolean isInheritLayerProperties() {
+        return inheritLayerProperties;
+    }
+
+    /**
+     * Parses a GetCapabilities response. The stream will NOT be closed.
+     *
+     * @param xml
+     *            A WMS 1.1.1 or 1.3.0 GetCapabilities response
+     * @return
+     * @throws XMLStreamException
+     *             If the response is malformed or isn't a WMS GetCapabilities response
+     */
+    public GetCapabilitiesRecord parse(InputStream xml) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(xml);
+        try {
+            while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                // skip prolog
+            }
+
+            String rootName = reader.getLocalName();
+            StreamRecord record;
+            if ("WMS_Capabilities".equals(rootName)) {
+                record = new StreamRecord("1.3.0");
+            } else if ("WMT_MS_Capabilities".equals(rootName)) {
+                record = new StreamRecord("1.1.1");
+            } else {
+                throw new XMLStreamException("Not a WMS GetCapabilities response, root element is " + rootName,
+                        reader.getLocation());
+            }
+            record.applicationProfile = getApplicationProfile(reader, record.is130);
+
+            while (nextChild(reader)) {
+                switch (reader.getLocalName()) {
+                case "Service":
+                    parseService(reader, record);
+                    break;
+                case "Capability":
+                    parseCapability(reader, record);
+                    break;
+                default:
+                    skipElement(reader);
+                }
+            }
+
+            if (record.getMapUrl == null) {
+                throw new XMLStreamException("GetCapabilities response doesn't define a GetMap OnlineResource");
+            }
+
+            if (inheritLayerProperties) {
+                // Layers are in document order so every parent is resolved before its children
+                for (GetCapabilitiesWMSLayerRecord layer : record.layers) {
+                    ((StreamLayer) layer).inherit();
+                }
+            }
+
+            record.layerIndex = buildIndex(record.layers);
+
+            log.debug("Number of layers retrieved from GeoCapabilities: " + record.layers.size());
+            return record;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static GetCapabilitiesLayerIndex buildIndex(List<GetCapabilitiesWMSLayerRecord> layers) throws XMLStreamException {
+        Map<StreamLayer, Integer> indexes = new IdentityHashMap<>();
+        int[] parents = new int[layers.size()];
+        for (int i = 0; i < parents.length; i++) {
+            StreamLayer layer = (StreamLayer) layers.get(i);
+            parents[i] = layer.parent == null ? -1 : indexes.get(layer.parent);
+            indexes.put(layer, i);
+        }
+
+        try {
+            return new GetCapabilitiesLayerIndex(layers, parents);
+        } catch (XPathException e) {
+            // StreamLayer doesn't use XPath
+            throw new XMLStreamException(e);
+        }
+    }
+
+    /**
+     * Mirrors the vendor detection of the DOM records (which inspect the values of the root attributes, including namespace
+     * declarations). The 1.1.1 record only ever inspects the first attribute (in DOM order, which is sorted by name).
+     */
+    private static String getApplicationProfile(XMLStreamReader reader, boolean is130) {
+        TreeMap<String, String> attributes = new TreeMap<>();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            attributes.put(StringUtils.isEmpty(prefix) ? "xmlns" : "xmlns:" + prefix, reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            String localName = reader.getAttributeLocalName(i);
+            attributes.put(StringUtils.isEmpty(prefix) ? localName : prefix + ":" + localName, reader.getAttributeValue(i));
+        }
+
+        for (String value : attributes.values()) {
+            if ("http://www.esri.com/wms".equals(value)) {
+                return "Esri:ArcGIS Server";
+            } else if ("http://mapserver.gis.umn.edu/mapserver".equals(value)) {
+                return "OSGeo:MapServer";
+            } else if (!is130) {
+                break;
+            }
+        }
+        return "OSGeo:GeoServer";
+    }
+
+    private static void parseService(XMLStreamReader reader, StreamRecord record) throws XMLStreamException {
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("ContactInformation".equals(name)) {
+                while (nextChild(reader)) {
+                    if ("ContactPersonPrimary".equals(reader.getLocalName())) {
+                        while (nextChild(reader)) {
+                            if ("ContactOrganization".equals(reader.getLocalName()) && record.organisation == null) {
+                                record.organisation = readText(reader);
+                            } else {
+                                skipElement(reader);
+                            }
+                        }
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+            } else if ("AccessConstraints".equals(name) && record.is130) {
+                record.accessConstraints.add(readText(reader));
+            } else {
+                skipElement(reader);
+            }
+        }
+    }
+
+    private void parseCapability(XMLStreamReader reader, StreamRecord record) throws XMLStreamException {
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("Request".equals(name)) {
+                while (nextChild(reader)) {
+                    if ("GetMap".equals(reader.getLocalName())) {
+                        parseGetMap(reader, record);
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+            } else if ("Layer".equals(name)) {
+                parseLayer(reader, record, null);
+            } else {
+                skipElement(reader);
+            }
+        }
+    }
+
+    private static void parseGetMap(XMLStreamReader reader, StreamRecord record) throws XMLStreamException {
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("Format".equals(name)) {
+                record.getMapFormats.add(readText(reader));
+            } else if ("DCPType".equals(name)) {
+                String href = readOnlineResource(reader, "HTTP", "Get");
+                if (href != null && record.getMapUrl == null) {
+                    record.getMapUrl = href;
+                }
+            } else {
+                skipElement(reader);
+            }
+        }
+    }
+
+    /**
+     * Parses a Layer element (and its nested layers). The layer is added to the record before its children so that the layer list
+     * remains in document order.
+     */
+    private void parseLayer(XMLStreamReader reader, StreamRecord record, StreamLayer parent) throws XMLStreamException {
+        StreamLayer layer = new StreamLayer(parent);
+        record.layers.add(layer);
+
+        String crsName = record.is130 ? "CRS" : "SRS";
+        String timeName = record.is130 ? "Dimension" : "Extent";
+        String bboxName = record.is130 ? "EX_GeographicBoundingBox" : "LatLonBoundingBox";
+        String metadataHref = null;
+        String metadataText = null;
+        boolean bboxParsed = false;
+
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("Layer".equals(name)) {
+                parseLayer(reader, record, layer);
+            } else if ("Name".equals(name) && layer.name == null) {
+                layer.name = readText(reader);
+            } else if ("Title".equals(name) && layer.title == null) {
+                layer.title = readText(reader);
+            } else if ("Abstract".equals(name) && layer.description == null) {
+                layer.description = readText(reader);
+            } else if (crsName.equals(name)) {
+                String crs = readText(reader);
+                layer.ownSRS.add(crs);
+                if (parent == null) {
+                    record.layerSRS.add(crs);
+                }
+            } else if (bboxName.equals(name) && !bboxParsed) {
+                bboxParsed = true;
+                layer.bbox = record.is130 ? parseGeographicBoundingBox(reader) : parseLatLonBoundingBox(reader);
+            } else if (timeName.equals(name) && layer.timeExtent == null
+                    && "time".equals(reader.getAttributeValue(null, "name"))) {
+                layer.timeExtent = readText(reader).split(",");
+            } else if ("Style".equals(name)) {
+                String href = readOnlineResource(reader, "LegendURL");
+                if (href != null && layer.legendURL == null) {
+                    layer.legendURL = href;
+                }
+            } else if ("MetadataURL".equals(name)) {
+                String[] hrefHolder = new String[1];
+                String text = readText(reader, hrefHolder);
+                if (metadataText == null) {
+                    metadataText = text;
+                }
+                if (hrefHolder[0] != null && metadataHref == null) {
+                    metadataHref = hrefHolder[0];
+                    if (parent == null && record.metadataUrl == null) {
+                        record.metadataUrl = metadataHref;
+                    }
+                }
+            } else {
+                skipElement(reader);
+            }
+        }
+
+        layer.metadataURL = StringUtils.isBlank(metadataHref) ? StringUtils.defaultString(metadataText) : metadataHref;
+    }
+
+    private CSWGeographicBoundingBox parseGeographicBoundingBox(XMLStreamReader reader) throws XMLStreamException {
+        String west = null, east = null, south = null, north = null;
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("westBoundLongitude".equals(name) && west == null) {
+                west = readText(reader);
+            } else if ("eastBoundLongitude".equals(name) && east == null) {
+                east = readText(reader);
+            } else if ("southBoundLatitude".equals(name) && south == null) {
+                south = readText(reader);
+            } else if ("northBoundLatitude".equals(name) && north == null) {
+                north = readText(reader);
+            } else {
+                skipElement(reader);
+            }
+        }
+        return toBoundingBox(west, east, south, north);
+    }
+
+    private CSWGeographicBoundingBox parseLatLonBoundingBox(XMLStreamReader reader) throws XMLStreamException {
+        CSWGeographicBoundingBox bbox = toBoundingBox(reader.getAttributeValue(null, "minx"),
+                reader.getAttributeValue(null, "maxx"),
+                reader.getAttributeValue(null, "miny"),
+                reader.getAttributeValue(null, "maxy"));
+        skipElement(reader);
+        return bbox;
+    }
+
+    private CSWGeographicBoundingBox toBoundingBox(String minx, String maxx, String miny, String maxy) {
+        try {
+            return new CSWGeographicBoundingBox(Double.parseDouble(StringUtils.defaultString(minx)),
+                    Double.parseDouble(StringUtils.defaultString(maxx)),
+                    Double.parseDouble(StringUtils.defaultString(miny)),
+                    Double.parseDouble(StringUtils.defaultString(maxy)));
+        } catch (NumberFormatException e) {
+            log.debug("Unable to parse the bounding box.");
+            return null;
+        }
+    }
+
+    /**
+     * Advances to the next child START_ELEMENT of the current element.
+     *
+     * @return true if positioned at a child element, false if the END_ELEMENT of the current element was reached
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document");
+    }
+
+    /**
+     * Skips past the END_ELEMENT of the current element
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        return readText(reader, null);
+    }
+
+    /**
+     * Reads the text content (every descendant text node, as per DOM getTextContent) of the current element, consuming its END_ELEMENT.
+     *
+     * @param hrefHolder
+     *            [Optional] If set, the xlink:href of the first OnlineResource child will be written to hrefHolder[0]
+     */
+    private static String readText(XMLStreamReader reader, String[] hrefHolder) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                if (depth == 2 && hrefHolder != null && hrefHolder[0] == null
+                        && "OnlineResource".equals(reader.getLocalName())) {
+                    hrefHolder[0] = getXlinkHref(reader);
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                sb.append(reader.getText());
+                break;
+            default:
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads the xlink:href of the first OnlineResource found by following path from the current element, consuming its END_ELEMENT.
+     *
+     * @return The href or null if there is no matching OnlineResource
+     */
+    private static String readOnlineResource(XMLStreamReader reader, String... path) throws XMLStreamException {
+        return readOnlineResource(reader, path, 0);
+    }
+
+    private static String readOnlineResource(XMLStreamReader reader, String[] path, int index) throws XMLStreamException {
+        String href = null;
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if (href == null && index < path.length && path[index].equals(name)) {
+                href = readOnlineResource(reader, path, index + 1);
+            } else if (href == null && index == path.length && "OnlineResource".equals(name)) {
+                href = getXlinkHref(reader);
+                skipElement(reader);
+            } else {
+                skipElement(reader);
+            }
+        }
+        return href;
+    }
+
+    private static String getXlinkHref(XMLStreamReader reader) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if ("href".equals(reader.getAttributeLocalName(i))
+                    && (XLINK_NAMESPACE.equals(reader.getAttributeNamespace(i)) || "xlink".equals(reader.getAttributePrefix(i)))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * A GetCapabilitiesRecord populated by GetCapabilitiesStreamParser
+     */
+    private static class StreamRecord implements GetCapabilitiesRecord {
+        private final String version;
+        private final boolean is130;
+        private String organisation;
+        private String getMapUrl;
+        private String metadataUrl;
+        private String applicationProfile;
+        private final ArrayList<GetCapabilitiesWMSLayerRecord> layers = new ArrayList<>();
+        private final List<String> layerSRS = new ArrayList<>();
+        private final List<String> getMapFormats = new ArrayList<>();
+        private final List<String> accessConstraints = new ArrayList<>();
+        private GetCapabilitiesLayerIndex layerIndex;
+
+        public StreamRecord(String version) {
+            this.version = version;
+            this.is130 = "1.3.0".equals(version);
+        }
+
+        @Override
+        public boolean isWFS() {
+            return false;
+        }
+
+        @Override
+        public boolean isWMS() {
+            return true;
+        }
+
+        @Override
+        public String getServiceType() {
+            return "wms";
+        }
+
+        @Override
+        public String getOrganisation() {
+            return StringUtils.defaultString(organisation);
+        }
+
+        @Override
+        public String getMapUrl() {
+            return getMapUrl;
+        }
+
+        @Override
+        public String getMetadataUrl() {
+            return StringUtils.defaultString(metadataUrl);
+        }
+
+        @Override
+        public ArrayList<GetCapabilitiesWMSLayerRecord> getLayers() {
+            return layers;
+        }
+
+        @Override
+        public GetCapabilitiesWMSLayerRecord getLayerByName(String name) {
+            return layerIndex.getLayerByName(name);
+        }
+
+        @Override
+        public List<GetCapabilitiesWMSLayerRecord> getLayersByTitle(String title) {
+            return layerIndex.getLayersByTitle(title);
+        }
+
+        @Override
+        public List<GetCapabilitiesWMSLayerRecord> getLayersByCrs(String crs) {
+            return layerIndex.getLayersByCrs(crs);
+        }
+
+        @Override
+        public List<GetCapabilitiesWMSLayerRecord> getParentLayers(GetCapabilitiesWMSLayerRecord layer) {
+            return layerIndex.getParentLayers(layer);
+        }
+
+        @Override
+        public String[] getLayerSRS() {
+            return layerSRS.toArray(new String[layerSRS.size()]);
+        }
+
+        @Override
+        public String[] getGetMapFormats() {
+            return getMapFormats.toArray(new String[getMapFormats.size()]);
+        }
+
+        @Override
+        public String getVersion() {
+            return version;
+        }
+
+        @Override
+        public String getApplicationProfile() {
+            return applicationProfile;
+        }
+
+        @Override
+        public String[] getAccessConstraints() {
+            return accessConstraints.toArray(new String[accessConstraints.size()]);
+        }
+    }
+
+    /**
+     * A GetCapabilitiesWMSLayerRecord populated by GetCapabilitiesStreamParser
+     */
+    private static class StreamLayer implements GetCapabilitiesWMSLayerRecord {
+        private final StreamLayer parent;
+        private String name;
+        private String title;
+        private String description;
+        private String legendURL;
+        private String metadataURL;
+        private CSWGeographicBoundingBox bbox;
+        private String[] timeExtent;
+        private final List<String> ownSRS = new ArrayList<>();
+        private String[] childLayerSRS;
+
+        public StreamLayer(StreamLayer parent) {
+            this.parent = parent;
+        }
+
+        /**
+         * Inherits properties from the parent layer (which must have already inherited from its own parent)
+         */
+        private void inherit() {
+            if (parent == null) {
+                return;
+            }
+
+            Set<String> srs = new LinkedHashSet<>();
+            for (String parentSrs : parent.getChildLayerSRS()) {
+                srs.add(parentSrs);
+            }
+            srs.addAll(ownSRS);
+            childLayerSRS = srs.toArray(new String[srs.size()]);
+
+            if (bbox == null) {
+                bbox = parent.bbox;
+            }
+            if (timeExtent == null) {
+                timeExtent = parent.timeExtent;
+            }
+            if (legendURL == null) {
+                legendURL = parent.legendURL;
+            }
+        }
+
+        @Override
+        public String getName() {
+            return StringUtils.defaultString(name);
+        }
+
+        @Override
+        public String getTitle() {
+            return StringUtils.defaultString(title);
+        }
+
+        @Override
+        public String getAbstract() {
+            return StringUtils.defaultString(description);
+        }
+
+        @Override
+        public String getMetadataURL() {
+            return metadataURL;
+        }
+
+        @Override
+        public String getLegendURL() {
+            return StringUtils.defaultString(legendURL);
+        }
+
+        @Override
+        public CSWGeographicBoundingBox getBoundingBox() {
+            return bbox;
+        }
+
+        @Override
+        public String[] getTimeExtent() {
+            return timeExtent;
+        }
+
+        @Override
+        public String[] getChildLayerSRS() {
+            if (childLayerSRS == null) {
+                childLayerSRS = ownSRS.toArray(new String[ownSRS.size()]);
+            }
+            return childLayerSRS;
+        }
+
+        @Override
+        public String toString() {
+            return getName() + "," + getTitle() + "," + getAbstract() + ",";
+        }
+    }
+}
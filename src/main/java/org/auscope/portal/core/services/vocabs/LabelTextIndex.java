@@ -0,0 +1,118 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.SKOS;
+
+/**
+ * An in memory inverted index over the prefLabels of a (unchanging) vocabulary model for free text label searches.
+ *
+ * Each label is split into lower case words. A search matches every label containing a word starting with each word of the search
+ * text (in any order) so "gran" matches "Granite" and "rock igneous" matches "Igneous rock".
+ *
+ * Instances are safe to share between threads.
+ */
+public class LabelTextIndex {
+    private final List<String> uris = new ArrayList<>();
+    private final List<String> labels = new ArrayList<>();
+    /** Each word mapped to the ids of the labels containing it */
+    private final TreeMap<String, BitSet> words = new TreeMap<>();
+
+    /**
+     * @param model
+     *            The vocabulary to index. Subsequent changes to the model will not be reflected in the index
+     */
+    public LabelTextIndex(Model model) {
+        if (model == null) {
+            return;
+        }
+
+        StmtIterator iterator = model.listStatements(null, SKOS.prefLabel, (RDFNode) null);
+        try {
+            while (iterator.hasNext()) {
+                Statement statement = iterator.next();
+                if (!statement.getSubject().isURIResource() || !statement.getObject().isLiteral()) {
+                    continue;
+                }
+
+                int id = labels.size();
+                uris.add(statement.getSubject().getURI());
+                labels.add(statement.getString());
+                for (String word : tokenize(statement.getString())) {
+                    words.computeIfAbsent(word, w -> new BitSet()).set(id);
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * The number of indexed labels
+     */
+    public int size() {
+        return labels.size();
+    }
+
+    /**
+     * Finds the labels matching text ordered by label.
+     *
+     * @param text
+     *            The words to search for
+     * @param maxResults
+     *            The maximum number of matches to return
+     * @return Each match as a pair of concept URI and the matching label
+     */
+    public List<String[]> search(String text, int maxResults) {
+        List<String[]> result = new ArrayList<>();
+        List<String> queryWords = text == null ? new ArrayList<String>() : tokenize(text);
+        if (queryWords.isEmpty()) {
+            return result;
+        }
+
+        BitSet matches = null;
+        for (String queryWord : queryWords) {
+            BitSet wordMatches = new BitSet();
+            SortedMap<String, BitSet> prefixed = words.subMap(queryWord, queryWord + Character.MAX_VALUE);
+            for (Map.Entry<String, BitSet> entry : prefixed.entrySet()) {
+                wordMatches.or(entry.getValue());
+            }
+
+            if (matches == null) {
+                matches = wordMatches;
+            } else {
+                matches.and(wordMatches);
+            }
+            if (matches.isEmpty()) {
+                return result;
+            }
+        }
+
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            result.add(new String[] {uris.get(id), labels.get(id)});
+        }
+        result.sort(Comparator.comparing((String[] match) -> match[1]).thenComparing(match -> match[0]));
+        return result.size() > maxResults ? new ArrayList<>(result.subList(0, maxResults)) : result;
+    }
+}
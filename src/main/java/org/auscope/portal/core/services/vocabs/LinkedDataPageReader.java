@@ -0,0 +1,139 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.vocabulary.RDF;
+import org.auscope.portal.core.services.namespaces.VocabNamespaceContext;
+
+/**
+ * Streams a page of an RDF/XML Linked Data API response straight into a JENA Model.
+ *
+ * The page's own metadata (the api:Page, api:ListEndpoint etc resources and the api:items list that links them to the results) is
+ * discarded so that only the described resources end up in the model. The page's xhv:next link is captured from the same triple stream
+ * to determine whether there are further pages to request.
+ *
+ * The cells of the api:items list can only be told apart from the vocabulary's own RDF lists (eg skos:memberList) once the list has
+ * been linked to the page, so list cells are held back until the end of the page.
+ */
+public class LinkedDataPageReader {
+
+    private static final String XHV_NEXT = VocabNamespaceContext.XHV_NAMESPACE + "next";
+    private static final String API_PAGE = VocabNamespaceContext.API_NAMESPACE + "Page";
+    private static final String API_ITEMS = VocabNamespaceContext.API_NAMESPACE + "items";
+
+    /**
+     * Receives the triples of a single page
+     */
+    private static class PageSink extends StreamRDFBase {
+        private final Model model;
+        private final Graph graph;
+        /** Subjects that describe the page itself rather than the vocabulary, keyed to the first api type they were given */
+        private final Map<Node, Node> pageResources = new HashMap<>();
+        /** The heads of every api:items list */
+        private final List<Node> itemsLists = new ArrayList<>();
+        /** The rdf:first and rdf:rest triples of every blank list cell, keyed by cell */
+        private final Map<Node, List<Triple>> listCells = new HashMap<>();
+        private boolean moreData = false;
+
+        public PageSink(Model model) {
+            this.model = model;
+            this.graph = model.getGraph();
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            Node subject = triple.getSubject();
+            Node predicate = triple.getPredicate();
+
+            if (predicate.isURI() && API_ITEMS.equals(predicate.getURI())) {
+                itemsLists.add(triple.getObject());
+            }
+
+            if (predicate.equals(RDF.Nodes.type) && triple.getObject().isURI()
+                    && triple.getObject().getURI().startsWith(VocabNamespaceContext.API_NAMESPACE)) {
+                //Any earlier triples about this resource were added before we knew it was page metadata
+                if (pageResources.putIfAbsent(subject, triple.getObject()) == null) {
+                    graph.remove(subject, Node.ANY, Node.ANY);
+                }
+                return;
+            }
+
+            Node pageType = pageResources.get(subject);
+            if (pageType != null) {
+                //Only an api:Page element links to further pages (a list endpoint can also carry xhv:next)
+                if (XHV_NEXT.equals(predicate.getURI()) && API_PAGE.equals(pageType.getURI())) {
+                    moreData = true;
+                }
+                return;
+            }
+
+            //Could be a cell of the api:items list
+            if (subject.isBlank() && (predicate.equals(RDF.Nodes.first) || predicate.equals(RDF.Nodes.rest))) {
+                listCells.computeIfAbsent(subject, s -> new ArrayList<>(2)).add(triple);
+                return;
+            }
+
+            graph.add(triple);
+        }
+
+        @Override
+        public void finish() {
+            //Drop the cells of each api:items list, keeping every other list
+            for (Node cell : itemsLists) {
+                while (cell != null && cell.isBlank()) {
+                    List<Triple> triples = listCells.remove(cell);
+                    Node rest = null;
+                    if (triples != null) {
+                        for (Triple triple : triples) {
+                            if (triple.getPredicate().equals(RDF.Nodes.rest)) {
+                                rest = triple.getObject();
+                            }
+                        }
+                    }
+                    cell = rest;
+                }
+            }
+
+            for (List<Triple> triples : listCells.values()) {
+                for (Triple triple : triples) {
+                    graph.add(triple);
+                }
+            }
+            listCells.clear();
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+            model.setNsPrefix(prefix, iri);
+        }
+    }
+
+    private LinkedDataPageReader() {
+    }
+
+    /**
+     * Parses a page of RDF/XML into model
+     *
+     * @param inputStream
+     *            The page (will not be closed)
+     * @param model
+     *            Receives the described resources
+     * @return true if the page links to a next page, false otherwise
+     */
+    public static boolean readPage(InputStream inputStream, Model model) {
+        PageSink sink = new PageSink(model);
+        RDFParser.source(inputStream).lang(Lang.RDFXML).parse(sink);
+        return sink.moreData;
+    }
+}
@@ -0,0 +1,215 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.SKOS;
+
+/**
+ * An immutable index of the SKOS hierarchy (narrower, broader and narrowerTransitive relationships) of a vocabulary model.
+ *
+ * Every concept URI is assigned an int id and each relationship is stored as an adjacency array. The transitive closure of the
+ * narrower relationship is calculated lazily for each concept and memoized so shared subtrees are only ever walked once. Cycles in the
+ * hierarchy are tolerated.
+ *
+ * Instances are safe to share between threads.
+ */
+public class SkosHierarchyIndex {
+    private static final int[] NONE = new int[0];
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> uris = new ArrayList<>();
+    private final int[][] narrower;
+    private final int[][] broader;
+    private final int[][] narrowerTransitive;
+    /** The memoized transitive closure of narrower for each concept (null until first requested) */
+    private final AtomicReferenceArray<int[]> narrowerClosure;
+
+    /**
+     * Indexes the hierarchy of the specified model
+     *
+     * @param model
+     *            The vocabulary to index. Subsequent changes to the model will not be reflected in the index
+     */
+    public SkosHierarchyIndex(Model model) {
+        List<int[]> narrowerEdges = listEdges(model, SKOS.narrower);
+        List<int[]> broaderEdges = listEdges(model, SKOS.broader);
+        List<int[]> narrowerTransitiveEdges = listEdges(model, SKOS.narrowerTransitive);
+
+        this.narrower = toAdjacency(narrowerEdges);
+        this.broader = toAdjacency(broaderEdges);
+        this.narrowerTransitive = toAdjacency(narrowerTransitiveEdges);
+        this.narrowerClosure = new AtomicReferenceArray<>(uris.size());
+    }
+
+    private int getOrCreateId(String uri) {
+        Integer id = ids.get(uri);
+        if (id == null) {
+            id = uris.size();
+            ids.put(uri, id);
+            uris.add(uri);
+        }
+        return id;
+    }
+
+    private List<int[]> listEdges(Model model, Property property) {
+        List<int[]> edges = new ArrayList<>();
+        if (model == null) {
+            return edges;
+        }
+
+        StmtIterator iterator = model.listStatements(null, property, (RDFNode) null);
+        try {
+            while (iterator.hasNext()) {
+                Statement statement = iterator.next();
+                if (!statement.getSubject().isURIResource() || !statement.getObject().isURIResource()) {
+                    continue;
+                }
+                edges.add(new int[] {getOrCreateId(statement.getSubject().getURI()),
+                        getOrCreateId(statement.getObject().asResource().getURI())});
+            }
+        } finally {
+            iterator.close();
+        }
+        return edges;
+    }
+
+    private int[][] toAdjacency(List<int[]> edges) {
+        int[] counts = new int[uris.size()];
+        for (int[] edge : edges) {
+            counts[edge[0]]++;
+        }
+
+        int[][] adjacency = new int[uris.size()][];
+        for (int i = 0; i < adjacency.length; i++) {
+            adjacency[i] = counts[i] == 0 ? NONE : new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int[] edge : edges) {
+            adjacency[edge[0]][counts[edge[0]]++] = edge[1];
+        }
+        return adjacency;
+    }
+
+    private Set<String> toUris(int[] values) {
+        Set<String> result = new HashSet<>(values.length * 2);
+        for (int value : values) {
+            result.add(uris.get(value));
+        }
+        return result;
+    }
+
+    private Set<String> lookup(int[][] adjacency, String uri) {
+        Integer id = ids.get(uri);
+        if (id == null) {
+            return new HashSet<>();
+        }
+        return toUris(adjacency[id]);
+    }
+
+    /**
+     * The number of concepts that take part in the hierarchy
+     */
+    public int size() {
+        return uris.size();
+    }
+
+    /**
+     * The concepts that uri directly asserts as skos:narrower
+     */
+    public Set<String> getNarrower(String uri) {
+        return lookup(narrower, uri);
+    }
+
+    /**
+     * The concepts that uri directly asserts as skos:broader
+     */
+    public Set<String> getBroader(String uri) {
+        return lookup(broader, uri);
+    }
+
+    /**
+     * The concepts that uri directly asserts as skos:narrowerTransitive
+     */
+    public Set<String> getNarrowerTransitive(String uri) {
+        return lookup(narrowerTransitive, uri);
+    }
+
+    /**
+     * Every concept reachable from uri by following one or more skos:narrower relationships. uri will only be included if it is part of
+     * a cycle.
+     */
+    public Set<String> getNarrowerClosure(String uri) {
+        Integer id = ids.get(uri);
+        if (id == null) {
+            return new HashSet<>();
+        }
+        return toUris(getNarrowerClosure(id));
+    }
+
+    /**
+     * Walks the narrower relationships from id, reusing the closure of any concept that has already been memoized
+     */
+    private int[] getNarrowerClosure(int id) {
+        int[] closure = narrowerClosure.get(id);
+        if (closure != null) {
+            return closure;
+        }
+
+        BitSet reached = new BitSet(uris.size());
+        int[] stack = new int[Math.max(16, narrower[id].length)];
+        int top = 0;
+        for (int child : narrower[id]) {
+            if (!reached.get(child)) {
+                reached.set(child);
+                stack[top++] = child;
+            }
+        }
+
+        while (top > 0) {
+            int current = stack[--top];
+            int[] memoized = narrowerClosure.get(current);
+            if (memoized != null) {
+                for (int descendant : memoized) {
+                    reached.set(descendant);
+                }
+                continue;
+            }
+
+            for (int child : narrower[current]) {
+                if (!reached.get(child)) {
+                    reached.set(child);
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top++] = child;
+                }
+            }
+        }
+
+        closure = reached.stream().toArray();
+        //Racing threads will calculate identical closures so it doesn't matter who wins
+        narrowerClosure.compareAndSet(id, null, closure);
+        return closure;
+    }
+
+    /**
+     * The URIs of every concept that takes part in the hierarchy
+     */
+    public List<String> getUris() {
+        return Collections.unmodifiableList(uris);
+    }
+}
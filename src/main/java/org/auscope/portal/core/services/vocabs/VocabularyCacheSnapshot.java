@@ -0,0 +1,122 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.jena.rdf.model.Model;
+
+/**
+ * An immutable point in time view of the vocabulary cache. Each vocabulary model is held alongside the indexes derived from it.
+ *
+ * The cache publishes a new instance whenever a vocabulary changes so readers never need to lock; an instance obtained by a reader
+ * remains consistent no matter how many refreshes happen afterwards.
+ */
+public class VocabularyCacheSnapshot {
+
+    /**
+     * A single cached vocabulary
+     */
+    public static class Entry {
+        private final Model model;
+        private final SkosHierarchyIndex hierarchyIndex;
+        private final VocabularyLookupIndex lookupIndex;
+        private final long harvested;
+
+        /**
+         * Builds the indexes of model
+         *
+         * @param model
+         *            The vocabulary (should not be modified afterwards)
+         * @param harvested
+         *            When the vocabulary was harvested (ms since the epoch)
+         */
+        public Entry(Model model, long harvested) {
+            this.model = model;
+            this.hierarchyIndex = new SkosHierarchyIndex(model);
+            this.lookupIndex = new VocabularyLookupIndex(model);
+            this.harvested = harvested;
+        }
+
+        public Model getModel() {
+            return model;
+        }
+
+        public SkosHierarchyIndex getHierarchyIndex() {
+            return hierarchyIndex;
+        }
+
+        public VocabularyLookupIndex getLookupIndex() {
+            return lookupIndex;
+        }
+
+        public long getHarvested() {
+            return harvested;
+        }
+    }
+
+    public static final VocabularyCacheSnapshot EMPTY = new VocabularyCacheSnapshot(new HashMap<String, Entry>());
+
+    private final Map<String, Entry> entries;
+    private final Map<String, Model> models;
+
+    private VocabularyCacheSnapshot(Map<String, Entry> entries) {
+        this.entries = Collections.unmodifiableMap(entries);
+
+        Map<String, Model> models = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            models.put(entry.getKey(), entry.getValue().getModel());
+        }
+        this.models = Collections.unmodifiableMap(models);
+    }
+
+    /**
+     * Returns a copy of this snapshot with the specified vocabulary added (or replaced)
+     */
+    public VocabularyCacheSnapshot with(String vocabularyId, Entry entry) {
+        Map<String, Entry> copy = new HashMap<>(entries);
+        copy.put(vocabularyId, entry);
+        return new VocabularyCacheSnapshot(copy);
+    }
+
+    /**
+     * Returns a copy of this snapshot with every specified vocabulary added (or replaced)
+     */
+    public VocabularyCacheSnapshot with(Map<String, Entry> added) {
+        Map<String, Entry> copy = new HashMap<>(entries);
+        copy.putAll(added);
+        return new VocabularyCacheSnapshot(copy);
+    }
+
+    /**
+     * The cached vocabulary or null if it isn't cached
+     */
+    public Entry getEntry(String vocabularyId) {
+        return entries.get(vocabularyId);
+    }
+
+    /**
+     * Every cached vocabulary keyed by ID (unmodifiable)
+     */
+    public Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Every cached model keyed by vocabulary ID (unmodifiable)
+     */
+    public Map<String, Model> getModels() {
+        return models;
+    }
+
+    /**
+     * The harvest timestamp of every cached vocabulary keyed by ID
+     */
+    public Map<String, Long> getHarvestTimestamps() {
+        Map<String, Long> timestamps = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            timestamps.put(entry.getKey(), entry.getValue().getHarvested());
+        }
+        return timestamps;
+    }
+}
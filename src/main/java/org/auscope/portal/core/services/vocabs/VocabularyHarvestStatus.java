@@ -0,0 +1,127 @@
+package org.auscope.portal.core.services.vocabs;
+
+/**
+ * An immutable description of the harvest history of a single vocabulary. A new instance is created for every change of state.
+ */
+public class VocabularyHarvestStatus {
+
+    public enum State {
+        /** No harvest has been attempted */
+        Idle,
+        /** A harvest is underway */
+        Running,
+        /** The last harvest was published */
+        Succeeded,
+        /** The last harvest failed (the previous contents are still served) */
+        Failed,
+        /** The last harvest missed its deadline (the previous contents are still served) */
+        TimedOut
+    }
+
+    private final String vocabularyId;
+    private final State state;
+    private final long lastStarted;
+    private final long lastFinished;
+    private final long lastDuration;
+    private final long lastSucceeded;
+    private final String lastError;
+    private final int consecutiveFailures;
+
+    private VocabularyHarvestStatus(String vocabularyId, State state, long lastStarted, long lastFinished, long lastDuration,
+            long lastSucceeded, String lastError, int consecutiveFailures) {
+        this.vocabularyId = vocabularyId;
+        this.state = state;
+        this.lastStarted = lastStarted;
+        this.lastFinished = lastFinished;
+        this.lastDuration = lastDuration;
+        this.lastSucceeded = lastSucceeded;
+        this.lastError = lastError;
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    /**
+     * The status of a vocabulary that has never been harvested
+     */
+    public VocabularyHarvestStatus(String vocabularyId) {
+        this(vocabularyId, State.Idle, 0, 0, 0, 0, null, 0);
+    }
+
+    /**
+     * This status updated for a harvest starting at time (ms since the epoch)
+     */
+    public VocabularyHarvestStatus started(long time) {
+        return new VocabularyHarvestStatus(vocabularyId, State.Running, time, lastFinished, lastDuration, lastSucceeded, lastError,
+                consecutiveFailures);
+    }
+
+    /**
+     * This status updated for the current harvest being published at time (ms since the epoch)
+     */
+    public VocabularyHarvestStatus succeeded(long time) {
+        return new VocabularyHarvestStatus(vocabularyId, State.Succeeded, lastStarted, time, time - lastStarted, time, null, 0);
+    }
+
+    /**
+     * This status updated for the current harvest failing (or timing out) at time (ms since the epoch)
+     */
+    public VocabularyHarvestStatus failed(long time, State state, String error) {
+        return new VocabularyHarvestStatus(vocabularyId, state, lastStarted, time, time - lastStarted, lastSucceeded, error,
+                consecutiveFailures + 1);
+    }
+
+    public String getVocabularyId() {
+        return vocabularyId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * When the most recent harvest started (ms since the epoch) or 0
+     */
+    public long getLastStarted() {
+        return lastStarted;
+    }
+
+    /**
+     * When the most recent finished harvest finished (ms since the epoch) or 0
+     */
+    public long getLastFinished() {
+        return lastFinished;
+    }
+
+    /**
+     * How long the most recent finished harvest took (ms)
+     */
+    public long getLastDuration() {
+        return lastDuration;
+    }
+
+    /**
+     * When the vocabulary was last published (ms since the epoch) or 0
+     */
+    public long getLastSucceeded() {
+        return lastSucceeded;
+    }
+
+    /**
+     * Why the most recent harvest failed or null if it didn't
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * The number of harvests that have failed since the last success
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    @Override
+    public String toString() {
+        return "VocabularyHarvestStatus [vocabularyId=" + vocabularyId + ", state=" + state + ", lastDuration=" + lastDuration
+                + ", consecutiveFailures=" + consecutiveFailures + "]";
+    }
+}
@@ -0,0 +1,299 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.SKOS;
+
+/**
+ * Lookup indexes over a single (unchanging) vocabulary model for answering label and property queries without scanning or copying the
+ * model.
+ *
+ * Every subject is assigned an int id and the index holds:
+ * <ul>
+ * <li>(property, object) to the set of matching subjects. Small sets (eg the subject of a definition) are held as a sorted int[] of
+ * subject ids and only sets dense enough to be smaller as a BitSet are held as one</li>
+ * <li>subject to its prefLabel in each language</li>
+ * <li>case folded prefLabel to the URIs of the concepts with that label</li>
+ * </ul>
+ *
+ * Instances are safe to share between threads.
+ */
+public class VocabularyLookupIndex {
+    private final Model model;
+
+    private final Map<Node, Integer> subjectIds = new HashMap<>();
+    private final List<Resource> subjects = new ArrayList<>();
+    /** Each property's objects mapped to the ids of their subjects (as either a sorted int[] or a BitSet) */
+    private final Map<Node, Map<Node, Object>> propertyObjectSubjects = new HashMap<>();
+    /** The prefLabels of each subject keyed by language ("" for none) */
+    private final List<Map<String, String>> prefLabels = new ArrayList<>();
+    /** The label reported for each subject when a single label is requested */
+    private final List<String> defaultLabels = new ArrayList<>();
+    private final Map<String, Set<String>> foldedLabelUris = new HashMap<>();
+    private final Map<String, String> labeledVocabulary = new HashMap<>();
+
+    /**
+     * @param model
+     *            The vocabulary to index. The model is retained for lookups of individual properties so it should not be modified
+     *            afterwards.
+     */
+    public VocabularyLookupIndex(Model model) {
+        this.model = model;
+        if (model == null) {
+            return;
+        }
+
+        StmtIterator iterator = model.listStatements();
+        try {
+            while (iterator.hasNext()) {
+                Statement statement = iterator.next();
+                int id = getOrCreateId(statement.getSubject());
+                Node predicate = statement.getPredicate().asNode();
+                ((IdList) propertyObjectSubjects.computeIfAbsent(predicate, p -> new HashMap<>())
+                        .computeIfAbsent(statement.getObject().asNode(), o -> new IdList())).add(id);
+            }
+        } finally {
+            iterator.close();
+        }
+
+        for (Map<Node, Object> objects : propertyObjectSubjects.values()) {
+            for (Map.Entry<Node, Object> entry : objects.entrySet()) {
+                entry.setValue(((IdList) entry.getValue()).compact(subjects.size()));
+            }
+        }
+
+        for (int id = 0; id < subjects.size(); id++) {
+            prefLabels.add(null);
+            defaultLabels.add(null);
+        }
+
+        iterator = model.listStatements(null, SKOS.prefLabel, (RDFNode) null);
+        try {
+            while (iterator.hasNext()) {
+                Statement statement = iterator.next();
+                if (!statement.getObject().isLiteral()) {
+                    continue;
+                }
+
+                int id = subjectIds.get(statement.getSubject().asNode());
+                String label = statement.getString();
+                Map<String, String> labels = prefLabels.get(id);
+                if (labels == null) {
+                    labels = new HashMap<>();
+                    prefLabels.set(id, labels);
+                }
+                labels.putIfAbsent(statement.getLanguage(), label);
+            }
+        } finally {
+            iterator.close();
+        }
+
+        for (int id = 0; id < subjects.size(); id++) {
+            String uri = subjects.get(id).getURI();
+            if (uri == null || prefLabels.get(id) == null) {
+                continue;
+            }
+
+            //Where a concept has several labels, report the same one that walking its properties always has
+            StmtIterator labelIterator = subjects.get(id).listProperties(SKOS.prefLabel);
+            try {
+                while (labelIterator.hasNext()) {
+                    Statement statement = labelIterator.next();
+                    if (statement.getObject().isLiteral()) {
+                        defaultLabels.set(id, statement.getString());
+                    }
+                }
+            } finally {
+                labelIterator.close();
+            }
+
+            labeledVocabulary.put(uri, defaultLabels.get(id));
+            for (String label : prefLabels.get(id).values()) {
+                foldedLabelUris.computeIfAbsent(foldCase(label), l -> new HashSet<>()).add(uri);
+            }
+        }
+    }
+
+    /**
+     * The subject ids of a single (property, object) pair whilst the index is being built
+     */
+    private static class IdList {
+        private int[] ids = new int[1];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * The distinct ids as whichever of a sorted int[] and a BitSet (of subjectCount bits) is smaller
+         */
+        private Object compact(int subjectCount) {
+            int[] sorted = Arrays.copyOf(ids, size);
+            Arrays.sort(sorted);
+            int distinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (distinct == 0 || sorted[distinct - 1] != sorted[i]) {
+                    sorted[distinct++] = sorted[i];
+                }
+            }
+
+            if ((long) distinct * Integer.SIZE <= subjectCount) {
+                return distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct);
+            }
+            BitSet bits = new BitSet(subjectCount);
+            for (int i = 0; i < distinct; i++) {
+                bits.set(sorted[i]);
+            }
+            return bits;
+        }
+    }
+
+    private static String foldCase(String label) {
+        return label.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private int getOrCreateId(Resource subject) {
+        Node node = subject.asNode();
+        Integer id = subjectIds.get(node);
+        if (id == null) {
+            id = subjects.size();
+            subjectIds.put(node, id);
+            subjects.add(subject);
+        }
+        return id;
+    }
+
+    /**
+     * The model this index was built from
+     */
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * Gets the ids of every subject with a statement matching property and object. Returns a new BitSet that can be modified by the
+     * caller.
+     */
+    public BitSet getSubjectIds(Property property, RDFNode object) {
+        Map<Node, Object> objects = propertyObjectSubjects.get(property.asNode());
+        Object ids = objects == null ? null : objects.get(object.asNode());
+        if (ids instanceof BitSet) {
+            return (BitSet) ((BitSet) ids).clone();
+        }
+
+        BitSet result = new BitSet();
+        if (ids != null) {
+            for (int id : (int[]) ids) {
+                result.set(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the ids of every subject with a statement matching the specified pattern (null acts as a wildcard). Returns a new BitSet that
+     * can be modified by the caller.
+     */
+    public BitSet getSubjectIds(Resource subject, Property property, RDFNode object) {
+        if (subject == null && property != null && object != null) {
+            return getSubjectIds(property, object);
+        }
+
+        BitSet ids = new BitSet();
+        if (model == null) {
+            return ids;
+        }
+        StmtIterator iterator = model.listStatements(subject, property, object);
+        try {
+            while (iterator.hasNext()) {
+                ids.set(subjectIds.get(iterator.next().getSubject().asNode()));
+            }
+        } finally {
+            iterator.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the subject with the specified id
+     */
+    public Resource getSubject(int id) {
+        return subjects.get(id);
+    }
+
+    /**
+     * The label reported for the subject with the specified id or null if it has no prefLabel
+     */
+    public String getLabel(int id) {
+        return defaultLabels.get(id);
+    }
+
+    /**
+     * The prefLabel of uri in the specified language ("" for no language) or null if there is no such label
+     */
+    public String getPrefLabel(String uri, String language) {
+        return getPrefLabels(uri).get(language == null ? "" : language);
+    }
+
+    /**
+     * Every prefLabel of uri keyed by language ("" for no language)
+     */
+    public Map<String, String> getPrefLabels(String uri) {
+        Integer id = subjectIds.get(NodeFactory.createURI(uri));
+        if (id == null || prefLabels.get(id) == null) {
+            return new HashMap<>();
+        }
+        return new HashMap<>(prefLabels.get(id));
+    }
+
+    /**
+     * The URIs of every concept with a prefLabel (in any language) matching label. The comparison ignores case and surrounding
+     * whitespace.
+     */
+    public Set<String> getUrisByLabel(String label) {
+        Set<String> uris = label == null ? null : foldedLabelUris.get(foldCase(label));
+        return uris == null ? new HashSet<String>() : new HashSet<>(uris);
+    }
+
+    /**
+     * Every URI with a prefLabel mapped to that label
+     */
+    public Map<String, String> getLabeledVocabulary() {
+        return new HashMap<>(labeledVocabulary);
+    }
+
+    /**
+     * The URI to label mapping restricted to the specified subject ids
+     */
+    public Map<String, String> getLabeledVocabulary(BitSet ids) {
+        Map<String, String> result = new HashMap<>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            String uri = subjects.get(id).getURI();
+            String label = defaultLabels.get(id);
+            if (uri != null && label != null) {
+                result.put(uri, label);
+            }
+        }
+        return result;
+    }
+}
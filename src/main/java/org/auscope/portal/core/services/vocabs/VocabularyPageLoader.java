@@ -0,0 +1,129 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.auscope.portal.core.services.PortalServiceException;
+
+/**
+ * Loads every page of a paged Linked Data API request into a single JENA Model.
+ *
+ * The Linked Data API doesn't advertise how many pages a list has so when loading concurrently the loader speculatively keeps a window
+ * of the next N pages in flight. Each page is parsed into its own model and merged into the result in page order on the calling thread.
+ * Loading stops at the first page without a next link; any pages requested beyond it are discarded.
+ */
+public class VocabularyPageLoader {
+
+    /**
+     * Generates the request for a single page
+     */
+    public interface PageRequestFactory {
+        HttpRequestBase getPage(int pageNumber) throws URISyntaxException;
+    }
+
+    /**
+     * Makes a page request, appending its contents to model. Returns true if there are further pages
+     */
+    public interface PageReader {
+        boolean readPage(HttpRequestBase method, Model model) throws PortalServiceException;
+    }
+
+    /**
+     * A single parsed page
+     */
+    private static class Page {
+        private final Model model = ModelFactory.createDefaultModel();
+        private boolean moreData;
+    }
+
+    private VocabularyPageLoader() {
+    }
+
+    /**
+     * Requests every page into a single model
+     *
+     * @param factory
+     *            Generates the request for each page
+     * @param reader
+     *            Makes each page request
+     * @param concurrency
+     *            The maximum number of pages to have in flight at once. Values less than 2 request each page in turn
+     * @return
+     * @throws PortalServiceException
+     * @throws URISyntaxException
+     */
+    public static Model loadAllPages(PageRequestFactory factory, PageReader reader, int concurrency)
+            throws PortalServiceException, URISyntaxException {
+        Model model = ModelFactory.createDefaultModel();
+        if (concurrency < 2) {
+            int pageNumber = 0;
+            while (reader.readPage(factory.getPage(pageNumber), model)) {
+                pageNumber++;
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new PortalServiceException("Interrupted whilst loading vocabulary pages");
+                }
+            }
+            return model;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            Deque<Future<Page>> window = new ArrayDeque<>(concurrency);
+            int nextPage = 0;
+            for (; nextPage < concurrency; nextPage++) {
+                window.add(submitPage(executor, factory, reader, nextPage));
+            }
+
+            while (true) {
+                Page page = waitForPage(window.poll());
+
+                //The single writer - pages are merged in order
+                model.withDefaultMappings(page.model);
+                model.add(page.model);
+                if (!page.moreData) {
+                    break;
+                }
+
+                window.add(submitPage(executor, factory, reader, nextPage++));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return model;
+    }
+
+    private static Future<Page> submitPage(ExecutorService executor, final PageRequestFactory factory, final PageReader reader,
+            final int pageNumber) {
+        return executor.submit(() -> {
+            Page page = new Page();
+            page.moreData = reader.readPage(factory.getPage(pageNumber), page.model);
+            return page;
+        });
+    }
+
+    private static Page waitForPage(Future<Page> future) throws PortalServiceException, URISyntaxException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PortalServiceException("Interrupted whilst loading vocabulary pages", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof PortalServiceException) {
+                throw (PortalServiceException) cause;
+            } else if (cause instanceof URISyntaxException) {
+                throw (URISyntaxException) cause;
+            }
+            throw new PortalServiceException("Error loading vocabulary page", cause);
+        }
+    }
+}
@@ -11,10 +11,24 @@ public class VocabularyServiceItem {
 
     private VocabularyService vocabularyService;
 
+    /** The maximum number of pages to request at once when harvesting. 0 uses the vocabulary service's own setting */
+    private int pageConcurrency;
+
+    /** The time between scheduled refreshes of this vocabulary (ms). 0 uses the vocabulary cache's own setting */
+    private long refreshInterval;
+
+    /** How long a harvest of this vocabulary may take before it is abandoned (ms). 0 uses the vocabulary cache's own setting */
+    private long harvestTimeout;
+
     public VocabularyServiceItem(String id, String title, VocabularyService vocabularyService) {
+        this(id, title, vocabularyService, 0);
+    }
+
+    public VocabularyServiceItem(String id, String title, VocabularyService vocabularyService, int pageConcurrency) {
         this.id = id;
         this.title = title;
         this.vocabularyService = vocabularyService;
+        this.pageConcurrency = pageConcurrency;
     }
 
 
@@ -41,5 +55,28 @@ public class VocabularyServiceItem {
         this.vocabularyService = vocabularyService;
     }
 
+    public int getPageConcurrency() {
+        return pageConcurrency;
+    }
+
+    public void setPageConcurrency(int pageConcurrency) {
+        this.pageConcurrency = pageConcurrency;
+    }
+
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    public long getHarvestTimeout() {
+        return harvestTimeout;
+    }
+
+    public void setHarvestTimeout(long harvestTimeout) {
+        this.harvestTimeout = harvestTimeout;
+    }
 
 }
@@ -0,0 +1,190 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
+
+/**
+ * Persists the vocabulary cache to a local directory so that it can be restored on startup without waiting for the remote vocabulary
+ * services.
+ *
+ * Each vocabulary is written as RDF Binary (Thrift) to a file named after the SHA-256 checksum of its content. A manifest mapping each
+ * vocabulary ID to its file, checksum, triple count and harvest timestamp is written last (atomically) so a snapshot interrupted
+ * part way through leaves the previous manifest in place. Files that are missing, truncated or don't match their checksum are skipped
+ * when reading.
+ */
+public class VocabularySnapshot {
+    public static final String MANIFEST_FILE = "manifest.properties";
+    private static final String MODEL_SUFFIX = ".rdft";
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final File directory;
+
+    /**
+     * @param directory
+     *            Where the snapshot will be stored (will be created if it doesn't exist)
+     */
+    public VocabularySnapshot(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns true if file exists and its content matches checksum
+     */
+    private static boolean isIntact(File file, String checksum) {
+        if (!file.exists()) {
+            return false;
+        }
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            return checksum.equals(DigestUtils.sha256Hex(is));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static void writeAtomically(File file, byte[] data) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(tmp.toPath(), data);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File getManifestFile() {
+        return new File(directory, MANIFEST_FILE);
+    }
+
+    /**
+     * Writes every model in vocabularies to the snapshot, replacing any earlier snapshot
+     *
+     * @param vocabularies
+     *            The models to persist keyed by vocabulary ID
+     * @param timestamps
+     *            When each vocabulary was harvested (in ms since the epoch)
+     * @throws IOException
+     */
+    public synchronized void write(Map<String, Model> vocabularies, Map<String, Long> timestamps) throws IOException {
+        Files.createDirectories(directory.toPath());
+
+        Properties manifest = new Properties();
+        Set<String> files = new HashSet<>();
+        int i = 0;
+        for (Map.Entry<String, Model> entry : vocabularies.entrySet()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            RDFDataMgr.write(bos, entry.getValue(), Lang.RDFTHRIFT);
+            byte[] data = bos.toByteArray();
+
+            String checksum = DigestUtils.sha256Hex(data);
+            String fileName = checksum + MODEL_SUFFIX;
+            File file = new File(directory, fileName);
+            //An unchanged vocabulary is already on disk unless its file has since been damaged
+            if (!isIntact(file, checksum)) {
+                writeAtomically(file, data);
+            }
+            files.add(fileName);
+
+            Long timestamp = timestamps.get(entry.getKey());
+            manifest.setProperty(i + ".id", entry.getKey());
+            manifest.setProperty(i + ".file", fileName);
+            manifest.setProperty(i + ".sha256", checksum);
+            manifest.setProperty(i + ".triples", Long.toString(entry.getValue().size()));
+            manifest.setProperty(i + ".timestamp", Long.toString(timestamp == null ? System.currentTimeMillis() : timestamp));
+            i++;
+        }
+        manifest.setProperty("count", Integer.toString(i));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        manifest.store(bos, "Vocabulary cache snapshot");
+        writeAtomically(getManifestFile(), bos.toByteArray());
+
+        //Anything the new manifest doesn't reference is from an earlier snapshot
+        File[] existing = directory.listFiles((dir, name) -> name.endsWith(MODEL_SUFFIX) || name.endsWith(".tmp"));
+        if (existing != null) {
+            for (File file : existing) {
+                if (!files.contains(file.getName())) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads every intact vocabulary from the snapshot. Vocabularies that fail their checksum are logged and omitted.
+     *
+     * @param timestamps
+     *            [Optional] If set, receives the harvest timestamp of each vocabulary that was read
+     * @return The models keyed by vocabulary ID (empty if there is no snapshot)
+     */
+    public synchronized Map<String, Model> read(Map<String, Long> timestamps) {
+        Map<String, Model> vocabularies = new HashMap<>();
+        File manifestFile = getManifestFile();
+        if (!manifestFile.exists()) {
+            return vocabularies;
+        }
+
+        Properties manifest = new Properties();
+        int count;
+        try (InputStream is = Files.newInputStream(manifestFile.toPath())) {
+            manifest.load(is);
+            count = Integer.parseInt(manifest.getProperty("count"));
+        } catch (IOException | IllegalArgumentException ex) {
+            log.warn(String.format("Unable to read vocabulary snapshot manifest '%1$s': %2$s", manifestFile, ex.getMessage()));
+            log.debug("Exception:", ex);
+            return vocabularies;
+        }
+
+        for (int i = 0; i < count; i++) {
+            String id = manifest.getProperty(i + ".id");
+            if (id == null) {
+                continue;
+            }
+
+            try {
+                String checksum = manifest.getProperty(i + ".sha256");
+                byte[] data = Files.readAllBytes(new File(directory, manifest.getProperty(i + ".file")).toPath());
+                if (checksum == null || !checksum.equals(DigestUtils.sha256Hex(data))) {
+                    log.warn(String.format("Vocabulary snapshot of '%1$s' failed its checksum and will be ignored", id));
+                    continue;
+                }
+
+                Model model = ModelFactory.createDefaultModel();
+                RDFParser.source(new ByteArrayInputStream(data)).lang(Lang.RDFTHRIFT).parse(model);
+                if (model.size() != Long.parseLong(manifest.getProperty(i + ".triples"))) {
+                    log.warn(String.format("Vocabulary snapshot of '%1$s' is incomplete and will be ignored", id));
+                    continue;
+                }
+
+                vocabularies.put(id, model);
+                if (timestamps != null) {
+                    timestamps.put(id, Long.parseLong(manifest.getProperty(i + ".timestamp")));
+                }
+            } catch (Exception ex) {
+                log.warn(String.format("Unable to read vocabulary snapshot of '%1$s': %2$s", id, ex.getMessage()));
+                log.debug("Exception:", ex);
+            }
+        }
+
+        return vocabularies;
+    }
+}
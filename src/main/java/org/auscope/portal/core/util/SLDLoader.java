@@ -7,14 +7,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -27,75 +30,129 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+/**
+ * Loads SLD templates from the classpath.
+ *
+ * Each SLD resource is only read (and parsed) once, subsequent calls fill in a cached SLDTemplate or a copy of a cached DOM.
+ */
 public class SLDLoader {
     /** The log. */
     private static final String RULE_XPATH = "/StyledLayerDescriptor/NamedLayer/UserStyle/FeatureTypeStyle/Rule";
 
+    /**
+     * A parsed SLD along with the location of each Rule element. The document is never modified, only copied.
+     */
+    private static class FilterTemplate {
+        private final Document document;
+        /** The child node indexes leading from the document to each Rule element */
+        private final List<int[]> rulePaths;
+
+        public FilterTemplate(Document document, List<int[]> rulePaths) {
+            this.document = document;
+            this.rulePaths = rulePaths;
+        }
 
-    public static String loadSLD(String filename, Map<String,String> valueMap, boolean preserveformat) throws IOException{
-        InputStream inputStream = loadStreamFromClass(filename);
-
-
-        String newLine = System.getProperty("line.separator");
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        StringBuilder result = new StringBuilder();
-        String line; boolean flag = false;
-        while ((line = reader.readLine()) != null) {
-            if(!preserveformat){
-                result.append(line.trim());
-            }else{
-                result.append(flag? newLine: "").append(line);
-                flag = true;
-            }
+        /**
+         * Creates a modifiable copy of the template document (DOM implementations aren't safe for concurrent reads)
+         */
+        public synchronized Document copy() {
+            return (Document) document.cloneNode(true);
         }
+    }
 
-        String input = result.toString();
+    /** Compiled templates keyed by filename and whether formatting was preserved */
+    private static final Map<String, SLDTemplate> templates = new ConcurrentHashMap<>();
+    /** Parsed SLDs keyed by filename */
+    private static final Map<String, FilterTemplate> filterTemplates = new ConcurrentHashMap<>();
 
-        if(valueMap != null){
-            Set<String> keys = valueMap.keySet();
-            for(String key:keys){
-                input = input.replace("[" + key + "]", valueMap.get(key));
-            }
+    private static final ThreadLocal<DocumentBuilder> filterBuilder = ThreadLocal.withInitial(() -> {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
         }
+    });
+
+    private static final ThreadLocal<Transformer> serializer = ThreadLocal.withInitial(() -> {
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.INDENT, "no");
+            return transformer;
+        } catch (TransformerConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    });
 
-        return input;
+    public static String loadSLD(String filename, Map<String,String> valueMap, boolean preserveformat) throws IOException{
+        return getTemplate(filename, preserveformat).apply(valueMap);
+    }
 
+    /**
+     * Gets the compiled template for an SLD resource, reading it if it hasn't been compiled yet
+     *
+     * @param filename
+     * @param preserveformat
+     *            If false, every line will be trimmed and joined
+     * @return
+     * @throws IOException
+     */
+    public static SLDTemplate getTemplate(String filename, boolean preserveformat) throws IOException {
+        String key = filename + (preserveformat ? "#preserve" : "#trim");
+        SLDTemplate template = templates.get(key);
+        if (template == null) {
+            template = SLDTemplate.compile(readSLD(filename, preserveformat));
+            templates.put(key, template);
+        }
+        return template;
+    }
 
+    private static String readSLD(String filename, boolean preserveformat) throws IOException {
+        String newLine = System.getProperty("line.separator");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(loadStreamFromClass(filename)))) {
+            StringBuilder result = new StringBuilder();
+            String line; boolean flag = false;
+            while ((line = reader.readLine()) != null) {
+                if(!preserveformat){
+                    result.append(line.trim());
+                }else{
+                    result.append(flag? newLine: "").append(line);
+                    flag = true;
+                }
+            }
+            return result.toString();
+        }
     }
 
     public static String loadSLDWithFilter(String filename, String filterString, String prefix, String namespace) throws IOException, ParserConfigurationException, XPathException, TransformerException, SAXException {
-
-
-        InputStream inputStream = loadStreamFromClass(filename);
-
-        Document doc = DOMUtil.buildDomFromStream(inputStream, false);
+        FilterTemplate template = getFilterTemplate(filename);
+        Document doc = template.copy();
 
         if (prefix != null && namespace != null) {
           doc.getDocumentElement().setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:"+prefix, namespace);
         }
 
-        DocumentBuilderFactory documentBuilderFactory = javax.xml.parsers.DocumentBuilderFactory.newInstance();
-
-
-        DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
-        Document filter = builder.parse(new ByteArrayInputStream(filterString.getBytes()));
+        Document filter = filterBuilder.get().parse(new ByteArrayInputStream(filterString.getBytes()));
 
         Node filterNode = doc.importNode(filter.getDocumentElement(), true);
 
-        NodeList nodes = (NodeList) DOMUtil.compileXPathExpr(RULE_XPATH).evaluate(doc, XPathConstants.NODESET);
-
-        for (int i = 0; i < nodes.getLength(); i++) {
-            Node node = nodes.item(i);
+        for (int[] path : template.rulePaths) {
+            Node node = doc;
+            for (int index : path) {
+                node = node.getChildNodes().item(index);
+            }
             node.insertBefore(filterNode.cloneNode(true), node.getFirstChild());
         }
 
         doc.normalizeDocument();
 
-        TransformerFactory tf = TransformerFactory.newInstance();
-        Transformer transformer = tf.newTransformer();
+        Transformer transformer = serializer.get();
         StringWriter writer = new StringWriter();
-        transformer.setOutputProperty(OutputKeys.INDENT, "no");
-        transformer.transform(new DOMSource(doc), new StreamResult(writer));
+        try {
+            transformer.transform(new DOMSource(doc), new StreamResult(writer));
+        } finally {
+            transformer.reset();
+            transformer.setOutputProperty(OutputKeys.INDENT, "no");
+        }
         String output = writer.getBuffer().toString();
 
         BufferedReader reader = new BufferedReader(new StringReader(output));
@@ -109,6 +166,50 @@ public class SLDLoader {
         return result.toString();
     }
 
+    /**
+     * Gets the parsed SLD resource (and the location of its Rules), parsing it if it hasn't been parsed yet
+     */
+    private static FilterTemplate getFilterTemplate(String filename) throws IOException, ParserConfigurationException, SAXException, XPathException {
+        FilterTemplate template = filterTemplates.get(filename);
+        if (template != null) {
+            return template;
+        }
+
+        Document doc;
+        try (InputStream inputStream = loadStreamFromClass(filename)) {
+            doc = DOMUtil.buildDomFromStream(inputStream, false);
+        }
+
+        List<int[]> rulePaths = new ArrayList<>();
+        NodeList nodes = (NodeList) DOMUtil.compileXPathExpr(RULE_XPATH).evaluate(doc, XPathConstants.NODESET);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            rulePaths.add(getPath(nodes.item(i)));
+        }
+
+        template = new FilterTemplate(doc, rulePaths);
+        filterTemplates.put(filename, template);
+        return template;
+    }
+
+    /**
+     * Gets the child node indexes leading from the document to node
+     */
+    private static int[] getPath(Node node) {
+        List<Integer> indexes = new ArrayList<>();
+        for (Node current = node; current.getParentNode() != null; current = current.getParentNode()) {
+            int index = 0;
+            for (Node sibling = current.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+                index++;
+            }
+            indexes.add(0, index);
+        }
+
+        int[] path = new int[indexes.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = indexes.get(i);
+        }
+        return path;
+    }
 
     private static InputStream loadStreamFromClass(String filename) throws IOException {
         InputStream inputStream = null;
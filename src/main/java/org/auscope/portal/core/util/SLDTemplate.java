@@ -0,0 +1,91 @@
+package org.auscope.portal.core.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An SLD (or any other text) containing [placeholder] tokens that has been split into literal segments and placeholder slots so that it
+ * can be filled in with a single pass over the output.
+ *
+ * Placeholders that don't have a value are left as is. Values are inserted verbatim, any [placeholder] tokens inside a value are NOT
+ * substituted.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public class SLDTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\[([^\\[\\]]*)\\]");
+
+    /** literals[i] precedes slots[i], the final literal follows the last slot */
+    private final String[] literals;
+    private final String[] slots;
+    private final int literalLength;
+
+    private SLDTemplate(String[] literals, String[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compiles text into a template
+     *
+     * @param text
+     * @return
+     */
+    public static SLDTemplate compile(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        Matcher m = PLACEHOLDER.matcher(text);
+        int lastEnd = 0;
+        while (m.find()) {
+            literals.add(text.substring(lastEnd, m.start()));
+            slots.add(m.group(1));
+            lastEnd = m.end();
+        }
+        literals.add(text.substring(lastEnd));
+
+        return new SLDTemplate(literals.toArray(new String[literals.size()]), slots.toArray(new String[slots.size()]));
+    }
+
+    /**
+     * Gets the names of every placeholder slot (in order of appearance, names may repeat)
+     *
+     * @return
+     */
+    public List<String> getPlaceholders() {
+        List<String> placeholders = new ArrayList<>(slots.length);
+        Collections.addAll(placeholders, slots);
+        return placeholders;
+    }
+
+    /**
+     * Fills in the placeholders of this template
+     *
+     * @param values
+     *            [Optional] Placeholder name to value
+     * @return
+     */
+    public String apply(Map<String, String> values) {
+        StringBuilder sb = new StringBuilder(literalLength + slots.length * 16);
+        for (int i = 0; i < slots.length; i++) {
+            sb.append(literals[i]);
+            String value = values == null ? null : values.get(slots[i]);
+            if (value == null) {
+                sb.append('[').append(slots[i]).append(']');
+            } else {
+                sb.append(value);
+            }
+        }
+        sb.append(literals[slots.length]);
+        return sb.toString();
+    }
+}
@@ -39,13 +39,18 @@ public class ViewGetCapabilitiesFactory {
         
         List<Map<String, Object>> layers = new ArrayList<>();
         if (k.getLayers() != null) {
-            for (GetCapabilitiesWMSLayerRecord rec : k.getLayers()) {
+            if (layerName == null) {
+                for (GetCapabilitiesWMSLayerRecord rec : k.getLayers()) {
+                    layers.add(this.toView(rec));
+                }
+            } else {
                 try {
-                    if (layerName == null || rec.getName().equals(layerName)) {
+                    GetCapabilitiesWMSLayerRecord rec = k.getLayerByName(layerName);
+                    if (rec != null) {
                         layers.add(this.toView(rec));
                     }
                 } catch (XPathException xe) {
-                    
+
                 }
             }
         }
@@ -1,7 +1,12 @@
 package org.auscope.portal.core.xslt;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Properties;
 
+import javax.xml.transform.TransformerException;
+
 import org.auscope.portal.core.services.namespaces.ErmlNamespaceContext;
 import org.springframework.stereotype.Component;
 
@@ -41,4 +46,30 @@ public class GmlToHtml extends PortalXSLTTransformer {
         return convert(wfs, stylesheetParams);
     }
 
+    /**
+     * Utility method to transform a WFS response into HTML, writing directly to an output stream.
+     *
+     * The HTML body groups features by type so (unlike WfsToKmlTransformer) the response can't be transformed feature by feature, however
+     * the HTML is never held in memory.
+     *
+     * @param wfs
+     *            WFS response to be transformed. Will not be closed.
+     * @param namespaces
+     *            EarthResourceML namespace context (v1.1 or v2.0)
+     * @param baseUrl
+     *            The base URL of the request e.g.  https://portal.org/api
+     * @param html
+     *            Will receive the html output (UTF-8). Will not be closed.
+     * @throws TransformerException
+     * @throws IOException
+     */
+    public void convert(InputStream wfs, ErmlNamespaceContext namespaces, String baseURL, OutputStream html)
+            throws TransformerException, IOException {
+        Properties stylesheetParams = new Properties();
+
+        stylesheetParams.setProperty("portalBaseURL", baseURL);
+        stylesheetParams.setProperty("er", namespaces.getNamespaceURI("er"));
+        convert(wfs, stylesheetParams, html);
+    }
+
 }
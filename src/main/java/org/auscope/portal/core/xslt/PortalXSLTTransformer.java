@@ -1,11 +1,19 @@
 package org.auscope.portal.core.xslt;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -42,7 +50,7 @@ public class PortalXSLTTransformer {
     }
 
     /**
-     * Utility for creating an instance of the Transformer class
+     * Utility for compiling the style sheet into a Templates object that can create any number of transformers
      *
      * @param xslt
      *            The style sheet contents that will form the basis of the transformer
@@ -51,7 +59,7 @@ public class PortalXSLTTransformer {
      * @return
      * @throws TransformerConfigurationException
      */
-    private Transformer createTransformer(InputStream xslt, Properties stylesheetParams)
+    private Templates createTemplates(InputStream xslt, Properties stylesheetParams)
             throws TransformerConfigurationException {
         // Use the static TransformerFactory.newInstance() method:
         // TransformerFactory tFactory = TransformerFactory.newInstance();
@@ -83,9 +91,40 @@ public class PortalXSLTTransformer {
         // work with the style sheet we specify. This method call also
         // processes
         // the style sheet into updateCSWRecords compiled Templates object.
-        Transformer transformer = tFactory.newTemplates(new StreamSource(xslt), info).newTransformer();
+        return tFactory.newTemplates(new StreamSource(xslt), info);
+    }
+
+    /**
+     * Utility for creating an instance of the Transformer class
+     *
+     * @param xslt
+     *            The style sheet contents that will form the basis of the transformer
+     * @param stylesheetParams
+     *            [Optional] Any additional params to set for the Transformer
+     * @return
+     * @throws TransformerConfigurationException
+     */
+    private Transformer createTransformer(InputStream xslt, Properties stylesheetParams)
+            throws TransformerConfigurationException {
+        return createTemplates(xslt, stylesheetParams).newTransformer();
+    }
 
-        return transformer;
+    /**
+     * Compiles the XSLT resource of this transformer
+     *
+     * @param stylesheetParams
+     *            [Optional] Any additional params to set for the Transformer
+     * @return
+     * @throws TransformerConfigurationException
+     * @throws IOException
+     */
+    private Templates loadTemplates(Properties stylesheetParams) throws TransformerConfigurationException, IOException {
+        try (InputStream xslt = getClass().getResourceAsStream(xsltResourceName)) {
+            if (xslt == null) {
+                throw new IOException("Unable to find xslt resource: " + xsltResourceName);
+            }
+            return createTemplates(xslt, stylesheetParams);
+        }
     }
 
     /**
@@ -146,4 +185,136 @@ public class PortalXSLTTransformer {
         String kml = sw.toString();
         return kml;
     }
+
+    /**
+     * Utility method to transform xml directly into an output stream. Unlike the String based methods, the transformed output is never
+     * held in memory.
+     *
+     * @param xml
+     *            XML Stream to be transformed. Will not be closed.
+     * @param stylesheetParams
+     *            A map of properties that will be enumerated to set style sheet properties
+     * @param output
+     *            Will receive the transformed output (in the encoding specified by the XSLT). Will not be closed.
+     * @throws TransformerException
+     * @throws IOException
+     */
+    public void convert(InputStream xml, Properties stylesheetParams, OutputStream output)
+            throws TransformerException, IOException {
+        Transformer transformer = loadTemplates(stylesheetParams).newTransformer();
+        transformer.transform(new StreamSource(xml), new StreamResult(output));
+        output.flush();
+    }
+
+    /**
+     * Transforms a single standalone document into a String using a compiled stylesheet
+     */
+    private static String transformFragment(Templates templates, byte[] fragment) throws TransformerException {
+        StringWriter sw = new StringWriter();
+        templates.newTransformer().transform(new StreamSource(new ByteArrayInputStream(fragment)),
+                new StreamResult(sw));
+        return sw.toString();
+    }
+
+    /**
+     * Given the transformed output of an empty WFS response (skeleton) and the output of a response with a single feature, find the offset
+     * in skeleton where the feature's output was inserted. Returns -1 if featureOutput isn't skeleton with content inserted at a single
+     * point.
+     *
+     * The offset can be ambiguous when the inserted content starts with the same characters that follow it (eg "<Placemark>" before
+     * "</Document>"), in which case the offset at a tag boundary is preferred.
+     */
+    static int findInsertionPoint(String skeleton, String featureOutput) {
+        if (featureOutput.length() < skeleton.length()) {
+            return -1;
+        }
+
+        int prefix = 0;
+        while (prefix < skeleton.length() && skeleton.charAt(prefix) == featureOutput.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < skeleton.length()
+                && skeleton.charAt(skeleton.length() - 1 - suffix) == featureOutput
+                        .charAt(featureOutput.length() - 1 - suffix)) {
+            suffix++;
+        }
+
+        int first = skeleton.length() - suffix;
+        if (first > prefix) {
+            return -1;
+        }
+        for (int i = first; i <= prefix; i++) {
+            if ((i == 0 || skeleton.charAt(i - 1) == '>') && i < featureOutput.length()
+                    && featureOutput.charAt(i) == '<') {
+                return i;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Utility method to transform a (potentially very large) WFS response into an output stream one feature at a time.
+     *
+     * The response is split into standalone documents containing a single feature (see WfsFeatureSplitter) which are transformed
+     * independently, with the results stitched into the output of transforming an empty response. Only a single feature (and its
+     * transformed output) is ever held in memory.
+     *
+     * This is only suitable for stylesheets whose output for a response is the concatenation (in document order) of the output for each of
+     * its features, eg wfsToKml.xsl. A TransformerException will be thrown if a feature's output can't be separated from the surrounding
+     * document.
+     *
+     * @param wfs
+     *            WFS response to be transformed. Will not be closed.
+     * @param stylesheetParams
+     *            A map of properties that will be enumerated to set style sheet properties
+     * @param output
+     *            Will receive the transformed output (UTF-8). Will not be closed.
+     * @throws TransformerException
+     * @throws IOException
+     */
+    public void convertByFeature(InputStream wfs, Properties stylesheetParams, OutputStream output)
+            throws TransformerException, IOException {
+        Templates templates = loadTemplates(stylesheetParams);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        try (WfsFeatureSplitter splitter = new WfsFeatureSplitter(wfs)) {
+            String skeleton = transformFragment(templates, splitter.getSkeleton());
+            int insertionPoint = -1;
+            byte[] fragment;
+            while ((fragment = splitter.next()) != null) {
+                String featureOutput = transformFragment(templates, fragment);
+                if (featureOutput.equals(skeleton)) {
+                    continue; //This feature didn't produce any output
+                }
+
+                if (insertionPoint < 0) {
+                    insertionPoint = findInsertionPoint(skeleton, featureOutput);
+                    if (insertionPoint < 0) {
+                        throw new TransformerException(
+                                "Output of " + xsltResourceName + " can't be separated into individual features");
+                    }
+                    writer.write(skeleton, 0, insertionPoint);
+                }
+
+                int tailLength = skeleton.length() - insertionPoint;
+                if (!featureOutput.regionMatches(0, skeleton, 0, insertionPoint)
+                        || !featureOutput.regionMatches(featureOutput.length() - tailLength, skeleton, insertionPoint,
+                                tailLength)) {
+                    throw new TransformerException(
+                            "Output of " + xsltResourceName + " can't be separated into individual features");
+                }
+                writer.write(featureOutput, insertionPoint, featureOutput.length() - skeleton.length());
+            }
+
+            if (insertionPoint < 0) {
+                writer.write(skeleton);
+            } else {
+                writer.write(skeleton, insertionPoint, skeleton.length() - insertionPoint);
+            }
+        } catch (XMLStreamException ex) {
+            throw new TransformerException("Unable to split response into features", ex);
+        } finally {
+            writer.flush();
+        }
+    }
 }
@@ -0,0 +1,239 @@
+package org.auscope.portal.core.xslt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Splits a WFS GetFeature response into a series of small, standalone documents that each contain a single feature.
+ *
+ * Every fragment keeps the original root element and feature member element (with all of their namespace declarations and attributes) so
+ * that stylesheets matching on paths like wfs:FeatureCollection/gml:featureMembers/* behave identically. Only a single feature is ever held
+ * in memory. Any non member content of the root element is dropped.
+ */
+public class WfsFeatureSplitter implements Closeable {
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /** A copy of an element's start tag */
+    private static class StartTag {
+        private String prefix;
+        private String localName;
+        private String namespaceUri;
+        private List<String[]> namespaces = new ArrayList<>();
+        private List<String[]> attributes = new ArrayList<>();
+
+        public StartTag(XMLStreamReader reader) {
+            prefix = reader.getPrefix();
+            localName = reader.getLocalName();
+            namespaceUri = reader.getNamespaceURI();
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                namespaces.add(new String[] {reader.getNamespacePrefix(i), reader.getNamespaceURI(i)});
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                attributes.add(new String[] {reader.getAttributePrefix(i), reader.getAttributeNamespace(i),
+                        reader.getAttributeLocalName(i), reader.getAttributeValue(i)});
+            }
+        }
+
+        public void write(XMLStreamWriter writer) throws XMLStreamException {
+            writeStartElement(writer, prefix, localName, namespaceUri);
+            for (String[] ns : namespaces) {
+                writeNamespace(writer, ns[0], ns[1]);
+            }
+            for (String[] att : attributes) {
+                writeAttribute(writer, att[0], att[1], att[2], att[3]);
+            }
+        }
+    }
+
+    private XMLStreamReader reader;
+    private StartTag root;
+    private StartTag member;
+    /** Depth of the reader relative to (and including) the root element */
+    private int depth;
+
+    /**
+     * Creates a new splitter over the specified WFS response. The stream will NOT be closed by this splitter.
+     *
+     * @param wfs
+     *            A WFS GetFeature response
+     * @throws XMLStreamException
+     */
+    public WfsFeatureSplitter(InputStream wfs) throws XMLStreamException {
+        this.reader = inputFactory.createXMLStreamReader(wfs);
+        while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+            //Skip the prolog
+        }
+        if (!reader.isStartElement()) {
+            throw new XMLStreamException("Response contains no root element");
+        }
+        this.root = new StartTag(reader);
+        this.depth = 1;
+    }
+
+    private static boolean isMemberElement(String localName) {
+        return "featureMember".equals(localName) || "featureMembers".equals(localName) || "member".equals(localName);
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.isEmpty();
+    }
+
+    private static void writeStartElement(XMLStreamWriter writer, String prefix, String localName, String namespaceUri)
+            throws XMLStreamException {
+        if (isEmpty(namespaceUri)) {
+            writer.writeStartElement(localName);
+        } else {
+            writer.writeStartElement(prefix == null ? "" : prefix, localName, namespaceUri);
+        }
+    }
+
+    private static void writeNamespace(XMLStreamWriter writer, String prefix, String namespaceUri)
+            throws XMLStreamException {
+        if (isEmpty(prefix)) {
+            writer.writeDefaultNamespace(namespaceUri == null ? "" : namespaceUri);
+        } else {
+            writer.writeNamespace(prefix, namespaceUri);
+        }
+    }
+
+    private static void writeAttribute(XMLStreamWriter writer, String prefix, String namespaceUri, String localName,
+            String value) throws XMLStreamException {
+        if (isEmpty(namespaceUri)) {
+            writer.writeAttribute(localName, value);
+        } else {
+            writer.writeAttribute(prefix == null ? "" : prefix, namespaceUri, localName, value);
+        }
+    }
+
+    /**
+     * Copies the element whose START_ELEMENT the reader is positioned at (and all of its content) into writer. Leaves the reader at the
+     * matching END_ELEMENT
+     */
+    private void copyElement(XMLStreamWriter writer) throws XMLStreamException {
+        int elementDepth = 0;
+        do {
+            switch (reader.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                new StartTag(reader).write(writer);
+                elementDepth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                writer.writeEndElement();
+                elementDepth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                break;
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                writer.writeCharacters(reader.getText());
+                break;
+            case XMLStreamConstants.CDATA:
+                writer.writeCData(reader.getText());
+                break;
+            case XMLStreamConstants.COMMENT:
+                writer.writeComment(reader.getText());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                break;
+            default:
+                break;
+            }
+
+            if (elementDepth > 0) {
+                reader.next();
+            }
+        } while (elementDepth > 0);
+    }
+
+    /**
+     * Writes a standalone document consisting of the root element, the current member element and (if the reader is positioned at one)
+     * the current feature.
+     */
+    private byte[] writeFragment(boolean includeFeature) throws XMLStreamException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(bos, "UTF-8");
+        try {
+            writer.writeStartDocument("UTF-8", "1.0");
+            root.write(writer);
+            if (includeFeature) {
+                member.write(writer);
+                copyElement(writer);
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+        } finally {
+            writer.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Gets a document consisting of just the root element of the response (with no features)
+     *
+     * @return
+     * @throws XMLStreamException
+     */
+    public byte[] getSkeleton() throws XMLStreamException {
+        return writeFragment(false);
+    }
+
+    /**
+     * Reads the next feature from the underlying response
+     *
+     * @return A standalone document containing the next feature or null if there are no more features
+     * @throws XMLStreamException
+     */
+    public byte[] next() throws XMLStreamException {
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                if (depth == 2) {
+                    member = isMemberElement(reader.getLocalName()) ? new StartTag(reader) : null;
+                } else if (depth == 3 && member != null) {
+                    byte[] fragment = writeFragment(true);
+                    depth--;
+                    return fragment;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package org.auscope.portal.core.xslt;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.util.Properties;
 
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamSource;
 
 /**
@@ -69,4 +72,22 @@ public class WfsToKmlTransformer extends PortalXSLTTransformer {
         stylesheetParams.setProperty("serviceUrl", serviceUrl);
         return convert(wfs, stylesheetParams);
     }
+
+    /**
+     * Utility method to stream a (potentially very large) WFS response into kml one feature at a time.
+     *
+     * @param wfs
+     *            WFS response to be transformed. Will not be closed.
+     * @param serviceUrl
+     *            The WFS URL where the response came from
+     * @param kml
+     *            Will receive the kml output (UTF-8). Will not be closed.
+     * @throws TransformerException
+     * @throws IOException
+     */
+    public void convert(InputStream wfs, String serviceUrl, OutputStream kml) throws TransformerException, IOException {
+        Properties stylesheetParams = new Properties();
+        stylesheetParams.setProperty("serviceUrl", serviceUrl);
+        convertByFeature(wfs, stylesheetParams, kml);
+    }
 }
@@ -3,8 +3,13 @@ package org.auscope.portal.core.server.controllers;
 import java.awt.Dimension;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -15,12 +20,16 @@ import jakarta.servlet.http.HttpServletResponse;
 
 import org.auscope.portal.core.services.WCSService;
 import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+import org.auscope.portal.core.services.responses.wcs.CoverageTile;
 import org.auscope.portal.core.services.responses.wcs.Resolution;
+import org.auscope.portal.core.services.responses.wcs.TiledCoverage;
 import org.auscope.portal.core.services.responses.wcs.TimeConstraint;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.jmock.Expectations;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class TestWCSController extends PortalTestClass {
 
@@ -29,6 +38,9 @@ public class TestWCSController extends PortalTestClass {
 
     private HttpServletResponse mockResponse = context.mock(HttpServletResponse.class);
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     /**
      * Needed so we can check the contents of our zip file after it is written
      */
@@ -224,4 +236,56 @@ public class TestWCSController extends PortalTestClass {
         Assert.assertEquals(netCdfData.length, dataRead);
         Assert.assertArrayEquals(netCdfData, uncompressedData);
     }
+
+    /**
+     * Tiles that can't be mosaicked are returned individually with a VRT index and a report of any failures
+     */
+    @Test
+    public void testTiledDownload() throws Exception {
+        final byte[] netCdfData = new byte[] {4, 1, 2};
+        final File tileFile = folder.newFile("tile_0_0.nc");
+        Files.write(tileFile.toPath(), netCdfData);
+
+        final List<CoverageTile> tiles = WCSService.planTiles(new CSWGeographicBoundingBox(110, 120, -30, -20), 20, 10, 10, 10);
+        tiles.get(0).complete(tileFile);
+        tiles.get(1).fail("Tile unavailable");
+        final TiledCoverage coverage = new TiledCoverage(new CSWGeographicBoundingBox(110, 120, -30, -20), 20, 10, "EPSG:4326",
+                tiles);
+
+        outStream = new MyServletOutputStream();
+
+        context.checking(new Expectations() {
+            {
+                oneOf(wcsService).getTiledCoverage(with("serviceUrl"), with("layerName"), with("NetCDF"),
+                        with(equal(new Dimension(20, 10))), with((Resolution) null), with((String) null), with("EPSG:4326"),
+                        with(any(CSWGeographicBoundingBox.class)), with((TimeConstraint) null), with(any(Map.class)), with(10),
+                        with(any(File.class)), with(any(TiledCoverage.ProgressListener.class)));
+                will(returnValue(coverage));
+
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outStream));
+                oneOf(mockResponse).setContentType("application/zip");
+                allowing(mockResponse).setHeader(with(any(String.class)), with(any(String.class)));
+            }
+        });
+
+        WCSController controller = new WCSController(wcsService);
+        controller.downloadTiledWCSAsZip("serviceUrl", "layerName", "NetCDF", "EPSG:4326", 20, 10, null, null, null, -20, -30, 120,
+                110, null, null, null, null, null, 10, true, mockResponse);
+
+        Map<String, String> entries = new HashMap<>();
+        try (ZipInputStream zip = outStream.getZipInputStream()) {
+            ZipEntry ze;
+            while ((ze = zip.getNextEntry()) != null) {
+                entries.put(ze.getName(), new String(zip.readAllBytes(), StandardCharsets.ISO_8859_1));
+            }
+        }
+
+        Assert.assertEquals(3, entries.size());
+        Assert.assertArrayEquals(netCdfData, entries.get("tiles/tile_0_0.nc").getBytes(StandardCharsets.ISO_8859_1));
+        Assert.assertTrue(entries.get("layerName.vrt").contains("tiles/tile_0_0.nc"));
+        Assert.assertFalse(entries.get("layerName.vrt").contains("tiles/tile_0_1.nc"));
+        Assert.assertTrue(entries.get("error.txt").contains("status=FAILED error=Tile unavailable"));
+        Assert.assertFalse(tileFile.exists());
+    }
 }
@@ -0,0 +1,105 @@
+package org.auscope.portal.core.server.controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.WMSService;
+import org.auscope.portal.core.test.ByteBufferedServletOutputStream;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for WMSController
+ */
+public class TestWMSController extends PortalTestClass {
+
+    private static final byte[] PNG = new byte[] {(byte) 0x89, 'P', 'N', 'G', 13, 10, 26, 10};
+
+    private WMSController wmsController;
+
+    private WMSService mockWmsService = context.mock(WMSService.class);
+
+    private HttpServletResponse mockResponse = context.mock(HttpServletResponse.class);
+
+    private HttpServletRequest mockRequest = context.mock(HttpServletRequest.class);
+
+    @Before
+    public void setUp() {
+        wmsController = new WMSController(mockWmsService, null, null, null);
+    }
+
+    /**
+     * Tests a legend is written with a strong ETag
+     */
+    @Test
+    public void testGetLegendGraphic() throws Exception {
+        final String etag = "\"" + DigestUtils.sha256Hex(PNG) + "\"";
+        final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(PNG.length);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockWmsService).getLegendGraphic("http://example.org/wms", "layer", null, null, null, -1, -1);
+                will(returnValue(PNG));
+
+                allowing(mockRequest).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                oneOf(mockResponse).setHeader("ETag", etag);
+                oneOf(mockResponse).setHeader("Cache-Control", "public, no-cache");
+                oneOf(mockResponse).setContentType("image/png");
+                oneOf(mockResponse).setContentLength(PNG.length);
+                allowing(mockResponse).getOutputStream();
+                will(returnValue(outputStream));
+            }
+        });
+
+        wmsController.getLegendGraphic(mockRequest, mockResponse, "http://example.org/wms", "layer", null, null, null, -1, -1);
+        Assert.assertArrayEquals(PNG, outputStream.toByteArray());
+    }
+
+    /**
+     * Tests a matching If-None-Match header results in a 304 without a body
+     */
+    @Test
+    public void testGetLegendGraphicNotModified() throws Exception {
+        final String etag = "\"" + DigestUtils.sha256Hex(PNG) + "\"";
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockWmsService).getLegendGraphic("http://example.org/wms", "layer", "style", null, null, 16, 16);
+                will(returnValue(PNG));
+
+                allowing(mockRequest).getHeader("If-None-Match");
+                will(returnValue("\"other\", " + etag));
+
+                oneOf(mockResponse).setHeader("ETag", etag);
+                oneOf(mockResponse).setHeader("Cache-Control", "public, no-cache");
+                oneOf(mockResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            }
+        });
+
+        wmsController.getLegendGraphic(mockRequest, mockResponse, "http://example.org/wms", "layer", "style", null, null, 16, 16);
+    }
+
+    /**
+     * Tests a failure to get a legend results in a 502
+     */
+    @Test
+    public void testGetLegendGraphicError() throws Exception {
+        context.checking(new Expectations() {
+            {
+                oneOf(mockWmsService).getLegendGraphic("http://example.org/wms", "missing", null, null, null, -1, -1);
+                will(throwException(new PortalServiceException("not an image")));
+
+                oneOf(mockResponse).sendError(HttpServletResponse.SC_BAD_GATEWAY);
+            }
+        });
+
+        wmsController.getLegendGraphic(mockRequest, mockResponse, "http://example.org/wms", "missing", null, null, null, -1, -1);
+    }
+}
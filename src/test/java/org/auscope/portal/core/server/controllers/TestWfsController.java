@@ -5,7 +5,9 @@ import java.net.URI;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
 
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.auscope.portal.core.services.PortalServiceException;
 import org.auscope.portal.core.services.WFSService;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
 import org.auscope.portal.core.services.responses.wfs.WFSTransformedResponse;
@@ -195,4 +197,172 @@ public class TestWfsController extends PortalTestClass {
 
         Assert.assertArrayEquals(convertedData.getBytes(), outputStream.toByteArray());
     }
+
+    /**
+     * Tests getAllFeaturesInCSV.do converts GML locally when requested
+     */
+    @Test
+    public void testGetAllFeaturesInCSVFromGml() throws Exception {
+        final String wfsUrl = "http://service/wfs";
+        final String featureType = "type:name";
+        final Integer maxFeatures = 10;
+        final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(1024);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockResponse).setContentType("text/csv");
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream));
+
+                oneOf(mockWfsService).downloadCSVFromGML(with(equal(wfsUrl)), with(equal(featureType)),
+                        with(any(String.class)), with(equal(maxFeatures)), with(same(outputStream)));
+                will(returnValue(2));
+            }
+        });
+
+        wfsController.getAllFeaturesInCSV(wfsUrl, featureType, null, null, maxFeatures, true, mockResponse);
+    }
+
+    /**
+     * Tests getAllFeaturesInCSV.do reports GML conversion errors with a HTTP error if nothing has been sent
+     */
+    @Test
+    public void testGetAllFeaturesInCSVFromGmlError() throws Exception {
+        final String wfsUrl = "http://service/wfs";
+        final String featureType = "type:name";
+        final Integer maxFeatures = 10;
+        final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(1024);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockResponse).setContentType("text/csv");
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream));
+
+                oneOf(mockWfsService).downloadCSVFromGML(with(equal(wfsUrl)), with(equal(featureType)),
+                        with(any(String.class)), with(equal(maxFeatures)), with(same(outputStream)));
+                will(throwException(new PortalServiceException("error")));
+
+                oneOf(mockResponse).isCommitted();
+                will(returnValue(false));
+                oneOf(mockResponse).sendError(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+        });
+
+        wfsController.getAllFeaturesInCSV(wfsUrl, featureType, null, null, maxFeatures, true, mockResponse);
+    }
+
+    /**
+     * Tests getAllFeaturesInCSV.do aborts (rather than completes) a partially sent CSV when the GML conversion fails
+     */
+    @Test(expected = PortalServiceException.class)
+    public void testGetAllFeaturesInCSVFromGmlCommittedError() throws Exception {
+        final String wfsUrl = "http://service/wfs";
+        final String featureType = "type:name";
+        final Integer maxFeatures = 10;
+        final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(1024);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockResponse).setContentType("text/csv");
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream));
+
+                oneOf(mockWfsService).downloadCSVFromGML(with(equal(wfsUrl)), with(equal(featureType)),
+                        with(any(String.class)), with(equal(maxFeatures)), with(same(outputStream)));
+                will(throwException(new PortalServiceException("error")));
+
+                oneOf(mockResponse).isCommitted();
+                will(returnValue(true));
+                never(mockResponse).sendError(with(any(Integer.class)));
+            }
+        });
+
+        wfsController.getAllFeaturesInCSV(wfsUrl, featureType, null, null, maxFeatures, true, mockResponse);
+    }
+
+    /**
+     * Tests getAllFeaturesInGeoJSON.do streams a single feature
+     */
+    @Test
+    public void testGetAllFeaturesInGeoJSONSingleFeature() throws Exception {
+        final String wfsUrl = "http://service/wfs";
+        final String featureType = "type:name";
+        final String featureId = "feature-id";
+        final Integer precision = 5;
+        final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(1024);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockResponse).setContentType("application/geo+json");
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream));
+
+                oneOf(mockWfsService).getWfsResponseAsGeoJson(wfsUrl, featureType, featureId, precision, outputStream);
+                will(returnValue(1));
+            }
+        });
+
+        wfsController.getAllFeaturesInGeoJSON(wfsUrl, featureType, featureId, null, 0, precision, mockResponse);
+    }
+
+    /**
+     * Tests getAllFeaturesInGeoJSON.do reports errors with a HTTP error
+     */
+    @Test
+    public void testGetAllFeaturesInGeoJSONError() throws Exception {
+        final String wfsUrl = "http://service/wfs";
+        final String featureType = "type:name";
+        final int maxFeatures = 10;
+        final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(1024);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockResponse).setContentType("application/geo+json");
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream));
+
+                oneOf(mockWfsService).getWfsResponseAsGeoJson(with(equal(wfsUrl)), with(equal(featureType)),
+                        with(any(String.class)), with(equal(maxFeatures)), with(aNull(String.class)),
+                        with(aNull(Integer.class)), with(same(outputStream)));
+                will(throwException(new PortalServiceException("error")));
+
+                oneOf(mockResponse).isCommitted();
+                will(returnValue(false));
+                oneOf(mockResponse).sendError(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+        });
+
+        wfsController.getAllFeaturesInGeoJSON(wfsUrl, featureType, null, null, maxFeatures, null, mockResponse);
+    }
+
+    /**
+     * Tests getAllFeaturesInGeoJSON.do aborts (rather than completes) a partially sent response when the conversion fails
+     */
+    @Test(expected = PortalServiceException.class)
+    public void testGetAllFeaturesInGeoJSONCommittedError() throws Exception {
+        final String wfsUrl = "http://service/wfs";
+        final String featureType = "type:name";
+        final int maxFeatures = 10;
+        final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(1024);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockResponse).setContentType("application/geo+json");
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream));
+
+                oneOf(mockWfsService).getWfsResponseAsGeoJson(with(equal(wfsUrl)), with(equal(featureType)),
+                        with(any(String.class)), with(equal(maxFeatures)), with(aNull(String.class)),
+                        with(aNull(Integer.class)), with(same(outputStream)));
+                will(throwException(new PortalServiceException("error")));
+
+                oneOf(mockResponse).isCommitted();
+                will(returnValue(true));
+                never(mockResponse).sendError(with(any(Integer.class)));
+            }
+        });
+
+        wfsController.getAllFeaturesInGeoJSON(wfsUrl, featureType, null, null, maxFeatures, null, mockResponse);
+    }
 }
@@ -1,11 +1,14 @@
 package org.auscope.portal.core.services;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
-import java.util.Scanner;
+import java.nio.charset.StandardCharsets;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.auscope.portal.core.server.http.HttpClientInputStream;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker.ResultType;
@@ -107,23 +110,23 @@ public class TestBaseWFSService extends PortalTestClass {
 
     @Test(expected = PortalServiceException.class)
     public void testOwsError() throws PortalServiceException, IOException {
-        try (InputStream responseStream = getClass().getResourceAsStream("/OWSExceptionSample1.xml")) {
-            context.checking(new Expectations() {
-                {
-                    oneOf(mockHttpServiceCaller).getMethodResponseAsString(mockMethod);
-                    will(returnValue(responseStream));
-                }
-            });
-
-            service.getWFSResponse(mockMethod);
-        }
+        final HttpClientInputStream responseStream = new HttpClientInputStream(ResourceUtil
+                .loadResourceAsStream("org/auscope/portal/core/test/responses/ows/OWSExceptionSample1.xml"), null);
+        context.checking(new Expectations() {
+            {
+                oneOf(mockHttpServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(responseStream));
+            }
+        });
+
+        service.getWFSResponse(mockMethod);
     }
 
     @Test(expected = PortalServiceException.class)
     public void testConnectError() throws PortalServiceException, IOException {
         context.checking(new Expectations() {
             {
-                oneOf(mockHttpServiceCaller).getMethodResponseAsString(mockMethod);
+                oneOf(mockHttpServiceCaller).getMethodResponseAsStream(mockMethod);
                 will(throwException(new IOException()));
             }
         });
@@ -133,22 +136,41 @@ public class TestBaseWFSService extends PortalTestClass {
 
     @Test
     public void testResponse() throws PortalServiceException, IOException {
-        try (Scanner sc = new java.util.Scanner(
-                ResourceUtil
-                        .loadResourceAsStream("org/auscope/portal/core/test/responses/wfs/commodityGetFeatureResponse.xml"))
-                                        ) {
-            final String responseString = sc.useDelimiter("\\A").next();
-            context.checking(new Expectations() {
-                {
-                    oneOf(mockHttpServiceCaller).getMethodResponseAsString(mockMethod);
-                    will(returnValue(responseString));
-                }
-            });
-
-            WFSResponse response = service.getWFSResponse(mockMethod);
-            Assert.assertNotNull(response);
-            Assert.assertEquals(responseString, response.getData());
-            Assert.assertSame(mockMethod, response.getMethod());
+        final String responseString = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/wfs/commodityGetFeatureResponse.xml");
+        final HttpClientInputStream responseStream = new HttpClientInputStream(
+                new ByteArrayInputStream(responseString.getBytes(StandardCharsets.UTF_8)), null);
+        context.checking(new Expectations() {
+            {
+                oneOf(mockHttpServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(responseStream));
+            }
+        });
+
+        WFSResponse response = service.getWFSResponse(mockMethod);
+        Assert.assertNotNull(response);
+        Assert.assertEquals(responseString, response.getData());
+        Assert.assertSame(mockMethod, response.getMethod());
+    }
+
+    /**
+     * Tests that checked streams are passed through unmodified (and unbuffered beyond the sniffed head)
+     */
+    @Test
+    public void testCheckedResponseStream() throws Exception {
+        final String responseString = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/wfs/commodityGetFeatureResponse.xml");
+        final HttpClientInputStream responseStream = new HttpClientInputStream(
+                new ByteArrayInputStream(responseString.getBytes(StandardCharsets.UTF_8)), null);
+        context.checking(new Expectations() {
+            {
+                oneOf(mockHttpServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(responseStream));
+            }
+        });
+
+        try (InputStream checked = service.getCheckedResponseAsStream(mockMethod)) {
+            Assert.assertEquals(responseString, IOUtils.toString(checked, StandardCharsets.UTF_8));
         }
     }
 }
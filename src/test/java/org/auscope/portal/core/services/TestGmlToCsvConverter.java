@@ -0,0 +1,140 @@
+package org.auscope.portal.core.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.util.ResourceUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for GmlToCsvConverter
+ */
+public class TestGmlToCsvConverter extends PortalTestClass {
+
+    private static final String WFS_HEADER = "<?xml version=\"1.0\"?><wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" "
+            + "xmlns:gml=\"http://www.opengis.net/gml\" xmlns:ex=\"http://example.org\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">";
+    private static final String WFS_FOOTER = "</wfs:FeatureCollection>";
+
+    private static String[] convert(GmlToCsvConverter converter, String gml) throws XMLStreamException, IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        converter.convert(new ByteArrayInputStream(gml.getBytes(StandardCharsets.UTF_8)), bos);
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8).split("\r\n");
+    }
+
+    /**
+     * Tests conversion of a simple ERML commodity response
+     */
+    @Test
+    public void testErmlCommodities() throws Exception {
+        final String gml = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/wfs/commodityGetFeatureResponse.xml");
+        String[] lines = convert(new GmlToCsvConverter(), gml);
+
+        Assert.assertEquals(3, lines.length);
+        Assert.assertEquals("gml:id,name,commodityName,commodityImportance,source", lines[0]);
+        Assert.assertEquals(
+                "mo.commodity.361169.au,urn:cgi:feature:GSV:Commodity:361169:AU,Gold,major,urn:cgi:feature:GSV:MineralOccurrence:361169",
+                lines[1]);
+        Assert.assertEquals(
+                "mo.commodity.361170.au,urn:cgi:feature:GSV:Commodity:361170:AU,Gold,major,urn:cgi:feature:GSV:MineralOccurrence:361170",
+                lines[2]);
+    }
+
+    /**
+     * Tests conversion of a deeply nested ERML/GeoSciML mine response (gml:featureMembers)
+     */
+    @Test
+    public void testErmlMines() throws Exception {
+        final String gml = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/erml/mine/mineGetFeatureResponse.xml");
+        String[] lines = convert(new GmlToCsvConverter(), gml);
+
+        Assert.assertEquals(3, lines.length);
+        String[] headers = lines[0].split(",");
+        int statusIndex = Arrays.asList(headers).indexOf("specification.Mine.status");
+        int mineNameIndex = Arrays.asList(headers).indexOf("specification.Mine.mineName.MineName.mineName");
+        int nameIndex = Arrays.asList(headers).indexOf("specification.Mine.name");
+        int locationIndex = Arrays.asList(headers).indexOf("location");
+        Assert.assertTrue(statusIndex > 0);
+        Assert.assertTrue(mineNameIndex > 0);
+        Assert.assertTrue(nameIndex > 0);
+        Assert.assertTrue(locationIndex > 0);
+
+        String[] row = lines[1].split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+        Assert.assertEquals(headers.length, row.length);
+        Assert.assertEquals("er.miningfeatureoccurrence.mine.95", row[0]);
+        Assert.assertEquals("abandoned", row[statusIndex]);
+        Assert.assertEquals("WOOLDRIDGE CREEK WORKINGS", row[mineNameIndex]);
+        Assert.assertEquals(
+                "http://services-test.auscope.org/resource/feature/pirsa/mine/95|WOOLDRIDGE CREEK WORKINGS",
+                row[nameIndex]);
+        Assert.assertEquals("POINT (135.1068262 -27.3076358)", row[locationIndex]);
+    }
+
+    /**
+     * Tests geometries render as WKT and values are correctly escaped
+     */
+    @Test
+    public void testGeometryAndEscaping() throws Exception {
+        final String gml = WFS_HEADER
+                + "<gml:featureMember><ex:Feature gml:id=\"f.1\"><ex:desc>Has, a \"comma\"</ex:desc>"
+                + "<ex:shape><gml:Polygon srsName=\"EPSG:4326\"><gml:exterior><gml:LinearRing><gml:posList>0 0 0 10 10 10 0 0</gml:posList></gml:LinearRing></gml:exterior>"
+                + "<gml:interior><gml:LinearRing><gml:posList>1 1 1 2 2 2 1 1</gml:posList></gml:LinearRing></gml:interior></gml:Polygon></ex:shape>"
+                + "</ex:Feature></gml:featureMember>"
+                + "<gml:featureMember><ex:Feature gml:id=\"f.2\"><ex:desc>plain</ex:desc>"
+                + "<ex:shape><gml:MultiLineString><gml:lineStringMember><gml:LineString><gml:coordinates>1.5,2 3,4</gml:coordinates></gml:LineString></gml:lineStringMember>"
+                + "<gml:lineStringMember><gml:LineString><gml:coordinates>5,6 7,8</gml:coordinates></gml:LineString></gml:lineStringMember></gml:MultiLineString></ex:shape>"
+                + "</ex:Feature></gml:featureMember>"
+                + WFS_FOOTER;
+        String[] lines = convert(new GmlToCsvConverter(), gml);
+
+        Assert.assertEquals(3, lines.length);
+        Assert.assertEquals("gml:id,desc,shape", lines[0]);
+        Assert.assertEquals("f.1,\"Has, a \"\"comma\"\"\",\"POLYGON ((0 0, 0 10, 10 10, 0 0), (1 1, 1 2, 2 2, 1 1))\"",
+                lines[1]);
+        Assert.assertEquals("f.2,plain,\"MULTILINESTRING ((1.5 2, 3 4), (5 6, 7 8))\"", lines[2]);
+    }
+
+    /**
+     * Tests that columns are only inferred from the sample and that later properties are dropped
+     */
+    @Test
+    public void testColumnsInferredFromSample() throws Exception {
+        final String gml = WFS_HEADER
+                + "<gml:featureMember><ex:Feature gml:id=\"f.1\"><ex:a>1</ex:a></ex:Feature></gml:featureMember>"
+                + "<gml:featureMember><ex:Feature gml:id=\"f.2\"><ex:b>2</ex:b></ex:Feature></gml:featureMember>"
+                + "<gml:featureMember><ex:Feature gml:id=\"f.3\"><ex:a>3</ex:a><ex:c>3</ex:c></ex:Feature></gml:featureMember>"
+                + WFS_FOOTER;
+
+        String[] lines = convert(new GmlToCsvConverter(2), gml);
+        Assert.assertArrayEquals(new String[] {"gml:id,a,b", "f.1,1,", "f.2,,2", "f.3,3,"}, lines);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new GmlToCsvConverter().convert(new ByteArrayInputStream(gml.getBytes(StandardCharsets.UTF_8)), bos,
+                Arrays.asList("c", "gml:id"));
+        Assert.assertArrayEquals(new String[] {"c,gml:id", ",f.1", ",f.2", "3,f.3"},
+                new String(bos.toByteArray(), StandardCharsets.UTF_8).split("\r\n"));
+    }
+
+    /**
+     * Tests GML 3.2 / WFS 2.0 responses are supported
+     */
+    @Test
+    public void testWfs2Members() throws Exception {
+        final String gml = "<?xml version=\"1.0\"?><wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" "
+                + "xmlns:gml=\"http://www.opengis.net/gml/3.2\" xmlns:ex=\"http://example.org\">"
+                + "<wfs:member><ex:Feature gml:id=\"f.1\"><gml:boundedBy><gml:Envelope><gml:lowerCorner>0 0</gml:lowerCorner></gml:Envelope></gml:boundedBy>"
+                + "<ex:geom><gml:Point><gml:pos>-27.5 153.0</gml:pos></gml:Point></ex:geom></ex:Feature></wfs:member>"
+                + "</wfs:FeatureCollection>";
+
+        String[] lines = convert(new GmlToCsvConverter(), gml);
+        Assert.assertArrayEquals(new String[] {"gml:id,geom", "f.1,POINT (-27.5 153)"}, lines);
+    }
+}
@@ -0,0 +1,140 @@
+package org.auscope.portal.core.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.util.ResourceUtil;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for GmlToGeoJsonConverter
+ */
+public class TestGmlToGeoJsonConverter extends PortalTestClass {
+
+    private static final String SF_HEADER = "<?xml version=\"1.0\"?><wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" "
+            + "xmlns:gml=\"http://www.opengis.net/gml/3.2\" xmlns:sf=\"http://example.org/sf\">";
+    private static final String SF_FOOTER = "</wfs:FeatureCollection>";
+
+    private static JSONObject convert(GmlToGeoJsonConverter converter, String gml) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        converter.convert(new ByteArrayInputStream(gml.getBytes(StandardCharsets.UTF_8)), bos);
+        return new JSONObject(new String(bos.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tests the axis order rules for various srsName encodings
+     */
+    @Test
+    public void testIsLatitudeFirst() {
+        Assert.assertTrue(GmlToGeoJsonConverter.isLatitudeFirst("urn:ogc:def:crs:EPSG::4326"));
+        Assert.assertTrue(GmlToGeoJsonConverter.isLatitudeFirst("urn:x-ogc:def:crs:EPSG:4326"));
+        Assert.assertTrue(GmlToGeoJsonConverter.isLatitudeFirst("http://www.opengis.net/def/crs/EPSG/0/4283"));
+        Assert.assertFalse(GmlToGeoJsonConverter.isLatitudeFirst("EPSG:4326"));
+        Assert.assertFalse(GmlToGeoJsonConverter.isLatitudeFirst("http://www.opengis.net/gml/srs/epsg.xml#4326"));
+        Assert.assertFalse(GmlToGeoJsonConverter.isLatitudeFirst("urn:ogc:def:crs:EPSG::3857"));
+        Assert.assertFalse(GmlToGeoJsonConverter.isLatitudeFirst(null));
+    }
+
+    /**
+     * Tests GML that fails partway through isn't closed off into a GeoJSON document that looks complete
+     */
+    @Test
+    public void testTruncatedGml() throws Exception {
+        final String gml = SF_HEADER
+                + "<wfs:member><sf:Borehole gml:id=\"bh.1\"><sf:name>BH1</sf:name></sf:Borehole></wfs:member>"
+                + "<wfs:member><sf:Borehole gml:id=\"bh.2\"><sf:name>BH2";
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            new GmlToGeoJsonConverter().convert(new ByteArrayInputStream(gml.getBytes(StandardCharsets.UTF_8)), bos);
+            Assert.fail("Expected the conversion to fail");
+        } catch (XMLStreamException ex) {
+            String json = new String(bos.toByteArray(), StandardCharsets.UTF_8);
+            Assert.assertFalse(json, json.endsWith("]}"));
+        }
+    }
+
+    /**
+     * Tests simple features in GML 3.2 with lat/lon ordered coordinates are flipped to lon/lat
+     */
+    @Test
+    public void testSimpleFeatures() throws Exception {
+        final String gml = SF_HEADER
+                + "<wfs:member><sf:Borehole gml:id=\"bh.1\"><sf:name>BH1</sf:name><sf:depth>12.5</sf:depth>"
+                + "<sf:shape><gml:Point srsName=\"urn:ogc:def:crs:EPSG::4326\"><gml:pos>-27.5 153.25</gml:pos></gml:Point></sf:shape>"
+                + "</sf:Borehole></wfs:member>"
+                + "<wfs:member><sf:Tenement gml:id=\"t.1\"><sf:name>T1</sf:name>"
+                + "<sf:shape><gml:Polygon srsName=\"EPSG:4326\"><gml:exterior><gml:LinearRing><gml:posList>0 0 10 0 10 10 0 0</gml:posList></gml:LinearRing></gml:exterior></gml:Polygon></sf:shape>"
+                + "<sf:centroid><gml:Point srsName=\"EPSG:4326\"><gml:pos>5 5</gml:pos></gml:Point></sf:centroid>"
+                + "</sf:Tenement></wfs:member>"
+                + "<wfs:member><sf:Nothing gml:id=\"n.1\"><sf:name>N1</sf:name></sf:Nothing></wfs:member>"
+                + SF_FOOTER;
+
+        JSONObject json = convert(new GmlToGeoJsonConverter(), gml);
+        Assert.assertEquals("FeatureCollection", json.getString("type"));
+        JSONArray features = json.getJSONArray("features");
+        Assert.assertEquals(3, features.length());
+
+        JSONObject borehole = features.getJSONObject(0);
+        Assert.assertEquals("Feature", borehole.getString("type"));
+        Assert.assertEquals("bh.1", borehole.getString("id"));
+        Assert.assertEquals("Point", borehole.getJSONObject("geometry").getString("type"));
+        JSONArray coords = borehole.getJSONObject("geometry").getJSONArray("coordinates");
+        Assert.assertEquals(153.25, coords.getDouble(0), 0.0);
+        Assert.assertEquals(-27.5, coords.getDouble(1), 0.0);
+        Assert.assertEquals("BH1", borehole.getJSONObject("properties").getString("name"));
+        Assert.assertEquals("12.5", borehole.getJSONObject("properties").getString("depth"));
+
+        JSONObject tenement = features.getJSONObject(1);
+        JSONObject polygon = tenement.getJSONObject("geometry");
+        Assert.assertEquals("Polygon", polygon.getString("type"));
+        JSONArray ring = polygon.getJSONArray("coordinates").getJSONArray(0);
+        Assert.assertEquals(4, ring.length());
+        Assert.assertEquals(10.0, ring.getJSONArray(1).getDouble(0), 0.0);
+        Assert.assertEquals(0.0, ring.getJSONArray(1).getDouble(1), 0.0);
+        Assert.assertEquals("POINT (5 5)", tenement.getJSONObject("properties").getString("centroid"));
+
+        Assert.assertTrue(features.getJSONObject(2).isNull("geometry"));
+    }
+
+    /**
+     * Tests the default srsName is used for geometries without one and that precision is reduced
+     */
+    @Test
+    public void testDefaultSrsAndPrecision() throws Exception {
+        final String gml = SF_HEADER
+                + "<wfs:member><sf:Line gml:id=\"l.1\"><sf:shape><gml:LineString><gml:posList>-27.123456789 153.987654321 -28.5 154.0000001</gml:posList></gml:LineString></sf:shape></sf:Line></wfs:member>"
+                + SF_FOOTER;
+
+        JSONObject json = convert(new GmlToGeoJsonConverter(3, "http://www.opengis.net/def/crs/EPSG/0/4326"), gml);
+        JSONArray coords = json.getJSONArray("features").getJSONObject(0).getJSONObject("geometry")
+                .getJSONArray("coordinates");
+        Assert.assertEquals("[[153.988,-27.123],[154,-28.5]]", coords.toString());
+    }
+
+    /**
+     * Tests a GeoSciML/ERML response (GML 3.1) is converted
+     */
+    @Test
+    public void testGeoSciMLFeatures() throws Exception {
+        final String gml = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/erml/mine/mineGetFeatureResponse.xml");
+        JSONObject json = convert(new GmlToGeoJsonConverter(), gml);
+
+        JSONArray features = json.getJSONArray("features");
+        Assert.assertEquals(2, features.length());
+        JSONObject mine = features.getJSONObject(1);
+        Assert.assertEquals("er.miningfeatureoccurrence.mine.217", mine.getString("id"));
+        Assert.assertEquals("HALL MAGNESITE MINE",
+                mine.getJSONObject("properties").getString("specification.Mine.mineName.MineName.mineName"));
+        JSONArray coords = mine.getJSONObject("geometry").getJSONArray("coordinates");
+        Assert.assertEquals(135.8198574, coords.getDouble(0), 0.0);
+        Assert.assertEquals(-34.3511832, coords.getDouble(1), 0.0);
+    }
+}
@@ -1,7 +1,9 @@
 package org.auscope.portal.core.services;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpClientInputStream;
@@ -15,14 +17,19 @@ import org.auscope.portal.core.test.PortalTestClass;
 import org.jmock.Expectations;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import ucar.ma2.Array;
 import ucar.ma2.DataType;
 import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
 import ucar.nc2.Dimension;
 import ucar.nc2.Variable;
 import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.write.NetcdfFormatWriter;
 
 import com.google.common.collect.ImmutableList;
 
@@ -32,6 +39,9 @@ public class TestOpendapService extends PortalTestClass {
     private NetcdfDataset mockDataset = context.mock(NetcdfDataset.class);
     private OpendapService service = null;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     /**
      * OpendapService that uses an injected mock NetcdfDataset
      */
@@ -84,6 +94,10 @@ public class TestOpendapService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
+                allowing(mockDataset).getLastModified();
+                will(returnValue(0L));
+                allowing(mockDataset).close();
+
                 oneOf(mockDataset).getVariables();
                 final Variable[] mocks = {mockVariable1, mockVariable2};
                 will(returnValue(ImmutableList.copyOf(mocks)));
@@ -134,6 +148,9 @@ public class TestOpendapService extends PortalTestClass {
 
         Assert.assertEquals(mockDimension1Data[0], variable.getValueBounds().getFrom(), 0.001);
         Assert.assertEquals(mockDimension1Data[mockDimension1Data.length - 1], variable.getValueBounds().getTo(), 0.001);
+
+        //The parsed variables should be reused for an unmodified dataset
+        Assert.assertSame(variable, service.getVariables(serviceUrl, variableName)[0]);
     }
 
     @Test
@@ -154,6 +171,7 @@ public class TestOpendapService extends PortalTestClass {
                     oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
                     will(returnValue(mockResponse));
                     allowing(mockResponse).close();
+                    oneOf(mockDataset).close();
                 }
             });
 
@@ -178,9 +196,77 @@ public class TestOpendapService extends PortalTestClass {
                 will(returnValue(mockMethod));
                 oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
                 will(throwException(new IOException()));
+                oneOf(mockDataset).close();
             }
         });
 
         service.getData(serviceUrl, format, constraints);
     }
+
+    /**
+     * Writes a small NetCDF file (with two axes) to act as a local OPeNDAP endpoint
+     */
+    private File writeDataset(String name) throws IOException, InvalidRangeException {
+        File file = folder.newFile(name);
+        NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(file.getAbsolutePath());
+        builder.addDimension("lat", 3);
+        builder.addDimension("lon", 4);
+        builder.addVariable("lat", DataType.DOUBLE, "lat").addAttribute(new Attribute("units", "degrees_north"));
+        builder.addVariable("lon", DataType.DOUBLE, "lon").addAttribute(new Attribute("units", "degrees_east"));
+        try (NetcdfFormatWriter writer = builder.build()) {
+            writer.write("lat", Array.makeFromJavaArray(new double[] {-30, -20, -10}));
+            writer.write("lon", Array.makeFromJavaArray(new double[] {110, 120, 130, 140}));
+        }
+        return file;
+    }
+
+    /**
+     * Datasets are acquired from the shared cache and parsed variables are reused until the dataset changes
+     */
+    @Test
+    public void testDatasetCache() throws Exception {
+        final File file = writeDataset("test.nc");
+        final AtomicInteger fetches = new AtomicInteger();
+        OpendapService.initDatasetCache(1, 4, 60);
+        OpendapService localService = new OpendapService(mockServiceCaller, mockMethodMaker) {
+            @Override
+            protected NetcdfDataset fetchDataset(String serviceUrl) throws PortalServiceException {
+                fetches.incrementAndGet();
+                return super.fetchDataset(serviceUrl);
+            }
+        };
+
+        try {
+            AbstractViewVariable[] first = localService.getVariables(file.getAbsolutePath(), null);
+            Assert.assertEquals(2, first.length);
+            Assert.assertTrue(first[1] instanceof SimpleAxis);
+            Assert.assertEquals("lon", first[1].getName());
+            Assert.assertEquals(140, ((SimpleAxis) first[1]).getValueBounds().getTo(), 0.001);
+
+            AbstractViewVariable[] second = localService.getVariables(file.getAbsolutePath(), null);
+            Assert.assertEquals(2, fetches.get());
+            Assert.assertSame(first[1], second[1]);
+            Assert.assertEquals(1, localService.getVariableCache().size());
+
+            //A released handle should be reused rather than reopened
+            NetcdfDataset ds1 = localService.fetchDataset(file.getAbsolutePath());
+            ds1.close();
+            NetcdfDataset ds2 = localService.fetchDataset(file.getAbsolutePath());
+            ds2.close();
+            Assert.assertSame(ds1, ds2);
+
+            //Filtered requests are cached separately
+            AbstractViewVariable[] filtered = localService.getVariables(file.getAbsolutePath(), "lat");
+            Assert.assertEquals(1, filtered.length);
+            Assert.assertEquals(2, localService.getVariableCache().size());
+        } finally {
+            NetcdfDatasets.shutdown();
+        }
+    }
+
+    @Test(expected = PortalServiceException.class)
+    public void testMissingDataset() throws Exception {
+        OpendapService localService = new OpendapService(mockServiceCaller, mockMethodMaker, 0, 0, 0);
+        localService.getVariables(new File(folder.getRoot(), "missing.nc").getAbsolutePath(), null);
+    }
 }
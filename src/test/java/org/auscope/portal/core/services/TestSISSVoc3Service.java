@@ -16,6 +16,7 @@ import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.methodmakers.sissvoc.SISSVoc3MethodMaker;
 import org.auscope.portal.core.services.methodmakers.sissvoc.SISSVoc3MethodMaker.Format;
 import org.auscope.portal.core.services.methodmakers.sissvoc.SISSVoc3MethodMaker.View;
+import org.auscope.portal.core.test.FakeSISSVocEndpoint;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.util.ResourceUtil;
 import org.jmock.Expectations;
@@ -276,4 +277,23 @@ public class TestSISSVoc3Service extends PortalTestClass {
 
         service.getResourceByUri(uri);
     }
+
+    /**
+     * Pages can be requested concurrently from a SISSVoc deployment
+     */
+    @Test
+    public void testGetAllConceptsConcurrently() throws PortalServiceException, URISyntaxException {
+        FakeSISSVocEndpoint endpoint = new FakeSISSVocEndpoint(125, 5);
+        SISSVoc3Service concurrentService = new SISSVoc3Service(endpoint, new SISSVoc3MethodMaker(), baseUrl, repository);
+        concurrentService.setPageSize(10);
+        concurrentService.setPageConcurrency(4);
+
+        Model model = concurrentService.getAllConcepts();
+        Property prefLabel = model.createProperty("http://www.w3.org/2004/02/skos/core#", "prefLabel");
+        for (int i = 0; i < 125; i++) {
+            Resource concept = model.getResource(FakeSISSVocEndpoint.CONCEPT_PREFIX + i);
+            Assert.assertEquals("Concept " + i, concept.getProperty(prefLabel).getString());
+        }
+        Assert.assertTrue(endpoint.getMaxActive() <= 4);
+    }
 }
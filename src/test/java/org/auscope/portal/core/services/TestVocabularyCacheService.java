@@ -1,11 +1,20 @@
 package org.auscope.portal.core.services;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.jena.rdf.model.Model;
@@ -18,8 +27,12 @@ import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker;
 import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker.Format;
 import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker.View;
+import org.auscope.portal.core.services.vocabs.VocabularyCacheSnapshot;
+import org.auscope.portal.core.services.vocabs.VocabularyHarvestStatus;
 import org.auscope.portal.core.services.vocabs.VocabularyServiceItem;
+import org.auscope.portal.core.services.vocabs.VocabularySnapshot;
 import org.auscope.portal.core.test.BasicThreadExecutor;
+import org.auscope.portal.core.test.FakeSISSVocEndpoint;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.util.ResourceUtil;
 import org.jmock.Expectations;
@@ -27,10 +40,16 @@ import org.jmock.Sequence;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 public class TestVocabularyCacheService extends PortalTestClass {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private static final int CONCURRENT_THREADS_TO_RUN = 3;
 
     static final int VOCABULARY_COUNT_TOTAL = 461;
@@ -301,4 +320,314 @@ public class TestVocabularyCacheService extends PortalTestClass {
             Assert.assertFalse(this.vocabularyCacheService.updateRunning);
         }
     }
-}
\ No newline at end of file
+
+    private static void waitForUpdate(VocabularyCacheService service, BasicThreadExecutor executor) throws InterruptedException {
+        do {
+            Thread.sleep(100);
+        } while (service.updateRunning);
+        executor.getExecutorService().shutdown();
+        executor.getExecutorService().awaitTermination(180, TimeUnit.SECONDS);
+    }
+
+    /**
+     * An update writes a snapshot that a later instance restores before its own update has finished
+     */
+    @Test
+    public void testStartupFromSnapshot() throws Exception {
+        File snapshotDirectory = folder.newFolder();
+
+        //Harvest two vocabularies and snapshot them
+        ArrayList<VocabularyServiceItem> services = new ArrayList<>();
+        services.add(new VocabularyServiceItem("a", "A", new VocabularyService(new FakeSISSVocEndpoint(25, 0),
+                new VocabularyMethodMaker(), "http://example.org/a")));
+        services.add(new VocabularyServiceItem("b", "B", new VocabularyService(new FakeSISSVocEndpoint(40, 0),
+                new VocabularyMethodMaker(), "http://example.org/b")));
+        BasicThreadExecutor executor = new BasicThreadExecutor();
+        VocabularyCacheService harvester = new VocabularyCacheService(executor, services, snapshotDirectory);
+        Assert.assertEquals(0, harvester.loadSnapshot());
+        Assert.assertTrue(harvester.updateCache());
+        waitForUpdate(harvester, executor);
+        Assert.assertTrue(new File(snapshotDirectory, VocabularySnapshot.MANIFEST_FILE).exists());
+
+        //Restart with slow vocabulary services, one of which is now broken
+        FakeSISSVocEndpoint slowEndpoint = new FakeSISSVocEndpoint(25, 500);
+        FakeSISSVocEndpoint brokenEndpoint = new FakeSISSVocEndpoint(40, 0);
+        brokenEndpoint.addFailingPage(0);
+        services = new ArrayList<>();
+        services.add(new VocabularyServiceItem("a", "A", new VocabularyService(slowEndpoint, new VocabularyMethodMaker(),
+                "http://example.org/a")));
+        services.add(new VocabularyServiceItem("b", "B", new VocabularyService(brokenEndpoint, new VocabularyMethodMaker(),
+                "http://example.org/b")));
+        executor = new BasicThreadExecutor();
+        VocabularyCacheService restarted = new VocabularyCacheService(executor, services, snapshotDirectory);
+        Assert.assertTrue(restarted.initialise());
+
+        //The snapshot is available straight away
+        Assert.assertEquals(2, restarted.getVocabularyCache().size());
+        Assert.assertTrue(restarted.getVocabularyCacheById("a").isIsomorphicWith(harvester.getVocabularyCacheById("a")));
+        Assert.assertTrue(restarted.getVocabularyCacheById("b").isIsomorphicWith(harvester.getVocabularyCacheById("b")));
+
+        //The broken service keeps its snapshot after the refresh
+        waitForUpdate(restarted, executor);
+        Assert.assertEquals(2, restarted.getVocabularyCache().size());
+        Assert.assertTrue(restarted.getVocabularyCacheById("b").isIsomorphicWith(harvester.getVocabularyCacheById("b")));
+    }
+
+    private static VocabularyServiceItem fakeVocabulary(String id, FakeSISSVocEndpoint endpoint) {
+        return new VocabularyServiceItem(id, id, new VocabularyService(endpoint, new VocabularyMethodMaker(), "http://example.org/" + id));
+    }
+
+    /**
+     * Readers hammering the cache whilst vocabularies are repeatedly swapped always see a complete and self consistent entry
+     */
+    @Test
+    public void testReadersDuringRefresh() throws Exception {
+        final VocabularyServiceItem small = fakeVocabulary("a", new FakeSISSVocEndpoint(50, 0));
+        final VocabularyServiceItem large = fakeVocabulary("a", new FakeSISSVocEndpoint(80, 0));
+        final VocabularyServiceItem other = fakeVocabulary("b", new FakeSISSVocEndpoint(30, 0));
+        ArrayList<VocabularyServiceItem> services = new ArrayList<>();
+        services.add(small);
+        services.add(other);
+        final VocabularyCacheService service = new VocabularyCacheService(threadExecutor, services);
+        Assert.assertTrue(service.refreshVocabulary(small));
+        Assert.assertTrue(service.refreshVocabulary(other));
+
+        final int readers = 4;
+        final int refreshes = 40;
+        final AtomicBoolean refreshing = new AtomicBoolean(true);
+        final AtomicInteger reads = new AtomicInteger();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        ExecutorService pool = threadExecutor.getExecutorService();
+        List<Future<?>> readerFutures = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            readerFutures.add(pool.submit(() -> {
+                try {
+                    while (refreshing.get()) {
+                        //Individual lookups never miss a vocabulary mid swap
+                        Assert.assertNotNull(service.getVocabularyCacheById("a"));
+                        Assert.assertNotNull(service.getLookupIndexById("a"));
+                        Assert.assertNotNull(service.getHierarchyIndexById("b"));
+
+                        //Every part of an entry describes the same harvest
+                        VocabularyCacheSnapshot.Entry entry = service.getSnapshot().getEntry("a");
+                        int concepts = entry.getLookupIndex().getLabeledVocabulary().size();
+                        Assert.assertTrue(concepts == 50 || concepts == 80);
+                        Assert.assertSame(entry.getModel(), entry.getLookupIndex().getModel());
+                        Assert.assertEquals(concepts, entry.getHierarchyIndex().size());
+                        Assert.assertEquals(2, service.getVocabularyCache().size());
+                        reads.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+
+        for (int i = 0; i < refreshes; i++) {
+            Assert.assertTrue(service.refreshVocabulary(i % 2 == 0 ? large : small));
+        }
+        refreshing.set(false);
+        for (Future<?> future : readerFutures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+
+        Assert.assertTrue(failures.toString(), failures.isEmpty());
+        Assert.assertTrue(reads.get() > 0);
+        Assert.assertEquals(50, service.getLookupIndexById("a").getLabeledVocabulary().size());
+    }
+
+    /**
+     * Scheduled refreshes repeat for each vocabulary and a vocabulary that fails to refresh keeps serving its previous entry
+     */
+    @Test
+    public void testScheduledRefresh() throws Exception {
+        FakeSISSVocEndpoint healthyEndpoint = new FakeSISSVocEndpoint(20, 0);
+        FakeSISSVocEndpoint brokenEndpoint = new FakeSISSVocEndpoint(30, 0);
+        ArrayList<VocabularyServiceItem> services = new ArrayList<>();
+        services.add(fakeVocabulary("a", healthyEndpoint));
+        services.add(fakeVocabulary("b", brokenEndpoint));
+        services.get(0).setRefreshInterval(50);
+
+        File snapshotDirectory = folder.newFolder();
+        VocabularyCacheService service = new VocabularyCacheService(threadExecutor, services, snapshotDirectory);
+        Assert.assertFalse(service.startScheduledRefresh());
+        Assert.assertTrue(service.updateCache());
+        waitForUpdate(service, threadExecutor);
+        VocabularyCacheSnapshot.Entry originalA = service.getSnapshot().getEntry("a");
+        VocabularyCacheSnapshot.Entry originalB = service.getSnapshot().getEntry("b");
+
+        brokenEndpoint.addFailingPage(0);
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.initialize();
+        try {
+            service.setTaskScheduler(scheduler);
+            service.setRefreshInterval(100);
+            service.setRefreshJitter(0.5);
+            Assert.assertTrue(service.startScheduledRefresh());
+
+            long deadline = System.currentTimeMillis() + 30000;
+            while ((healthyEndpoint.getRequestedPages().size() < 5 || brokenEndpoint.getRequestedPages().size() < 3)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            service.stopScheduledRefresh();
+        } finally {
+            scheduler.shutdown();
+        }
+
+        Assert.assertTrue(healthyEndpoint.getRequestedPages().size() >= 5);
+        Assert.assertTrue(brokenEndpoint.getRequestedPages().size() >= 3);
+        Assert.assertNotSame(originalA, service.getSnapshot().getEntry("a"));
+        Assert.assertTrue(service.getSnapshot().getEntry("a").getHarvested() >= originalA.getHarvested());
+        Assert.assertSame(originalB, service.getSnapshot().getEntry("b"));
+
+        //The snapshot on disk keeps the failed vocabulary too
+        Map<String, Model> persisted = new VocabularySnapshot(snapshotDirectory).read(new HashMap<String, Long>());
+        Assert.assertEquals(2, persisted.size());
+        Assert.assertTrue(persisted.get("b").isIsomorphicWith(originalB.getModel()));
+    }
+
+    /**
+     * Stopping and restarting the schedule whilst a refresh is underway leaves a single (cancellable) refresh chain
+     */
+    @Test
+    public void testRestartScheduledRefresh() throws Exception {
+        FakeSISSVocEndpoint endpoint = new FakeSISSVocEndpoint(20, 300);
+        ArrayList<VocabularyServiceItem> services = new ArrayList<>();
+        services.add(fakeVocabulary("a", endpoint));
+        VocabularyCacheService service = new VocabularyCacheService(threadExecutor, services);
+
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.initialize();
+        try {
+            service.setTaskScheduler(scheduler);
+            service.setRefreshInterval(2000);
+            service.setRefreshJitter(0);
+            Assert.assertTrue(service.startScheduledRefresh());
+            waitForState(service, "a", VocabularyHarvestStatus.State.Running);
+
+            //The refresh underway finishes well before the restarted schedule's first refresh is due
+            service.stopScheduledRefresh();
+            Assert.assertTrue(service.startScheduledRefresh());
+            waitForState(service, "a", VocabularyHarvestStatus.State.Succeeded);
+
+            //Nothing can still be pending once the restarted schedule is stopped
+            service.stopScheduledRefresh();
+            int pages = endpoint.getRequestedPages().size();
+            Thread.sleep(3000);
+            Assert.assertEquals(pages, endpoint.getRequestedPages().size());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static void waitForState(VocabularyCacheService service, String vocabularyId, VocabularyHarvestStatus.State state)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (service.getHarvestStatus(vocabularyId).getState() != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(state, service.getHarvestStatus(vocabularyId).getState());
+    }
+
+    /**
+     * Concurrent triggers share a single harvest and each vocabulary is published as soon as its own harvest completes
+     */
+    @Test
+    public void testSingleFlightHarvest() throws Exception {
+        FakeSISSVocEndpoint fastEndpoint = new FakeSISSVocEndpoint(20, 0);
+        FakeSISSVocEndpoint slowEndpoint = new FakeSISSVocEndpoint(20, 1000);
+        ArrayList<VocabularyServiceItem> services = new ArrayList<>();
+        services.add(fakeVocabulary("fast", fastEndpoint));
+        services.add(fakeVocabulary("slow", slowEndpoint));
+        VocabularyCacheService service = new VocabularyCacheService(threadExecutor, services);
+        Assert.assertEquals(VocabularyHarvestStatus.State.Idle, service.getHarvestStatus("slow").getState());
+
+        CompletableFuture<Void> harvest = service.harvest();
+        Assert.assertSame(harvest, service.harvest());
+        Assert.assertFalse(service.updateCache());
+        Assert.assertTrue(service.updateRunning);
+
+        //The fast vocabulary doesn't wait for the slow one
+        long deadline = System.currentTimeMillis() + 30000;
+        while (service.getVocabularyCacheById("fast") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertNotNull(service.getVocabularyCacheById("fast"));
+        Assert.assertNull(service.getVocabularyCacheById("slow"));
+        Assert.assertEquals(VocabularyHarvestStatus.State.Succeeded, service.getHarvestStatus("fast").getState());
+        Assert.assertEquals(VocabularyHarvestStatus.State.Running, service.getHarvestStatus("slow").getState());
+
+        harvest.get(30, TimeUnit.SECONDS);
+        Assert.assertFalse(service.updateRunning);
+        Assert.assertNotNull(service.getVocabularyCacheById("slow"));
+        Map<String, VocabularyHarvestStatus> statuses = service.getHarvestStatus();
+        Assert.assertEquals(2, statuses.size());
+        Assert.assertEquals(VocabularyHarvestStatus.State.Succeeded, statuses.get("slow").getState());
+        Assert.assertTrue(statuses.get("slow").getLastDuration() >= 1000);
+
+        //The duplicate triggers didn't harvest anything twice
+        int fastPages = fastEndpoint.getRequestedPages().size();
+        int slowPages = slowEndpoint.getRequestedPages().size();
+        CompletableFuture<Void> nextHarvest = service.harvest();
+        Assert.assertNotSame(harvest, nextHarvest);
+        nextHarvest.get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(fastPages * 2, fastEndpoint.getRequestedPages().size());
+        Assert.assertEquals(slowPages * 2, slowEndpoint.getRequestedPages().size());
+
+        //Back to back harvests never pick up a finished refresh of the previous one
+        services.remove(1);
+        for (int i = 0; i < 50; i++) {
+            service.harvest().get(30, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(fastPages * 52, fastEndpoint.getRequestedPages().size());
+    }
+
+    /**
+     * Vocabularies that miss their deadline or fail keep serving their previous contents and record why
+     */
+    @Test
+    public void testHarvestDeadlinesAndFailures() throws Exception {
+        FakeSISSVocEndpoint slowEndpoint = new FakeSISSVocEndpoint(20, 1000);
+        FakeSISSVocEndpoint brokenEndpoint = new FakeSISSVocEndpoint(30, 0);
+        ArrayList<VocabularyServiceItem> services = new ArrayList<>();
+        services.add(fakeVocabulary("slow", slowEndpoint));
+        services.add(fakeVocabulary("broken", brokenEndpoint));
+        VocabularyCacheService service = new VocabularyCacheService(threadExecutor, services);
+        service.harvest().get(30, TimeUnit.SECONDS);
+        VocabularyCacheSnapshot.Entry originalSlow = service.getSnapshot().getEntry("slow");
+        VocabularyCacheSnapshot.Entry originalBroken = service.getSnapshot().getEntry("broken");
+        Assert.assertNotNull(originalSlow);
+        Assert.assertNotNull(originalBroken);
+
+        services.get(0).setHarvestTimeout(200);
+        brokenEndpoint.addFailingPage(0);
+        startTimer();
+        service.harvest().get(30, TimeUnit.SECONDS);
+        Assert.assertTrue(endTimer() < 1000);
+
+        VocabularyHarvestStatus slowStatus = service.getHarvestStatus("slow");
+        Assert.assertEquals(VocabularyHarvestStatus.State.TimedOut, slowStatus.getState());
+        Assert.assertEquals(1, slowStatus.getConsecutiveFailures());
+        Assert.assertNotNull(slowStatus.getLastError());
+        Assert.assertTrue(slowStatus.getLastSucceeded() > 0);
+        VocabularyHarvestStatus brokenStatus = service.getHarvestStatus("broken");
+        Assert.assertEquals(VocabularyHarvestStatus.State.Failed, brokenStatus.getState());
+        Assert.assertEquals(1, brokenStatus.getConsecutiveFailures());
+        Assert.assertNotNull(brokenStatus.getLastError());
+
+        //The abandoned harvest is cancelled rather than left to request further pages
+        int slowPages = slowEndpoint.getRequestedPages().size();
+        Thread.sleep(2500);
+        Assert.assertEquals(slowPages, slowEndpoint.getRequestedPages().size());
+        Assert.assertSame(originalSlow, service.getSnapshot().getEntry("slow"));
+        Assert.assertSame(originalBroken, service.getSnapshot().getEntry("broken"));
+        Assert.assertEquals(VocabularyHarvestStatus.State.TimedOut, service.getHarvestStatus("slow").getState());
+
+        //A synchronous refresh of the broken vocabulary fails again
+        Assert.assertFalse(service.refreshVocabulary(services.get(1)));
+        Assert.assertEquals(2, service.getHarvestStatus("broken").getConsecutiveFailures());
+    }
+}
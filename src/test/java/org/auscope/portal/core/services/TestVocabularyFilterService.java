@@ -1,6 +1,8 @@
 package org.auscope.portal.core.services;
 
 import org.apache.jena.rdf.model.*;
+import org.auscope.portal.core.services.vocabs.SkosHierarchyIndex;
+import org.auscope.portal.core.services.vocabs.VocabularyLookupIndex;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.util.structure.RDFTriple;
 import org.jmock.Expectations;
@@ -95,8 +97,8 @@ public class TestVocabularyFilterService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockCacheService).getVocabularyCacheById(mockVocabularyCacheId);
-                will(returnValue(mockModel1));
+                oneOf(mockCacheService).getLookupIndexById(mockVocabularyCacheId);
+                will(returnValue(new VocabularyLookupIndex(mockModel1)));
             }
         });
 
@@ -111,8 +113,8 @@ public class TestVocabularyFilterService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockCacheService).getVocabularyCacheById(mockVocabularyCacheId);
-                will(returnValue(mockModel1));
+                oneOf(mockCacheService).getLookupIndexById(mockVocabularyCacheId);
+                will(returnValue(new VocabularyLookupIndex(mockModel1)));
             }
         });
 
@@ -125,8 +127,8 @@ public class TestVocabularyFilterService extends PortalTestClass {
     public void testGetAllNarrowerWithTransitive() {
         context.checking(new Expectations() {
             {
-                oneOf(mockCacheService).getVocabularyCacheById(mockVocabularyCacheId);
-                will(returnValue(mockModel1));
+                oneOf(mockCacheService).getHierarchyIndexById(mockVocabularyCacheId);
+                will(returnValue(new SkosHierarchyIndex(mockModel1)));
             }
         });
 
@@ -139,8 +141,8 @@ public class TestVocabularyFilterService extends PortalTestClass {
     public void testGetAllNarrowerWithRecursive() {
         context.checking(new Expectations() {
             {
-                oneOf(mockCacheService).getVocabularyCacheById(mockVocabularyCacheId);
-                will(returnValue(mockModel1));
+                oneOf(mockCacheService).getHierarchyIndexById(mockVocabularyCacheId);
+                will(returnValue(new SkosHierarchyIndex(mockModel1)));
             }
         });
 
@@ -154,8 +156,8 @@ public class TestVocabularyFilterService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockCacheService).getVocabularyCacheById(mockVocabularyCacheId);
-                will(returnValue(mockModel2));
+                oneOf(mockCacheService).getHierarchyIndexById(mockVocabularyCacheId);
+                will(returnValue(new SkosHierarchyIndex(mockModel2)));
             }
         });
 
@@ -168,8 +170,8 @@ public class TestVocabularyFilterService extends PortalTestClass {
     public void testGetNarrower() {
         context.checking(new Expectations() {
             {
-                oneOf(mockCacheService).getVocabularyCacheById(mockVocabularyCacheId);
-                will(returnValue(mockModel1));
+                oneOf(mockCacheService).getHierarchyIndexById(mockVocabularyCacheId);
+                will(returnValue(new SkosHierarchyIndex(mockModel1)));
             }
         });
 
@@ -182,8 +184,8 @@ public class TestVocabularyFilterService extends PortalTestClass {
     public void testGetNarrowerTransitive() {
         context.checking(new Expectations() {
             {
-                oneOf(mockCacheService).getVocabularyCacheById(mockVocabularyCacheId);
-                will(returnValue(mockModel1));
+                oneOf(mockCacheService).getHierarchyIndexById(mockVocabularyCacheId);
+                will(returnValue(new SkosHierarchyIndex(mockModel1)));
             }
         });
 
@@ -196,8 +198,8 @@ public class TestVocabularyFilterService extends PortalTestClass {
     public void testGetVocabularyByIdWithProperty() {
         context.checking(new Expectations() {
             {
-                oneOf(mockCacheService).getVocabularyCacheById(mockVocabularyCacheId);
-                will(returnValue(mockModel2));
+                oneOf(mockCacheService).getLookupIndexById(mockVocabularyCacheId);
+                will(returnValue(new VocabularyLookupIndex(mockModel2)));
             }
         });
         ArrayList<String> defns = vocabularyFilterService.getVocabularyById(mockVocabularyCacheId, "prefLabel", mockDefaultProperty);
@@ -0,0 +1,157 @@
+package org.auscope.portal.core.services;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.auscope.portal.core.services.vocabs.LinkedDataPageReader;
+import org.auscope.portal.core.test.FakeSISSVocEndpoint;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VocabularyQueryService
+ */
+public class TestVocabularyQueryService extends PortalTestClass {
+
+    private static final String VOCAB_ID = "vocab";
+    private static final int CONCEPT_COUNT = 2000;
+
+    private VocabularyCacheService mockCacheService = context.mock(VocabularyCacheService.class);
+    private VocabularyQueryService queryService;
+    private Model model;
+
+    @Before
+    public void setUp() throws Exception {
+        //Concept n is narrower than (n - 1) / 10 (only expressed via skos:broader)
+        model = ModelFactory.createDefaultModel();
+        String page = new FakeSISSVocEndpoint(CONCEPT_COUNT, 0).generatePage(0, CONCEPT_COUNT);
+        LinkedDataPageReader.readPage(new ByteArrayInputStream(page.getBytes(StandardCharsets.UTF_8)), model);
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockCacheService).getVocabularyCacheById(VOCAB_ID);
+                will(returnValue(model));
+                allowing(mockCacheService).getVocabularyCacheById("missing");
+                will(returnValue(null));
+            }
+        });
+        queryService = new VocabularyQueryService(mockCacheService);
+    }
+
+    private static Set<String> concepts(List<Map<String, String>> rows) {
+        Set<String> uris = new HashSet<>();
+        for (Map<String, String> row : rows) {
+            uris.add(row.get("concept"));
+        }
+        return uris;
+    }
+
+    private static Set<String> uris(int... ids) {
+        Set<String> uris = new HashSet<>();
+        for (int id : ids) {
+            uris.add(FakeSISSVocEndpoint.CONCEPT_PREFIX + id);
+        }
+        return uris;
+    }
+
+    private static void addDescendants(int id, Set<String> result) {
+        for (int child = id * 10 + 1; child <= id * 10 + 10 && child < CONCEPT_COUNT; child++) {
+            result.add(FakeSISSVocEndpoint.CONCEPT_PREFIX + child);
+            addDescendants(child, result);
+        }
+    }
+
+    /**
+     * Both label search modes agree on labels made of whole words
+     */
+    @Test
+    public void testLabelSearch() throws PortalServiceException {
+        List<Map<String, String>> sparqlRows = queryService.searchLabels(VOCAB_ID, "concept 12");
+        Assert.assertEquals(111, sparqlRows.size());
+        Assert.assertEquals("Concept 12", sparqlRows.get(0).get("label"));
+        Assert.assertEquals(FakeSISSVocEndpoint.CONCEPT_PREFIX + 12, sparqlRows.get(0).get("concept"));
+
+        queryService.setTextIndexEnabled(true);
+        Assert.assertEquals(sparqlRows, queryService.searchLabels(VOCAB_ID, "CONCEPT 12"));
+        Assert.assertEquals(sparqlRows, queryService.searchLabels(VOCAB_ID, "12 conc"));
+        Assert.assertTrue(queryService.searchLabels(VOCAB_ID, "granite").isEmpty());
+        Assert.assertTrue(queryService.searchLabels(VOCAB_ID, "").isEmpty());
+        Assert.assertTrue(queryService.searchLabels("missing", "concept").isEmpty());
+    }
+
+    /**
+     * Multi hop relations follow both directions of the hierarchy
+     */
+    @Test
+    public void testClosures() throws PortalServiceException {
+        Set<String> expected = new HashSet<>();
+        addDescendants(1, expected);
+        Assert.assertEquals(expected, concepts(queryService.queryFromRoot(VOCAB_ID, VocabularyQueryService.NARROWER_CLOSURE,
+                FakeSISSVocEndpoint.CONCEPT_PREFIX + 1)));
+
+        Assert.assertEquals(uris(123, 12, 1, 0), concepts(queryService.queryFromRoot(VOCAB_ID,
+                VocabularyQueryService.BROADER_CLOSURE, FakeSISSVocEndpoint.CONCEPT_PREFIX + 1234)));
+        Assert.assertTrue(queryService.queryFromRoot(VOCAB_ID, VocabularyQueryService.RELATED,
+                FakeSISSVocEndpoint.CONCEPT_PREFIX + 1).isEmpty());
+        Assert.assertTrue(queryService.queryFromRoot("missing", VocabularyQueryService.NARROWER_CLOSURE,
+                FakeSISSVocEndpoint.CONCEPT_PREFIX + 1).isEmpty());
+    }
+
+    /**
+     * Custom templates are bound per execution
+     */
+    @Test
+    public void testCustomTemplate() throws PortalServiceException {
+        queryService.registerTemplate("prefLabel", "SELECT ?label WHERE { ?concept skos:prefLabel ?label }");
+        Assert.assertTrue(queryService.getTemplateNames().contains("prefLabel"));
+
+        for (int id : new int[] {0, 7, 1999}) {
+            Map<String, RDFNode> bindings = new HashMap<>();
+            bindings.put("concept", ResourceFactory.createResource(FakeSISSVocEndpoint.CONCEPT_PREFIX + id));
+            List<Map<String, String>> rows = queryService.query(VOCAB_ID, "prefLabel", bindings);
+            Assert.assertEquals(1, rows.size());
+            Assert.assertEquals("Concept " + id, rows.get(0).get("label"));
+        }
+    }
+
+    /**
+     * Results are capped, runaway queries time out and unknown templates are rejected
+     */
+    @Test
+    public void testLimits() throws PortalServiceException {
+        queryService.setMaxResults(5);
+        Assert.assertEquals(5, queryService.searchLabels(VOCAB_ID, "concept").size());
+        queryService.setTextIndexEnabled(true);
+        Assert.assertEquals(5, queryService.searchLabels(VOCAB_ID, "concept").size());
+
+        queryService.setTimeout(100);
+        queryService.registerTemplate("crossProduct", "SELECT * WHERE { ?a ?b ?c . ?d ?e ?f . ?g ?h ?i } ORDER BY ?c ?f ?i");
+        startTimer();
+        try {
+            queryService.query(VOCAB_ID, "crossProduct", null);
+            Assert.fail("Expected a timeout");
+        } catch (PortalServiceException e) {
+            //expected
+        }
+        Assert.assertTrue(endTimer() < 30000);
+
+        try {
+            queryService.query(VOCAB_ID, "notATemplate", null);
+            Assert.fail("Expected unknown template to be rejected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
@@ -1,23 +1,58 @@
 package org.auscope.portal.core.services;
 
 import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.tiff.GeoTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.http.NameValuePair;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URLEncodedUtils;
 import org.auscope.portal.core.server.http.HttpClientInputStream;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.methodmakers.WCSMethodMaker;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
 import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+import org.auscope.portal.core.services.responses.csw.CSWOnlineResourceImpl;
+import org.auscope.portal.core.services.responses.wcs.CoverageTile;
+import org.auscope.portal.core.services.responses.wcs.DescribeCoverageRecord;
 import org.auscope.portal.core.services.responses.wcs.Resolution;
+import org.auscope.portal.core.services.responses.wcs.SingleValue;
+import org.auscope.portal.core.services.responses.wcs.TiledCoverage;
 import org.auscope.portal.core.services.responses.wcs.TimeConstraint;
 import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.util.ResourceUtil;
 import org.jmock.Expectations;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class TestWCSService extends PortalTestClass {
     private HttpRequestBase mockMethod = context.mock(HttpRequestBase.class);
@@ -26,6 +61,9 @@ public class TestWCSService extends PortalTestClass {
 
     private WCSService service;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void init() {
         service = new WCSService(mockServiceCaller, mockMethodMaker);
@@ -89,4 +127,404 @@ public class TestWCSService extends PortalTestClass {
         service.getCoverage(serviceUrl, coverageName, downloadFormat, outputSize, outputResolution, outputCrs,
                 inputCrs, bbox, timeConstraint, customParameters);
     }
+
+    private static HttpClientInputStream describeCoverageResponse() throws IOException {
+        return new HttpClientInputStream(ResourceUtil.loadResourceAsStream(
+                "org/auscope/portal/core/test/responses/wcs/DescribeCoverageResponse1.xml"), null);
+    }
+
+    /**
+     * Tests a DescribeCoverage response is parsed and only requested once
+     */
+    @Test
+    public void testDescribeCoverage() throws Exception {
+        final String serviceUrl = "http://example.org/wcs";
+        final String coverageName = "coverage_offering_1";
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).describeCoverageMethod(serviceUrl, coverageName);
+                will(returnValue(mockMethod));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(describeCoverageResponse()));
+                allowing(mockMethod).releaseConnection();
+            }
+        });
+
+        DescribeCoverageRecord[] records = service.describeCoverage(serviceUrl, coverageName);
+        Assert.assertSame(records, service.describeCoverage(serviceUrl, coverageName));
+        Assert.assertEquals(1, records.length);
+
+        DescribeCoverageRecord record = records[0];
+        Assert.assertEquals("coverage_offering_1", record.getName());
+        Assert.assertEquals("Coverage Offering 1", record.getLabel());
+        Assert.assertArrayEquals(new String[] {"EPSG:4326", "EPSG:3577"}, record.getSupportedRequestCRSs());
+        Assert.assertArrayEquals(new String[] {"EPSG:4326", "EPSG:3857"}, record.getSupportedResponseCRSs());
+        Assert.assertArrayEquals(new String[] {"EPSG:4326"}, record.getNativeCRSs());
+        Assert.assertArrayEquals(new String[] {"GeoTIFF", "netCDF"}, record.getSupportedFormats());
+        Assert.assertArrayEquals(new String[] {"nearest neighbor", "bilinear"}, record.getSupportedInterpolations());
+
+        Assert.assertEquals(1, record.getSpatialDomain().getEnvelopes().length);
+        Assert.assertEquals(155.0, record.getSpatialDomain().getEnvelopes()[0].getEastBoundLongitude(), 0);
+        Assert.assertArrayEquals(new int[] {449, 349}, record.getSpatialDomain().getRectifiedGrid().getEnvelopeHighValues());
+        Assert.assertEquals(2, record.getTemporalDomain().length);
+
+        Assert.assertEquals("bands", record.getRangeSet().getName());
+        Assert.assertEquals(3, record.getRangeSet().getAxisDescriptions()[0].getValues().length);
+        Assert.assertEquals("-999", ((SingleValue) record.getRangeSet().getNullValues()[0]).getValue());
+    }
+
+    /**
+     * Tests failed DescribeCoverage requests aren't cached
+     */
+    @Test
+    public void testDescribeCoverageException() throws Exception {
+        final String serviceUrl = "http://example.org/wcs";
+        final String coverageName = "coverage";
+
+        context.checking(new Expectations() {
+            {
+                exactly(2).of(mockMethodMaker).describeCoverageMethod(serviceUrl, coverageName);
+                will(returnValue(mockMethod));
+                exactly(2).of(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(throwException(new IOException()));
+                allowing(mockMethod).releaseConnection();
+            }
+        });
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                service.describeCoverage(serviceUrl, coverageName);
+                Assert.fail("Expected a PortalServiceException");
+            } catch (PortalServiceException ex) {
+                Assert.assertTrue(ex.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    /**
+     * Tests every distinct WCS coverage is prefetched
+     */
+    @Test
+    public void testPrefetchDescribeCoverages() throws Exception {
+        final URL serviceUrl = new URL("http://example.org/wcs");
+        final HttpRequestBase mockMethod2 = context.mock(HttpRequestBase.class, "mockMethod2");
+        List<AbstractCSWOnlineResource> resources = Arrays.asList(
+                new CSWOnlineResourceImpl(serviceUrl, "OGC:WCS-1.0.0-http-get-coverage", "coverage_offering_1", ""),
+                new CSWOnlineResourceImpl(serviceUrl, "OGC:WCS-1.0.0-http-get-coverage", "coverage_offering_1", ""),
+                new CSWOnlineResourceImpl(serviceUrl, "OGC:WCS-1.0.0-http-get-coverage", "missing", ""),
+                new CSWOnlineResourceImpl(serviceUrl, "OGC:WMS-1.1.1-http-get-map", "layer", ""));
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).describeCoverageMethod(serviceUrl.toString(), "coverage_offering_1");
+                will(returnValue(mockMethod));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(describeCoverageResponse()));
+                allowing(mockMethod).releaseConnection();
+
+                oneOf(mockMethodMaker).describeCoverageMethod(serviceUrl.toString(), "missing");
+                will(returnValue(mockMethod2));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod2);
+                will(throwException(new IOException()));
+                allowing(mockMethod2).releaseConnection();
+            }
+        });
+
+        Assert.assertEquals(1, service.prefetchDescribeCoverages(resources));
+        Assert.assertEquals("coverage_offering_1", service.describeCoverage(serviceUrl.toString(), "coverage_offering_1")[0].getName());
+    }
+
+    /**
+     * A local stand in for a WCS that serves DescribeCoverageResponse1.xml and renders GetCoverage requests as synthetic single band
+     * TIFFs. Each pixel's value is derived from its position in the full 0.1 degree grid starting at ORIGIN_LNG/ORIGIN_LAT so that
+     * mosaicked tiles can be checked against the full raster.
+     */
+    private static class WCSStandIn extends HttpServiceCaller {
+        public static final double ORIGIN_LNG = 90.0;
+        public static final double ORIGIN_LAT = -10.0;
+        public static final double RES = 0.1;
+
+        private final List<String> bboxes = Collections.synchronizedList(new ArrayList<String>());
+        private final Map<String, Integer> attempts = Collections.synchronizedMap(new HashMap<String, Integer>());
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        /** Tiles (identified by their pixel x,y offset) that always fail */
+        private final List<String> failing = new ArrayList<>();
+        /** Tiles (identified by their pixel x,y offset) that fail on their first attempt */
+        private final List<String> flaky = new ArrayList<>();
+        /** Tiles (identified by their pixel x,y offset) that are answered with an exception report (and HTTP 200) */
+        private final List<String> exceptionReports = new ArrayList<>();
+
+        public WCSStandIn() {
+            super(1000);
+        }
+
+        public static int expectedValue(int x, int y) {
+            return 1 + (x * 31 + y * 17) % 65000;
+        }
+
+        @Override
+        public HttpClientInputStream getMethodResponseAsStream(HttpRequestBase method) throws IOException {
+            List<NameValuePair> params = URLEncodedUtils.parse(method.getURI(), StandardCharsets.UTF_8);
+            if ("DescribeCoverage".equals(getParam(params, "request"))) {
+                return describeCoverageResponse();
+            }
+
+            int current = active.incrementAndGet();
+            maxActive.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(20);
+
+                String[] bbox = getParam(params, "bbox").split(",");
+                bboxes.add(getParam(params, "bbox"));
+                int x0 = (int) Math.round((Double.parseDouble(bbox[0]) - ORIGIN_LNG) / RES);
+                int y0 = (int) Math.round((ORIGIN_LAT - Double.parseDouble(bbox[3])) / RES);
+                String id = x0 + "," + y0;
+                int attempt = attempts.merge(id, 1, Integer::sum);
+                if (failing.contains(id) || (flaky.contains(id) && attempt == 1)) {
+                    throw new IOException("Tile " + id + " unavailable");
+                }
+                if (exceptionReports.contains(id)) {
+                    String xml = "<ServiceExceptionReport version=\"1.2.0\"><ServiceException>Tile " + id
+                            + " too large</ServiceException></ServiceExceptionReport>";
+                    return new HttpClientInputStream(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null);
+                }
+
+                BufferedImage image = new BufferedImage(Integer.parseInt(getParam(params, "width")),
+                        Integer.parseInt(getParam(params, "height")), BufferedImage.TYPE_USHORT_GRAY);
+                WritableRaster raster = image.getRaster();
+                for (int y = 0; y < raster.getHeight(); y++) {
+                    for (int x = 0; x < raster.getWidth(); x++) {
+                        raster.setSample(x, y, 0, expectedValue(x0 + x, y0 + y));
+                    }
+                }
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                ImageIO.write(image, "tiff", bos);
+                return new HttpClientInputStream(new ByteArrayInputStream(bos.toByteArray()), null);
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        private static String getParam(List<NameValuePair> params, String name) {
+            for (NameValuePair param : params) {
+                if (param.getName().equalsIgnoreCase(name)) {
+                    return param.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Requests 90..150 x -40..-10 at 0.1 degrees (600x300 pixels) in tiles no larger than 128 pixels
+     */
+    private TiledCoverage getTiledCoverage(WCSStandIn wcs, List<CoverageTile> finished) throws Exception {
+        return getTiledCoverage(wcs, finished, new CSWGeographicBoundingBox(90, 150, -40, -10), 0.1, 128);
+    }
+
+    private TiledCoverage getTiledCoverage(WCSStandIn wcs, List<CoverageTile> finished, CSWGeographicBoundingBox bbox,
+            double resolution, int maxTileSize) throws Exception {
+        WCSService tiledService = new WCSService(wcs, new WCSMethodMaker());
+        return tiledService.getTiledCoverage("http://example.org/wcs", "coverage_offering_1", "GeoTIFF", null,
+                new Resolution(resolution, resolution), null, "EPSG:4326", bbox, null, null, maxTileSize, folder.newFolder(),
+                (tile, count, total) -> finished.add(tile));
+    }
+
+    /**
+     * Tiles are pixel aligned and cover the full request
+     */
+    @Test
+    public void testPlanTiles() {
+        List<CoverageTile> tiles = WCSService.planTiles(new CSWGeographicBoundingBox(110, 120, -30, -20), 1000, 500, 300, 300);
+
+        Assert.assertEquals(8, tiles.size());
+        int area = 0;
+        for (CoverageTile tile : tiles) {
+            Assert.assertTrue(tile.getWidth() <= 300);
+            Assert.assertTrue(tile.getHeight() <= 300);
+            Assert.assertEquals(110 + tile.getPixelX() * 0.01, tile.getBbox().getWestBoundLongitude(), 1e-9);
+            Assert.assertEquals(-20 - tile.getPixelY() * 0.02, tile.getBbox().getNorthBoundLatitude(), 1e-9);
+            Assert.assertEquals(tile.getWidth() * 0.01,
+                    tile.getBbox().getEastBoundLongitude() - tile.getBbox().getWestBoundLongitude(), 1e-9);
+            area += tile.getWidth() * tile.getHeight();
+        }
+        Assert.assertEquals(1000 * 500, area);
+
+        CoverageTile last = tiles.get(tiles.size() - 1);
+        Assert.assertEquals(120.0, last.getBbox().getEastBoundLongitude(), 0);
+        Assert.assertEquals(-30.0, last.getBbox().getSouthBoundLatitude(), 0);
+    }
+
+    /**
+     * Tiles are downloaded concurrently (without exceeding the per host limit), tiles outside the coverage are skipped and the result
+     * mosaics back into the full raster
+     */
+    @Test
+    public void testTiledCoverageMosaic() throws Exception {
+        WCSStandIn wcs = new WCSStandIn();
+        wcs.flaky.add("360,0");
+        List<CoverageTile> finished = Collections.synchronizedList(new ArrayList<CoverageTile>());
+
+        TiledCoverage coverage = getTiledCoverage(wcs, finished);
+
+        //5 columns of 120 pixels, 3 rows of 100. The western column lies outside of the coverage
+        Assert.assertEquals(15, coverage.getTiles().size());
+        Assert.assertTrue(coverage.isComplete());
+        Assert.assertEquals(12, finished.size());
+        Assert.assertEquals(13, wcs.bboxes.size());
+        Assert.assertTrue(wcs.maxActive.get() <= WCSService.MAX_TILE_REQUESTS_PER_HOST);
+        for (CoverageTile tile : coverage.getTiles()) {
+            Assert.assertEquals(tile.getColumn() == 0 ? CoverageTile.Status.SKIPPED : CoverageTile.Status.COMPLETE, tile.getStatus());
+        }
+
+        File mosaicFile = folder.newFile("mosaic.tiff");
+        try (OutputStream os = new FileOutputStream(mosaicFile)) {
+            Assert.assertTrue(coverage.writeGeoTiffMosaic(os));
+        }
+
+        ImageReader reader = ImageIO.getImageReadersByFormatName("tiff").next();
+        try (ImageInputStream iis = ImageIO.createImageInputStream(mosaicFile)) {
+            reader.setInput(iis);
+            Raster raster = reader.read(0).getRaster();
+            Assert.assertEquals(600, raster.getWidth());
+            Assert.assertEquals(300, raster.getHeight());
+            for (int y = 0; y < 300; y += 7) {
+                for (int x = 0; x < 600; x += 7) {
+                    Assert.assertEquals(x < 120 ? 0 : WCSStandIn.expectedValue(x, y), raster.getSample(x, y, 0));
+                }
+            }
+
+            IIOMetadata metadata = reader.getImageMetadata(0);
+            TIFFField tiePoint = TIFFDirectory.createFromMetadata(metadata).getTIFFField(GeoTIFFTagSet.TAG_MODEL_TIE_POINT);
+            Assert.assertEquals(90.0, tiePoint.getAsDouble(3), 1e-9);
+            Assert.assertEquals(-10.0, tiePoint.getAsDouble(4), 1e-9);
+        } finally {
+            reader.dispose();
+        }
+
+        coverage.deleteFiles();
+        for (CoverageTile tile : coverage.getTiles()) {
+            Assert.assertTrue(tile.getFile() == null || !tile.getFile().exists());
+        }
+    }
+
+    /**
+     * Tiles that continually fail are reported without failing the rest of the coverage
+     */
+    @Test
+    public void testTiledCoveragePartialFailure() throws Exception {
+        WCSStandIn wcs = new WCSStandIn();
+        wcs.failing.add("240,100");
+        List<CoverageTile> finished = Collections.synchronizedList(new ArrayList<CoverageTile>());
+
+        TiledCoverage coverage = getTiledCoverage(wcs, finished);
+
+        Assert.assertFalse(coverage.isComplete());
+        Assert.assertEquals(1, coverage.getFailedTiles().size());
+        CoverageTile failed = coverage.getFailedTiles().get(0);
+        Assert.assertEquals(1, failed.getRow());
+        Assert.assertEquals(2, failed.getColumn());
+        Assert.assertEquals("Tile 240,100 unavailable", failed.getError());
+        Assert.assertEquals(Integer.valueOf(WCSService.TILE_ATTEMPTS), wcs.attempts.get("240,100"));
+        Assert.assertFalse(coverage.writeGeoTiffMosaic(new ByteArrayOutputStream()));
+
+        StringWriter vrt = new StringWriter();
+        coverage.writeVrt(vrt, "tiles/", "tiff");
+        Assert.assertTrue(vrt.toString().contains("rasterXSize=\"600\" rasterYSize=\"300\""));
+        Assert.assertTrue(vrt.toString().contains("dataType=\"UInt16\""));
+        Assert.assertTrue(vrt.toString().contains("tiles/tile_0_2.tiff"));
+        Assert.assertFalse(vrt.toString().contains("tiles/tile_1_2.tiff"));
+        Assert.assertFalse(vrt.toString().contains("tiles/tile_0_0.tiff"));
+
+        StringWriter summary = new StringWriter();
+        coverage.writeSummary(summary);
+        Assert.assertTrue(summary.toString().contains("1 failed"));
+        Assert.assertTrue(summary.toString().contains("status=FAILED error=Tile 240,100 unavailable"));
+    }
+
+    /**
+     * Tiles are never shrunk below MIN_TILE_SIZE and requests needing more than MAX_TILES tiles are rejected
+     */
+    @Test
+    public void testTileLimits() throws Exception {
+        try {
+            WCSService.planTiles(new CSWGeographicBoundingBox(110, 120, -30, -20), 100000, 100000, 100, 100);
+            Assert.fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertTrue(ex.getMessage().contains("1000000 tiles"));
+        }
+
+        //65x65 pixels requested as 1 pixel tiles
+        WCSStandIn wcs = new WCSStandIn();
+        List<CoverageTile> finished = Collections.synchronizedList(new ArrayList<CoverageTile>());
+        TiledCoverage coverage = getTiledCoverage(wcs, finished, new CSWGeographicBoundingBox(120, 126.5, -16.5, -10), 0.1, 1);
+        Assert.assertEquals(4, coverage.getTiles().size());
+        Assert.assertTrue(coverage.isComplete());
+
+        //600000x300000 pixels
+        WCSStandIn unused = new WCSStandIn();
+        try {
+            getTiledCoverage(unused, finished, new CSWGeographicBoundingBox(90, 150, -40, -10), 0.0001, 0);
+            Assert.fail("Expected a PortalServiceException");
+        } catch (PortalServiceException ex) {
+            Assert.assertTrue(ex.getMessage().contains("limit is " + WCSService.MAX_TILES));
+        }
+        Assert.assertTrue(unused.bboxes.isEmpty());
+    }
+
+    /**
+     * Tiles are planned in inputCrs so they can't be reprojected into a different outputCrs
+     */
+    @Test
+    public void testTiledCoverageOutputCrs() throws Exception {
+        WCSStandIn wcs = new WCSStandIn();
+        WCSService tiledService = new WCSService(wcs, new WCSMethodMaker());
+        tiledService.setMaxMosaicBytes(1024);
+        CSWGeographicBoundingBox bbox = new CSWGeographicBoundingBox(120, 126.5, -16.5, -10);
+        try {
+            tiledService.getTiledCoverage("http://example.org/wcs", "coverage_offering_1", "GeoTIFF", null, new Resolution(0.1, 0.1),
+                    "EPSG:3857", "EPSG:4326", bbox, null, null, 0, folder.newFolder(), null);
+            Assert.fail("Expected a PortalServiceException");
+        } catch (PortalServiceException ex) {
+            Assert.assertTrue(ex.getMessage().contains("EPSG:3857"));
+        }
+        Assert.assertTrue(wcs.bboxes.isEmpty());
+
+        TiledCoverage coverage = tiledService.getTiledCoverage("http://example.org/wcs", "coverage_offering_1", "GeoTIFF", null,
+                new Resolution(0.1, 0.1), "urn:ogc:def:crs:EPSG::4326", "EPSG:4326", bbox, null, null, 0, folder.newFolder(), null);
+        Assert.assertTrue(coverage.isComplete());
+        Assert.assertEquals("EPSG:4326", coverage.getCrs());
+        Assert.assertEquals(1024, coverage.getMaxMosaicBytes());
+    }
+
+    /**
+     * Exception reports returned in place of a tile fail that tile and coverages too large to mosaic in memory fall back to the VRT
+     */
+    @Test
+    public void testTiledCoverageExceptionReport() throws Exception {
+        WCSStandIn wcs = new WCSStandIn();
+        wcs.exceptionReports.add("240,100");
+        List<CoverageTile> finished = Collections.synchronizedList(new ArrayList<CoverageTile>());
+
+        TiledCoverage coverage = getTiledCoverage(wcs, finished);
+
+        Assert.assertEquals(1, coverage.getFailedTiles().size());
+        CoverageTile failed = coverage.getFailedTiles().get(0);
+        Assert.assertEquals("240,100", failed.getPixelX() + "," + failed.getPixelY());
+        Assert.assertTrue(failed.getError().contains("too large"));
+        Assert.assertNull(failed.getFile());
+        Assert.assertEquals(Integer.valueOf(WCSService.TILE_ATTEMPTS), wcs.attempts.get("240,100"));
+
+        wcs.exceptionReports.clear();
+        coverage = getTiledCoverage(wcs, finished);
+        Assert.assertTrue(coverage.isComplete());
+        coverage.setMaxMosaicBytes(600 * 300 * 2 - 1);
+        Assert.assertFalse(coverage.writeGeoTiffMosaic(new ByteArrayOutputStream()));
+        coverage.setMaxMosaicBytes(600 * 300 * 2);
+        Assert.assertTrue(coverage.writeGeoTiffMosaic(new ByteArrayOutputStream()));
+    }
 }
@@ -1,10 +1,15 @@
 package org.auscope.portal.core.services;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.auscope.portal.core.server.http.HttpClientInputStream;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.cache.TieredCache;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker.ResultType;
 import org.auscope.portal.core.services.namespaces.ErmlNamespaceContext;
@@ -37,6 +42,10 @@ public class TestWFSService extends PortalTestClass {
         service = new WFSService(mockServiceCaller, mockMethodMaker, mockGmlToHtml);
     }
 
+    private static HttpClientInputStream toResponseStream(String response) {
+        return new HttpClientInputStream(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
     /**
      * Tests the 'single feature' request transformation
      */
@@ -50,8 +59,8 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
-                will(returnValue(responseString));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(toResponseStream(responseString)));
 
                 oneOf(mockMethodMaker).makeGetMethod(serviceUrl, typeName, featureId, BaseWFSService.DEFAULT_SRS, null);
                 will(returnValue(mockMethod));
@@ -76,7 +85,7 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
                 will(throwException(exceptionThrown));
 
                 oneOf(mockMethodMaker).makeGetMethod(serviceUrl, typeName, featureId, BaseWFSService.DEFAULT_SRS, null);
@@ -107,8 +116,8 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
-                will(returnValue(responseString));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(toResponseStream(responseString)));
                 oneOf(mockMethodMaker).makeGetMethod(serviceUrl, typeName, featureId, BaseWFSService.DEFAULT_SRS, null);
                 will(returnValue(mockMethod));
             }
@@ -138,8 +147,8 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
-                will(returnValue(responseString));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(toResponseStream(responseString)));
 
                 oneOf(mockMethodMaker).makePostMethod(serviceUrl, typeName, filterString, maxFeatures, srsName,
                         ResultType.Results, null, null);
@@ -167,8 +176,9 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                allowing(mockServiceCaller).getMethodResponseAsString(mockMethod);
-                will(returnValue(responseString));
+                allowing(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(onConsecutiveCalls(returnValue(toResponseStream(responseString)),
+                        returnValue(toResponseStream(responseString))));
 
                 allowing(mockMethodMaker).makePostMethod(serviceUrl, typeName, filterString, maxFeatures,
                         BaseWFSService.DEFAULT_SRS, ResultType.Results, null, null);
@@ -196,7 +206,7 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
                 will(throwException(exceptionThrown));
 
                 oneOf(mockMethodMaker).makePostMethod(serviceUrl, typeName, filterString, maxFeatures, srsName,
@@ -230,8 +240,8 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
-                will(returnValue(responseString));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(toResponseStream(responseString)));
 
                 oneOf(mockMethodMaker).makePostMethod(serviceUrl, typeName, filterString, maxFeatures, srsName,
                         ResultType.Results, null, null);
@@ -263,8 +273,8 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
-                will(returnValue(responseString));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(toResponseStream(responseString)));
 
                 oneOf(mockMethodMaker).makeGetMethod(serviceUrl, typeName, featureId, BaseWFSService.DEFAULT_SRS, null);
                 will(returnValue(mockMethod));
@@ -294,7 +304,7 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
                 will(throwException(exceptionThrown));
 
                 oneOf(mockMethodMaker).makeGetMethod(serviceUrl, typeName, featureId, BaseWFSService.DEFAULT_SRS, null);
@@ -325,8 +335,8 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
-                will(returnValue(responseString));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(toResponseStream(responseString)));
                 oneOf(mockMethodMaker).makeGetMethod(serviceUrl, typeName, featureId, BaseWFSService.DEFAULT_SRS, null);
                 will(returnValue(mockMethod));
             }
@@ -354,8 +364,8 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(with(any(HttpGet.class)));
-                will(returnValue(responseString));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(with(any(HttpGet.class)));
+                will(returnValue(toResponseStream(responseString)));
 
                 oneOf(mockGmlToHtml).convert(with(any(String.class)), with(any(ErmlNamespaceContext.class)), with(any(String.class)));
                 will(returnValue(responseKml));
@@ -380,7 +390,7 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(with(any(HttpGet.class)));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(with(any(HttpGet.class)));
                 will(throwException(exceptionThrown));
             }
         });
@@ -406,8 +416,8 @@ public class TestWFSService extends PortalTestClass {
 
         context.checking(new Expectations() {
             {
-                oneOf(mockServiceCaller).getMethodResponseAsString(with(any(HttpGet.class)));
-                will(returnValue(responseString));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(with(any(HttpGet.class)));
+                will(returnValue(toResponseStream(responseString)));
             }
         });
 
@@ -419,4 +429,106 @@ public class TestWFSService extends PortalTestClass {
             Assert.assertNotNull(ex.getRootMethod());
         }
     }
+
+    /**
+     * Tests a filtered request is streamed as GeoJSON
+     */
+    @Test
+    public void testGetWfsResponseAsGeoJson() throws Exception {
+        final String responseString = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/wfs/commodityGetFeatureResponse.xml");
+        final String filterString = "<ogc:filter/>"; //we aren't testing the validity of this
+        final String serviceUrl = "http://service/wfs";
+        final int maxFeatures = 12321;
+        final String typeName = "type:Name";
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(toResponseStream(responseString)));
+
+                oneOf(mockMethodMaker).makePostMethod(serviceUrl, typeName, filterString, maxFeatures,
+                        BaseWFSService.DEFAULT_SRS, ResultType.Results, null, null);
+                will(returnValue(mockMethod));
+            }
+        });
+
+        Assert.assertEquals(2, service.getWfsResponseAsGeoJson(serviceUrl, typeName, filterString, maxFeatures, null,
+                null, outputStream));
+        String json = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(json.startsWith("{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\"id\":\"mo.commodity.361169.au\""));
+    }
+
+    /**
+     * Tests an OWS exception response is reported before any GeoJSON is written
+     */
+    @Test
+    public void testGetWfsResponseAsGeoJsonOWSException() throws Exception {
+        final String responseString = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/ows/OWSExceptionSample1.xml");
+        final String serviceUrl = "http://service/wfs";
+        final String featureId = "feature-Id-string";
+        final String typeName = "type:Name";
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(toResponseStream(responseString)));
+                oneOf(mockMethodMaker).makeGetMethod(serviceUrl, typeName, featureId, BaseWFSService.DEFAULT_SRS, null);
+                will(returnValue(mockMethod));
+            }
+        });
+
+        try {
+            service.getWfsResponseAsGeoJson(serviceUrl, typeName, featureId, 4, outputStream);
+            Assert.fail("Exception should have been thrown");
+        } catch (PortalServiceException ex) {
+            Assert.assertTrue(ex.getCause() instanceof OWSException);
+            Assert.assertEquals(0, outputStream.size());
+        }
+    }
+
+    /**
+     * Tests that with a response cache, repeated popup requests only make a single request and a single transformation
+     */
+    @Test
+    public void testGetWfsResponseAsHtmlCached() throws Exception {
+        final String responseString = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/wfs/commodityGetFeatureResponse.xml");
+        final String serviceUrl = "http://service/wfs?request=GetFeature&typeName=er:Commodity";
+        final String baseUrl = "https://portal.org/api";
+        final String responseHtml = "<html/>";
+
+        service.setResponseCache(new TieredCache());
+        context.checking(new Expectations() {
+            {
+                oneOf(mockServiceCaller).getMethodResponseAsStream(with(any(HttpRequestBase.class)));
+                will(returnValue(toResponseStream(responseString)));
+
+                oneOf(mockGmlToHtml).convert(with(equal(responseString)), with(any(ErmlNamespaceContext.class)), with(equal(baseUrl)));
+                will(returnValue(responseHtml));
+            }
+        });
+
+        WFSTransformedResponse first = service.getWfsResponseAsHtml(serviceUrl, baseUrl);
+        WFSTransformedResponse second = service.getWfsResponseAsHtml("http://SERVICE/wfs?typeName=er:Commodity&REQUEST=GetFeature",
+                baseUrl);
+        Assert.assertEquals(responseString, first.getGml());
+        Assert.assertEquals(responseHtml, first.getTransformed());
+        Assert.assertEquals(responseString, second.getGml());
+        Assert.assertEquals(responseHtml, second.getTransformed());
+
+        //Client supplied GML is cached by its content
+        final String gml = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\"/>";
+        context.checking(new Expectations() {
+            {
+                oneOf(mockGmlToHtml).convert(with(equal(gml)), with(any(ErmlNamespaceContext.class)), with(equal(baseUrl)));
+                will(returnValue(responseHtml));
+            }
+        });
+        Assert.assertEquals(responseHtml, service.transformToHtml(gml, null, baseUrl).getTransformed());
+        Assert.assertEquals(responseHtml, service.transformToHtml(gml, null, baseUrl).getTransformed());
+    }
 }
@@ -1,30 +1,54 @@
 package org.auscope.portal.core.services;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.ConnectException;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import javax.imageio.ImageIO;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathException;
 import javax.xml.xpath.XPathExpressionException;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+import org.auscope.portal.core.server.http.HttpClientInputStream;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.cache.CanonicalRequestKey;
+import org.auscope.portal.core.services.cache.TieredCache;
 import org.auscope.portal.core.services.methodmakers.WMSMethodMaker;
 import org.auscope.portal.core.services.methodmakers.WMSMethodMakerInterface;
+import org.auscope.portal.core.services.methodmakers.WMS_1_3_0_MethodMaker;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
 import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+import org.auscope.portal.core.services.responses.csw.CSWOnlineResourceImpl;
+import org.auscope.portal.core.services.responses.ows.OWSException;
 import org.auscope.portal.core.services.responses.wms.GetCapabilitiesRecord;
 import org.auscope.portal.core.services.responses.wms.GetCapabilitiesRecord_1_1_1;
+import org.auscope.portal.core.services.responses.wms.GetCapabilitiesRecord_1_3_0;
+import org.auscope.portal.core.services.responses.wms.GetCapabilitiesStreamParser;
 import org.auscope.portal.core.services.responses.wms.GetCapabilitiesWMSLayerRecord;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.util.ResourceUtil;
 import org.jmock.Expectations;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.xml.sax.SAXException;
 
 /**
@@ -40,6 +64,9 @@ public class TestWMSService extends PortalTestClass {
     private WMSMethodMaker mockMethodMaker;
     private HttpRequestBase mockMethod;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void setup() {
         List<WMSMethodMakerInterface> methodMaker = new ArrayList<>();
@@ -188,6 +215,9 @@ public class TestWMSService extends PortalTestClass {
 
                 oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
                 will(returnValue(response));
+
+                allowing(mockMethodMaker).getSupportedVersion();
+                will(returnValue("1.1.1"));
             }
         });
 
@@ -229,6 +259,9 @@ public class TestWMSService extends PortalTestClass {
 
                 oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
                 will(returnValue(response));
+
+                allowing(mockMethodMaker).getSupportedVersion();
+                will(returnValue("1.1.1"));
             }
         });
 
@@ -315,4 +348,484 @@ public class TestWMSService extends PortalTestClass {
                 northBoundLatitude, width, height, pointLng, pointLat, pointX, pointY, styles, null, false, null, "0",
                 false);
     }
+
+    /**
+     * Sets up mock method makers for WMS 1.1.1 and 1.3.0 that only accept their own version
+     */
+    private WMSService createVersionedService(final WMSMethodMaker maker111, final WMS_1_3_0_MethodMaker maker130) {
+        context.checking(new Expectations() {
+            {
+                allowing(maker111).getSupportedVersion();
+                will(returnValue("1.1.1"));
+                allowing(maker111).accepts(with(any(String.class)), with(equal("1.1.1")), with(any(StringBuilder.class)));
+                will(returnValue(true));
+                allowing(maker111).accepts(with(any(String.class)), with(any(String.class)), with(any(StringBuilder.class)));
+                will(returnValue(false));
+
+                allowing(maker130).getSupportedVersion();
+                will(returnValue("1.3.0"));
+                allowing(maker130).accepts(with(any(String.class)), with(equal("1.3.0")), with(any(StringBuilder.class)));
+                will(returnValue(true));
+                allowing(maker130).accepts(with(any(String.class)), with(any(String.class)), with(any(StringBuilder.class)));
+                will(returnValue(false));
+            }
+        });
+
+        List<WMSMethodMakerInterface> methodMakers = new ArrayList<>();
+        methodMakers.add(maker111);
+        methodMakers.add(maker130);
+        return new WMSService(mockServiceCaller, methodMakers);
+    }
+
+    private static String getFeatureInfo(WMSService service, String wmsUrl, int pointX, String version,
+            boolean attemptOtherVersion) throws PortalServiceException {
+        return service.getFeatureInfo(wmsUrl, "text/xml", "layer", "EPSG:3857", 1, 2, 3, 4, 5, 6, 7, 8, pointX, 10,
+                "", null, false, version, "0", attemptOtherVersion);
+    }
+
+    /**
+     * Tests the version that works is learned so that subsequent requests don't repeat a failing request first
+     */
+    @Test
+    public void testGetFeatureInfoVersionLearning() throws Exception {
+        final String wmsUrl = "http://example.org/wms";
+        final WMSMethodMaker maker111 = context.mock(WMSMethodMaker.class, "maker111");
+        final WMS_1_3_0_MethodMaker maker130 = context.mock(WMS_1_3_0_MethodMaker.class, "maker130");
+        final HttpRequestBase method111 = context.mock(HttpRequestBase.class, "method111");
+        final HttpRequestBase method130 = context.mock(HttpRequestBase.class, "method130");
+        final String owsError = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/ows/OWSExceptionSample1.xml");
+        final String response = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/wfs/EmptyWFSResponse.xml");
+        WMSService versionedService = createVersionedService(maker111, maker130);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(maker130).getFeatureInfo(with(equal(wmsUrl)), with(any(String.class)), with(any(String.class)),
+                        with(any(String.class)), with(any(Double.class)), with(any(Double.class)), with(any(Double.class)),
+                        with(any(Double.class)), with(any(Integer.class)), with(any(Integer.class)), with(any(Double.class)),
+                        with(any(Double.class)), with(any(Integer.class)), with(any(Integer.class)), with(any(String.class)),
+                        with(aNull(String.class)), with(any(String.class)), with(aNull(List.class)));
+                will(returnValue(method130));
+                oneOf(mockServiceCaller).getMethodResponseAsString(method130);
+                will(returnValue(owsError));
+
+                exactly(2).of(maker111).getFeatureInfo(with(equal(wmsUrl)), with(any(String.class)), with(any(String.class)),
+                        with(any(String.class)), with(any(Double.class)), with(any(Double.class)), with(any(Double.class)),
+                        with(any(Double.class)), with(any(Integer.class)), with(any(Integer.class)), with(any(Double.class)),
+                        with(any(Double.class)), with(any(Integer.class)), with(any(Integer.class)), with(any(String.class)),
+                        with(aNull(String.class)), with(any(String.class)), with(aNull(List.class)));
+                will(returnValue(method111));
+                exactly(2).of(mockServiceCaller).getMethodResponseAsString(method111);
+                will(returnValue(response));
+            }
+        });
+
+        Assert.assertNull(versionedService.getNegotiatedVersion(wmsUrl));
+        Assert.assertEquals(response, getFeatureInfo(versionedService, wmsUrl, 9, "1.3.0", true));
+        Assert.assertEquals("1.1.1", versionedService.getNegotiatedVersion(wmsUrl));
+
+        //The second request should go straight to 1.1.1
+        Assert.assertEquals(response, getFeatureInfo(versionedService, wmsUrl, 9, "1.3.0", true));
+    }
+
+    /**
+     * Tests the version is learned from a GetCapabilities response
+     */
+    @Test
+    public void testVersionLearnedFromCapabilities() throws Exception {
+        final String serviceUrl = "http://service/wms";
+        try (final InputStream is = ResourceUtil.loadResourceAsStream(
+                "org/auscope/portal/core/test/responses/wms/GetCapabilitiesControllerWMSResponse_1_1_1.xml")) {
+            final GetCapabilitiesRecord record = new GetCapabilitiesRecord_1_1_1(is);
+            context.checking(new Expectations() {
+                {
+                    oneOf(mockMethodMaker).accepts(with(any(String.class)), with(aNull(String.class)), with(any(StringBuilder.class)));
+                    will(returnValue(true));
+                    oneOf(mockMethodMaker).getCapabilitiesMethod(serviceUrl);
+                    will(returnValue(mockMethod));
+                    oneOf(mockMethodMaker).getGetCapabilitiesRecord(mockMethod);
+                    will(returnValue(record));
+                    oneOf(mockMethod).releaseConnection();
+                }
+            });
+
+            service.getWmsCapabilities(serviceUrl, null);
+            Assert.assertEquals("1.1.1", service.getNegotiatedVersion(serviceUrl));
+        }
+    }
+
+    /**
+     * Tests GetCapabilities responses are parsed by the streaming parser when one is set
+     */
+    @Test
+    public void testParsingWithStreamParser() throws Exception {
+        final String serviceUrl = "http://service/wms";
+        final byte[] xml = IOUtils.toByteArray(ResourceUtil.loadResourceAsStream(
+                "org/auscope/portal/core/test/responses/wms/GetCapabilitiesControllerWMSResponse_1_3_0.xml"));
+        service.setCapabilitiesParser(new GetCapabilitiesStreamParser());
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).accepts(with(any(String.class)), with(aNull(String.class)), with(any(StringBuilder.class)));
+                will(returnValue(true));
+                oneOf(mockMethodMaker).getCapabilitiesMethod(serviceUrl);
+                will(returnValue(mockMethod));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(new HttpClientInputStream(new ByteArrayInputStream(xml), null)));
+                oneOf(mockMethod).releaseConnection();
+            }
+        });
+
+        GetCapabilitiesRecord record = service.getWmsCapabilities(serviceUrl, null);
+        Assert.assertEquals("1.3.0", record.getVersion());
+        Assert.assertEquals("http://localhost:8080/geoserver/ows?SERVICE=WMS", record.getMapUrl());
+        Assert.assertEquals(new GetCapabilitiesRecord_1_3_0(new ByteArrayInputStream(xml)).getLayers().size(),
+                record.getLayers().size());
+        Assert.assertEquals("1.3.0", service.getNegotiatedVersion(serviceUrl));
+    }
+
+    /**
+     * Tests exception reports are reported as errors (rather than parse failures) when the streaming parser is set
+     */
+    @Test
+    public void testStreamParserServiceException() throws Exception {
+        final String serviceUrl = "http://service/wms";
+        final byte[] xml = "<ServiceExceptionReport version=\"1.3.0\"><ServiceException>Bad layer</ServiceException></ServiceExceptionReport>"
+                .getBytes(StandardCharsets.UTF_8);
+        service.setCapabilitiesParser(new GetCapabilitiesStreamParser());
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).accepts(with(any(String.class)), with(aNull(String.class)), with(any(StringBuilder.class)));
+                will(returnValue(true));
+                oneOf(mockMethodMaker).getCapabilitiesMethod(serviceUrl);
+                will(returnValue(mockMethod));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(new HttpClientInputStream(new ByteArrayInputStream(xml), null)));
+                oneOf(mockMethod).releaseConnection();
+            }
+        });
+
+        try {
+            service.getWmsCapabilities(serviceUrl, null);
+            Assert.fail("Expected a PortalServiceException");
+        } catch (PortalServiceException ex) {
+            Assert.assertTrue(ex.getCause() instanceof OWSException);
+            Assert.assertNull(service.getNegotiatedVersion(serviceUrl));
+        }
+    }
+
+    /**
+     * Tests that when every version fails each version is only tried once and the first error is reported
+     */
+    @Test
+    public void testGetFeatureInfoAllVersionsFail() throws Exception {
+        final String wmsUrl = "http://example.org/wms";
+        final WMSMethodMaker maker111 = context.mock(WMSMethodMaker.class, "maker111");
+        final WMS_1_3_0_MethodMaker maker130 = context.mock(WMS_1_3_0_MethodMaker.class, "maker130");
+        final HttpRequestBase method111 = context.mock(HttpRequestBase.class, "method111");
+        final HttpRequestBase method130 = context.mock(HttpRequestBase.class, "method130");
+        final ConnectException firstError = new ConnectException("1.3.0 down");
+        WMSService versionedService = createVersionedService(maker111, maker130);
+        versionedService.setFeatureInfoCache(new TieredCache());
+
+        context.checking(new Expectations() {
+            {
+                exactly(2).of(maker130).getFeatureInfo(with(equal(wmsUrl)), with(any(String.class)), with(any(String.class)),
+                        with(any(String.class)), with(any(Double.class)), with(any(Double.class)), with(any(Double.class)),
+                        with(any(Double.class)), with(any(Integer.class)), with(any(Integer.class)), with(any(Double.class)),
+                        with(any(Double.class)), with(any(Integer.class)), with(any(Integer.class)), with(any(String.class)),
+                        with(aNull(String.class)), with(any(String.class)), with(aNull(List.class)));
+                will(returnValue(method130));
+                exactly(2).of(mockServiceCaller).getMethodResponseAsString(method130);
+                will(throwException(firstError));
+
+                exactly(2).of(maker111).getFeatureInfo(with(equal(wmsUrl)), with(any(String.class)), with(any(String.class)),
+                        with(any(String.class)), with(any(Double.class)), with(any(Double.class)), with(any(Double.class)),
+                        with(any(Double.class)), with(any(Integer.class)), with(any(Integer.class)), with(any(Double.class)),
+                        with(any(Double.class)), with(any(Integer.class)), with(any(Integer.class)), with(any(String.class)),
+                        with(aNull(String.class)), with(any(String.class)), with(aNull(List.class)));
+                will(returnValue(method111));
+                exactly(2).of(mockServiceCaller).getMethodResponseAsString(method111);
+                will(throwException(new ConnectException("1.1.1 down")));
+            }
+        });
+
+        //Errors are never cached so both attempts should go to the service
+        for (int i = 0; i < 2; i++) {
+            try {
+                getFeatureInfo(versionedService, wmsUrl, 9, "1.3.0", true);
+                Assert.fail("Expected a PortalServiceException");
+            } catch (PortalServiceException ex) {
+                Assert.assertSame(firstError, ex.getCause());
+                Assert.assertSame(method130, ex.getRootMethod());
+            }
+        }
+        Assert.assertNull(versionedService.getNegotiatedVersion(wmsUrl));
+    }
+
+    /**
+     * Tests GetFeatureInfo responses are cached by the clicked pixel
+     */
+    @Test
+    public void testGetFeatureInfoCached() throws Exception {
+        final String wmsUrl = "http://example.org/wms";
+        final String response = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/wfs/EmptyWFSResponse.xml");
+        service.setFeatureInfoCache(new TieredCache());
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockMethodMaker).accepts(with(any(String.class)), with(equal("1.1.1")), with(any(StringBuilder.class)));
+                will(returnValue(true));
+                exactly(2).of(mockMethodMaker).getFeatureInfo(with(equal(wmsUrl)), with(any(String.class)), with(any(String.class)),
+                        with(any(String.class)), with(any(Double.class)), with(any(Double.class)), with(any(Double.class)),
+                        with(any(Double.class)), with(any(Integer.class)), with(any(Integer.class)), with(any(Double.class)),
+                        with(any(Double.class)), with(any(Integer.class)), with(any(Integer.class)), with(any(String.class)),
+                        with(aNull(String.class)), with(any(String.class)), with(aNull(List.class)));
+                will(returnValue(mockMethod));
+                exactly(2).of(mockServiceCaller).getMethodResponseAsString(mockMethod);
+                will(returnValue(response));
+            }
+        });
+
+        Assert.assertEquals(response, getFeatureInfo(service, wmsUrl, 9, "1.1.1", false));
+        Assert.assertEquals(response, getFeatureInfo(service, wmsUrl, 9, "1.1.1", false));
+        Assert.assertEquals(response, getFeatureInfo(service, wmsUrl, 10, "1.1.1", false));
+    }
+
+    /**
+     * Tests the GetFeatureInfo cache key only depends on the parameters that affect the response
+     */
+    @Test
+    public void testGetFeatureInfoKey() {
+        CanonicalRequestKey key = WMSService.getFeatureInfoKey("http://example.org/wms", "text/html", "layer",
+                "EPSG:3857", 100.0, 200.0, 356.0, 456.0, 256, 256, 10, 20, "", "<sld/>", "0", null);
+
+        //Floating point noise in the bbox is ignored
+        Assert.assertEquals(key, WMSService.getFeatureInfoKey("http://example.org/wms", "TEXT/HTML", "layer",
+                "EPSG:3857", 100.0000001, 199.9999999, 356.0000001, 456.0, 256, 256, 10, 20, "", "<sld/>", "0", null));
+        Assert.assertEquals("example.org", key.getHost());
+
+        Assert.assertNotEquals(key, WMSService.getFeatureInfoKey("http://example.org/wms", "text/html", "layer",
+                "EPSG:3857", 101.0, 200.0, 357.0, 456.0, 256, 256, 10, 20, "", "<sld/>", "0", null));
+        Assert.assertNotEquals(key, WMSService.getFeatureInfoKey("http://example.org/wms", "text/html", "layer",
+                "EPSG:3857", 100.0, 200.0, 356.0, 456.0, 256, 256, 11, 20, "", "<sld/>", "0", null));
+        Assert.assertNotEquals(key, WMSService.getFeatureInfoKey("http://example.org/wms", "text/html", "layer",
+                "EPSG:3857", 100.0, 200.0, 356.0, 456.0, 256, 256, 10, 21, "", "<sld/>", "0", null));
+        Assert.assertNotEquals(key, WMSService.getFeatureInfoKey("http://example.org/wms", "application/json", "layer",
+                "EPSG:3857", 100.0, 200.0, 356.0, 456.0, 256, 256, 10, 20, "", "<sld/>", "0", null));
+        Assert.assertNotEquals(key, WMSService.getFeatureInfoKey("http://example.org/wms", "text/html", "layer2",
+                "EPSG:3857", 100.0, 200.0, 356.0, 456.0, 256, 256, 10, 20, "", "<sld/>", "0", null));
+        Assert.assertNotEquals(key, WMSService.getFeatureInfoKey("http://example.org/wms", "text/html", "layer",
+                "EPSG:3857", 100.0, 200.0, 356.0, 456.0, 256, 256, 10, 20, "", "<sld2/>", "0", null));
+        Assert.assertNotEquals(key, WMSService.getFeatureInfoKey("http://example.org/wms2", "text/html", "layer",
+                "EPSG:3857", 100.0, 200.0, 356.0, 456.0, 256, 256, 10, 20, "", "<sld/>", "0", null));
+        Assert.assertNotEquals(key, WMSService.getFeatureInfoKey("http://example.org/wms", "text/html", "layer",
+                "EPSG:3857", 100.0, 200.0, 356.0, 456.0, 256, 256, 10, 20, "", "<sld/>", "0",
+                Arrays.asList((NameValuePair) new BasicNameValuePair("env", "x"))));
+    }
+
+    /**
+     * Tests remote SLDs are only fetched once
+     */
+    @Test
+    public void testGetStyleCached() throws Exception {
+        final String sldUrl = "http://example.org/style.sld";
+        final String sld = "<StyledLayerDescriptor/>";
+        context.checking(new Expectations() {
+            {
+                allowing(mockMethodMaker).accepts(with(any(String.class)), with(equal("1.1.1")), with(any(StringBuilder.class)));
+                will(returnValue(true));
+                oneOf(mockMethodMaker).getStyle(sldUrl);
+                will(returnValue(sld));
+                oneOf(mockMethodMaker).getStyle(sldUrl + "?v=2");
+                will(returnValue(sld));
+            }
+        });
+
+        Assert.assertEquals(sld, service.getStyle("http://example.org/wms", sldUrl, "1.1.1"));
+        Assert.assertEquals(sld, service.getStyle("http://example.org/wms", sldUrl, "1.1.1"));
+        Assert.assertEquals(sld, service.getStyle("http://example.org/wms", sldUrl + "?v=2", "1.1.1"));
+    }
+
+    /**
+     * A stand in for a WMS that renders a blank PNG of the requested size for every GetMap request
+     */
+    private static class GetMapRenderer extends HttpServiceCaller {
+        private List<List<NameValuePair>> requests = Collections.synchronizedList(new ArrayList<List<NameValuePair>>());
+
+        public GetMapRenderer() {
+            super(1000);
+        }
+
+        @Override
+        public HttpClientInputStream getMethodResponseAsStream(HttpRequestBase method) throws IOException {
+            List<NameValuePair> params = URLEncodedUtils.parse(((HttpPost) method).getEntity());
+            requests.add(params);
+
+            BufferedImage image = new BufferedImage(Integer.parseInt(getParam(params, "WIDTH")),
+                    Integer.parseInt(getParam(params, "HEIGHT")), BufferedImage.TYPE_INT_ARGB);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", bos);
+            return new HttpClientInputStream(new ByteArrayInputStream(bos.toByteArray()), null);
+        }
+
+        /**
+         * Renders GetLegendGraphic requests (or a service exception for the layer 'missing')
+         */
+        @Override
+        public byte[] getMethodResponseAsBytes(HttpRequestBase method) throws IOException {
+            List<NameValuePair> params = URLEncodedUtils.parse(method.getURI(), StandardCharsets.UTF_8);
+            requests.add(params);
+
+            if ("missing".equals(getParam(params, "layer"))) {
+                return "<ServiceExceptionReport><ServiceException>Layer not found</ServiceException></ServiceExceptionReport>"
+                        .getBytes(StandardCharsets.UTF_8);
+            }
+
+            BufferedImage image = new BufferedImage(20, getParam(params, "sld_body") == null ? 20 : 40, BufferedImage.TYPE_INT_ARGB);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", bos);
+            return bos.toByteArray();
+        }
+
+        private static String getParam(List<NameValuePair> params, String name) {
+            for (NameValuePair param : params) {
+                if (param.getName().equals(name)) {
+                    return param.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Tests GetMap tiles are served from the tile cache (and that non tile requests go straight to the service)
+     */
+    @Test
+    public void testGetMapTileCache() throws Exception {
+        GetMapRenderer wms = new GetMapRenderer();
+        List<WMSMethodMakerInterface> methodMakers = new ArrayList<>();
+        methodMakers.add(new WMS_1_3_0_MethodMaker(wms));
+        WMSService cachedService = new WMSService(wms, methodMakers);
+        cachedService.setTileCache(new WMSTileCache(folder.getRoot(), WMSTileCache.DEFAULT_MAX_DISK_BYTES, 4));
+
+        try (InputStream is = cachedService.getMap("http://example.org/wms", "layer", "-45,90,0,135", null, "1.3.0",
+                "EPSG:4326", false, null)) {
+            Assert.assertEquals(256, ImageIO.read(is).getWidth());
+        }
+        Assert.assertEquals(1, wms.requests.size());
+        Assert.assertEquals("1024", GetMapRenderer.getParam(wms.requests.get(0), "WIDTH"));
+        Assert.assertEquals("1024", GetMapRenderer.getParam(wms.requests.get(0), "HEIGHT"));
+        Assert.assertEquals("-90.0,0.0,90.0,180.0", GetMapRenderer.getParam(wms.requests.get(0), "BBOX"));
+        Assert.assertEquals("XML", GetMapRenderer.getParam(wms.requests.get(0), "EXCEPTIONS"));
+
+        try (InputStream is = cachedService.getMap("http://example.org/wms", "layer", "-45,135,0,180", null, "1.3.0",
+                "EPSG:4326", false, null)) {
+            Assert.assertEquals(256, ImageIO.read(is).getHeight());
+        }
+        Assert.assertEquals(1, wms.requests.size());
+
+        cachedService.getMap("http://example.org/wms", "layer", "1,2,3,4", null, "1.3.0", "EPSG:4326", false, null)
+                .close();
+        Assert.assertEquals(2, wms.requests.size());
+        Assert.assertEquals("256", GetMapRenderer.getParam(wms.requests.get(1), "WIDTH"));
+        Assert.assertNull(GetMapRenderer.getParam(wms.requests.get(1), "EXCEPTIONS"));
+    }
+
+    /**
+     * Tests legends are only requested once per layer, style and SLD
+     */
+    @Test
+    public void testGetLegendGraphicCached() throws Exception {
+        GetMapRenderer wms = new GetMapRenderer();
+        List<WMSMethodMakerInterface> methodMakers = new ArrayList<>();
+        methodMakers.add(new WMS_1_3_0_MethodMaker(wms));
+        WMSService cachedService = new WMSService(wms, methodMakers);
+        final String wmsUrl = "http://example.org/wms";
+        final String sld = "<StyledLayerDescriptor/>";
+
+        byte[] legend = cachedService.getLegendGraphic(wmsUrl, "layer", null, null, "1.3.0", -1, -1);
+        Assert.assertEquals(20, ImageIO.read(new ByteArrayInputStream(legend)).getHeight());
+        Assert.assertArrayEquals(legend, cachedService.getLegendGraphic(wmsUrl, "layer", "", null, null, -1, -1));
+        Assert.assertEquals(1, wms.requests.size());
+        Assert.assertEquals("GetLegendGraphic", GetMapRenderer.getParam(wms.requests.get(0), "request"));
+        Assert.assertEquals("1.3.0", cachedService.getNegotiatedVersion(wmsUrl));
+
+        byte[] sldLegend = cachedService.getLegendGraphic(wmsUrl, "layer", null, sld, null, -1, -1);
+        Assert.assertEquals(40, ImageIO.read(new ByteArrayInputStream(sldLegend)).getHeight());
+        Assert.assertEquals(sld, GetMapRenderer.getParam(wms.requests.get(1), "sld_body"));
+        cachedService.getLegendGraphic(wmsUrl, "layer", null, sld, null, -1, -1);
+        cachedService.getLegendGraphic(wmsUrl, "layer", "other", null, null, -1, -1);
+        Assert.assertEquals(3, wms.requests.size());
+        Assert.assertEquals("other", GetMapRenderer.getParam(wms.requests.get(2), "styles"));
+    }
+
+    /**
+     * Tests responses that aren't images are reported as errors and aren't cached
+     */
+    @Test
+    public void testGetLegendGraphicError() throws Exception {
+        GetMapRenderer wms = new GetMapRenderer();
+        List<WMSMethodMakerInterface> methodMakers = new ArrayList<>();
+        methodMakers.add(new WMS_1_3_0_MethodMaker(wms));
+        WMSService cachedService = new WMSService(wms, methodMakers);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cachedService.getLegendGraphic("http://example.org/wms", "missing", null, null, "1.3.0", -1, -1);
+                Assert.fail("Expected a PortalServiceException");
+            } catch (PortalServiceException ex) {
+                Assert.assertTrue(ex.getMessage().contains("not an image"));
+            }
+        }
+        Assert.assertEquals(2, wms.requests.size());
+    }
+
+    /**
+     * Tests the legend of every distinct WMS layer is prefetched
+     */
+    @Test
+    public void testPrefetchLegendGraphics() throws Exception {
+        GetMapRenderer wms = new GetMapRenderer();
+        List<WMSMethodMakerInterface> methodMakers = new ArrayList<>();
+        methodMakers.add(new WMS_1_3_0_MethodMaker(wms));
+        WMSService cachedService = new WMSService(wms, methodMakers);
+        cachedService.setNegotiatedVersion("http://example.org/wms", "1.3.0");
+        cachedService.setNegotiatedVersion("http://example.org/other", "1.3.0");
+
+        URL wmsUrl = new URL("http://example.org/wms");
+        List<AbstractCSWOnlineResource> resources = Arrays.asList(
+                new CSWOnlineResourceImpl(wmsUrl, "OGC:WMS-1.1.1-http-get-map", "layer1", ""),
+                new CSWOnlineResourceImpl(wmsUrl, "OGC:WMS-1.1.1-http-get-map", "layer2", ""),
+                new CSWOnlineResourceImpl(wmsUrl, "OGC:WMS-1.1.1-http-get-map", "layer1", ""),
+                new CSWOnlineResourceImpl(new URL("http://example.org/other"), "OGC:WMS-1.1.1-http-get-map", "missing", ""),
+                new CSWOnlineResourceImpl(wmsUrl, "OGC:WFS-1.0.0-http-get-feature", "layer3", ""));
+
+        Assert.assertEquals(2, cachedService.prefetchLegendGraphics(resources));
+        Assert.assertEquals(3, wms.requests.size());
+
+        cachedService.getLegendGraphic("http://example.org/wms", "layer2", null, null, null, -1, -1);
+        Assert.assertEquals(3, wms.requests.size());
+    }
+
+    /**
+     * Tests only the most recently used endpoints have their negotiated version remembered
+     */
+    @Test
+    public void testNegotiatedVersionsBounded() {
+        WMSService service = new WMSService(mockServiceCaller, new ArrayList<WMSMethodMakerInterface>());
+        service.setNegotiatedVersion("http://example.org/wms0", "1.3.0");
+        service.setNegotiatedVersion("http://example.org/wms1", "1.1.1");
+        for (int i = 2; i <= WMSService.MAX_NEGOTIATED_VERSIONS; i++) {
+            service.setNegotiatedVersion("http://example.org/wms" + i, "1.3.0");
+            Assert.assertEquals("1.3.0", service.getNegotiatedVersion("http://example.org/wms0"));
+        }
+
+        Assert.assertEquals("1.3.0", service.getNegotiatedVersion("http://example.org/wms0"));
+        Assert.assertNull(service.getNegotiatedVersion("http://example.org/wms1"));
+        Assert.assertEquals("1.3.0", service.getNegotiatedVersion("http://example.org/wms" + WMSService.MAX_NEGOTIATED_VERSIONS));
+    }
 }
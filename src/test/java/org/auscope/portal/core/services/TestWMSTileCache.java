@@ -0,0 +1,363 @@
+package org.auscope.portal.core.services;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.auscope.portal.core.services.WMSTileCache.MetatileLoader;
+import org.auscope.portal.core.services.WMSTileCache.TileCoordinate;
+import org.auscope.portal.core.services.WMSTileCache.TileGrid;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for WMSTileCache
+ */
+public class TestWMSTileCache extends PortalTestClass {
+
+    private static final double MERCATOR_MAX = 20037508.342789244;
+    private static final String URL = "http://example.org/wms";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A stand in for a WMS that renders every 256x256 block of the requested image in a colour identifying its position in the image.
+     * Counts the number of requests made.
+     */
+    private static class TileRenderer implements MetatileLoader {
+        private AtomicInteger hits = new AtomicInteger();
+        private List<String> bboxes = new ArrayList<>();
+        private boolean blank;
+        private long delayMs;
+
+        @Override
+        public InputStream getMap(String bbox, int width, int height) throws IOException {
+            hits.incrementAndGet();
+            synchronized (bboxes) {
+                bboxes.add(bbox);
+            }
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+            }
+
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            if (!blank) {
+                Graphics2D g = image.createGraphics();
+                for (int column = 0; column < width / WMSTileCache.TILE_SIZE; column++) {
+                    for (int row = 0; row < height / WMSTileCache.TILE_SIZE; row++) {
+                        g.setColor(new Color(column * 10, row * 10, 100));
+                        g.fillRect(column * WMSTileCache.TILE_SIZE, row * WMSTileCache.TILE_SIZE,
+                                WMSTileCache.TILE_SIZE, WMSTileCache.TILE_SIZE);
+                    }
+                }
+                g.dispose();
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", bos);
+            return new ByteArrayInputStream(bos.toByteArray());
+        }
+    }
+
+    private static String mercatorBbox(int z, int x, int y) {
+        double span = 2 * MERCATOR_MAX / (1 << z);
+        return (-MERCATOR_MAX + x * span) + "," + (MERCATOR_MAX - (y + 1) * span) + "," + (-MERCATOR_MAX + (x + 1) * span)
+                + "," + (MERCATOR_MAX - y * span);
+    }
+
+    private static Color getColor(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        Assert.assertEquals(WMSTileCache.TILE_SIZE, image.getWidth());
+        Assert.assertEquals(WMSTileCache.TILE_SIZE, image.getHeight());
+        return new Color(image.getRGB(128, 128), true);
+    }
+
+    /**
+     * Tests bounding boxes are matched to tiles in each grid (and rejected when they don't line up)
+     */
+    @Test
+    public void testSnap() {
+        TileCoordinate tile = WMSTileCache.snap(mercatorBbox(0, 0, 0), "EPSG:3857", "1.1.1");
+        Assert.assertEquals(TileGrid.WEB_MERCATOR, tile.grid);
+        Assert.assertEquals("0/0/0", tile.toString());
+
+        tile = WMSTileCache.snap(mercatorBbox(7, 100, 77), "EPSG:900913", "1.3.0");
+        Assert.assertEquals("7/100/77", tile.toString());
+        Assert.assertFalse(tile.swapAxes);
+
+        tile = WMSTileCache.snap("90,-45,135,0", "EPSG:4326", "1.1.1");
+        Assert.assertEquals(TileGrid.WGS84, tile.grid);
+        Assert.assertEquals("2/6/2", tile.toString());
+
+        tile = WMSTileCache.snap("-45,90,0,135", "EPSG:4326", "1.3.0");
+        Assert.assertEquals("2/6/2", tile.toString());
+        Assert.assertTrue(tile.swapAxes);
+
+        tile = WMSTileCache.snap("90,-45,135,0", "CRS:84", "1.3.0");
+        Assert.assertEquals("2/6/2", tile.toString());
+
+        Assert.assertNull(WMSTileCache.snap("90,-45,135.5,0", "EPSG:4326", "1.1.1"));
+        Assert.assertNull(WMSTileCache.snap("91,-45,136,0", "EPSG:4326", "1.1.1"));
+        Assert.assertNull(WMSTileCache.snap("90,-45,135,0", "EPSG:4283", "1.1.1"));
+        Assert.assertNull(WMSTileCache.snap("180,-45,225,0", "EPSG:4326", "1.1.1"));
+        Assert.assertNull(WMSTileCache.snap("a,b,c,d", "EPSG:4326", "1.1.1"));
+        Assert.assertNull(WMSTileCache.snap("90,-45,135", "EPSG:4326", "1.1.1"));
+    }
+
+    /**
+     * Tests a miss requests the surrounding metatile which is sliced so that its neighbours are served without another request
+     */
+    @Test
+    public void testMetatileSlicing() throws IOException {
+        TileRenderer wms = new TileRenderer();
+        WMSTileCache cache = new WMSTileCache(folder.getRoot(), WMSTileCache.DEFAULT_MAX_DISK_BYTES, 4);
+
+        byte[] tile = cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(3, 5, 2), wms);
+        Assert.assertEquals(1, wms.hits.get());
+        Assert.assertEquals(new Color(10, 20, 100), getColor(tile));
+
+        double[] expected = {0, 0, MERCATOR_MAX, MERCATOR_MAX};
+        String[] bbox = wms.bboxes.get(0).split(",");
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(expected[i], Double.parseDouble(bbox[i]), 1e-6);
+        }
+
+        for (int x = 4; x < 8; x++) {
+            for (int y = 0; y < 4; y++) {
+                tile = cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(3, x, y), wms);
+                Assert.assertEquals(new Color((x - 4) * 10, y * 10, 100), getColor(tile));
+            }
+        }
+        Assert.assertEquals(1, wms.hits.get());
+        Assert.assertEquals(16, cache.getTileCount());
+
+        cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(3, 0, 4), wms);
+        Assert.assertEquals(2, wms.hits.get());
+
+        //Metatiles are clamped to the grid
+        tile = cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(0, 0, 0), wms);
+        Assert.assertEquals(3, wms.hits.get());
+        Assert.assertEquals(mercatorBbox(0, 0, 0), wms.bboxes.get(2));
+        Assert.assertNotNull(tile);
+    }
+
+    /**
+     * Tests that WMS 1.3.0 EPSG:4326 metatiles are requested in lat/lon order
+     */
+    @Test
+    public void testMetatileAxisOrder() throws IOException {
+        TileRenderer wms = new TileRenderer();
+        WMSTileCache cache = new WMSTileCache(folder.getRoot(), WMSTileCache.DEFAULT_MAX_DISK_BYTES, 2);
+
+        byte[] tile = cache.getTile(URL, "layer", null, null, null, "EPSG:4326", "1.3.0", "-45,135,0,180", wms);
+        Assert.assertEquals("-90.0,90.0,0.0,180.0", wms.bboxes.get(0));
+        Assert.assertEquals(new Color(10, 0, 100), getColor(tile));
+
+        cache.getTile(URL, "layer", null, null, null, "EPSG:4326", "1.1.1", "90,-45,135,0", wms);
+        Assert.assertEquals(1, wms.hits.get());
+    }
+
+    /**
+     * Tests that anything affecting the rendered image is part of the tile key
+     */
+    @Test
+    public void testKeys() throws IOException {
+        TileRenderer wms = new TileRenderer();
+        WMSTileCache cache = new WMSTileCache(folder.getRoot(), WMSTileCache.DEFAULT_MAX_DISK_BYTES, 1);
+        final String bbox = mercatorBbox(2, 1, 1);
+
+        cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", bbox, wms);
+        cache.getTile(URL, "layer", null, "", null, "EPSG:3857", "1.3.0", bbox, wms);
+        Assert.assertEquals(1, wms.hits.get());
+
+        cache.getTile(URL, "layer2", null, null, null, "EPSG:3857", "1.1.1", bbox, wms);
+        cache.getTile(URL, "layer", "style", null, null, "EPSG:3857", "1.1.1", bbox, wms);
+        cache.getTile(URL, "layer", null, "<StyledLayerDescriptor/>", null, "EPSG:3857", "1.1.1", bbox, wms);
+        cache.getTile(URL, "layer", null, null, "2020-01-01", "EPSG:3857", "1.1.1", bbox, wms);
+        cache.getTile(URL + "?map=x", "layer", null, null, null, "EPSG:3857", "1.1.1", bbox, wms);
+        Assert.assertEquals(6, wms.hits.get());
+
+        //Bboxes that aren't tiles aren't cached
+        Assert.assertNull(cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", "0,0,1,1", wms));
+        Assert.assertNull(cache.getTile(URL, "layer", null, null, null, "EPSG:28355", "1.1.1", bbox, wms));
+        Assert.assertEquals(6, wms.hits.get());
+    }
+
+    /**
+     * Tests identical images are only stored once
+     */
+    @Test
+    public void testContentAddressing() throws IOException {
+        TileRenderer wms = new TileRenderer();
+        wms.blank = true;
+        WMSTileCache cache = new WMSTileCache(folder.getRoot(), WMSTileCache.DEFAULT_MAX_DISK_BYTES, 4);
+
+        byte[] tile = cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 0, 0), wms);
+        Assert.assertEquals(16, cache.getTileCount());
+        Assert.assertEquals(tile.length, cache.getDiskBytes());
+
+        //Different keys rendering the same image share it
+        wms.blank = false;
+        cache = new WMSTileCache(folder.newFolder(), WMSTileCache.DEFAULT_MAX_DISK_BYTES, 1);
+        byte[] a = cache.getTile(URL, "a", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 0, 0), wms);
+        cache.getTile(URL, "b", null, "<sld/>", null, "EPSG:3857", "1.1.1", mercatorBbox(4, 0, 0), wms);
+        cache.getTile(URL, "c", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 0, 0), wms);
+        Assert.assertEquals(3, cache.getTileCount());
+        Assert.assertEquals(a.length, cache.getDiskBytes());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.getTileCount());
+        Assert.assertEquals(0, cache.getDiskBytes());
+    }
+
+    /**
+     * Tests the size quota discards the least recently used tiles
+     */
+    @Test
+    public void testEviction() throws IOException {
+        TileRenderer wms = new TileRenderer();
+        WMSTileCache cache = new WMSTileCache(folder.getRoot(), 1, 2);
+        byte[] tile = cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 0, 0), wms);
+        Assert.assertNotNull(tile);
+        Assert.assertEquals(0, cache.getTileCount());
+
+        //Each tile in a 2x2 metatile is a different colour
+        cache = new WMSTileCache(folder.newFolder(), tile.length * 3, 2);
+        cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 0, 0), wms);
+        Assert.assertEquals(2, wms.hits.get());
+        Assert.assertTrue(cache.getTileCount() < 4);
+        Assert.assertTrue(cache.getDiskBytes() <= tile.length * 3);
+
+        //The last tiles sliced are the most recently used
+        int hits = wms.hits.get();
+        cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 1, 1), wms);
+        Assert.assertEquals(hits, wms.hits.get());
+        cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 0, 0), wms);
+        Assert.assertEquals(hits + 1, wms.hits.get());
+    }
+
+    /**
+     * Tests tiles stored by one instance are served by another instance using the same directory, and that tiles expire
+     */
+    @Test
+    public void testPersistenceAndExpiry() throws IOException {
+        TileRenderer wms = new TileRenderer();
+        final long[] now = {1000000L};
+        WMSTileCache cache = new WMSTileCache(folder.getRoot(), WMSTileCache.DEFAULT_MAX_DISK_BYTES, 2) {
+            @Override
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+        cache.setMaxAgeSeconds(60);
+        byte[] tile = cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 3, 3), wms);
+
+        WMSTileCache reloaded = new WMSTileCache(folder.getRoot(), WMSTileCache.DEFAULT_MAX_DISK_BYTES, 2) {
+            @Override
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+        reloaded.setMaxAgeSeconds(60);
+        Assert.assertEquals(4, reloaded.getTileCount());
+        Assert.assertEquals(cache.getDiskBytes(), reloaded.getDiskBytes());
+        Assert.assertArrayEquals(tile,
+                reloaded.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 3, 3), wms));
+        Assert.assertEquals(1, wms.hits.get());
+
+        now[0] += 61000;
+        reloaded.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 3, 3), wms);
+        Assert.assertEquals(2, wms.hits.get());
+    }
+
+    /**
+     * Tests concurrent misses in the same metatile only make a single request
+     */
+    @Test
+    public void testSingleFlight() throws Exception {
+        final TileRenderer wms = new TileRenderer();
+        wms.delayMs = 200;
+        final WMSTileCache cache = new WMSTileCache(folder.getRoot(), WMSTileCache.DEFAULT_MAX_DISK_BYTES, 4);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final int x = i % 4;
+                final int y = i / 4;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(5, x, y), wms);
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < 8; i++) {
+                Assert.assertEquals(new Color((i % 4) * 10, (i / 4) * 10, 100), getColor(results.get(i).get()));
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(1, wms.hits.get());
+    }
+
+    /**
+     * Tests responses that aren't images (eg a service exception) are never stored
+     */
+    @Test
+    public void testNotAnImage() throws IOException {
+        WMSTileCache cache = new WMSTileCache(folder.getRoot());
+        try {
+            cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 0, 0),
+                    (bbox, width, height) -> new ByteArrayInputStream(
+                            "<ServiceExceptionReport><ServiceException>Layer not found</ServiceException></ServiceExceptionReport>"
+                                    .getBytes(StandardCharsets.UTF_8)));
+            Assert.fail("Expected an IOException");
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains("Layer not found"));
+        }
+        Assert.assertEquals(0, cache.getTileCount());
+    }
+
+    /**
+     * Tests tiles are still served (without another request) when they can't be stored
+     */
+    @Test
+    public void testStoreFailure() throws IOException {
+        TileRenderer wms = new TileRenderer();
+        WMSTileCache cache = new WMSTileCache(folder.getRoot(), WMSTileCache.DEFAULT_MAX_DISK_BYTES, 2);
+        File blobs = new File(folder.getRoot(), "blobs");
+        FileUtils.deleteDirectory(blobs);
+        Assert.assertTrue(blobs.createNewFile());
+
+        Assert.assertEquals(new Color(10, 0, 100), getColor(
+                cache.getTile(URL, "layer", null, null, null, "EPSG:3857", "1.1.1", mercatorBbox(4, 1, 0), wms)));
+        Assert.assertEquals(1, wms.hits.get());
+        Assert.assertEquals(0, cache.getTileCount());
+        Assert.assertEquals(0, cache.getDiskBytes());
+    }
+}
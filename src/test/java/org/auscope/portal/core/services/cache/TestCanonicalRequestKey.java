@@ -0,0 +1,119 @@
+package org.auscope.portal.core.services.cache;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for CanonicalRequestKey
+ */
+public class TestCanonicalRequestKey extends PortalTestClass {
+
+    private static CanonicalRequestKey get(String url) throws Exception {
+        return CanonicalRequestKey.fromRequest(new HttpGet(url));
+    }
+
+    private static CanonicalRequestKey post(String url, String body) throws Exception {
+        HttpPost method = new HttpPost(url);
+        method.setEntity(new StringEntity(body, "UTF-8"));
+        return CanonicalRequestKey.fromRequest(method);
+    }
+
+    /**
+     * Query parameters should be sorted and parameter names compared case insensitively
+     */
+    @Test
+    public void testQueryParameterOrderAndCase() throws Exception {
+        CanonicalRequestKey k1 = get("http://Example.ORG:80/wfs?service=WFS&request=GetFeature&typeName=er:Mine&featureId=mine.1");
+        CanonicalRequestKey k2 = get("http://example.org/wfs?FEATUREID=mine.1&typeName=er:Mine&REQUEST=GetFeature&Service=WFS");
+
+        Assert.assertEquals(k1, k2);
+        Assert.assertEquals(k1.hashCode(), k2.hashCode());
+        Assert.assertEquals("example.org", k1.getHost());
+        Assert.assertEquals("GET http://example.org/wfs?featureid=mine.1&request=GetFeature&service=WFS&typename=er:Mine",
+                k1.getKey());
+
+        //Values remain case sensitive
+        Assert.assertNotEquals(k1, get("http://example.org/wfs?service=WFS&request=GetFeature&typeName=er:Mine&featureId=MINE.1"));
+        //As do paths and non default ports
+        Assert.assertNotEquals(k1, get("http://example.org:8080/wfs?service=WFS&request=GetFeature&typeName=er:Mine&featureId=mine.1"));
+        Assert.assertNotEquals(k1, get("http://example.org/WFS?service=WFS&request=GetFeature&typeName=er:Mine&featureId=mine.1"));
+    }
+
+    /**
+     * BBOX parameters should be rounded, with any trailing CRS preserved
+     */
+    @Test
+    public void testBboxRounding() throws Exception {
+        CanonicalRequestKey k1 = get("http://example.org/wms?bbox=110.00000001,-45.0000000,155.1234564,-10.5&crs=EPSG:4326");
+        CanonicalRequestKey k2 = get("http://example.org/wms?crs=EPSG:4326&BBOX=110,-45,155.123456,-10.50");
+        Assert.assertEquals(k1, k2);
+        Assert.assertNotEquals(k1, get("http://example.org/wms?crs=EPSG:4326&BBOX=110,-45,155.123457,-10.50"));
+
+        Assert.assertEquals("110,-45,155.1235,-10.5,urn:ogc:def:crs:EPSG::4326",
+                CanonicalRequestKey.roundCoordinates("110.00001, -45.0 ,155.12345,-10.5,urn:ogc:def:crs:EPSG::4326", 4));
+        Assert.assertEquals("0 1.5 2", CanonicalRequestKey.roundCoordinates("  -0.0000001\n1.50   2 ", 4));
+    }
+
+    /**
+     * XML bodies should ignore prefixes, attribute order, whitespace, comments and insignificant coordinate differences
+     */
+    @Test
+    public void testXmlBodyNormalization() throws Exception {
+        final String body1 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<wfs:GetFeature service=\"WFS\" version=\"1.1.0\" xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:ogc=\"http://www.opengis.net/ogc\" xmlns:gml=\"http://www.opengis.net/gml\">\n"
+                + "  <wfs:Query typeName=\"er:Mine\" srsName=\"EPSG:4326\"><!-- a comment -->\n"
+                + "    <ogc:Filter><ogc:BBOX><ogc:PropertyName>gsml:shape</ogc:PropertyName>"
+                + "<gml:Envelope srsName=\"EPSG:4326\"><gml:lowerCorner>110.0000000001 -45</gml:lowerCorner><gml:upperCorner>155 -10</gml:upperCorner></gml:Envelope>"
+                + "</ogc:BBOX></ogc:Filter>\n"
+                + "  </wfs:Query>\n"
+                + "</wfs:GetFeature>";
+        final String body2 = "<GetFeature xmlns=\"http://www.opengis.net/wfs\" version=\"1.1.0\" service=\"WFS\">"
+                + "<Query srsName=\"EPSG:4326\" typeName=\"er:Mine\">"
+                + "<f:Filter xmlns:f=\"http://www.opengis.net/ogc\"><f:BBOX><f:PropertyName> gsml:shape </f:PropertyName>"
+                + "<g:Envelope xmlns:g=\"http://www.opengis.net/gml\" srsName=\"EPSG:4326\"><g:lowerCorner>110   -45.0</g:lowerCorner><g:upperCorner>155.0000 -10.0</g:upperCorner></g:Envelope>"
+                + "</f:BBOX></f:Filter></Query></GetFeature>";
+
+        Assert.assertEquals(post("http://example.org/wfs", body1), post("http://example.org/wfs", body2));
+
+        //Different literal values or envelopes are different requests
+        Assert.assertNotEquals(post("http://example.org/wfs", body1),
+                post("http://example.org/wfs", body2.replace("155.0000", "156")));
+        Assert.assertNotEquals(post("http://example.org/wfs", body1),
+                post("http://example.org/wfs", body2.replace("er:Mine", "er:MineralOccurrence")));
+
+        //GET and POST are never equivalent
+        Assert.assertNotEquals(get("http://example.org/wfs"), post("http://example.org/wfs", body1));
+    }
+
+    /**
+     * Non XML (or malformed XML) bodies are only trimmed
+     */
+    @Test
+    public void testNonXmlBody() throws Exception {
+        Assert.assertEquals("a=b", CanonicalRequestKey.canonicalBody("  a=b\n", 6));
+        Assert.assertEquals("<unclosed>", CanonicalRequestKey.canonicalBody("<unclosed>", 6));
+    }
+
+    /**
+     * Derived keys should be distinct from their parent but keep the host
+     */
+    @Test
+    public void testDerivedKeys() throws Exception {
+        CanonicalRequestKey key = get("http://example.org/wfs?request=GetFeature");
+        CanonicalRequestKey html = key.derive("html", "https://portal.org/api");
+
+        Assert.assertNotEquals(key, html);
+        Assert.assertEquals(html, key.derive("html", "https://portal.org/api"));
+        Assert.assertNotEquals(html, key.derive("html", "https://other.org/api"));
+        Assert.assertEquals("example.org", html.getHost());
+
+        Assert.assertEquals(CanonicalRequestKey.fromContent("html", "<gml/>", "url"),
+                CanonicalRequestKey.fromContent("html", "<gml/>", "url"));
+        Assert.assertNotEquals(CanonicalRequestKey.fromContent("html", "<gml/>", "url"),
+                CanonicalRequestKey.fromContent("html", "<gml />", "url"));
+    }
+}
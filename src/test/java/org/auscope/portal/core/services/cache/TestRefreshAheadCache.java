@@ -0,0 +1,224 @@
+package org.auscope.portal.core.services.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for RefreshAheadCache
+ */
+public class TestRefreshAheadCache extends PortalTestClass {
+
+    /** A cache whose clock can be moved by tests and whose background refreshes are run on demand */
+    private static class TestableCache extends RefreshAheadCache<String, String> {
+        private long now = 1000000L;
+        private final List<Runnable> queued;
+
+        public TestableCache(List<Runnable> queued) {
+            this(queued, DEFAULT_MAX_ENTRIES);
+        }
+
+        public TestableCache(List<Runnable> queued, int maxEntries) {
+            super(maxEntries, queued::add);
+            this.queued = queued;
+            setTtlSeconds(100);
+            setRefreshAheadFraction(0.5);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+
+        public void runQueued() {
+            List<Runnable> tasks = new ArrayList<>(queued);
+            queued.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Values are only loaded once until they expire
+     */
+    @Test
+    public void testLoadAndExpire() throws Exception {
+        final TestableCache cache = new TestableCache(new ArrayList<Runnable>());
+        final AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertEquals("v1", cache.get("k", () -> "v" + loads.incrementAndGet()));
+        Assert.assertEquals("v1", cache.get("k", () -> "v" + loads.incrementAndGet()));
+        Assert.assertEquals("v1", cache.getIfPresent("k"));
+
+        cache.now += 100 * 1000L;
+        Assert.assertNull(cache.getIfPresent("k"));
+        Assert.assertEquals("v2", cache.get("k", () -> "v" + loads.incrementAndGet()));
+        Assert.assertTrue(cache.queued.isEmpty());
+    }
+
+    /**
+     * Values past the refresh point are served while a single refresh runs in the background
+     */
+    @Test
+    public void testRefreshAhead() throws Exception {
+        final TestableCache cache = new TestableCache(new ArrayList<Runnable>());
+        final AtomicInteger loads = new AtomicInteger();
+
+        cache.get("k", () -> "v" + loads.incrementAndGet());
+        cache.now += 60 * 1000L;
+        Assert.assertEquals("v1", cache.get("k", () -> "v" + loads.incrementAndGet()));
+        Assert.assertEquals("v1", cache.get("k", () -> "v" + loads.incrementAndGet()));
+        Assert.assertEquals(1, cache.queued.size());
+        Assert.assertEquals(1, loads.get());
+
+        cache.runQueued();
+        Assert.assertEquals("v2", cache.get("k", () -> "v" + loads.incrementAndGet()));
+
+        //The refreshed value gets a new TTL
+        cache.now += 60 * 1000L;
+        Assert.assertEquals("v2", cache.getIfPresent("k"));
+    }
+
+    /**
+     * A failed refresh leaves the existing value in place and errors are never cached
+     */
+    @Test
+    public void testErrors() throws Exception {
+        final TestableCache cache = new TestableCache(new ArrayList<Runnable>());
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.get("k", () -> {
+                    throw new IOException("failed");
+                });
+                Assert.fail("Expected an IOException");
+            } catch (IOException ex) {
+                Assert.assertEquals("failed", ex.getMessage());
+            }
+        }
+        Assert.assertEquals(0, cache.size());
+
+        cache.get("k", () -> "v1");
+        cache.now += 60 * 1000L;
+        cache.get("k", () -> {
+            throw new IOException("failed");
+        });
+        cache.runQueued();
+        Assert.assertEquals("v1", cache.getIfPresent("k"));
+
+        //A new refresh can be scheduled after a failed one
+        Assert.assertEquals("v1", cache.get("k", () -> "v2"));
+        cache.runQueued();
+        Assert.assertEquals("v2", cache.getIfPresent("k"));
+    }
+
+    /**
+     * Concurrent requests for the same missing key only call a single loader
+     */
+    @Test
+    public void testConcurrentLoads() throws Exception {
+        final RefreshAheadCache<String, String> cache = new RefreshAheadCache<>();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int threads = 8;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get("k", () -> {
+                loading.countDown();
+                release.await();
+                return "v" + loads.incrementAndGet();
+            })));
+            loading.await();
+
+            for (int i = 1; i < threads; i++) {
+                results.add(executor.submit((Callable<String>) () -> cache.get("k", () -> "v" + loads.incrementAndGet())));
+            }
+            release.countDown();
+
+            for (Future<String> result : results) {
+                Assert.assertEquals("v1", result.get());
+            }
+            Assert.assertEquals(1, loads.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A TTL of 0 disables caching
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        final TestableCache cache = new TestableCache(new ArrayList<Runnable>());
+        final AtomicInteger loads = new AtomicInteger();
+        cache.setTtlSeconds(0);
+
+        Assert.assertEquals("v1", cache.get("k", () -> "v" + loads.incrementAndGet()));
+        Assert.assertEquals("v2", cache.get("k", () -> "v" + loads.incrementAndGet()));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    /**
+     * The least recently used entries are discarded once maxEntries is reached and expired entries are swept out
+     */
+    @Test
+    public void testBounds() throws Exception {
+        final TestableCache cache = new TestableCache(new ArrayList<Runnable>(), 3);
+
+        cache.get("k1", () -> "v1");
+        cache.get("k2", () -> "v2");
+        cache.get("k3", () -> "v3");
+        Assert.assertEquals("v1", cache.getIfPresent("k1"));
+        cache.get("k4", () -> "v4");
+        Assert.assertEquals(3, cache.size());
+        Assert.assertNull(cache.getIfPresent("k2"));
+        Assert.assertEquals("v1", cache.getIfPresent("k1"));
+
+        cache.now += 100 * 1000L;
+        cache.put("k5", "v5");
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals("v5", cache.getIfPresent("k5"));
+    }
+
+    /**
+     * Caches created without an executor refresh on their own (daemon) threads rather than the common pool
+     */
+    @Test
+    public void testDefaultExecutor() throws Exception {
+        final long[] now = new long[] {1000000L};
+        RefreshAheadCache<String, String> cache = new RefreshAheadCache<String, String>() {
+            @Override
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+
+        cache.get("k", () -> "v1");
+        now[0] += cache.getTtlSeconds() * 900L;
+        Assert.assertEquals("v1", cache.get("k", () -> {
+            threads.add(Thread.currentThread());
+            refreshed.countDown();
+            return "v2";
+        }));
+        Assert.assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(threads.get(0).getName().startsWith("RefreshAheadCache-"));
+        Assert.assertTrue(threads.get(0).isDaemon());
+    }
+}
@@ -0,0 +1,196 @@
+package org.auscope.portal.core.services.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpGet;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for TieredCache
+ */
+public class TestTieredCache extends PortalTestClass {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** A cache whose clock can be moved by tests */
+    private static class TestableCache extends TieredCache {
+        private long now = 1000000L;
+
+        public TestableCache(long maxHeapBytes, File diskDirectory, long maxDiskBytes) {
+            super(maxHeapBytes, diskDirectory, maxDiskBytes);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private static CanonicalRequestKey key(String url) throws IOException {
+        return CanonicalRequestKey.fromRequest(new HttpGet(url));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Values are only loaded once until they expire
+     */
+    @Test
+    public void testLoadAndExpire() throws Exception {
+        final TestableCache cache = new TestableCache(1024, null, 0);
+        final AtomicInteger loads = new AtomicInteger();
+        final CanonicalRequestKey key = key("http://example.org/wfs?id=1");
+
+        Assert.assertArrayEquals(bytes("v1"), cache.get(key, () -> bytes("v" + loads.incrementAndGet())));
+        Assert.assertArrayEquals(bytes("v1"), cache.get(key, () -> bytes("v" + loads.incrementAndGet())));
+
+        cache.now += TieredCache.DEFAULT_TTL_SECONDS * 1000L;
+        Assert.assertNull(cache.getIfPresent(key));
+        Assert.assertArrayEquals(bytes("v2"), cache.get(key, () -> bytes("v" + loads.incrementAndGet())));
+    }
+
+    /**
+     * TTLs can be configured per host, with a TTL of 0 disabling caching
+     */
+    @Test
+    public void testPerHostTtl() throws Exception {
+        final TestableCache cache = new TestableCache(1024, null, 0);
+        cache.setDefaultTtlSeconds(10);
+        Map<String, Long> hostTtls = new HashMap<>();
+        hostTtls.put("Slow.Example.org", 100L);
+        hostTtls.put("live.example.org", 0L);
+        cache.setHostTtlSeconds(hostTtls);
+
+        final CanonicalRequestKey fast = key("http://fast.example.org/wfs");
+        final CanonicalRequestKey slow = key("http://slow.example.org/wfs");
+        final CanonicalRequestKey live = key("http://live.example.org/wfs");
+        cache.put(fast, bytes("fast"));
+        cache.put(slow, bytes("slow"));
+        cache.put(live, bytes("live"));
+
+        Assert.assertNull(cache.getIfPresent(live));
+        cache.now += 50 * 1000L;
+        Assert.assertNull(cache.getIfPresent(fast));
+        Assert.assertArrayEquals(bytes("slow"), cache.getIfPresent(slow));
+        cache.now += 50 * 1000L;
+        Assert.assertNull(cache.getIfPresent(slow));
+    }
+
+    /**
+     * The heap tier should be bounded, spilling to the disk tier which is also bounded
+     */
+    @Test
+    public void testHeapSpillsToDisk() throws Exception {
+        final File dir = folder.newFolder("cache");
+        final TestableCache cache = new TestableCache(25, dir, 60);
+
+        final List<CanonicalRequestKey> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            keys.add(key("http://example.org/wfs?id=" + i));
+            cache.put(keys.get(i), bytes(String.format("value-%1$d", i))); //7 bytes each
+        }
+
+        //Newest values should be on the heap, older ones spilled to disk (which should be trimmed to size)
+        Assert.assertArrayEquals(bytes("value-9"), cache.getIfPresent(keys.get(9)));
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".cache"));
+        Assert.assertTrue(files.length > 0);
+        long diskSize = 0;
+        for (File file : files) {
+            diskSize += file.length();
+        }
+        Assert.assertTrue(diskSize <= 60);
+        Assert.assertNull(cache.getIfPresent(keys.get(0)));
+
+        //The most recently spilled value should be readable (and promoted back to the heap)
+        Assert.assertArrayEquals(bytes("value-6"), cache.getIfPresent(keys.get(6)));
+
+        //The disk tier should survive a restart
+        final TestableCache restarted = new TestableCache(25, dir, 60);
+        int found = 0;
+        for (CanonicalRequestKey key : keys) {
+            if (restarted.getIfPresent(key) != null) {
+                found++;
+            }
+        }
+        Assert.assertTrue(found > 0);
+
+        restarted.clear();
+        Assert.assertEquals(0, dir.listFiles((d, name) -> name.endsWith(".cache")).length);
+    }
+
+    /**
+     * Concurrent requests for the same key should only call a single loader
+     */
+    @Test
+    public void testSingleFlight() throws Exception {
+        final TieredCache cache = new TieredCache();
+        final CanonicalRequestKey key = key("http://example.org/wfs?id=1");
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int threads = 8;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit((Callable<byte[]>) () -> cache.get(key, () -> {
+                    loads.incrementAndGet();
+                    loading.countDown();
+                    release.await();
+                    return bytes("value");
+                })));
+            }
+
+            loading.await();
+            Thread.sleep(100); //Give the other threads a chance to block on the inflight request
+            release.countDown();
+            for (Future<byte[]> result : results) {
+                Assert.assertArrayEquals(bytes("value"), result.get());
+            }
+            Assert.assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Errors are shared with waiting callers but never cached
+     */
+    @Test
+    public void testErrorsNotCached() throws Exception {
+        final TieredCache cache = new TieredCache();
+        final CanonicalRequestKey key = key("http://example.org/wfs?id=1");
+
+        try {
+            cache.get(key, () -> {
+                throw new IOException("remote failure");
+            });
+            Assert.fail("Exception should have been thrown");
+        } catch (IOException ex) {
+            Assert.assertEquals("remote failure", ex.getMessage());
+        }
+
+        Assert.assertNull(cache.getIfPresent(key));
+        Assert.assertArrayEquals(bytes("ok"), cache.get(key, () -> bytes("ok")));
+    }
+}
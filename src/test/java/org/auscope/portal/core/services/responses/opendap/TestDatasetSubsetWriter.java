@@ -0,0 +1,234 @@
+package org.auscope.portal.core.services.responses.opendap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Unit tests for DatasetSubsetWriter using a local NetCDF file in place of an OPeNDAP endpoint
+ */
+public class TestDatasetSubsetWriter extends PortalTestClass {
+
+    private static final int TIMES = 40;
+    private static final int LATS = 256;
+    private static final int LONS = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dataset;
+
+    private static float expectedTemp(int t, int y, int x) {
+        return t * 65536 + y * 256 + x;
+    }
+
+    /**
+     * Writes a 10MB dataset of temp(time, lat, lon) one time step at a time
+     */
+    @Before
+    public void writeDataset() throws IOException, InvalidRangeException {
+        dataset = folder.newFile("large.nc");
+        NetcdfFormatWriter.Builder<?> builder = NetcdfFormatWriter.createNewNetcdf3(dataset.getAbsolutePath());
+        builder.addDimension("time", TIMES);
+        builder.addDimension("lat", LATS);
+        builder.addDimension("lon", LONS);
+        builder.addVariable("time", DataType.DOUBLE, "time").addAttribute(new Attribute("units", "days since 2000-01-01"));
+        builder.addVariable("lat", DataType.DOUBLE, "lat").addAttribute(new Attribute("units", "degrees_north"));
+        builder.addVariable("lon", DataType.DOUBLE, "lon").addAttribute(new Attribute("units", "degrees_east"));
+        builder.addVariable("temp", DataType.FLOAT, "time lat lon").addAttribute(new Attribute("units", "K"));
+
+        try (NetcdfFormatWriter writer = builder.build()) {
+            double[] times = new double[TIMES];
+            for (int t = 0; t < TIMES; t++) {
+                times[t] = t;
+            }
+            double[] lats = new double[LATS];
+            for (int y = 0; y < LATS; y++) {
+                lats[y] = -50 + y * 0.1;
+            }
+            double[] lons = new double[LONS];
+            for (int x = 0; x < LONS; x++) {
+                lons[x] = 110 + x * 0.1;
+            }
+            writer.write("time", Array.makeFromJavaArray(times));
+            writer.write("lat", Array.makeFromJavaArray(lats));
+            writer.write("lon", Array.makeFromJavaArray(lons));
+
+            float[] slice = new float[LATS * LONS];
+            for (int t = 0; t < TIMES; t++) {
+                for (int y = 0; y < LATS; y++) {
+                    for (int x = 0; x < LONS; x++) {
+                        slice[y * LONS + x] = expectedTemp(t, y, x);
+                    }
+                }
+                writer.write("temp", new int[] {t, 0, 0}, Array.factory(DataType.FLOAT, new int[] {1, LATS, LONS}, slice));
+            }
+        }
+    }
+
+    private DatasetSubsetWriter newWriter() {
+        return new DatasetSubsetWriter(() -> NetcdfDatasets.openDataset(dataset.getAbsolutePath()));
+    }
+
+    private static SimpleAxis axis(String name, int from, int to) {
+        SimpleAxis axis = new SimpleAxis(name, "DOUBLE", "", null, null);
+        axis.setDimensionBounds(new SimpleBounds(from, to));
+        return axis;
+    }
+
+    private static SimpleGrid tempGrid(int timeFrom, int timeTo, int latFrom, int latTo, int lonFrom, int lonTo) {
+        SimpleGrid grid = new SimpleGrid("temp", "FLOAT", "K", null);
+        grid.setAxes(new AbstractViewVariable[] {axis("time", timeFrom, timeTo), axis("lat", latFrom, latTo),
+                axis("lon", lonFrom, lonTo)});
+        return grid;
+    }
+
+    /**
+     * A subset far larger than the chunk size is written to NetCDF without any single read exceeding the chunk size
+     */
+    @Test
+    public void testNetcdfSubsetMemoryCeiling() throws Exception {
+        final long maxChunkBytes = 64 * 1024;
+        DatasetSubsetWriter writer = newWriter();
+        writer.setMaxChunkBytes(maxChunkBytes);
+
+        List<File> files;
+        try (NetcdfDataset ds = NetcdfDatasets.openDataset(dataset.getAbsolutePath())) {
+            files = writer.write(ds, new AbstractViewVariable[] {tempGrid(5, 24, 10, 200, 0, 255)},
+                    DatasetSubsetWriter.Format.NETCDF3, folder.newFolder());
+        }
+
+        //20 * 191 * 256 floats is almost 4MB
+        Assert.assertTrue(writer.getLargestChunkBytes() > 0);
+        Assert.assertTrue(writer.getLargestChunkBytes() <= maxChunkBytes);
+
+        Assert.assertEquals(1, files.size());
+        try (NetcdfFile nc = NetcdfFiles.open(files.get(0).getAbsolutePath())) {
+            Variable temp = nc.findVariable("temp");
+            Assert.assertArrayEquals(new int[] {20, 191, 256}, temp.getShape());
+            Assert.assertEquals("K", temp.attributes().findAttribute("units").getStringValue());
+            for (int t = 0; t < 20; t += 3) {
+                Array slice = temp.read(new int[] {t, 0, 0}, new int[] {1, 191, 256});
+                for (int y = 0; y < 191; y += 7) {
+                    for (int x = 0; x < 256; x += 5) {
+                        Assert.assertEquals(expectedTemp(t + 5, y + 10, x), slice.getFloat(slice.getIndex().set(0, y, x)), 0);
+                    }
+                }
+            }
+
+            //The coordinate variables are subset alongside the grid
+            Variable lat = nc.findVariable("lat");
+            Assert.assertArrayEquals(new int[] {191}, lat.getShape());
+            Assert.assertEquals(-49.0, lat.read().getDouble(0), 1e-6);
+            Assert.assertArrayEquals(new int[] {20}, nc.findVariable("time").getShape());
+        }
+    }
+
+    /**
+     * Chunks grow along the innermost dimensions first and never exceed the chunk size
+     */
+    @Test
+    public void testChunkShape() throws Exception {
+        DatasetSubsetWriter writer = newWriter();
+        writer.setMaxChunkBytes(64 * 1024);
+        try (NetcdfDataset ds = NetcdfDatasets.openDataset(dataset.getAbsolutePath())) {
+            Variable temp = ds.findVariable("temp");
+            Assert.assertArrayEquals(new int[] {1, 64, 256}, writer.getChunkShape(temp, new int[] {20, 191, 256}));
+            Assert.assertArrayEquals(new int[] {5, 10, 10}, writer.getChunkShape(temp, new int[] {5, 10, 10}));
+
+            writer.setMaxChunkBytes(1);
+            Assert.assertArrayEquals(new int[] {1, 1, 1}, writer.getChunkShape(temp, new int[] {5, 10, 10}));
+        }
+    }
+
+    /**
+     * Storage chunks larger than the chunk size are split evenly (outermost dimensions first) rather than read whole
+     */
+    @Test
+    public void testOversizedStorageChunks() throws Exception {
+        File chunked = folder.newFile("chunked.nc");
+        NetcdfFormatWriter.Builder<?> builder = NetcdfFormatWriter.createNewNetcdf3(chunked.getAbsolutePath());
+        builder.addDimension("time", TIMES);
+        builder.addDimension("lat", LATS);
+        builder.addDimension("lon", LONS);
+        builder.addVariable("temp", DataType.FLOAT, "time lat lon")
+                .addAttribute(Attribute.builder("_ChunkSizes").setValues(Array.makeFromJavaArray(new int[] {10, 256, 256}), false)
+                        .build());
+        builder.build().close();
+
+        DatasetSubsetWriter writer = newWriter();
+        writer.setMaxChunkBytes(64 * 1024);
+        try (NetcdfDataset ds = NetcdfDatasets.openDataset(chunked.getAbsolutePath())) {
+            Variable temp = ds.findVariable("temp");
+            Assert.assertArrayEquals(new int[] {1, 64, 256}, writer.getChunkShape(temp, new int[] {20, 191, 256}));
+
+            //Splits are even divisions of the storage chunk
+            writer.setMaxChunkBytes(3 * 256 * 256 * 4);
+            Assert.assertArrayEquals(new int[] {2, 256, 256}, writer.getChunkShape(temp, new int[] {20, 256, 256}));
+
+            writer.setMaxChunkBytes(100 * 4);
+            Assert.assertArrayEquals(new int[] {1, 1, 64}, writer.getChunkShape(temp, new int[] {20, 256, 256}));
+        }
+    }
+
+    /**
+     * CSV output has a column of coordinate values for each dimension
+     */
+    @Test
+    public void testCsvSubset() throws Exception {
+        DatasetSubsetWriter writer = newWriter();
+        writer.setMaxChunkBytes(16);
+
+        List<File> files;
+        try (NetcdfDataset ds = NetcdfDatasets.openDataset(dataset.getAbsolutePath())) {
+            files = writer.write(ds, new AbstractViewVariable[] {axis("lat", 2, 3), tempGrid(1, 1, 2, 3, 4, 5)},
+                    DatasetSubsetWriter.Format.CSV, folder.newFolder());
+        }
+
+        Assert.assertEquals(4, files.size());
+        Assert.assertEquals("lat.csv", files.get(0).getName());
+        Assert.assertEquals("temp.csv", files.get(3).getName());
+
+        List<String> lines = Files.readAllLines(files.get(3).toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(5, lines.size());
+        Assert.assertEquals("time,lat,lon,temp", lines.get(0));
+        String[] first = lines.get(1).split(",");
+        Assert.assertEquals(1.0, Double.parseDouble(first[0]), 1e-6);
+        Assert.assertEquals(-49.8, Double.parseDouble(first[1]), 1e-6);
+        Assert.assertEquals(110.4, Double.parseDouble(first[2]), 1e-6);
+        Assert.assertEquals(expectedTemp(1, 2, 4), Float.parseFloat(first[3]), 0);
+        String[] last = lines.get(4).split(",");
+        Assert.assertEquals(expectedTemp(1, 3, 5), Float.parseFloat(last[3]), 0);
+    }
+
+    /**
+     * Dimensions constrained to different lengths can't be written to a single NetCDF file
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInconsistentDimensions() throws Exception {
+        try (NetcdfDataset ds = NetcdfDatasets.openDataset(dataset.getAbsolutePath())) {
+            newWriter().write(ds, new AbstractViewVariable[] {axis("lat", 0, 10), tempGrid(0, 0, 0, 20, 0, 0)},
+                    DatasetSubsetWriter.Format.NETCDF3, folder.newFolder());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.auscope.portal.core.services.responses.ows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.util.ResourceUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for OWSExceptionSniffer
+ */
+public class TestOWSExceptionSniffer extends PortalTestClass {
+
+    private static InputStream toStream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tests an ows:ExceptionReport is detected and its message extracted
+     */
+    @Test
+    public void testOwsExceptionReport() throws IOException {
+        final String xmlString = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/ows/OWSExceptionSample1.xml");
+        try {
+            OWSExceptionSniffer.sniff(toStream(xmlString));
+            Assert.fail("Exception should have been thrown");
+        } catch (OWSException ex) {
+            Assert.assertEquals(
+                    "Code='MissingParameterValue' Message='The query should specify either typeName or a featureId filter'",
+                    ex.getMessage());
+        }
+    }
+
+    /**
+     * Tests an OWS 1.1 exception report (different namespace) is also detected
+     */
+    @Test(expected = OWSException.class)
+    public void testOws11ExceptionReport() throws IOException, OWSException {
+        final String xmlString = "<?xml version=\"1.0\"?><ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows/1.1\" version=\"2.0.0\">"
+                + "<ows:Exception exceptionCode=\"InvalidParameterValue\"><ows:ExceptionText>Bad typeName</ows:ExceptionText></ows:Exception>"
+                + "</ows:ExceptionReport>";
+        OWSExceptionSniffer.sniff(toStream(xmlString));
+    }
+
+    /**
+     * Tests an OGC ServiceExceptionReport is detected and its message extracted
+     */
+    @Test
+    public void testServiceExceptionReport() throws IOException {
+        final String xmlString = "<?xml version=\"1.0\"?><ServiceExceptionReport xmlns=\"http://www.opengis.net/ogc\" version=\"1.2.0\">"
+                + "<ServiceException code=\"LayerNotDefined\">\n  Unknown layer  \n</ServiceException></ServiceExceptionReport>";
+        try {
+            OWSExceptionSniffer.sniff(toStream(xmlString));
+            Assert.fail("Exception should have been thrown");
+        } catch (OWSException ex) {
+            Assert.assertEquals("Code='LayerNotDefined' Message='Unknown layer'", ex.getMessage());
+        }
+    }
+
+    /**
+     * Tests a normal response is replayed byte for byte
+     */
+    @Test
+    public void testNormalResponse() throws IOException, OWSException {
+        final String xmlString = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/wfs/commodityGetFeatureResponse.xml");
+        try (InputStream sniffed = OWSExceptionSniffer.sniff(toStream(xmlString), 256)) {
+            Assert.assertEquals(xmlString, IOUtils.toString(sniffed, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Tests a response whose root element lies beyond the peek window is passed through untouched
+     */
+    @Test
+    public void testRootBeyondPeekWindow() throws IOException, OWSException {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>");
+        for (int i = 0; i < 100; i++) {
+            sb.append("<!-- padding comment to push the root element beyond the peek window -->");
+        }
+        sb.append("<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\"/>");
+        final String xmlString = sb.toString();
+
+        try (InputStream sniffed = OWSExceptionSniffer.sniff(toStream(xmlString), 512)) {
+            Assert.assertEquals(xmlString, IOUtils.toString(sniffed, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Tests a response truncated after the root element is still passed through to the consumer
+     */
+    @Test
+    public void testTruncatedAfterRoot() throws IOException, OWSException {
+        final String xmlString = "<?xml version=\"1.0\"?><wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\"><gml:featureMem";
+        try (InputStream sniffed = OWSExceptionSniffer.sniff(toStream(xmlString))) {
+            Assert.assertEquals(xmlString, IOUtils.toString(sniffed, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Tests a response truncated before the root element is reported as an error
+     */
+    @Test(expected = OWSException.class)
+    public void testTruncatedBeforeRoot() throws IOException, OWSException {
+        OWSExceptionSniffer.sniff(toStream("<?xml version=\"1.0\"?><!-- trunc"));
+    }
+
+    /**
+     * Tests an empty response is reported as an error
+     */
+    @Test(expected = OWSException.class)
+    public void testEmptyResponse() throws IOException, OWSException {
+        OWSExceptionSniffer.sniff(toStream(""));
+    }
+
+    /**
+     * Tests a truncated exception report still raises an exception
+     */
+    @Test
+    public void testTruncatedExceptionReport() throws IOException {
+        final String xmlString = "<?xml version=\"1.0\"?><ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\">"
+                + "<ows:Exception exceptionCode=\"NoApplicableCode\"><ows:Excep";
+        try {
+            OWSExceptionSniffer.sniff(toStream(xmlString));
+            Assert.fail("Exception should have been thrown");
+        } catch (OWSException ex) {
+            Assert.assertEquals("Code='NoApplicableCode' Message='[Cannot extract error message]'", ex.getMessage());
+        }
+    }
+}
@@ -3,7 +3,9 @@ package org.auscope.portal.core.services.responses.vocab;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathConstants;
@@ -165,4 +167,129 @@ public class TestConceptFactory extends PortalTestClass {
         }
         Assert.assertTrue("Must contain: Gneiss - crusher dust", found);
     }
+
+    private static final String RDF_HEADER = "<rdf:RDF xmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\" "
+            + "xmlns:owl=\"http://www.w3.org/2002/07/owl#\" "
+            + "xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" "
+            + "xmlns:skos=\"http://www.w3.org/2004/02/skos/core#\">";
+
+    private static Node parseRdf(String xml) throws ParserConfigurationException, IOException, SAXException, XPathException {
+        Document doc = DOMUtil.buildDomFromString(xml);
+        return (Node) DOMUtil.compileXPathExpr("rdf:RDF", new VocabNamespaceContext()).evaluate(doc, XPathConstants.NODE);
+    }
+
+    private static String concept(String urn, String label) {
+        return String.format("<skos:Concept rdf:about=\"%1$s\"><skos:prefLabel>%2$s</skos:prefLabel></skos:Concept>", urn, label);
+    }
+
+    private static String description(String urn, String relation, String... targets) {
+        StringBuilder sb = new StringBuilder(String.format("<rdf:Description rdf:about=\"%1$s\">", urn));
+        for (String target : targets) {
+            sb.append(String.format("<skos:%1$s rdf:resource=\"%2$s\"/>", relation, target));
+        }
+        return sb.append("</rdf:Description>").toString();
+    }
+
+    private static Map<String, Concept> byUrn(Concept[] concepts) {
+        Map<String, Concept> map = new HashMap<>();
+        for (Concept concept : concepts) {
+            map.put(concept.getUrn(), concept);
+        }
+        return map;
+    }
+
+    /**
+     * Cyclic broader/narrower/related relations resolve to the same objects rather than recursing
+     */
+    @Test
+    public void testCyclicRelations() throws Exception {
+        String xml = RDF_HEADER + concept("urn:a", "A") + concept("urn:b", "B") + concept("urn:c", "C")
+                + description("urn:a", "narrower", "urn:b") + description("urn:b", "narrower", "urn:c")
+                + description("urn:c", "narrower", "urn:a") + description("urn:a", "related", "urn:a", "urn:missing")
+                + description("urn:b", "related", "urn:missing") + "</rdf:RDF>";
+
+        Map<String, Concept> concepts = byUrn(new ConceptFactory().parseFromRDF(parseRdf(xml)));
+        Assert.assertEquals(3, concepts.size());
+        Concept a = concepts.get("urn:a");
+        Concept b = concepts.get("urn:b");
+        Concept c = concepts.get("urn:c");
+
+        Assert.assertSame(b, a.getNarrower()[0]);
+        Assert.assertSame(c, b.getNarrower()[0]);
+        Assert.assertSame(a, c.getNarrower()[0]);
+        Assert.assertSame(a, a.getNarrower()[0].getNarrower()[0].getNarrower()[0]);
+        Assert.assertEquals("C", a.getNarrower()[0].getNarrower()[0].getPreferredLabel());
+
+        //Self relations and a single placeholder for every reference to an unknown concept
+        Assert.assertEquals(2, a.getRelated().length);
+        Assert.assertSame(a, a.getRelated()[0]);
+        Assert.assertTrue(a.getRelated()[1].isHref());
+        Assert.assertSame(a.getRelated()[1], b.getRelated()[0]);
+    }
+
+    /**
+     * A registry kept across documents reuses concepts and resolves links to concepts from earlier documents
+     */
+    @Test
+    public void testRegistryReuse() throws Exception {
+        ConceptFactory cf = new ConceptFactory();
+        ConceptRegistry registry = new ConceptRegistry();
+
+        Concept[] first = cf.parseFromRDF(parseRdf(RDF_HEADER + concept("urn:a", "A") + description("urn:a", "narrower", "urn:b")
+                + "</rdf:RDF>"), registry);
+        Concept a = first[0];
+        Assert.assertTrue(a.getNarrower()[0].isHref());
+
+        Concept[] second = cf.parseFromRDF(parseRdf(RDF_HEADER + concept("urn:a", "A2") + concept("urn:b", "B")
+                + description("urn:b", "broader", "urn:a") + "</rdf:RDF>"), registry);
+        Map<String, Concept> concepts = byUrn(second);
+        Assert.assertEquals(2, registry.size());
+        Assert.assertSame(a, registry.get("urn:a"));
+        Assert.assertEquals("A2", a.getPreferredLabel());
+        Assert.assertSame(a, concepts.get("urn:b").getBroader()[0]);
+
+        //A link to a concept only defined by an earlier document resolves to that concept
+        Concept[] third = cf.parseFromRDF(parseRdf(RDF_HEADER + concept("urn:c", "C") + description("urn:c", "broader", "urn:b")
+                + "</rdf:RDF>"), registry);
+        Assert.assertSame(concepts.get("urn:b"), third[0].getBroader()[0]);
+
+        //Without a shared registry every document gets its own objects
+        Concept[] isolated = cf.parseFromRDF(parseRdf(RDF_HEADER + concept("urn:a", "A") + description("urn:a", "narrower")
+                + "</rdf:RDF>"));
+        Assert.assertNotSame(a, isolated[0]);
+    }
+
+    /**
+     * Every link in a large vocabulary resolves to the single concept parsed for its URN
+     */
+    @Test
+    public void testLargeVocabulary() throws Exception {
+        final int count = 500;
+        StringBuilder xml = new StringBuilder(RDF_HEADER);
+        for (int i = 0; i < count; i++) {
+            xml.append(concept("urn:c" + i, "Concept " + i));
+            if (i > 0) {
+                xml.append(description("urn:c" + i, "broader", "urn:c" + ((i - 1) / 10)));
+            }
+            List<String> children = new ArrayList<>();
+            for (int child = i * 10 + 1; child <= i * 10 + 10 && child < count; child++) {
+                children.add("urn:c" + child);
+            }
+            xml.append(description("urn:c" + i, "narrower", children.toArray(new String[children.size()])));
+        }
+        xml.append("</rdf:RDF>");
+        Node rdf = parseRdf(xml.toString());
+
+        Concept[] concepts = new ConceptFactory().parseFromRDF(rdf);
+
+        Map<String, Concept> map = byUrn(concepts);
+        Assert.assertEquals(count, map.size());
+        for (int i = 1; i < count; i++) {
+            Concept concept = map.get("urn:c" + i);
+            Concept parent = concept.getBroader()[0];
+            Assert.assertSame(map.get("urn:c" + ((i - 1) / 10)), parent);
+            Assert.assertTrue(Arrays.asList(parent.getNarrower()).contains(concept));
+            Assert.assertEquals("Concept " + i, concept.getPreferredLabel());
+        }
+    }
 }
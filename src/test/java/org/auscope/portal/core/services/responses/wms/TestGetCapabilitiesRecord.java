@@ -1,7 +1,11 @@
 package org.auscope.portal.core.services.responses.wms;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathException;
@@ -163,4 +167,79 @@ public class TestGetCapabilitiesRecord extends PortalTestClass {
 
         }
     }
+
+    /**
+     * Tests the name/title/CRS/parent lookups over the nested layers of a 1.1.1 document
+     */
+    @Test
+    public void testLayerLookups() throws Exception {
+        try (final InputStream xmlStream = ResourceUtil
+                .loadResourceAsStream("org/auscope/portal/core/test/responses/wms/wmsGetCapabilities.xml")) {
+            final GetCapabilitiesRecord rec = new GetCapabilitiesRecord_1_1_1(xmlStream);
+            final List<GetCapabilitiesWMSLayerRecord> layers = rec.getLayers();
+
+            Assert.assertSame(layers.get(1), rec.getLayerByName("name1"));
+            Assert.assertSame(layers.get(4), rec.getLayerByName("name3"));
+            Assert.assertNull(rec.getLayerByName("missing"));
+            Assert.assertNull(rec.getLayerByName(null));
+
+            Assert.assertEquals(Arrays.asList(layers.get(3)), rec.getLayersByTitle("Grouping 2"));
+            Assert.assertTrue(rec.getLayersByTitle("missing").isEmpty());
+
+            // Every layer inherits the CRS declared by the root layer
+            Assert.assertEquals(layers, rec.getLayersByCrs("crs:84"));
+            Assert.assertEquals(layers, rec.getLayersByCrs("EPSG:4283"));
+            Assert.assertTrue(rec.getLayersByCrs("EPSG:3857").isEmpty());
+
+            Assert.assertTrue(rec.getParentLayers(layers.get(0)).isEmpty());
+            Assert.assertEquals(Arrays.asList(layers.get(0)), rec.getParentLayers(layers.get(2)));
+            Assert.assertEquals(Arrays.asList(layers.get(3), layers.get(0)), rec.getParentLayers(layers.get(4)));
+        }
+    }
+
+    /**
+     * Tests the lookups over a deeply nested 1.3.0 document
+     */
+    @Test
+    public void testDeeplyNestedLookups() throws Exception {
+        final int depth = 40;
+        StringBuilder sb = new StringBuilder("<WMS_Capabilities version=\"1.3.0\" xmlns=\"http://www.opengis.net/wms\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+                + "<Capability><Request><GetMap><Format>image/png</Format><DCPType><HTTP><Get><OnlineResource xlink:href=\"http://example.org/wms\"/>"
+                + "</Get></HTTP></DCPType></GetMap></Request>");
+        for (int i = 0; i < depth; i++) {
+            sb.append("<Layer><Name>layer").append(i).append("</Name><Title>").append(i % 2 == 0 ? "even" : "odd").append("</Title>");
+            if (i % 10 == 0) {
+                sb.append("<CRS>EPSG:").append(i).append("</CRS>");
+            }
+            // A leaf sibling at every level
+            sb.append("<Layer><Name>leaf").append(i).append("</Name><Title>leaf</Title></Layer>");
+        }
+        for (int i = 0; i < depth; i++) {
+            sb.append("</Layer>");
+        }
+        sb.append("</Capability></WMS_Capabilities>");
+        final byte[] xml = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        for (GetCapabilitiesRecord rec : new GetCapabilitiesRecord[] {new GetCapabilitiesRecord_1_3_0(new ByteArrayInputStream(xml)),
+                new GetCapabilitiesStreamParser().parse(new ByteArrayInputStream(xml))}) {
+            Assert.assertEquals(depth * 2, rec.getLayers().size());
+
+            GetCapabilitiesWMSLayerRecord deepest = rec.getLayerByName("leaf" + (depth - 1));
+            Assert.assertNotNull(deepest);
+            List<GetCapabilitiesWMSLayerRecord> parents = rec.getParentLayers(deepest);
+            Assert.assertEquals(depth, parents.size());
+            for (int i = 0; i < depth; i++) {
+                Assert.assertEquals("layer" + (depth - 1 - i), parents.get(i).getName());
+            }
+
+            Assert.assertEquals(depth / 2, rec.getLayersByTitle("even").size());
+            Assert.assertEquals(depth, rec.getLayersByTitle("leaf").size());
+
+            // EPSG:0 is declared at the root so everything inherits it, EPSG:30 only applies to the deepest levels
+            Assert.assertEquals(depth * 2, rec.getLayersByCrs("EPSG:0").size());
+            List<GetCapabilitiesWMSLayerRecord> crs30 = rec.getLayersByCrs("epsg:30");
+            Assert.assertEquals((depth - 30) * 2, crs30.size());
+            Assert.assertEquals("layer30", crs30.get(0).getName());
+        }
+    }
 }
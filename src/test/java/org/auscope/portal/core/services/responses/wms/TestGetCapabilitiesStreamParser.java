@@ -0,0 +1,147 @@
+package org.auscope.portal.core.services.responses.wms;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.IOUtils;
+import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.util.ResourceUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for GetCapabilitiesStreamParser
+ */
+public class TestGetCapabilitiesStreamParser extends PortalTestClass {
+
+    private static final String RESPONSES = "org/auscope/portal/core/test/responses/wms/";
+
+    private static final String NESTED_1_3_0 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<WMS_Capabilities version=\"1.3.0\" xmlns=\"http://www.opengis.net/wms\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xmlns:esri_wms=\"http://www.esri.com/wms\">"
+            + "<Service><Name>WMS</Name><AccessConstraints>none</AccessConstraints></Service>"
+            + "<Capability><Request><GetMap><Format>image/png</Format>"
+            + "<DCPType><HTTP><Get><OnlineResource xlink:href=\"http://example.org/wms?\"/></Get></HTTP></DCPType></GetMap></Request>"
+            + "<Layer><Title>Root</Title><CRS>EPSG:4326</CRS><CRS>EPSG:3857</CRS>"
+            + "<EX_GeographicBoundingBox><westBoundLongitude>100</westBoundLongitude><eastBoundLongitude>160</eastBoundLongitude>"
+            + "<southBoundLatitude>-45</southBoundLatitude><northBoundLatitude>-10</northBoundLatitude></EX_GeographicBoundingBox>"
+            + "<Dimension name=\"time\">2000,2001</Dimension>"
+            + "<Style><Name>default</Name><LegendURL><OnlineResource xlink:href=\"http://example.org/legend\"/></LegendURL></Style>"
+            + "<Layer><Name>group</Name><CRS>EPSG:4283</CRS>"
+            + "<Layer queryable=\"1\"><Name>leaf</Name><CRS>EPSG:4326</CRS>"
+            + "<EX_GeographicBoundingBox><westBoundLongitude>110</westBoundLongitude><eastBoundLongitude>120</eastBoundLongitude>"
+            + "<southBoundLatitude>-30</southBoundLatitude><northBoundLatitude>-20</northBoundLatitude></EX_GeographicBoundingBox>"
+            + "</Layer></Layer></Layer></Capability></WMS_Capabilities>";
+
+    private static byte[] loadResponse(String name) throws Exception {
+        try (InputStream is = ResourceUtil.loadResourceAsStream(RESPONSES + name)) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+    private static void assertBboxEquals(String message, CSWGeographicBoundingBox expected, CSWGeographicBoundingBox actual) {
+        if (expected == null) {
+            Assert.assertNull(message, actual);
+            return;
+        }
+        Assert.assertNotNull(message, actual);
+        Assert.assertEquals(message, expected.getWestBoundLongitude(), actual.getWestBoundLongitude(), 0);
+        Assert.assertEquals(message, expected.getEastBoundLongitude(), actual.getEastBoundLongitude(), 0);
+        Assert.assertEquals(message, expected.getSouthBoundLatitude(), actual.getSouthBoundLatitude(), 0);
+        Assert.assertEquals(message, expected.getNorthBoundLatitude(), actual.getNorthBoundLatitude(), 0);
+    }
+
+    private static void assertRecordsEqual(GetCapabilitiesRecord expected, GetCapabilitiesRecord actual) throws Exception {
+        Assert.assertEquals(expected.getVersion(), actual.getVersion());
+        Assert.assertEquals(expected.getServiceType(), actual.getServiceType());
+        Assert.assertEquals(expected.isWMS(), actual.isWMS());
+        Assert.assertEquals(expected.isWFS(), actual.isWFS());
+        Assert.assertEquals(expected.getOrganisation(), actual.getOrganisation());
+        Assert.assertEquals(expected.getMapUrl(), actual.getMapUrl());
+        Assert.assertEquals(expected.getMetadataUrl(), actual.getMetadataUrl());
+        Assert.assertEquals(expected.getApplicationProfile(), actual.getApplicationProfile());
+        Assert.assertArrayEquals(expected.getLayerSRS(), actual.getLayerSRS());
+        Assert.assertArrayEquals(expected.getGetMapFormats(), actual.getGetMapFormats());
+        Assert.assertArrayEquals(expected.getAccessConstraints(), actual.getAccessConstraints());
+
+        List<GetCapabilitiesWMSLayerRecord> expectedLayers = expected.getLayers();
+        List<GetCapabilitiesWMSLayerRecord> actualLayers = actual.getLayers();
+        Assert.assertEquals(expectedLayers.size(), actualLayers.size());
+        for (int i = 0; i < expectedLayers.size(); i++) {
+            GetCapabilitiesWMSLayerRecord e = expectedLayers.get(i);
+            GetCapabilitiesWMSLayerRecord a = actualLayers.get(i);
+            String message = "layer " + i + " " + e;
+            Assert.assertEquals(message, e.getName(), a.getName());
+            Assert.assertEquals(message, e.getTitle(), a.getTitle());
+            Assert.assertEquals(message, e.getAbstract(), a.getAbstract());
+            Assert.assertEquals(message, e.getLegendURL(), a.getLegendURL());
+            Assert.assertEquals(message, e.getMetadataURL(), a.getMetadataURL());
+            Assert.assertArrayEquals(message, e.getTimeExtent(), a.getTimeExtent());
+            Assert.assertArrayEquals(message, e.getChildLayerSRS(), a.getChildLayerSRS());
+            Assert.assertEquals(message, e.toString(), a.toString());
+            assertBboxEquals(message, e.getBoundingBox(), a.getBoundingBox());
+        }
+    }
+
+    /**
+     * Tests the streaming parser (by default without inheritance) produces the same model as the DOM based records
+     */
+    @Test
+    public void testParity() throws Exception {
+        GetCapabilitiesStreamParser parser = new GetCapabilitiesStreamParser();
+        Assert.assertFalse(parser.isInheritLayerProperties());
+
+        for (String name : new String[] {"GetCapabilitiesControllerWMSResponse_1_1_1.xml", "wmsGetCapabilities.xml"}) {
+            byte[] xml = loadResponse(name);
+            assertRecordsEqual(new GetCapabilitiesRecord_1_1_1(new ByteArrayInputStream(xml)),
+                    parser.parse(new ByteArrayInputStream(xml)));
+        }
+
+        for (byte[] xml : new byte[][] {loadResponse("GetCapabilitiesControllerWMSResponse_1_3_0.xml"),
+                NESTED_1_3_0.getBytes(StandardCharsets.UTF_8)}) {
+            assertRecordsEqual(new GetCapabilitiesRecord_1_3_0(new ByteArrayInputStream(xml)),
+                    parser.parse(new ByteArrayInputStream(xml)));
+        }
+    }
+
+    /**
+     * Tests nested layers inherit CRS, bounding box, time and legend from their ancestors
+     */
+    @Test
+    public void testInheritance() throws Exception {
+        GetCapabilitiesRecord record = new GetCapabilitiesStreamParser(true)
+                .parse(new ByteArrayInputStream(NESTED_1_3_0.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals("Esri:ArcGIS Server", record.getApplicationProfile());
+        Assert.assertArrayEquals(new String[] {"none"}, record.getAccessConstraints());
+        Assert.assertArrayEquals(new String[] {"EPSG:4326", "EPSG:3857"}, record.getLayerSRS());
+        Assert.assertEquals(3, record.getLayers().size());
+
+        GetCapabilitiesWMSLayerRecord group = record.getLayers().get(1);
+        Assert.assertEquals("group", group.getName());
+        Assert.assertArrayEquals(new String[] {"EPSG:4326", "EPSG:3857", "EPSG:4283"}, group.getChildLayerSRS());
+        Assert.assertEquals(100, group.getBoundingBox().getWestBoundLongitude(), 0);
+        Assert.assertArrayEquals(new String[] {"2000", "2001"}, group.getTimeExtent());
+        Assert.assertEquals("http://example.org/legend", group.getLegendURL());
+
+        GetCapabilitiesWMSLayerRecord leaf = record.getLayers().get(2);
+        Assert.assertEquals("leaf", leaf.getName());
+        Assert.assertArrayEquals(new String[] {"EPSG:4326", "EPSG:3857", "EPSG:4283"}, leaf.getChildLayerSRS());
+        Assert.assertEquals(110, leaf.getBoundingBox().getWestBoundLongitude(), 0);
+        Assert.assertArrayEquals(new String[] {"2000", "2001"}, leaf.getTimeExtent());
+        Assert.assertEquals("http://example.org/legend", leaf.getLegendURL());
+    }
+
+    /**
+     * Tests responses that aren't WMS capabilities are rejected
+     */
+    @Test(expected = XMLStreamException.class)
+    public void testServiceException() throws Exception {
+        String xml = "<ServiceExceptionReport version=\"1.3.0\"><ServiceException>Bad</ServiceException></ServiceExceptionReport>";
+        new GetCapabilitiesStreamParser().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+}
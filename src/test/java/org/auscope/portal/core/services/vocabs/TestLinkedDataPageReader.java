@@ -0,0 +1,132 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFList;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.auscope.portal.core.services.namespaces.VocabNamespaceContext;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.util.DOMUtil;
+import org.auscope.portal.core.util.ResourceUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * Unit tests for LinkedDataPageReader
+ */
+public class TestLinkedDataPageReader extends PortalTestClass {
+
+    /**
+     * The previous approach of parsing a page into a DOM and reading each rdf:Description into the model separately
+     */
+    private static boolean readPageViaDom(InputStream is, Model model) throws Exception {
+        Document document = DOMUtil.buildDomFromStream(is);
+        VocabNamespaceContext namespaceContext = new VocabNamespaceContext();
+        XPathExpression getDescriptionsExpression = DOMUtil.compileXPathExpr("rdf:RDF/descendant::rdf:Description",
+                namespaceContext);
+        XPathExpression nextPageExpression = DOMUtil.compileXPathExpr("rdf:RDF/descendant::api:Page/xhv:next",
+                namespaceContext);
+
+        boolean moreData = nextPageExpression.evaluate(document, XPathConstants.NODE) != null;
+        NodeList allDescriptions = (NodeList) getDescriptionsExpression.evaluate(document, XPathConstants.NODESET);
+        for (int i = 0; i < allDescriptions.getLength(); i++) {
+            String rdf = DOMUtil.buildStringFromDom(allDescriptions.item(i), true);
+            model.read(new StringReader(rdf), null);
+        }
+        return moreData;
+    }
+
+    private static byte[] loadResource(String resource) throws IOException {
+        try (InputStream is = ResourceUtil.loadResourceAsStream(resource)) {
+            return is.readAllBytes();
+        }
+    }
+
+    private void assertSameAsDom(byte[] page, boolean expectMoreData) throws Exception {
+        Model expected = ModelFactory.createDefaultModel();
+        Assert.assertEquals(expectMoreData, readPageViaDom(new ByteArrayInputStream(page), expected));
+
+        Model actual = ModelFactory.createDefaultModel();
+        Assert.assertEquals(expectMoreData, LinkedDataPageReader.readPage(new ByteArrayInputStream(page), actual));
+
+        Assert.assertTrue(expected.size() > 0);
+        Assert.assertTrue(actual.isIsomorphicWith(expected));
+    }
+
+    /**
+     * The streamed model should match the one built from the DOM for each of our sample pages
+     */
+    @Test
+    public void testIsomorphicWithDom() throws Exception {
+        assertSameAsDom(loadResource("org/auscope/portal/core/test/responses/sissvoc/SISSVoc3_ConceptsRDF_MoreData.xml"), true);
+        assertSameAsDom(loadResource("org/auscope/portal/core/test/responses/sissvoc/SISSVoc3_ConceptsRDF_NoMoreData.xml"), false);
+        assertSameAsDom(loadResource("org/auscope/portal/core/test/responses/vocabulary/commodityConcepts_MoreData.xml"), true);
+        assertSameAsDom(loadResource("org/auscope/portal/core/test/responses/vocabulary/commodityConcepts_NoMoreData.xml"), false);
+        assertSameAsDom(loadResource("org/auscope/portal/core/test/responses/vocabulary/mineStatusConcepts_NoMoreData.xml"), false);
+        assertSameAsDom(loadResource("org/auscope/portal/core/test/responses/vocabulary/timescaleConcepts_MoreData.xml"), true);
+        assertSameAsDom(loadResource("org/auscope/portal/core/test/responses/vocabulary/timescaleConcepts_NoMoreData.xml"), false);
+        assertSameAsDom(loadResource("org/auscope/portal/core/test/responses/vocabulary/orderedCollection_NoMoreData.xml"), false);
+    }
+
+    /**
+     * RDF lists in the vocabulary are kept whilst the api:items list is discarded
+     */
+    @Test
+    public void testVocabularyListsKept() throws Exception {
+        Model model = ModelFactory.createDefaultModel();
+        LinkedDataPageReader.readPage(new ByteArrayInputStream(
+                loadResource("org/auscope/portal/core/test/responses/vocabulary/orderedCollection_NoMoreData.xml")), model);
+
+        String prefix = "http://resource.geosciml.org/classifier/cgi/mine-status/";
+        Resource lifecycle = model.getResource(prefix + "lifecycle");
+        RDFList members = lifecycle.getProperty(model.createProperty(VocabNamespaceContext.SKOS_NAMESPACE, "memberList"))
+                .getObject().as(RDFList.class);
+        List<String> uris = new ArrayList<>();
+        for (RDFNode member : members.asJavaList()) {
+            uris.add(member.asResource().getURI());
+        }
+        Assert.assertEquals(Arrays.asList(prefix + "feasibility", prefix + "construction", prefix + "operating", prefix + "closed"),
+                uris);
+        Assert.assertEquals(2, model.listStatements(null, OWL.unionOf, (RDFNode) null).nextStatement().getObject()
+                .as(RDFList.class).size());
+
+        //4 memberList cells and 2 unionOf cells
+        Assert.assertEquals(6, model.listStatements(null, RDF.first, (RDFNode) null).toList().size());
+        Property items = model.createProperty(VocabNamespaceContext.API_NAMESPACE, "items");
+        Assert.assertFalse(model.listStatements(null, items, (RDFNode) null).hasNext());
+    }
+
+    /**
+     * The page metadata shouldn't end up in the model
+     */
+    @Test
+    public void testPageMetadataDiscarded() throws Exception {
+        Model model = ModelFactory.createDefaultModel();
+        LinkedDataPageReader.readPage(new ByteArrayInputStream(
+                loadResource("org/auscope/portal/core/test/responses/vocabulary/commodityConcepts_MoreData.xml")), model);
+
+        Property next = model.createProperty(VocabNamespaceContext.XHV_NAMESPACE, "next");
+        Assert.assertFalse(model.listSubjectsWithProperty(next).hasNext());
+        Assert.assertFalse(model.listStatements(null, RDF.first, (RDFNode) null).hasNext());
+        Assert.assertEquals(1, model.listSubjects().toList().size());
+        Assert.assertEquals("gold", model.getResource("http://resource.geosciml.org/classifier/cgi/commodity-code/gold")
+                .getProperty(model.createProperty(VocabNamespaceContext.SKOS_NAMESPACE, "prefLabel")).getString());
+    }
+}
@@ -0,0 +1,163 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.SKOS;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for SkosHierarchyIndex
+ */
+public class TestSkosHierarchyIndex extends PortalTestClass {
+
+    private static final String PREFIX = "http://example.org/vocab/";
+
+    private static void addNarrower(Model model, String broader, String narrower) {
+        model.add(model.createResource(PREFIX + broader), SKOS.narrower, model.createResource(PREFIX + narrower));
+        model.add(model.createResource(PREFIX + narrower), SKOS.broader, model.createResource(PREFIX + broader));
+    }
+
+    private static Set<String> uris(String... names) {
+        Set<String> result = new HashSet<>();
+        for (String name : names) {
+            result.add(PREFIX + name);
+        }
+        return result;
+    }
+
+    /**
+     * The previous approach of copying each level of the hierarchy into a new model
+     */
+    private static Set<String> legacyNarrowRecursive(Model model, String uri) {
+        Model filteredModel = ModelFactory.createDefaultModel();
+        filteredModel.add(model.listStatements(model.getResource(uri), SKOS.narrower, (RDFNode) null));
+        Set<String> narrower = new HashSet<>();
+        StmtIterator iterator = filteredModel.listStatements();
+        while (iterator.hasNext()) {
+            Statement statement = iterator.next();
+            narrower.add(statement.getResource().getURI());
+        }
+
+        Set<String> result = new HashSet<>(narrower);
+        for (String narrowUri : narrower) {
+            result.addAll(legacyNarrowRecursive(model, narrowUri));
+        }
+        return result;
+    }
+
+    /**
+     * A concept reachable through several paths is only reported once
+     */
+    @Test
+    public void testDiamond() {
+        Model model = ModelFactory.createDefaultModel();
+        addNarrower(model, "top", "left");
+        addNarrower(model, "top", "right");
+        addNarrower(model, "left", "bottom");
+        addNarrower(model, "right", "bottom");
+        addNarrower(model, "bottom", "leaf");
+
+        SkosHierarchyIndex index = new SkosHierarchyIndex(model);
+        Assert.assertEquals(5, index.size());
+        Assert.assertEquals(uris("left", "right"), index.getNarrower(PREFIX + "top"));
+        Assert.assertEquals(uris("left", "right"), index.getBroader(PREFIX + "bottom"));
+        Assert.assertEquals(uris("bottom", "leaf"), index.getNarrowerClosure(PREFIX + "left"));
+        Assert.assertEquals(uris("left", "right", "bottom", "leaf"), index.getNarrowerClosure(PREFIX + "top"));
+        Assert.assertEquals(uris(), index.getNarrowerClosure(PREFIX + "leaf"));
+        Assert.assertEquals(legacyNarrowRecursive(model, PREFIX + "top"), index.getNarrowerClosure(PREFIX + "top"));
+    }
+
+    /**
+     * Cycles terminate (the old recursion never would) and include the starting concept
+     */
+    @Test
+    public void testCycle() {
+        Model model = ModelFactory.createDefaultModel();
+        addNarrower(model, "a", "b");
+        addNarrower(model, "b", "c");
+        addNarrower(model, "c", "a");
+        addNarrower(model, "c", "d");
+        addNarrower(model, "self", "self");
+
+        SkosHierarchyIndex index = new SkosHierarchyIndex(model);
+        //Memoize part of the cycle first so later walks reuse it
+        Assert.assertEquals(uris("a", "b", "c", "d"), index.getNarrowerClosure(PREFIX + "b"));
+        Assert.assertEquals(uris("a", "b", "c", "d"), index.getNarrowerClosure(PREFIX + "a"));
+        Assert.assertEquals(uris("a", "b", "c", "d"), index.getNarrowerClosure(PREFIX + "c"));
+        Assert.assertEquals(uris(), index.getNarrowerClosure(PREFIX + "d"));
+        Assert.assertEquals(uris("self"), index.getNarrowerClosure(PREFIX + "self"));
+    }
+
+    /**
+     * Asserted narrowerTransitive relationships are indexed separately and unknown concepts have no relations
+     */
+    @Test
+    public void testNarrowerTransitiveAndUnknown() {
+        Model model = ModelFactory.createDefaultModel();
+        addNarrower(model, "a", "b");
+        model.add(model.createResource(PREFIX + "a"), SKOS.narrowerTransitive, model.createResource(PREFIX + "z"));
+        model.add(model.createResource(PREFIX + "a"), SKOS.narrower, "not a resource");
+
+        SkosHierarchyIndex index = new SkosHierarchyIndex(model);
+        Assert.assertEquals(uris("z"), index.getNarrowerTransitive(PREFIX + "a"));
+        Assert.assertEquals(uris("b"), index.getNarrower(PREFIX + "a"));
+        Assert.assertTrue(index.getNarrower(PREFIX + "unknown").isEmpty());
+        Assert.assertTrue(index.getNarrowerClosure(PREFIX + "unknown").isEmpty());
+        Assert.assertTrue(new SkosHierarchyIndex(null).getNarrower(PREFIX + "a").isEmpty());
+    }
+
+    /**
+     * Compares the index with the previous recursive approach over a deep hierarchy with shared subtrees
+     */
+    @Test
+    public void testDeepHierarchyParity() {
+        final int branching = 4;
+        final int depth = 5;
+        Model model = ModelFactory.createDefaultModel();
+        int next = 1;
+        int[] level = new int[] {0};
+        for (int d = 0; d < depth; d++) {
+            int[] children = new int[level.length * branching];
+            int c = 0;
+            for (int parent : level) {
+                for (int b = 0; b < branching; b++) {
+                    children[c] = next++;
+                    addNarrower(model, "c" + parent, "c" + children[c++]);
+                }
+            }
+            //Share a subtree between neighbouring parents
+            for (int i = 1; i < level.length; i++) {
+                addNarrower(model, "c" + level[i], "c" + children[(i - 1) * branching]);
+            }
+            level = children;
+        }
+
+        String[] sample = new String[] {PREFIX + "c0", PREFIX + "c1", PREFIX + "c7", PREFIX + "c30", PREFIX + "c100"};
+
+        List<Set<String>> legacy = new ArrayList<>();
+        for (int i = 0; i < sample.length; i++) {
+            legacy.add(legacyNarrowRecursive(model, sample[i]));
+        }
+
+        SkosHierarchyIndex index = new SkosHierarchyIndex(model);
+        List<Set<String>> indexed = new ArrayList<>();
+        for (int i = 0; i < sample.length; i++) {
+            indexed.add(index.getNarrowerClosure(sample[i]));
+        }
+
+        Assert.assertEquals(next - 1, indexed.get(0).size());
+        for (int i = 0; i < sample.length; i++) {
+            Assert.assertEquals(legacy.get(i), indexed.get(i));
+        }
+    }
+}
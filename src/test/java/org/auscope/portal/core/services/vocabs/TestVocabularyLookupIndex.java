@@ -0,0 +1,202 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.SKOS;
+import org.auscope.portal.core.services.VocabularyCacheService;
+import org.auscope.portal.core.services.VocabularyFilterService;
+import org.auscope.portal.core.test.FakeSISSVocEndpoint;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.util.ResourceUtil;
+import org.auscope.portal.core.util.structure.RDFTriple;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Parity tests for VocabularyLookupIndex against the previous model filtering implementation of VocabularyFilterService
+ */
+public class TestVocabularyLookupIndex extends PortalTestClass {
+
+    private static final String VOCAB_ID = "vocab";
+
+    private VocabularyCacheService mockCacheService = context.mock(VocabularyCacheService.class);
+    private VocabularyFilterService filterService;
+    private Model model;
+
+    @Before
+    public void setUp() throws Exception {
+        model = ModelFactory.createDefaultModel();
+        for (String resource : new String[] {"commodityConcepts_MoreData.xml", "commodityConcepts_NoMoreData.xml",
+                "mineStatusConcepts_NoMoreData.xml", "timescaleConcepts_MoreData.xml", "timescaleConcepts_NoMoreData.xml"}) {
+            try (InputStream is = ResourceUtil.loadResourceAsStream("org/auscope/portal/core/test/responses/vocabulary/" + resource)) {
+                LinkedDataPageReader.readPage(is, model);
+            }
+        }
+
+        final VocabularyLookupIndex index = new VocabularyLookupIndex(model);
+        context.checking(new Expectations() {
+            {
+                allowing(mockCacheService).getLookupIndexById(VOCAB_ID);
+                will(returnValue(index));
+            }
+        });
+        filterService = new VocabularyFilterService(mockCacheService);
+    }
+
+    /**
+     * The previous implementation of getLabeledVocabulary
+     */
+    private static Map<String, String> legacyLabeledVocabulary(Model model) {
+        Map<String, String> result = new HashMap<>();
+        ResIterator iterator = model.listResourcesWithProperty(SKOS.prefLabel);
+        while (iterator.hasNext()) {
+            Resource res = iterator.next();
+            StmtIterator prefLabelIt = res.listProperties(SKOS.prefLabel);
+            while (prefLabelIt.hasNext()) {
+                String urn = res.getURI();
+                String prefLabel = prefLabelIt.next().getString();
+                if (urn != null) {
+                    result.put(urn, prefLabel);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The previous implementation of getVocabularyById(vocabularyId, triples)
+     */
+    private static Map<String, String> legacyFilter(Model model, RDFTriple... triples) {
+        Model filteredModel = ModelFactory.createDefaultModel();
+        for (RDFTriple triple : triples) {
+            Model matches = ModelFactory.createDefaultModel();
+            if (triple.language == null) {
+                matches.add(model.listStatements(triple.subject, triple.predicate, (RDFNode) triple.object));
+            } else {
+                matches.add(model.listStatements(triple.subject, triple.predicate, (String) triple.object, triple.language));
+            }
+            StmtIterator stmtIterator = matches.listStatements();
+            while (stmtIterator.hasNext()) {
+                Statement statement = stmtIterator.next();
+                filteredModel.add(model.listStatements(statement.getSubject(), null, (RDFNode) null));
+            }
+        }
+        return legacyLabeledVocabulary(filteredModel);
+    }
+
+    /**
+     * The previous implementation of getVocabularyById(vocabularyId, prefLabelVal, property)
+     */
+    private static ArrayList<String> legacyPropertyByLabel(Model model, String prefLabelVal, Property property) {
+        ResIterator iterator = model.listResourcesWithProperty(SKOS.prefLabel);
+        ArrayList<String> result = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            Resource res = iterator.next();
+            if (!res.getProperty(SKOS.prefLabel).getString().equals(prefLabelVal)) {
+                continue;
+            }
+            result.add(res.getProperty(property).getString());
+        }
+        return result;
+    }
+
+    @Test
+    public void testUnfilteredParity() {
+        Map<String, String> expected = legacyLabeledVocabulary(model);
+        Assert.assertTrue(expected.size() > 20);
+        Assert.assertEquals(expected, filterService.getVocabularyById(VOCAB_ID));
+    }
+
+    @Test
+    public void testFilteredParity() {
+        Resource gold = model.getResource("http://resource.geosciml.org/classifier/cgi/commodity-code/gold");
+        Property notation = model.createProperty(SKOS.getURI(), "notation");
+        RDFTriple[][] queries = new RDFTriple[][] {
+            {new RDFTriple(null, SKOS.prefLabel, "gold", "en")},
+            {new RDFTriple(null, SKOS.prefLabel, "gold", "en"), new RDFTriple(null, SKOS.prefLabel, "historic", "en")},
+            {new RDFTriple(null, SKOS.prefLabel, "GOLD", "en")},
+            {new RDFTriple(gold, null, (RDFNode) null)},
+            {new RDFTriple(null, SKOS.prefLabel, (RDFNode) null)},
+            {new RDFTriple(null, notation, (RDFNode) null)},
+            {new RDFTriple(null, SKOS.prefLabel, model.createLiteral("gold", "en"))},
+            {new RDFTriple(null, SKOS.prefLabel, model.createLiteral("gold"))},
+        };
+
+        VocabularyLookupIndex index = new VocabularyLookupIndex(model);
+        for (RDFTriple[] query : queries) {
+            //The label chosen for multilingual concepts depended on the iteration order of the filtered copy
+            Map<String, String> expected = legacyFilter(model, query);
+            Map<String, String> actual = filterService.getVocabularyById(VOCAB_ID, query);
+            Assert.assertEquals(expected.keySet(), actual.keySet());
+            for (Map.Entry<String, String> entry : actual.entrySet()) {
+                Assert.assertTrue(index.getPrefLabels(entry.getKey()).containsValue(entry.getValue()));
+            }
+        }
+        Assert.assertEquals(2, filterService.getVocabularyById(VOCAB_ID, queries[1]).size());
+    }
+
+    @Test
+    public void testPropertyByLabelParity() {
+        Assert.assertEquals(legacyPropertyByLabel(model, "gold", SKOS.prefLabel),
+                filterService.getVocabularyById(VOCAB_ID, "gold", SKOS.prefLabel));
+        Assert.assertEquals(1, filterService.getVocabularyById(VOCAB_ID, "gold", SKOS.prefLabel).size());
+        Assert.assertTrue(filterService.getVocabularyById(VOCAB_ID, "Gold", SKOS.prefLabel).isEmpty());
+    }
+
+    /**
+     * Sparse and dense subject sets both answer exactly the subjects of the matching statements
+     */
+    @Test
+    public void testSubjectIdParity() throws Exception {
+        Model large = ModelFactory.createDefaultModel();
+        String page = new FakeSISSVocEndpoint(2000, 0).generatePage(0, 2000);
+        LinkedDataPageReader.readPage(new ByteArrayInputStream(page.getBytes(StandardCharsets.UTF_8)), large);
+        large.add(model);
+
+        VocabularyLookupIndex index = new VocabularyLookupIndex(large);
+        StmtIterator iterator = large.listStatements();
+        try {
+            while (iterator.hasNext()) {
+                Statement statement = iterator.next();
+                BitSet expected = new BitSet();
+                StmtIterator matches = large.listStatements(null, statement.getPredicate(), statement.getObject());
+                while (matches.hasNext()) {
+                    expected.set(index.getSubjectIds(matches.next().getSubject(), null, null).nextSetBit(0));
+                }
+                Assert.assertEquals(expected, index.getSubjectIds(statement.getPredicate(), statement.getObject()));
+            }
+        } finally {
+            iterator.close();
+        }
+        Assert.assertTrue(index.getSubjectIds(SKOS.broader, large.createResource(FakeSISSVocEndpoint.CONCEPT_PREFIX + "nothing"))
+                .isEmpty());
+    }
+
+    @Test
+    public void testLabelLookups() {
+        VocabularyLookupIndex index = new VocabularyLookupIndex(model);
+        String gold = "http://resource.geosciml.org/classifier/cgi/commodity-code/gold";
+        Assert.assertEquals("gold", index.getPrefLabel(gold, "en"));
+        Assert.assertNull(index.getPrefLabel(gold, "fr"));
+        Assert.assertTrue(index.getUrisByLabel(" Gold ").contains(gold));
+        Assert.assertEquals(index.getUrisByLabel("gold"), filterService.getUrisByPrefLabel(VOCAB_ID, "GOLD"));
+        Assert.assertTrue(index.getUrisByLabel("not a label").isEmpty());
+        Assert.assertTrue(new VocabularyLookupIndex(null).getLabeledVocabulary().isEmpty());
+    }
+}
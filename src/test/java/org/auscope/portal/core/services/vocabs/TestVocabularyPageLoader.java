@@ -0,0 +1,91 @@
+package org.auscope.portal.core.services.vocabs;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.VocabularyService;
+import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker;
+import org.auscope.portal.core.services.namespaces.VocabNamespaceContext;
+import org.auscope.portal.core.test.FakeSISSVocEndpoint;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for VocabularyPageLoader running against a fake SISSVoc endpoint
+ */
+public class TestVocabularyPageLoader extends PortalTestClass {
+
+    private static VocabularyService newService(FakeSISSVocEndpoint endpoint, int pageConcurrency) {
+        VocabularyService service = new VocabularyService(endpoint, new VocabularyMethodMaker(), "http://example.org/vocab");
+        service.setPageSize(10);
+        service.setPageConcurrency(pageConcurrency);
+        return service;
+    }
+
+    private static int countPrefLabels(Model model) {
+        Property prefLabel = model.createProperty(VocabNamespaceContext.SKOS_NAMESPACE, "prefLabel");
+        return model.listStatements(null, prefLabel, (RDFNode) null).toList().size();
+    }
+
+    /**
+     * Loading concurrently should produce exactly the same model as loading each page in turn
+     */
+    @Test
+    public void testConcurrentMatchesSequential() throws Exception {
+        FakeSISSVocEndpoint sequentialEndpoint = new FakeSISSVocEndpoint(95, 5);
+        Model sequential = newService(sequentialEndpoint, 1).getModel();
+        Assert.assertEquals(95, countPrefLabels(sequential));
+        Assert.assertEquals(1, sequentialEndpoint.getMaxActive());
+        Assert.assertEquals(10, sequentialEndpoint.getRequestedPages().size());
+
+        FakeSISSVocEndpoint concurrentEndpoint = new FakeSISSVocEndpoint(95, 5);
+        Model concurrent = newService(concurrentEndpoint, 4).getModel();
+        Assert.assertEquals(95, countPrefLabels(concurrent));
+        Assert.assertTrue(concurrent.isIsomorphicWith(sequential));
+        Assert.assertTrue(concurrentEndpoint.getMaxActive() > 1);
+        Assert.assertTrue(concurrentEndpoint.getMaxActive() <= 4);
+
+        //Every page is requested once, with at most a window of speculative requests past the last page
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(concurrentEndpoint.getRequestedPages().contains(i));
+        }
+        Assert.assertTrue(concurrentEndpoint.getRequestedPages().size() <= 10 + 3);
+    }
+
+    /**
+     * The per item concurrency overrides the service's own setting
+     */
+    @Test
+    public void testItemConcurrency() throws Exception {
+        FakeSISSVocEndpoint endpoint = new FakeSISSVocEndpoint(200, 5);
+        VocabularyServiceItem item = new VocabularyServiceItem("id", "title", newService(endpoint, 1), 3);
+        Model model = item.getVocabularyService().getModel(item.getPageConcurrency());
+        Assert.assertEquals(200, countPrefLabels(model));
+        Assert.assertTrue(endpoint.getMaxActive() > 1);
+        Assert.assertTrue(endpoint.getMaxActive() <= 3);
+    }
+
+    /**
+     * Speculative requests beyond the last page are discarded, even if they fail
+     */
+    @Test
+    public void testFailureBeyondLastPage() throws Exception {
+        FakeSISSVocEndpoint endpoint = new FakeSISSVocEndpoint(30, 5);
+        endpoint.addFailingPage(3);
+        endpoint.addFailingPage(4);
+        Model model = newService(endpoint, 4).getModel();
+        Assert.assertEquals(30, countPrefLabels(model));
+    }
+
+    /**
+     * A failed page within the vocabulary fails the whole load
+     */
+    @Test(expected = PortalServiceException.class)
+    public void testFailedPage() throws Exception {
+        FakeSISSVocEndpoint endpoint = new FakeSISSVocEndpoint(95, 5);
+        endpoint.addFailingPage(6);
+        newService(endpoint, 4).getModel();
+    }
+}
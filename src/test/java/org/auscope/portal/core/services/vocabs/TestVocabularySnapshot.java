@@ -0,0 +1,145 @@
+package org.auscope.portal.core.services.vocabs;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.auscope.portal.core.services.namespaces.VocabNamespaceContext;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for VocabularySnapshot
+ */
+public class TestVocabularySnapshot extends PortalTestClass {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Model createVocabulary(String prefix, int concepts) {
+        Model model = ModelFactory.createDefaultModel();
+        model.setNsPrefix("skos", VocabNamespaceContext.SKOS_NAMESPACE);
+        for (int i = 0; i < concepts; i++) {
+            Resource concept = model.createResource(prefix + i);
+            concept.addProperty(model.createProperty(VocabNamespaceContext.SKOS_NAMESPACE, "prefLabel"),
+                    "Concept " + i, "en");
+            if (i > 0) {
+                concept.addProperty(model.createProperty(VocabNamespaceContext.SKOS_NAMESPACE, "broader"),
+                        model.createResource(prefix + ((i - 1) / 10)));
+            }
+        }
+        return model;
+    }
+
+    private static File[] listModelFiles(File directory) {
+        return directory.listFiles((dir, name) -> name.endsWith(".rdft"));
+    }
+
+    /**
+     * Every vocabulary (and its timestamp) survives the round trip
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        Map<String, Model> vocabularies = new HashMap<>();
+        vocabularies.put("commodity", createVocabulary("http://example.org/commodity/", 100));
+        vocabularies.put("timescale", createVocabulary("http://example.org/timescale/", 50));
+        Map<String, Long> timestamps = new HashMap<>();
+        timestamps.put("commodity", 1000L);
+        timestamps.put("timescale", 2000L);
+
+        File directory = folder.newFolder();
+        new VocabularySnapshot(directory).write(vocabularies, timestamps);
+
+        Map<String, Long> readTimestamps = new HashMap<>();
+        Map<String, Model> read = new VocabularySnapshot(directory).read(readTimestamps);
+        Assert.assertEquals(2, read.size());
+        Assert.assertTrue(read.get("commodity").isIsomorphicWith(vocabularies.get("commodity")));
+        Assert.assertTrue(read.get("timescale").isIsomorphicWith(vocabularies.get("timescale")));
+        Assert.assertEquals(VocabNamespaceContext.SKOS_NAMESPACE, read.get("commodity").getNsPrefixURI("skos"));
+        Assert.assertEquals(timestamps, readTimestamps);
+    }
+
+    /**
+     * A vocabulary whose file has been damaged is skipped, the others are still read
+     */
+    @Test
+    public void testCorruptVocabulary() throws Exception {
+        File directory = folder.newFolder();
+        VocabularySnapshot snapshot = new VocabularySnapshot(directory);
+        Map<String, Model> vocabularies = new HashMap<>();
+        vocabularies.put("commodity", createVocabulary("http://example.org/commodity/", 100));
+        vocabularies.put("timescale", createVocabulary("http://example.org/timescale/", 50));
+        snapshot.write(vocabularies, new HashMap<String, Long>());
+
+        //Truncate the timescale vocabulary as if it were only partially written
+        Properties manifest = new Properties();
+        try (InputStream is = Files.newInputStream(new File(directory, VocabularySnapshot.MANIFEST_FILE).toPath())) {
+            manifest.load(is);
+        }
+        String timescaleFile = null;
+        for (int i = 0; i < 2; i++) {
+            if ("timescale".equals(manifest.getProperty(i + ".id"))) {
+                timescaleFile = manifest.getProperty(i + ".file");
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(new File(directory, timescaleFile), "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        Map<String, Model> read = snapshot.read(null);
+        Assert.assertEquals(1, read.size());
+        Assert.assertTrue(read.get("commodity").isIsomorphicWith(vocabularies.get("commodity")));
+
+        //Writing the same vocabularies again repairs the damaged file
+        snapshot.write(vocabularies, new HashMap<String, Long>());
+        read = snapshot.read(null);
+        Assert.assertEquals(2, read.size());
+        Assert.assertTrue(read.get("timescale").isIsomorphicWith(vocabularies.get("timescale")));
+    }
+
+    /**
+     * A missing or unreadable manifest is treated as no snapshot
+     */
+    @Test
+    public void testMissingManifest() throws Exception {
+        File directory = folder.newFolder();
+        Assert.assertTrue(new VocabularySnapshot(directory).read(null).isEmpty());
+        Assert.assertTrue(new VocabularySnapshot(new File(directory, "does-not-exist")).read(null).isEmpty());
+
+        Map<String, Model> vocabularies = new HashMap<>();
+        vocabularies.put("commodity", createVocabulary("http://example.org/commodity/", 10));
+        VocabularySnapshot snapshot = new VocabularySnapshot(directory);
+        snapshot.write(vocabularies, new HashMap<String, Long>());
+        Files.write(new File(directory, VocabularySnapshot.MANIFEST_FILE).toPath(), "count=abc".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(snapshot.read(null).isEmpty());
+    }
+
+    /**
+     * Files from older snapshots are removed once they're no longer referenced
+     */
+    @Test
+    public void testStaleFilesRemoved() throws Exception {
+        File directory = folder.newFolder();
+        VocabularySnapshot snapshot = new VocabularySnapshot(directory);
+        Map<String, Model> vocabularies = new HashMap<>();
+        vocabularies.put("commodity", createVocabulary("http://example.org/commodity/", 10));
+        snapshot.write(vocabularies, new HashMap<String, Long>());
+
+        vocabularies.put("commodity", createVocabulary("http://example.org/commodity/", 20));
+        snapshot.write(vocabularies, new HashMap<String, Long>());
+
+        Assert.assertEquals(1, listModelFiles(directory).length);
+        Assert.assertEquals(20, snapshot.read(null).get("commodity").listSubjects().toList().size());
+    }
+}
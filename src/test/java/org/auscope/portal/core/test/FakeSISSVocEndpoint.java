@@ -0,0 +1,127 @@
+package org.auscope.portal.core.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.auscope.portal.core.server.http.HttpClientInputStream;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+
+/**
+ * Stands in for a SISSVoc (Linked Data API) deployment by generating pages of a vocabulary of numbered concepts in response to the
+ * _page and _pageSize parameters. Concept n is http://example.org/vocab/c{n} with the prefLabel "Concept {n}" and (for n > 0) is
+ * narrower than concept (n - 1) / 10.
+ */
+public class FakeSISSVocEndpoint extends HttpServiceCaller {
+    public static final String CONCEPT_PREFIX = "http://example.org/vocab/c";
+
+    private final int totalConcepts;
+    private final long latencyMs;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final List<Integer> requestedPages = Collections.synchronizedList(new ArrayList<Integer>());
+    private final Set<Integer> failingPages = Collections.synchronizedSet(new HashSet<Integer>());
+
+    public FakeSISSVocEndpoint(int totalConcepts, long latencyMs) {
+        super(1000);
+        this.totalConcepts = totalConcepts;
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * The largest number of requests that were being served at once
+     */
+    public int getMaxActive() {
+        return maxActive.get();
+    }
+
+    /**
+     * Every page number requested, in the order the requests arrived
+     */
+    public List<Integer> getRequestedPages() {
+        synchronized (requestedPages) {
+            return new ArrayList<>(requestedPages);
+        }
+    }
+
+    /**
+     * Requests for the specified page will fail with an IOException
+     */
+    public void addFailingPage(int pageNumber) {
+        failingPages.add(pageNumber);
+    }
+
+    private static String getParam(List<NameValuePair> params, String name, String defaultValue) {
+        for (NameValuePair param : params) {
+            if (param.getName().equals(name)) {
+                return param.getValue();
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Generates the RDF/XML for the specified page
+     */
+    public String generatePage(int pageNumber, int pageSize) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<rdf:RDF xmlns:api=\"http://purl.org/linked-data/api/vocab#\" "
+                + "xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" "
+                + "xmlns:skos=\"http://www.w3.org/2004/02/skos/core#\" "
+                + "xmlns:xhv=\"http://www.w3.org/1999/xhtml/vocab#\">\n");
+        sb.append(String.format("<api:Page rdf:about=\"http://example.org/vocab/concept.rdf?_page=%1$d\">\n", pageNumber));
+        sb.append("<api:items rdf:parseType=\"Collection\">\n");
+        int first = pageNumber * pageSize;
+        int last = Math.min(totalConcepts, first + pageSize);
+        for (int i = first; i < last; i++) {
+            sb.append(String.format("<rdf:Description rdf:about=\"%1$s%2$d\">", CONCEPT_PREFIX, i));
+            sb.append("<rdf:type rdf:resource=\"http://www.w3.org/2004/02/skos/core#Concept\"/>");
+            sb.append(String.format("<skos:prefLabel xml:lang=\"en\">Concept %1$d</skos:prefLabel>", i));
+            if (i > 0) {
+                sb.append(String.format("<skos:broader rdf:resource=\"%1$s%2$d\"/>", CONCEPT_PREFIX, (i - 1) / 10));
+            }
+            sb.append("</rdf:Description>\n");
+        }
+        sb.append("</api:items>\n");
+        if (last < totalConcepts) {
+            sb.append(String.format("<xhv:next rdf:resource=\"http://example.org/vocab/concept.rdf?_page=%1$d\"/>\n",
+                    pageNumber + 1));
+        }
+        sb.append("</api:Page>\n</rdf:RDF>");
+        return sb.toString();
+    }
+
+    @Override
+    public HttpClientInputStream getMethodResponseAsStream(HttpRequestBase method) throws IOException {
+        List<NameValuePair> params = URLEncodedUtils.parse(method.getURI(), StandardCharsets.UTF_8);
+        int pageNumber = Integer.parseInt(getParam(params, "_page", "0"));
+        int pageSize = Integer.parseInt(getParam(params, "_pageSize", "10"));
+
+        requestedPages.add(pageNumber);
+        int current = active.incrementAndGet();
+        maxActive.accumulateAndGet(current, Math::max);
+        try {
+            Thread.sleep(latencyMs);
+            if (failingPages.contains(pageNumber)) {
+                throw new IOException("Page " + pageNumber + " unavailable");
+            }
+
+            byte[] page = generatePage(pageNumber, pageSize).getBytes(StandardCharsets.UTF_8);
+            return new HttpClientInputStream(new ByteArrayInputStream(page), null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+}
@@ -1,12 +1,139 @@
 package org.auscope.portal.core.util;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
 
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.xpath.XPathConstants;
+
+import org.auscope.portal.core.test.PortalTestClass;
 import org.junit.Assert;
 import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+public class TestSLDLoader extends PortalTestClass {
+
+    private static final String TENEMENT_SLD = "org/auscope/portal/core/slds/MineralTenementTest.sld";
+    private static final String MULTI_RULE_SLD = "org/auscope/portal/core/slds/MultiRuleTest.sld";
+
+    private static final String[] FILTERS = {
+        "<ogc:Filter><ogc:PropertyIsEqualTo><ogc:PropertyName>mt:name</ogc:PropertyName><ogc:Literal>A &amp; B</ogc:Literal></ogc:PropertyIsEqualTo></ogc:Filter>",
+        "<ogc:Filter xmlns:ogc=\"http://www.opengis.net/ogc\">\n    <ogc:PropertyIsLike wildCard=\"*\" singleChar=\"#\" escapeChar=\"!\">\n        <ogc:PropertyName>gsml:name</ogc:PropertyName>\n        <ogc:Literal>*gold*</ogc:Literal>\n    </ogc:PropertyIsLike>\n</ogc:Filter>",
+        "<Filter><BBOX><PropertyName>shape</PropertyName><Box><coordinates>110,-45 155,-10</coordinates></Box></BBOX></Filter>"
+    };
+
+    /**
+     * The implementation of loadSLD prior to templates being compiled (for parity testing)
+     */
+    private static String legacyLoadSLD(String filename, Map<String, String> valueMap, boolean preserveformat)
+            throws IOException {
+        InputStream inputStream = ResourceUtil.loadResourceAsStream(filename);
+        String newLine = System.getProperty("line.separator");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuilder result = new StringBuilder();
+        String line; boolean flag = false;
+        while ((line = reader.readLine()) != null) {
+            if(!preserveformat){
+                result.append(line.trim());
+            }else{
+                result.append(flag? newLine: "").append(line);
+                flag = true;
+            }
+        }
+
+        String input = result.toString();
+        if(valueMap != null){
+            Set<String> keys = valueMap.keySet();
+            for(String key:keys){
+                input = input.replace("[" + key + "]", valueMap.get(key));
+            }
+        }
+        return input;
+    }
+
+    /**
+     * The implementation of loadSLDWithFilter prior to templates being parsed once (for parity testing)
+     */
+    private static String legacyLoadSLDWithFilter(String filename, String filterString, String prefix, String namespace)
+            throws Exception {
+        Document doc = DOMUtil.buildDomFromStream(ResourceUtil.loadResourceAsStream(filename), false);
+        if (prefix != null && namespace != null) {
+          doc.getDocumentElement().setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:"+prefix, namespace);
+        }
+
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        Document filter = builder.parse(new ByteArrayInputStream(filterString.getBytes()));
+        Node filterNode = doc.importNode(filter.getDocumentElement(), true);
+        NodeList nodes = (NodeList) DOMUtil.compileXPathExpr("/StyledLayerDescriptor/NamedLayer/UserStyle/FeatureTypeStyle/Rule")
+                .evaluate(doc, XPathConstants.NODESET);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            node.insertBefore(filterNode.cloneNode(true), node.getFirstChild());
+        }
+        doc.normalizeDocument();
+
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        StringWriter writer = new StringWriter();
+        transformer.setOutputProperty(OutputKeys.INDENT, "no");
+        transformer.transform(new DOMSource(doc), new StreamResult(writer));
+
+        BufferedReader reader = new BufferedReader(new StringReader(writer.getBuffer().toString()));
+        StringBuilder result = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+                result.append(line.trim());
+        }
+        return result.toString();
+    }
+
+    private static List<Map<String, String>> getValueMaps() {
+        List<Map<String, String>> maps = new ArrayList<>();
+        maps.add(null);
+        maps.add(new HashMap<String, String>());
+
+        Map<String, String> map = new HashMap<>();
+        map.put("name", "testName");
+        map.put("fillColor", "#FF0000");
+        map.put("strokeWidth", "1");
+        map.put("unused", "unused");
+        maps.add(map);
 
-public class TestSLDLoader{
+        map = new Hashtable<>();
+        map.put("name", "a &amp; b");
+        map.put("title", "$1 \\ [not a placeholder");
+        map.put("color", "#00FF00");
+        map.put("size", "");
+        map.put("labelProperty", "gsml:name");
+        map.put("fillColor", "#123456");
+        map.put("fillOpacity", "0.5");
+        map.put("strokeColor", "#654321");
+        map.put("strokeWidth", "2");
+        maps.add(map);
+        return maps;
+    }
 
     @Test
     public void testLoadTenement() throws IOException {
@@ -17,7 +144,6 @@ public class TestSLDLoader{
         map.put("strokeColor", "testStrokeColor");
         map.put("strokeWidth", "1234");
 
-
         String s = SLDLoader.loadSLD("org/auscope/portal/core/slds/MineralTenementTest.sld", map,true);
 
         Assert.assertTrue(s.contains("<Name>testName</Name>"));
@@ -27,4 +153,73 @@ public class TestSLDLoader{
         Assert.assertTrue(s.contains("<CssParameter name=\"stroke-width\">1234</CssParameter>"));
     }
 
+    /**
+     * Tests placeholders are split out of a template
+     */
+    @Test
+    public void testTemplate() {
+        SLDTemplate template = SLDTemplate.compile("<a>[x]</a><b attr=\"[y]\">[[x]]</b>[]");
+        Assert.assertEquals(Arrays.asList("x", "y", "x", ""), template.getPlaceholders());
+
+        Map<String, String> values = new HashMap<>();
+        values.put("x", "1");
+        Assert.assertEquals("<a>1</a><b attr=\"[y]\">[1]</b>[]", template.apply(values));
+        Assert.assertEquals("<a>[x]</a><b attr=\"[y]\">[[x]]</b>[]", template.apply(null));
+        Assert.assertEquals("no placeholders", SLDTemplate.compile("no placeholders").apply(values));
+    }
+
+    /**
+     * Tests loadSLD produces identical output to the original implementation
+     */
+    @Test
+    public void testLoadSLDParity() throws IOException {
+        for (String sld : new String[] {TENEMENT_SLD, MULTI_RULE_SLD}) {
+            for (Map<String, String> map : getValueMaps()) {
+                for (boolean preserveFormat : new boolean[] {true, false}) {
+                    Assert.assertEquals(sld + " " + map + " " + preserveFormat, legacyLoadSLD(sld, map, preserveFormat),
+                            SLDLoader.loadSLD(sld, map, preserveFormat));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests loadSLDWithFilter produces identical output to the original implementation (and doesn't modify the cached template)
+     */
+    @Test
+    public void testLoadSLDWithFilterParity() throws Exception {
+        for (int repeat = 0; repeat < 2; repeat++) {
+            for (String sld : new String[] {TENEMENT_SLD, MULTI_RULE_SLD}) {
+                for (String filter : FILTERS) {
+                    Assert.assertEquals(legacyLoadSLDWithFilter(sld, filter, null, null),
+                            SLDLoader.loadSLDWithFilter(sld, filter));
+                    Assert.assertEquals(legacyLoadSLDWithFilter(sld, filter, "gsml", "urn:cgi:xmlns:CGI:GeoSciML:2.0"),
+                            SLDLoader.loadSLDWithFilter(sld, filter, "gsml", "urn:cgi:xmlns:CGI:GeoSciML:2.0"));
+                }
+            }
+        }
+
+        String sld = SLDLoader.loadSLDWithFilter(MULTI_RULE_SLD, FILTERS[2]);
+        Assert.assertEquals(2, sld.split("<Filter>", -1).length - 1);
+    }
+
+    /**
+     * Tests the cached templates can be used concurrently
+     */
+    @Test
+    public void testConcurrentFilters() throws Exception {
+        final String expected = legacyLoadSLDWithFilter(MULTI_RULE_SLD, FILTERS[1], null, null);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                results.add(executor.submit(() -> SLDLoader.loadSLDWithFilter(MULTI_RULE_SLD, FILTERS[1])));
+            }
+            for (Future<String> result : results) {
+                Assert.assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -1,5 +1,9 @@
 package org.auscope.portal.core.xslt;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
 import org.auscope.portal.core.services.namespaces.ErmlNamespaceContext;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.util.ResourceUtil;
@@ -35,6 +39,21 @@ public class TestGmlToHtml extends PortalTestClass {
         Assert.assertFalse(response.isEmpty());
     }
 
+    /**
+     * Ensures streaming the transformation to an OutputStream produces identical output
+     */
+    @Test
+    public void testStreamedOutput() throws Exception {
+        final String wfs = ResourceUtil.loadResourceAsString("org/auscope/portal/core/erml/mine/mineGetFeatureResponse.xml");
+        final String baseUrl = "https://portal.org/api";
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        gmlToHtml.convert(new ByteArrayInputStream(wfs.getBytes(StandardCharsets.UTF_8)), new ErmlNamespaceContext(),
+                baseUrl, bos);
+        Assert.assertEquals(gmlToHtml.convert(wfs, new ErmlNamespaceContext(), baseUrl),
+                new String(bos.toByteArray(), StandardCharsets.UTF_8));
+    }
+
     //VT: this code is useful for debugging the XSLT engine that portal uses as results varied when I use xmlspy
     //    @Test
     //    public void test() throws Exception {
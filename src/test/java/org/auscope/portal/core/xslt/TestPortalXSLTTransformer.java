@@ -1,12 +1,16 @@
 package org.auscope.portal.core.xslt;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
@@ -138,4 +142,53 @@ public class TestPortalXSLTTransformer extends PortalTestClass {
         // XPathConstants.NUMBER);
         // Assert.assertEquals(28.0, counter.doubleValue(), 0);
     }
+
+    /**
+     * Ensures that transforming a response feature by feature produces identical output to transforming the entire response
+     */
+    @Test
+    public void testConvertByFeatureMatchesConvert() throws Exception {
+        final String[] corpus = {
+                "org/auscope/portal/core/test/responses/wfs/GetUndefinedFeatureSet.xml",
+                "org/auscope/portal/core/test/responses/wfs/commodityGetFeatureResponse.xml",
+                "org/auscope/portal/core/test/responses/wfs/EmptyWFSResponse.xml",
+                "org/auscope/portal/core/xslt/oilPipeline.xml",
+                "org/auscope/portal/core/erml/mine/mineGetFeatureResponse.xml"};
+        final Properties properties = new Properties();
+        properties.setProperty("serviceUrl", "fake-service-url");
+
+        for (String resource : corpus) {
+            final String testXml = ResourceUtil.loadResourceAsString(resource);
+            String expected = transformer.convert(testXml, properties);
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            transformer.convertByFeature(new ByteArrayInputStream(testXml.getBytes(StandardCharsets.UTF_8)),
+                    properties, bos);
+            Assert.assertEquals(resource, expected, new String(bos.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Tests the insertion point is found at a tag boundary when it would otherwise be ambiguous
+     */
+    @Test
+    public void testFindInsertionPoint() {
+        final String skeleton = "<a><b>x</b></a>";
+        Assert.assertEquals(11, PortalXSLTTransformer.findInsertionPoint(skeleton, "<a><b>x</b><c/></a>"));
+        Assert.assertEquals(3, PortalXSLTTransformer.findInsertionPoint(skeleton, "<a><c/><b>x</b></a>"));
+        Assert.assertEquals(-1, PortalXSLTTransformer.findInsertionPoint(skeleton, "<a><b>y</b><c/></a>"));
+        Assert.assertEquals(-1, PortalXSLTTransformer.findInsertionPoint(skeleton, "<a/>"));
+    }
+
+    /**
+     * Ensures stylesheets whose output can't be split by feature are rejected
+     */
+    @Test(expected = TransformerException.class)
+    public void testConvertByFeatureNotSeparable() throws Exception {
+        final String testXml = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/erml/mine/mineGetFeatureResponse.xml");
+        new PortalXSLTTransformer("/org/auscope/portal/core/xslt/featureCount.xsl").convertByFeature(
+                new ByteArrayInputStream(testXml.getBytes(StandardCharsets.UTF_8)), new Properties(),
+                new ByteArrayOutputStream());
+    }
 }
@@ -0,0 +1,13 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!-- A stylesheet whose output isn't the concatenation of the output for each feature -->
+<xsl:stylesheet version="2.0"
+    xmlns:gml="http://www.opengis.net/gml"
+    xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+    exclude-result-prefixes="gml xsl">
+
+   <xsl:output method="xml" encoding="UTF-8" indent="no"/>
+
+   <xsl:template match="/">
+      <features count="{count(//gml:featureMembers/* | //gml:featureMember/*)}"/>
+   </xsl:template>
+</xsl:stylesheet>